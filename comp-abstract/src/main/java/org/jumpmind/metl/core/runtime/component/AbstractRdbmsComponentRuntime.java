@@ -23,6 +23,8 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -32,6 +34,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.sql.DataSource;
 
@@ -39,6 +42,7 @@ import org.apache.commons.io.IOUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.jumpmind.db.sql.Row;
+import org.jumpmind.db.sql.SqlException;
 import org.jumpmind.db.sql.SqlScriptReader;
 import org.jumpmind.metl.core.runtime.ContentMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
@@ -47,6 +51,8 @@ import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.properties.TypedProperties;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 
 /**
  * This is in the process of moving to comp-abstract
@@ -57,13 +63,19 @@ abstract public class AbstractRdbmsComponentRuntime extends AbstractComponentRun
     
     public final static String QUERY_TIMEOUT = "query.timeout.seconds";
 
+    public final static String FETCH_SIZE = "fetch.size";
+
     protected List<Result> results = new ArrayList<Result>();
 
     protected DataSource dataSource;
     
     protected int queryTimeout = -1;
 
-    protected NamedParameterJdbcTemplate getJdbcTemplate() {
+    protected int fetchSize = -1;
+
+    protected Set<Connection> streamingAutoCommitDisabled = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    protected DataSource getDataSource() {
         if (dataSource == null && getResourceRuntime() == null) {
             throw new RuntimeException("The data source resource has not been configured.  Please configure it.");
         }
@@ -71,11 +83,68 @@ abstract public class AbstractRdbmsComponentRuntime extends AbstractComponentRun
         if (dataSource == null) {
             dataSource = (DataSource) getResourceRuntime().reference();
         }
-        JdbcTemplate template = new JdbcTemplate(dataSource);
+        return dataSource;
+    }
+
+    protected NamedParameterJdbcTemplate getJdbcTemplate() {
+        JdbcTemplate template = new JdbcTemplate(getDataSource());
         template.setQueryTimeout(queryTimeout);
+        if (fetchSize > 0) {
+            template.setFetchSize(fetchSize);
+        }
         return new NamedParameterJdbcTemplate(template);
     }
 
+    /**
+     * Returns a template bound to a single connection that has been set up so
+     * the driver streams result sets instead of reading them into memory.
+     * Statements created by {@link JdbcTemplate} are already forward only and
+     * read only. Postgres only honors the fetch size when auto commit is off
+     * and MySQL only streams when the fetch size is {@link Integer#MIN_VALUE}.
+     * The connection must be handed back to
+     * {@link #closeStreamingConnection(Connection, boolean)}.
+     */
+    protected NamedParameterJdbcTemplate getStreamingJdbcTemplate(Connection connection) {
+        try {
+            String productName = connection.getMetaData().getDatabaseProductName().toLowerCase();
+            JdbcTemplate template = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            template.setQueryTimeout(queryTimeout);
+            if (productName.contains("mysql") || productName.contains("mariadb")) {
+                template.setFetchSize(Integer.MIN_VALUE);
+            } else {
+                if (productName.contains("postgres") && connection.getAutoCommit()) {
+                    connection.setAutoCommit(false);
+                    streamingAutoCommitDisabled.add(connection);
+                }
+                template.setFetchSize(fetchSize);
+            }
+            return new NamedParameterJdbcTemplate(template);
+        } catch (SQLException e) {
+            throw new SqlException(e);
+        }
+    }
+
+    protected Connection openStreamingConnection() {
+        return DataSourceUtils.getConnection(getDataSource());
+    }
+
+    protected void closeStreamingConnection(Connection connection, boolean success) {
+        try {
+            if (streamingAutoCommitDisabled.remove(connection)) {
+                if (success) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new SqlException(e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
     protected List<String> getSqlStatements(boolean required) {
         TypedProperties properties = getTypedProperties();
         String script = properties.get(SQL);
@@ -23,22 +23,24 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.time.DateUtils;
 import org.apache.commons.lang.time.FastDateFormat;
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import groovy.lang.GroovyClassLoader;
+import org.jumpmind.metl.core.model.Component;
 import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
@@ -67,7 +69,17 @@ public class ModelAttributeScriptHelper {
 
     public static final RemoveAttribute REMOVE_ATTRIBUTE = new RemoveAttribute();
 
-    static private ThreadLocal<ScriptEngine> scriptEngine = new ThreadLocal<ScriptEngine>();
+    static final int MAX_COMPILED_EXPRESSIONS = 1000;
+
+    static final int MAX_EXPRESSION_CACHES = 100;
+
+    static private final Map<String, ExpressionCache> expressionCaches = Collections
+            .synchronizedMap(new LruMap<String, ExpressionCache>(MAX_EXPRESSION_CACHES));
+
+    static private final AtomicInteger compiledExpressionCount = new AtomicInteger();
+
+    protected ModelAttributeScriptHelper() {
+    }
 
     public ModelAttributeScriptHelper(Message message, ComponentContext context, ModelAttribute attribute, ModelEntity entity, Model model,
             EntityData data, Object value) {
@@ -465,33 +477,122 @@ public class ModelAttributeScriptHelper {
 
     public static Object eval(Message message, ComponentContext context, ModelAttribute attribute, Object value, Model model, ModelEntity entity,
             EntityData data, String expression) {
-        ScriptEngine engine = scriptEngine.get();
-        if (engine == null) {
-            engine = new GroovyScriptEngineImpl();
-            scriptEngine.set(engine);
-        }
-        engine.put("value", value);
-        engine.put("data", data);
-        engine.put("entity", entity);
-        engine.put("model", model);
-        engine.put("attribute", attribute);
-        engine.put("message", message);
-        engine.put("context", context);
+        try {
+            ModelAttributeScriptHelper helper = compile(getProjectVersionId(context), expression).newInstance();
+            helper.message = message;
+            helper.context = context;
+            helper.attribute = attribute;
+            helper.entity = entity;
+            helper.model = model;
+            helper.data = data;
+            helper.value = value;
+            return helper.eval();
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(getEvalErrorMessage(attribute, value, e.getCause()), e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException(getEvalErrorMessage(attribute, value, e), e);
+        }
+    }
 
+    /**
+     * Compile an expression into a subclass whose eval() returns the value of
+     * the expression. Compiled classes are cached per project version by
+     * expression text and shared by every thread and execution of that
+     * project version. All per call state lives in the instances created
+     * from it.
+     */
+    protected static Constructor<? extends ModelAttributeScriptHelper> compile(String projectVersionId, String expression) {
+        ExpressionCache cache;
+        synchronized (expressionCaches) {
+            cache = expressionCaches.get(projectVersionId);
+            if (cache == null) {
+                cache = new ExpressionCache(MAX_COMPILED_EXPRESSIONS);
+                expressionCaches.put(projectVersionId, cache);
+            }
+        }
+        return cache.get(expression);
+    }
+
+    private static String getProjectVersionId(ComponentContext context) {
+        Component component = context != null && context.getFlowStep() != null ? context.getFlowStep().getComponent() : null;
+        String projectVersionId = component != null ? component.getProjectVersionId() : null;
+        return projectVersionId != null ? projectVersionId : "";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Constructor<? extends ModelAttributeScriptHelper> compileExpression(GroovyClassLoader classLoader, String expression) {
+        String className = "ModelAttributeScript" + compiledExpressionCount.incrementAndGet();
+        String code = String.format("import org.jumpmind.metl.core.runtime.component.ModelAttributeScriptHelper;\n"
+                + "class %s extends ModelAttributeScriptHelper { public Object eval() { return %s \n } }", className, expression);
         try {
-            String importString = "import org.jumpmind.metl.core.runtime.component.ModelAttributeScriptHelper;\n";
-            String code = String.format(
-                    "return new ModelAttributeScriptHelper(message, context, attribute, entity, model, data, value) { public Object eval() { return %s } }.eval()",
-                    expression);
-            return engine.eval(importString + code);
-        } catch (ScriptException e) {
-            throw new RuntimeException("Unable to evaluate groovy script.  Attribute ==> " + attribute.getName() + ".  Value ==> "
-                    + value.toString() + "." + e.getCause().getMessage(), e);
+            Class<?> clazz = classLoader.parseClass(code, className + ".groovy");
+            return (Constructor<? extends ModelAttributeScriptHelper>) clazz.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
         }
     }
 
+    private static String getEvalErrorMessage(ModelAttribute attribute, Object value, Throwable cause) {
+        return "Unable to evaluate groovy script.  Attribute ==> " + (attribute == null ? "null" : attribute.getName()) + ".  Value ==> "
+                + (value == null ? "null" : value.toString()) + "." + cause.getMessage();
+    }
+
     static class RemoveAttribute {
 
     }
 
+    static class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        final int maxSize;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    /*
+     * The least recently used expressions are evicted once the cache is full.
+     * Every expression is compiled by one shared class loader, which keeps a
+     * reference to each class it defines. The loader is replaced after it has
+     * compiled as many classes as the cache holds so evicted classes can be
+     * collected once none of the cached entries use its loader.
+     */
+    static class ExpressionCache {
+
+        final Map<String, Constructor<? extends ModelAttributeScriptHelper>> compiledExpressions;
+
+        final int maxSize;
+
+        GroovyClassLoader classLoader;
+
+        int classLoaderCompileCount;
+
+        ExpressionCache(int maxSize) {
+            this.maxSize = maxSize;
+            this.compiledExpressions = new LruMap<>(maxSize);
+        }
+
+        synchronized Constructor<? extends ModelAttributeScriptHelper> get(String expression) {
+            Constructor<? extends ModelAttributeScriptHelper> constructor = compiledExpressions.get(expression);
+            if (constructor == null) {
+                if (classLoader == null || classLoaderCompileCount >= maxSize) {
+                    classLoader = new GroovyClassLoader(ModelAttributeScriptHelper.class.getClassLoader());
+                    classLoaderCompileCount = 0;
+                }
+                constructor = compileExpression(classLoader, expression);
+                classLoaderCompileCount++;
+                compiledExpressions.put(expression, constructor);
+            }
+            return constructor;
+        }
+    }
+
 }
@@ -20,8 +20,13 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Constructor;
 
 import org.junit.Test;
 
@@ -36,4 +41,42 @@ public class ModelAttributeScriptHelperTest {
         assertNotNull(helper.parsedate("yyyy-MM-dd", "0000-00-01"));
 
     }
+
+    @Test
+    public void testEvalUsesCompiledExpression() {
+        assertEquals("abc!", ModelAttributeScriptHelper.eval(null, null, null, "abc", null, null, null, "value + '!'"));
+        assertEquals("12", ModelAttributeScriptHelper.eval(null, null, null, " 12 ", null, null, null, "trim()"));
+        assertSame(ModelAttributeScriptHelper.compile("", "value + '!'"), ModelAttributeScriptHelper.compile("", "value + '!'"));
+    }
+
+    @Test
+    public void testCompiledExpressionsArePerProjectVersion() {
+        Constructor<?> first = ModelAttributeScriptHelper.compile("version1", "value + '?'");
+        Constructor<?> second = ModelAttributeScriptHelper.compile("version2", "value + '?'");
+        assertNotSame(first, second);
+        assertSame(first, ModelAttributeScriptHelper.compile("version1", "value + '?'"));
+        assertSame(getGroovyClassLoader(first), getGroovyClassLoader(ModelAttributeScriptHelper.compile("version1", "value + '#'")));
+        assertNotSame(getGroovyClassLoader(first), getGroovyClassLoader(second));
+    }
+
+    @Test
+    public void testExpressionCacheEvictsLeastRecentlyUsed() {
+        ModelAttributeScriptHelper.ExpressionCache cache = new ModelAttributeScriptHelper.ExpressionCache(2);
+        Constructor<?> a = cache.get("'a'");
+        Constructor<?> b = cache.get("'b'");
+        assertSame(a, cache.get("'a'"));
+        cache.get("'c'");
+        assertEquals(2, cache.compiledExpressions.size());
+        assertSame(a, cache.get("'a'"));
+        assertNotSame(b, cache.get("'b'"));
+        assertNotSame(getGroovyClassLoader(a), getGroovyClassLoader(cache.get("'b'")));
+    }
+
+    /*
+     * Groovy defines each parsed class in its own inner loader whose parent
+     * is the GroovyClassLoader that compiled it
+     */
+    private ClassLoader getGroovyClassLoader(Constructor<?> constructor) {
+        return constructor.getDeclaringClass().getClassLoader().getParent();
+    }
 }
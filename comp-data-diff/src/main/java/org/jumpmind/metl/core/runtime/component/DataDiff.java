@@ -53,6 +53,8 @@ import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
 import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
 import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
@@ -66,6 +68,14 @@ public class DataDiff extends AbstractComponentRuntime {
     public static String SOURCE_2 = "source.2";
     public static String IN_MEMORY_COMPARE = "in.memory.compare";
 
+    public final static String DIFF_ENGINE = "diff.engine";
+
+    public final static String DIFF_ENGINE_DATABASE = "DATABASE";
+
+    public final static String DIFF_ENGINE_HASH = "HASH";
+
+    public final static String DIFF_MEMORY_BUFFER_SIZE = "diff.memory.buffer.size";
+
     public final static String ENTITY_ADD_ENABLED = "add.enabled";
 
     public final static String ENTITY_CHG_ENABLED = "chg.enabled";
@@ -94,6 +104,8 @@ public class DataDiff extends AbstractComponentRuntime {
 
     Throwable error;
 
+    DataDiffHashEngine hashEngine;
+
     @Override
     public void start() {
         error = null;
@@ -133,11 +145,22 @@ public class DataDiff extends AbstractComponentRuntime {
                 return new Integer(orderValue1).compareTo(new Integer(orderValue2));
             }
         });
+
+        if (DIFF_ENGINE_HASH.equals(properties.get(DIFF_ENGINE, DIFF_ENGINE_DATABASE))) {
+            hashEngine = new DataDiffHashEngine(this, entities, rowsPerMessage,
+                    properties.getLong(DIFF_MEMORY_BUFFER_SIZE, 64) * 1024 * 1024);
+        } else {
+            hashEngine = null;
+        }
     }
 
     @Override
     public void handle(Message message, ISendMessageCallback callback,
             boolean unitOfWorkBoundaryReached) {
+        if (hashEngine != null) {
+            handleWithHashEngine(message, callback, unitOfWorkBoundaryReached);
+            return;
+        }
         createDatabase();
         loadIntoDatabase(message);
         if (unitOfWorkBoundaryReached && error == null) {
@@ -145,6 +168,46 @@ public class DataDiff extends AbstractComponentRuntime {
         }
     }
 
+    protected void handleWithHashEngine(Message message, ISendMessageCallback callback,
+            boolean unitOfWorkBoundaryReached) {
+        if (message instanceof EntityDataMessage) {
+            String originatingStepId = message.getHeader().getOriginatingStepId();
+            int source = -1;
+            if (sourceStep1Id.equals(originatingStepId)) {
+                source = DataDiffHashEngine.ORIGINAL;
+            } else if (sourceStep2Id.equals(originatingStepId)) {
+                source = DataDiffHashEngine.CURRENT;
+            }
+
+            if (source >= 0) {
+                for (EntityData record : ((EntityDataMessage) message).getPayload()) {
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    hashEngine.add(source, record);
+                }
+            }
+        }
+
+        if (unitOfWorkBoundaryReached) {
+            hashEngine.calculateDiff(callback);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (hashEngine != null) {
+            hashEngine.cleanup();
+        }
+        super.stop();
+    }
+
+    @Override
+    public void flowCompletedWithErrors(Throwable myError) {
+        if (hashEngine != null) {
+            hashEngine.cleanup();
+        }
+        super.flowCompletedWithErrors(myError);
+    }
+
     protected void calculateDiff(ISendMessageCallback callback) {
         Map<ModelEntity, String> changeSqls = new HashMap<>();
         Map<ModelEntity, String> addSqls = new HashMap<>();
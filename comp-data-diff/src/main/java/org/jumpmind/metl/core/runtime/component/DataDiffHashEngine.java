@@ -0,0 +1,651 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.ComponentEntitySetting;
+import org.jumpmind.metl.core.model.DataType;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
+import org.jumpmind.metl.core.runtime.MisconfiguredException;
+import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+
+/**
+ * Calculates the differences between two sources by hashing the rows of each
+ * entity on their primary key. Rows are kept in memory until the memory
+ * budget is exceeded. After that both sources are hash partitioned to temp
+ * files on the primary key and each partition is compared on its own. A
+ * partition that is still larger than the memory budget is partitioned again
+ * with a different hash seed before it is compared.
+ */
+class DataDiffHashEngine {
+
+    static final int PARTITION_COUNT = 32;
+
+    /*
+     * Rows that share a primary key always land in the same partition, so
+     * stop splitting a partition after this many levels and compare it as is
+     */
+    static final int MAX_PARTITION_LEVEL = 4;
+
+    static final int ORIGINAL = 0;
+
+    static final int CURRENT = 1;
+
+    static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+
+    DataDiff runtime;
+
+    int rowsPerMessage;
+
+    long memoryBufferSize;
+
+    EntityInfo[] entityInfos;
+
+    Map<String, Integer> entityOrdinals = new HashMap<>();
+
+    Map<Object, EntityData>[][] buffers;
+
+    long bufferSize;
+
+    Partitions partitions;
+
+    int deepestPartitionLevel;
+
+    DataDiffHashEngine(DataDiff runtime, List<ModelEntity> entities, int rowsPerMessage, long memoryBufferSize) {
+        this.runtime = runtime;
+        this.rowsPerMessage = rowsPerMessage;
+        this.memoryBufferSize = memoryBufferSize;
+
+        Component component = runtime.getComponent();
+        entityInfos = new EntityInfo[entities.size()];
+        for (int i = 0; i < entityInfos.length; i++) {
+            entityInfos[i] = new EntityInfo(component, entities.get(i));
+            for (ModelAttribute attribute : entities.get(i).getModelAttributes()) {
+                entityOrdinals.put(attribute.getId(), i);
+            }
+        }
+        buffers = newBuffers();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<Object, EntityData>[][] newBuffers() {
+        Map<Object, EntityData>[][] buffers = new Map[2][entityInfos.length];
+        for (int source = 0; source < 2; source++) {
+            for (int i = 0; i < entityInfos.length; i++) {
+                buffers[source][i] = new LinkedHashMap<>();
+            }
+        }
+        return buffers;
+    }
+
+    void add(int source, EntityData record) {
+        int firstOrdinal = -1;
+        boolean multipleEntities = false;
+        for (String attributeId : record.keySet()) {
+            Integer ordinal = entityOrdinals.get(attributeId);
+            if (ordinal != null) {
+                if (firstOrdinal < 0) {
+                    firstOrdinal = ordinal;
+                } else if (firstOrdinal != ordinal) {
+                    multipleEntities = true;
+                    break;
+                }
+            }
+        }
+
+        if (!multipleEntities) {
+            if (firstOrdinal >= 0) {
+                add(source, firstOrdinal, record);
+            }
+        } else {
+            for (int i = 0; i < entityInfos.length; i++) {
+                EntityData projected = new EntityData();
+                for (ModelAttribute attribute : entityInfos[i].entity.getModelAttributes()) {
+                    if (record.containsKey(attribute.getId())) {
+                        projected.put(attribute.getId(), record.get(attribute.getId()));
+                    }
+                }
+                if (projected.size() > 0) {
+                    add(source, i, projected);
+                }
+            }
+        }
+    }
+
+    protected void add(int source, int ordinal, EntityData record) {
+        Object key = entityInfos[ordinal].key(record);
+        if (partitions != null) {
+            partitions.write(source, ordinal, key, record);
+        } else {
+            buffers[source][ordinal].put(key, record);
+            bufferSize += EntityDataSpillFile.estimateSize(record);
+            if (bufferSize >= memoryBufferSize) {
+                spill();
+            }
+        }
+    }
+
+    /**
+     * Each level mixes in its own seed so rows that shared a partition at one
+     * level are spread out again at the next
+     */
+    static int partition(Object key, int level) {
+        int hash = (key != null ? key.hashCode() : 0) + level * 0x9E3779B9;
+        hash ^= (hash >>> 16);
+        hash *= 0x85EBCA6B;
+        hash ^= (hash >>> 13);
+        hash *= 0xC2B2AE35;
+        hash ^= (hash >>> 16);
+        return hash & (PARTITION_COUNT - 1);
+    }
+
+    protected void spill() {
+        runtime.info("The data diff exceeded its memory buffer.  Partitioning the data to disk");
+        partitions = new Partitions(0);
+        for (int source = 0; source < 2; source++) {
+            for (int i = 0; i < entityInfos.length; i++) {
+                for (Map.Entry<Object, EntityData> entry : buffers[source][i].entrySet()) {
+                    partitions.write(source, i, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        buffers = newBuffers();
+        bufferSize = 0;
+    }
+
+    void calculateDiff(ISendMessageCallback callback) {
+        MessageOutput messageOutput = new MessageOutput(callback);
+        try {
+            if (partitions == null) {
+                diff(buffers, messageOutput);
+            } else {
+                partitions.closeWriters();
+                FileOutput fileOutput = new FileOutput();
+                try {
+                    diff(partitions, fileOutput);
+                    fileOutput.close();
+                    fileOutput.sendTo(messageOutput);
+                } finally {
+                    fileOutput.delete();
+                }
+            }
+        } finally {
+            cleanup();
+        }
+    }
+
+    protected void diff(Partitions partitions, DiffOutput output) {
+        for (int p = 0; p < PARTITION_COUNT; p++) {
+            if (partitions.size(p) > memoryBufferSize && partitions.count(p) > 1
+                    && partitions.level < MAX_PARTITION_LEVEL) {
+                Partitions subPartitions = repartition(partitions, p);
+                try {
+                    diff(subPartitions, output);
+                } finally {
+                    subPartitions.delete();
+                }
+            } else if (partitions.size(p) > 0) {
+                diff(loadPartition(partitions, p), output);
+            }
+            partitions.delete(p);
+        }
+    }
+
+    protected Partitions repartition(Partitions partitions, int p) {
+        Partitions subPartitions = new Partitions(partitions.level + 1);
+        runtime.info("A data diff partition of about %d bytes exceeded the memory buffer.  Partitioning it again",
+                partitions.size(p));
+        deepestPartitionLevel = Math.max(deepestPartitionLevel, subPartitions.level);
+        try {
+            for (int source = 0; source < 2; source++) {
+                EntityDataSpillFile.Reader reader = partitions.openReader(source, p);
+                if (reader != null) {
+                    try {
+                        EntityData record = null;
+                        while ((record = reader.read()) != null) {
+                            int ordinal = reader.getTag();
+                            subPartitions.write(source, ordinal, entityInfos[ordinal].key(record), record);
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                }
+            }
+            subPartitions.closeWriters();
+        } catch (RuntimeException e) {
+            subPartitions.delete();
+            throw e;
+        }
+        return subPartitions;
+    }
+
+    protected Map<Object, EntityData>[][] loadPartition(Partitions partitions, int p) {
+        Map<Object, EntityData>[][] data = newBuffers();
+        for (int source = 0; source < 2; source++) {
+            EntityDataSpillFile.Reader reader = partitions.openReader(source, p);
+            if (reader != null) {
+                try {
+                    EntityData record = null;
+                    while ((record = reader.read()) != null) {
+                        int ordinal = reader.getTag();
+                        data[source][ordinal].put(entityInfos[ordinal].key(record), record);
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Adds and changes are written in entity order and deletes are written in
+     * reverse entity order
+     */
+    protected void diff(Map<Object, EntityData>[][] data, DiffOutput output) {
+        for (int i = 0; i < entityInfos.length; i++) {
+            EntityInfo info = entityInfos[i];
+            Map<Object, EntityData> original = data[ORIGINAL][i];
+            Map<Object, EntityData> current = data[CURRENT][i];
+            if (info.addEnabled) {
+                for (Map.Entry<Object, EntityData> entry : current.entrySet()) {
+                    if (!original.containsKey(entry.getKey())) {
+                        output.write(i, ChangeType.ADD, info.output(entry.getValue(), ChangeType.ADD));
+                    }
+                }
+                output.endOfGroup(i, ChangeType.ADD);
+            }
+
+            if (info.isChgCompared()) {
+                for (Map.Entry<Object, EntityData> entry : current.entrySet()) {
+                    EntityData originalRecord = original.get(entry.getKey());
+                    if (originalRecord != null && info.changed(originalRecord, entry.getValue())) {
+                        output.write(i, ChangeType.CHG, info.output(entry.getValue(), ChangeType.CHG));
+                    }
+                }
+                output.endOfGroup(i, ChangeType.CHG);
+            }
+        }
+
+        for (int i = entityInfos.length - 1; i >= 0; i--) {
+            EntityInfo info = entityInfos[i];
+            if (info.delEnabled) {
+                Map<Object, EntityData> current = data[CURRENT][i];
+                for (Map.Entry<Object, EntityData> entry : data[ORIGINAL][i].entrySet()) {
+                    if (!current.containsKey(entry.getKey())) {
+                        output.write(i, ChangeType.DEL, info.output(entry.getValue(), ChangeType.DEL));
+                    }
+                }
+                output.endOfGroup(i, ChangeType.DEL);
+            }
+        }
+    }
+
+    void cleanup() {
+        try {
+            if (partitions != null) {
+                partitions.delete();
+                partitions = null;
+            }
+        } finally {
+            buffers = newBuffers();
+            bufferSize = 0;
+        }
+    }
+
+    /**
+     * Values are normalized the same way the database staging tables would
+     * have converted them so that, for example, 1.0 and 1.00 compare as equal
+     * numbers.
+     */
+    static Object normalize(ModelAttribute attribute, Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        DataType dataType = attribute.getDataType();
+        if (dataType == null) {
+            return value.toString();
+        } else if (dataType.isNumeric()) {
+            try {
+                BigDecimal number = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString().trim());
+                return number.signum() == 0 ? BigDecimal.ZERO : number.stripTrailingZeros();
+            } catch (NumberFormatException e) {
+                return value.toString();
+            }
+        } else if (dataType.isBoolean()) {
+            if (value instanceof Boolean) {
+                return value;
+            }
+            String text = value.toString().trim();
+            if (text.equalsIgnoreCase("true") || text.equals("1")) {
+                return Boolean.TRUE;
+            } else if (text.equalsIgnoreCase("false") || text.equals("0")) {
+                return Boolean.FALSE;
+            } else {
+                return text;
+            }
+        } else if (dataType.isTimestamp()) {
+            return value instanceof Date ? (Object) ((Date) value).getTime() : value.toString();
+        } else if (dataType.isBinary() && value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        } else {
+            return value.toString();
+        }
+    }
+
+    static boolean getEntitySetting(Component component, ModelEntity entity, String name) {
+        ComponentEntitySetting setting = component.getSingleEntitySetting(entity.getId(), name);
+        return setting != null ? Boolean.parseBoolean(setting.getValue()) : true;
+    }
+
+    static class EntityInfo {
+
+        ModelEntity entity;
+
+        ModelAttribute[] pkAttributes;
+
+        List<ModelAttribute> outputAttributes = new ArrayList<>();
+
+        List<ModelAttribute> compareAttributes = new ArrayList<>();
+
+        boolean addEnabled;
+
+        boolean chgEnabled;
+
+        boolean delEnabled;
+
+        EntityInfo(Component component, ModelEntity entity) {
+            this.entity = entity;
+            List<ModelAttribute> pks = new ArrayList<>();
+            for (ModelAttribute attribute : entity.getModelAttributes()) {
+                ComponentAttributeSetting compareSetting = component.getSingleAttributeSetting(attribute.getId(),
+                        DataDiff.ATTRIBUTE_COMPARE_ENABLED);
+                boolean compare = compareSetting != null ? Boolean.parseBoolean(compareSetting.getValue()) : true;
+                if (attribute.isPk()) {
+                    pks.add(attribute);
+                } else if (compare) {
+                    compareAttributes.add(attribute);
+                }
+                if (compare) {
+                    outputAttributes.add(attribute);
+                }
+            }
+            if (pks.size() == 0) {
+                throw new MisconfiguredException("The %s entity must have a primary key to be compared", entity.getName());
+            }
+            pkAttributes = pks.toArray(new ModelAttribute[pks.size()]);
+            addEnabled = getEntitySetting(component, entity, DataDiff.ENTITY_ADD_ENABLED);
+            chgEnabled = getEntitySetting(component, entity, DataDiff.ENTITY_CHG_ENABLED);
+            delEnabled = getEntitySetting(component, entity, DataDiff.ENTITY_DEL_ENABLED);
+        }
+
+        /**
+         * Changes are only looked for when there are non primary key columns
+         * to compare
+         */
+        boolean isChgCompared() {
+            return chgEnabled && compareAttributes.size() > 0;
+        }
+
+        Object key(EntityData record) {
+            if (pkAttributes.length == 1) {
+                return normalize(pkAttributes[0], record.get(pkAttributes[0].getId()));
+            } else {
+                List<Object> key = new ArrayList<>(pkAttributes.length);
+                for (ModelAttribute attribute : pkAttributes) {
+                    key.add(normalize(attribute, record.get(attribute.getId())));
+                }
+                return key;
+            }
+        }
+
+        boolean changed(EntityData original, EntityData current) {
+            for (ModelAttribute attribute : compareAttributes) {
+                Object originalValue = normalize(attribute, original.get(attribute.getId()));
+                Object currentValue = normalize(attribute, current.get(attribute.getId()));
+                if (!ObjectUtils.equals(originalValue, currentValue)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        EntityData output(EntityData record, ChangeType changeType) {
+            EntityData data = new EntityData();
+            for (ModelAttribute attribute : outputAttributes) {
+                data.put(attribute.getId(), record.get(attribute.getId()));
+            }
+            data.setChangeType(changeType);
+            return data;
+        }
+    }
+
+    /**
+     * One temp file per source and partition. Files are created when the first
+     * record is written to them and the estimated heap size of the records in
+     * each partition is tracked so that it can be split again if needed.
+     */
+    static class Partitions {
+
+        final int level;
+
+        final EntityDataSpillFile[][] files = new EntityDataSpillFile[2][PARTITION_COUNT];
+
+        final EntityDataSpillFile.Writer[][] writers = new EntityDataSpillFile.Writer[2][PARTITION_COUNT];
+
+        final long[] sizes = new long[PARTITION_COUNT];
+
+        final long[] counts = new long[PARTITION_COUNT];
+
+        Partitions(int level) {
+            this.level = level;
+        }
+
+        void write(int source, int ordinal, Object key, EntityData record) {
+            int p = partition(key, level);
+            EntityDataSpillFile.Writer writer = writers[source][p];
+            if (writer == null) {
+                files[source][p] = new EntityDataSpillFile("metl-diff-");
+                writer = files[source][p].openWriter();
+                writers[source][p] = writer;
+            }
+            writer.write(record, ordinal);
+            sizes[p] += EntityDataSpillFile.estimateSize(record);
+            counts[p]++;
+        }
+
+        long size(int p) {
+            return sizes[p];
+        }
+
+        long count(int p) {
+            return counts[p];
+        }
+
+        EntityDataSpillFile.Reader openReader(int source, int p) {
+            return files[source][p] != null ? files[source][p].openReader() : null;
+        }
+
+        void closeWriters() {
+            for (EntityDataSpillFile.Writer[] sourceWriters : writers) {
+                for (int p = 0; p < PARTITION_COUNT; p++) {
+                    if (sourceWriters[p] != null) {
+                        sourceWriters[p].close();
+                        sourceWriters[p] = null;
+                    }
+                }
+            }
+        }
+
+        void delete(int p) {
+            for (int source = 0; source < 2; source++) {
+                if (writers[source][p] != null) {
+                    writers[source][p].close();
+                    writers[source][p] = null;
+                }
+                if (files[source][p] != null) {
+                    files[source][p].delete();
+                    files[source][p] = null;
+                }
+            }
+            sizes[p] = 0;
+            counts[p] = 0;
+        }
+
+        void delete() {
+            for (int p = 0; p < PARTITION_COUNT; p++) {
+                delete(p);
+            }
+        }
+    }
+
+    interface DiffOutput {
+
+        void write(int ordinal, ChangeType changeType, EntityData data);
+
+        void endOfGroup(int ordinal, ChangeType changeType);
+    }
+
+    class MessageOutput implements DiffOutput {
+
+        ISendMessageCallback callback;
+
+        ArrayList<EntityData> dataToSend = new ArrayList<>();
+
+        int count;
+
+        MessageOutput(ISendMessageCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void write(int ordinal, ChangeType changeType, EntityData data) {
+            if (dataToSend.size() >= rowsPerMessage) {
+                callback.sendEntityDataMessage(null, dataToSend);
+                dataToSend = new ArrayList<>();
+            }
+            dataToSend.add(data);
+            count++;
+        }
+
+        @Override
+        public void endOfGroup(int ordinal, ChangeType changeType) {
+            if (dataToSend.size() > 0) {
+                callback.sendEntityDataMessage(null, dataToSend);
+                dataToSend = new ArrayList<>();
+            }
+            runtime.info("Sent %d %s records for %s", count, changeType.name(), entityInfos[ordinal].entity.getName());
+            count = 0;
+        }
+    }
+
+    /**
+     * Collects the differences found in each partition into one file per
+     * entity and change type so they can be sent in the same order as an in
+     * memory diff
+     */
+    class FileOutput implements DiffOutput {
+
+        Map<Integer, EntityDataSpillFile> files = new HashMap<>();
+
+        Map<Integer, EntityDataSpillFile.Writer> writers = new HashMap<>();
+
+        @Override
+        public void write(int ordinal, ChangeType changeType, EntityData data) {
+            int group = ordinal * CHANGE_TYPES.length + changeType.ordinal();
+            EntityDataSpillFile.Writer writer = writers.get(group);
+            if (writer == null) {
+                EntityDataSpillFile file = new EntityDataSpillFile("metl-diff-");
+                files.put(group, file);
+                writer = file.openWriter();
+                writers.put(group, writer);
+            }
+            writer.write(data);
+        }
+
+        @Override
+        public void endOfGroup(int ordinal, ChangeType changeType) {
+        }
+
+        void close() {
+            for (EntityDataSpillFile.Writer writer : writers.values()) {
+                writer.close();
+            }
+            writers.clear();
+        }
+
+        void sendTo(MessageOutput output) {
+            for (int i = 0; i < entityInfos.length; i++) {
+                if (entityInfos[i].addEnabled) {
+                    sendTo(output, i, ChangeType.ADD);
+                }
+                if (entityInfos[i].isChgCompared()) {
+                    sendTo(output, i, ChangeType.CHG);
+                }
+            }
+            for (int i = entityInfos.length - 1; i >= 0; i--) {
+                if (entityInfos[i].delEnabled) {
+                    sendTo(output, i, ChangeType.DEL);
+                }
+            }
+        }
+
+        void sendTo(MessageOutput output, int ordinal, ChangeType changeType) {
+            EntityDataSpillFile file = files.get(ordinal * CHANGE_TYPES.length + changeType.ordinal());
+            if (file != null) {
+                EntityDataSpillFile.Reader reader = file.openReader();
+                try {
+                    EntityData data = null;
+                    while ((data = reader.read()) != null) {
+                        output.write(ordinal, changeType, data);
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            output.endOfGroup(ordinal, changeType);
+        }
+
+        void delete() {
+            close();
+            for (EntityDataSpillFile file : files.values()) {
+                file.delete();
+            }
+            files.clear();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DataDiffHashEngineTest {
+
+    static final int ROWS = 4000;
+
+    DataDiff runtime;
+
+    List<ModelEntity> entities;
+
+    @Before
+    public void setup() throws Exception {
+        ModelEntity person = new ModelEntity("person", "PERSON");
+        ModelAttribute id = new ModelAttribute("person.id", person.getId(), "ID");
+        id.setPk(true);
+        person.addModelAttribute(id);
+        person.addModelAttribute(new ModelAttribute("person.name", person.getId(), "NAME"));
+        person.addModelAttribute(new ModelAttribute("person.city", person.getId(), "CITY"));
+        Model model = new Model();
+        model.getModelEntities().add(person);
+        entities = model.getModelEntities();
+
+        Flow flow = TestUtils.createFlow("TestFlow", null);
+        Component component = TestUtils.createComponent("DataDiff", false, null, model, null,
+                new ArrayList<>(), new ArrayList<>());
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        flow.getFlowSteps().add(step);
+
+        runtime = new DataDiff();
+        runtime.setContext(new ComponentContext(null, step, flow, new ExecutionTrackerNoOp(), null, null, null));
+    }
+
+    @Test
+    public void testInMemory() {
+        DataDiffHashEngine engine = new DataDiffHashEngine(runtime, entities, 100, Long.MAX_VALUE);
+        Map<ChangeType, Map<Object, EntityData>> diff = diff(engine);
+        assertNull(engine.partitions);
+        assertDiff(diff);
+    }
+
+    @Test
+    public void testSpillToPartitions() {
+        DataDiffHashEngine engine = new DataDiffHashEngine(runtime, entities, 100, 512 * 1024);
+        Map<ChangeType, Map<Object, EntityData>> diff = diff(engine);
+        assertEquals(0, engine.deepestPartitionLevel);
+        assertDiff(diff);
+    }
+
+    @Test
+    public void testSpillAndRepartition() {
+        DataDiffHashEngine engine = new DataDiffHashEngine(runtime, entities, 100, 32 * 1024);
+        Map<ChangeType, Map<Object, EntityData>> diff = diff(engine);
+        assertTrue(engine.deepestPartitionLevel > 0);
+        assertTrue(engine.deepestPartitionLevel <= DataDiffHashEngine.MAX_PARTITION_LEVEL);
+        assertNull(engine.partitions);
+        assertDiff(diff);
+    }
+
+    @Test
+    public void testSpillWithTinyBudget() {
+        DataDiffHashEngine engine = new DataDiffHashEngine(runtime, entities, 100, 1);
+        Map<ChangeType, Map<Object, EntityData>> diff = diff(engine);
+        assertTrue(engine.deepestPartitionLevel > 0);
+        assertTrue(engine.deepestPartitionLevel <= DataDiffHashEngine.MAX_PARTITION_LEVEL);
+        assertDiff(diff);
+    }
+
+    @Test
+    public void testPartitionSeedsDiffer() {
+        int[] counts = new int[DataDiffHashEngine.PARTITION_COUNT];
+        for (int i = 0; i < 100000; i++) {
+            if (DataDiffHashEngine.partition(i, 0) == 0) {
+                counts[DataDiffHashEngine.partition(i, 1)]++;
+            }
+        }
+        for (int count : counts) {
+            assertTrue(count > 0);
+        }
+    }
+
+    /**
+     * Rows 0 to ROWS - 1 are in the original. In the current every fourth row
+     * is missing, every fourth row has a new name and ROWS / 4 rows are added.
+     */
+    protected Map<ChangeType, Map<Object, EntityData>> diff(DataDiffHashEngine engine) {
+        for (int i = 0; i < ROWS; i++) {
+            engine.add(DataDiffHashEngine.ORIGINAL, row(i, "name " + i));
+        }
+        for (int i = 0; i < ROWS + ROWS / 4; i++) {
+            if (i % 4 == 1 && i < ROWS) {
+                continue;
+            }
+            engine.add(DataDiffHashEngine.CURRENT, row(i, i % 4 == 2 && i < ROWS ? "changed " + i : "name " + i));
+        }
+
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<>();
+        engine.calculateDiff(callback);
+
+        Map<ChangeType, Map<Object, EntityData>> diff = new TreeMap<>();
+        ChangeType lastChangeType = null;
+        for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+            assertTrue(payload.size() <= 100);
+            for (EntityData data : payload) {
+                if (lastChangeType != null) {
+                    assertTrue(lastChangeType.ordinal() <= data.getChangeType().ordinal());
+                }
+                lastChangeType = data.getChangeType();
+                Map<Object, EntityData> rows = diff.get(data.getChangeType());
+                if (rows == null) {
+                    rows = new TreeMap<>();
+                    diff.put(data.getChangeType(), rows);
+                }
+                assertNull(rows.put(data.get("person.id"), data));
+            }
+        }
+        return diff;
+    }
+
+    protected void assertDiff(Map<ChangeType, Map<Object, EntityData>> diff) {
+        Map<Object, EntityData> adds = diff.get(ChangeType.ADD);
+        assertEquals(ROWS / 4, adds.size());
+        for (int i = ROWS; i < ROWS + ROWS / 4; i++) {
+            assertEquals("name " + i, adds.get(i).get("person.name"));
+        }
+
+        Map<Object, EntityData> changes = diff.get(ChangeType.CHG);
+        assertEquals(ROWS / 4, changes.size());
+        for (int i = 2; i < ROWS; i += 4) {
+            assertEquals("changed " + i, changes.get(i).get("person.name"));
+        }
+
+        Map<Object, EntityData> deletes = diff.get(ChangeType.DEL);
+        assertEquals(ROWS / 4, deletes.size());
+        for (int i = 1; i < ROWS; i += 4) {
+            assertEquals("name " + i, deletes.get(i).get("person.name"));
+        }
+    }
+
+    protected EntityData row(int id, String name) {
+        EntityData data = new EntityData();
+        data.put("person.id", id);
+        data.put("person.name", name);
+        data.put("person.city", "city " + (id % 10));
+        return data;
+    }
+
+}
@@ -1,5 +1,7 @@
 package org.jumpmind.metl.core.runtime.component;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
@@ -10,12 +12,26 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.apache.commons.io.IOUtils;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.DateUtil;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.ComponentAttributeSetting;
@@ -25,7 +41,9 @@ import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.runtime.resource.LocalFileDirectory;
 import org.jumpmind.properties.TypedProperties;
+import org.xml.sax.SAXException;
 
 import net.sf.saxon.value.DecimalValue;
 
@@ -42,12 +60,16 @@ public class ExcelFileReader extends AbstractFileReader {
     public static final String SETTING_EXCEL_MAPPING = "excel.mapping";
 
     public final static String IGNORE_ERROR = "ignore.error";
+
+    public static final String SETTING_STREAMING_READ = "streaming.read";
     
     int rowsPerMessage = 1000;
 
     int headerLinesToSkip = 0;
 
     boolean ignoreError = false;
+
+    boolean streamingRead = false;
     
     Model outputModel;
 
@@ -63,6 +85,7 @@ public class ExcelFileReader extends AbstractFileReader {
         rowsPerMessage = properties.getInt(SETTING_ROWS_PER_MESSAGE, rowsPerMessage);
         headerLinesToSkip = properties.getInt(SETTING_HEADER_LINES_TO_SKIP, headerLinesToSkip);
         ignoreError = properties.is(IGNORE_ERROR, false);
+        streamingRead = properties.is(SETTING_STREAMING_READ, streamingRead);
         convertAttributeSettingsToMaps();
     }
 
@@ -127,9 +150,19 @@ public class ExcelFileReader extends AbstractFileReader {
             try {
                 info("Reading file: %s", file);
                 String filePath = resolveParamsAndHeaders(file, inputMessage);
-                inStream = directory.getInputStream(filePath, mustExist);
-                if (inStream != null) {
-                    readWorkbook(headers, inStream, callback);
+                File localFile = null;
+                if (streamingRead && directory instanceof LocalFileDirectory) {
+                    localFile = ((LocalFileDirectory) directory).getFile(filePath);
+                }
+                if (localFile != null && localFile.isFile()) {
+                    readWorkbookStreaming(headers, localFile, callback);
+                } else {
+                    inStream = directory.getInputStream(filePath, mustExist);
+                    if (inStream != null && streamingRead) {
+                        readWorkbookStreaming(headers, inStream, callback);
+                    } else if (inStream != null) {
+                        readWorkbook(headers, inStream, callback);
+                    }
                 }
             } catch (IOException e) {
                 throw new IoException("Error reading from file " + e.getMessage());
@@ -240,4 +273,241 @@ public class ExcelFileReader extends AbstractFileReader {
             IOUtils.closeQuietly(wb);
         }
     }
+
+    private void readWorkbookStreaming(Map<String, Serializable> headers, InputStream inStream,
+            ISendMessageCallback callback) throws IOException {
+        File tempFile = File.createTempFile("metl-excel", ".xlsx");
+        try {
+            FileOutputStream outStream = new FileOutputStream(tempFile);
+            try {
+                IOUtils.copy(inStream, outStream);
+            } finally {
+                IOUtils.closeQuietly(outStream);
+            }
+            readWorkbookStreaming(headers, tempFile, callback);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Reads the worksheets with a pull parser instead of loading the workbook
+     * into memory. Only the shared strings and the styles are held in memory.
+     * Rows are converted the same way {@link #readWorkbook} converts them.
+     */
+    private void readWorkbookStreaming(Map<String, Serializable> headers, File file,
+            ISendMessageCallback callback) throws IOException {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+            XSSFReader reader = new XSSFReader(pkg);
+            WorksheetReader worksheetReader = new WorksheetReader(headers, callback,
+                    new ReadOnlySharedStringsTable(pkg), reader.getStylesTable(), isDate1904(reader));
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                InputStream sheetStream = sheets.next();
+                try {
+                    if (worsheetsToRead.contains(sheets.getSheetName())) {
+                        worksheetReader.read(sheetStream, worksheetColumnListMap.get(sheets.getSheetName()));
+                    }
+                } finally {
+                    IOUtils.closeQuietly(sheetStream);
+                }
+            }
+            worksheetReader.sendLeftovers();
+        } catch (OpenXML4JException | SAXException | XMLStreamException e) {
+            throw new IoException(e);
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+    }
+
+    private boolean isDate1904(XSSFReader reader) throws IOException, InvalidFormatException, XMLStreamException {
+        InputStream workbookStream = reader.getWorkbookData();
+        XMLStreamReader parser = XMLInputFactory.newInstance().createXMLStreamReader(workbookStream);
+        try {
+            while (parser.hasNext()) {
+                if (parser.next() == XMLStreamConstants.START_ELEMENT) {
+                    if (parser.getLocalName().equals("workbookPr")) {
+                        String date1904 = parser.getAttributeValue(null, "date1904");
+                        return "1".equals(date1904) || "true".equalsIgnoreCase(date1904);
+                    } else if (parser.getLocalName().equals("sheets")) {
+                        break;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            parser.close();
+            IOUtils.closeQuietly(workbookStream);
+        }
+    }
+
+    class WorksheetReader {
+
+        Map<String, Serializable> headers;
+
+        ISendMessageCallback callback;
+
+        ReadOnlySharedStringsTable sharedStrings;
+
+        StylesTable styles;
+
+        boolean date1904;
+
+        Map<Integer, Boolean> dateFormattedStyles = new HashMap<Integer, Boolean>();
+
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+        int linesInMessage = 0;
+
+        ArrayList<EntityData> outboundPayload = new ArrayList<EntityData>();
+
+        int currentFileLinesRead = 1;
+
+        WorksheetReader(Map<String, Serializable> headers, ISendMessageCallback callback,
+                ReadOnlySharedStringsTable sharedStrings, StylesTable styles, boolean date1904) {
+            this.headers = headers;
+            this.callback = callback;
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.date1904 = date1904;
+        }
+
+        void read(InputStream sheetStream, String[] worksheetColumnArray) throws XMLStreamException {
+            XMLStreamReader parser = inputFactory.createXMLStreamReader(sheetStream);
+            try {
+                EntityData data = null;
+                int rowIndex = -1;
+                int columnIndex = -1;
+                String type = null;
+                String style = null;
+                String value = null;
+                String formula = null;
+                StringBuilder inlineString = null;
+                boolean inPhonetic = false;
+                while (parser.hasNext()) {
+                    int eventType = parser.next();
+                    if (eventType == XMLStreamConstants.START_ELEMENT) {
+                        String name = parser.getLocalName();
+                        if (name.equals("row")) {
+                            String reference = parser.getAttributeValue(null, "r");
+                            rowIndex = reference != null ? Integer.parseInt(reference) - 1 : rowIndex + 1;
+                            columnIndex = -1;
+                            data = new EntityData();
+                        } else if (name.equals("c")) {
+                            String reference = parser.getAttributeValue(null, "r");
+                            columnIndex = reference != null ? new CellReference(reference).getCol() : columnIndex + 1;
+                            type = parser.getAttributeValue(null, "t");
+                            style = parser.getAttributeValue(null, "s");
+                            value = null;
+                            formula = null;
+                            inlineString = null;
+                        } else if (name.equals("v")) {
+                            value = parser.getElementText();
+                        } else if (name.equals("f")) {
+                            formula = parser.getElementText();
+                        } else if (name.equals("is")) {
+                            inlineString = new StringBuilder();
+                        } else if (name.equals("rPh")) {
+                            inPhonetic = true;
+                        } else if (name.equals("t") && inlineString != null && !inPhonetic) {
+                            inlineString.append(parser.getElementText());
+                        }
+                    } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                        String name = parser.getLocalName();
+                        if (name.equals("c")) {
+                            if (columnIndex < worksheetColumnArray.length && worksheetColumnArray[columnIndex] != null) {
+                                if (inlineString != null) {
+                                    value = inlineString.toString();
+                                }
+                                data.put(worksheetColumnArray[columnIndex],
+                                        getCellValue(type, style, value, formula, rowIndex, columnIndex));
+                            }
+                        } else if (name.equals("rPh")) {
+                            inPhonetic = false;
+                        } else if (name.equals("row")) {
+                            addRow(data);
+                        }
+                    }
+                }
+            } finally {
+                parser.close();
+            }
+        }
+
+        Object getCellValue(String type, String style, String value, String formula, int rowIndex, int columnIndex) {
+            if (formula != null) {
+                // Mirror Cell.getRichStringCellValue(), which only works for
+                // formulas that evaluate to a string
+                if ("str".equals(type)) {
+                    return value != null ? value : "";
+                } else if (ignoreError) {
+                    return null;
+                } else {
+                    throw new UnsupportedOperationException(
+                            "Error in cell formula: " + formula + " .  Invalid cell (RowIdx:ColIdx): " 
+                                    + (rowIndex+1) + ":" + (columnIndex+1));
+                }
+            } else if ("e".equals(type)) {
+                if (ignoreError) {
+                    return null;
+                } else {
+                    throw new UnsupportedOperationException(
+                            "Error in cell.  (RowIdx:ColIdx): " 
+                                    + (rowIndex+1) + ":" + (columnIndex+1));
+                }
+            } else if (value == null) {
+                return null;
+            } else if ("s".equals(type)) {
+                return sharedStrings.getEntryAt(Integer.parseInt(value));
+            } else if ("inlineStr".equals(type) || "str".equals(type)) {
+                return value;
+            } else if ("b".equals(type)) {
+                return "1".equals(value) || "true".equalsIgnoreCase(value);
+            } else {
+                double number = Double.parseDouble(value);
+                if (DateUtil.isValidExcelDate(number) && isDateFormatted(style != null ? Integer.parseInt(style) : 0)) {
+                    return DateUtil.getJavaDate(number, date1904);
+                } else {
+                    return number;
+                }
+            }
+        }
+
+        boolean isDateFormatted(int styleIndex) {
+            Boolean dateFormatted = dateFormattedStyles.get(styleIndex);
+            if (dateFormatted == null) {
+                XSSFCellStyle cellStyle = styles != null && styleIndex < styles.getNumCellStyles() ? styles.getStyleAt(styleIndex) : null;
+                dateFormatted = cellStyle != null
+                        && DateUtil.isADateFormat(cellStyle.getDataFormat(), cellStyle.getDataFormatString());
+                dateFormattedStyles.put(styleIndex, dateFormatted);
+            }
+            return dateFormatted;
+        }
+
+        void addRow(EntityData data) {
+            if (currentFileLinesRead > headerLinesToSkip) {
+                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                if (!data.isEmpty()) {
+                    outboundPayload.add(data);
+                    linesInMessage++;
+                }
+                if (linesInMessage == rowsPerMessage) {
+                    callback.sendEntityDataMessage(headers, outboundPayload);
+                    linesInMessage = 0;
+                    outboundPayload = new ArrayList<EntityData>();
+                }
+            }
+            currentFileLinesRead++;
+        }
+
+        void sendLeftovers() {
+            if (outboundPayload.size() > 0) {
+                callback.sendEntityDataMessage(headers, outboundPayload);
+            }
+        }
+    }
 }
@@ -18,6 +18,7 @@ import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.WorkbookUtil;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.ComponentAttributeSetting;
@@ -50,12 +51,18 @@ public class ExcelFileWriter extends AbstractFileWriter {
     public final static String EXCEL_WRITER_ATTRIBUTE_ORDINAL = "excel.writer.attribute.ordinal";
 
     public final static String EXCEL_OUTPUT_FORMAT = "Microsoft Excel XML (.xlsx)";
+
+    public final static String SETTING_STREAMING_WRITE = "streaming.write";
+
+    public final static int STREAMING_ROW_ACCESS_WINDOW = 100;
     
     boolean emptyFile;
 
     boolean inputDataReceived = false;
     
     boolean includeHeader;
+
+    boolean streamingWrite;
             
     String excelOutputType = EXCEL_OUTPUT_TYPE;
     
@@ -81,6 +88,7 @@ public class ExcelFileWriter extends AbstractFileWriter {
         TypedProperties properties = getTypedProperties();
         emptyFile = properties.is(SETTING_EMPTY_FILE, false);
         includeHeader = properties.is(SETTING_INCLUDE_HEADER, false);
+        streamingWrite = properties.is(SETTING_STREAMING_WRITE, false);
         excelOutputType = properties.get(EXCEL_OUTPUT_TYPE, excelOutputType);
         excelSheetName = properties.get(SETTING_SHEET_NAME, excelSheetName);
         String enteredFileName = properties.get(SETTING_RELATIVE_PATH);
@@ -99,8 +107,16 @@ public class ExcelFileWriter extends AbstractFileWriter {
         	relativePathAndFile = properties.get(SETTING_RELATIVE_PATH);
         }
         
+        createWorkbook();
+        convertAttributeSettingsToAttributeFormat();
+    }
+
+    private void createWorkbook() {
         if ("Microsoft Excel (.xls)".equals(excelOutputType)) {
         	wb = new HSSFWorkbook();
+        } else if (streamingWrite) {
+            // only keep a window of rows in memory, the rest are flushed to a temporary file
+            wb = new SXSSFWorkbook(STREAMING_ROW_ACCESS_WINDOW);
         } else {
             wb = new XSSFWorkbook();
         }
@@ -108,7 +124,6 @@ public class ExcelFileWriter extends AbstractFileWriter {
         // fix user entered sheet (tab) name if it does not meet the Excel requirements
         String safeName = WorkbookUtil.createSafeSheetName(excelSheetName);
         sheet = wb.createSheet(safeName);
-        convertAttributeSettingsToAttributeFormat();
     }
 
     @Override
@@ -151,7 +166,7 @@ public class ExcelFileWriter extends AbstractFileWriter {
             
             // if we need to include the header add it to the output and update the boolean to not output again
             if (includeHeader) {
-            	Row row = sheet.createRow((short)rowNbr);
+            	Row row = sheet.createRow(rowNbr);
         		for (AttributeFormat attr : attributes) {
                     if (attr.getAttribute() != null) {
                 		Cell cell = row.createCell(colNbr);
@@ -170,7 +185,7 @@ public class ExcelFileWriter extends AbstractFileWriter {
             if (inputMessage instanceof EntityDataMessage) {
                 ArrayList<EntityData> inputRows = ((EntityDataMessage)inputMessage).getPayload();
                 for (EntityData inputRow : inputRows) {
-                	Row row = sheet.createRow((short)rowNbr);
+                	Row row = sheet.createRow(rowNbr);
                 	for (AttributeFormat attribute : attributes) {
                         Object object = inputRow.get(attribute.getAttributeId());
                     	Cell cell = row.createCell(colNbr);
@@ -186,15 +201,17 @@ public class ExcelFileWriter extends AbstractFileWriter {
     	try {
 	        if ((inputMessage instanceof ControlMessage || unitOfWorkBoundaryReached) && callback != null) {
 				if (fileOut != null) {
-					wb.write(fileOut);
+					writeWorkbook();
+					closeFile();
 				}
 	            closeDirectory();
 	            ArrayList<String> results = new ArrayList<>(1);
 	            results.add("{\"status\":\"success\"}");
 	            callback.sendTextMessage(null, results);
-	        } else if (inputMessage instanceof ContentMessage) {
+	        } else if (inputMessage instanceof ContentMessage && !(wb instanceof SXSSFWorkbook)) {
+	            // a streaming workbook can only be written once, so it is written at the end of the unit of work
 				if (fileOut != null) {
-					wb.write(fileOut);
+					writeWorkbook();
 				}
 	            closeFile();
 	        }
@@ -203,6 +220,26 @@ public class ExcelFileWriter extends AbstractFileWriter {
 		}
     }
     
+    /**
+     * A streaming workbook can only be written once, so it is replaced with a
+     * new one after it has been written.
+     */
+    private void writeWorkbook() throws IOException {
+        wb.write(fileOut);
+        if (wb instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) wb).dispose();
+            createWorkbook();
+            rowNbr = 0;
+            includeHeader = getTypedProperties().is(SETTING_INCLUDE_HEADER, false);
+        }
+    }
+
+    private void disposeWorkbook() {
+        if (wb instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) wb).dispose();
+        }
+    }
+
     private void closeDirectory() {
         if (directory != null) {
             directory.close();
@@ -214,11 +251,13 @@ public class ExcelFileWriter extends AbstractFileWriter {
     public void stop() {
         super.stop();
         closeDirectory();
+        disposeWorkbook();
     }
 
     @Override
     public void flowCompletedWithErrors(Throwable myError) {
         closeFile();
+        disposeWorkbook();
         super.flowCompletedWithErrors(myError);
     }
 
@@ -0,0 +1,240 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Resource;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.runtime.resource.LocalFile;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.jumpmind.properties.TypedProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExcelFileReaderTest {
+
+    static final String FILE_PATH = "build/files/excel-reader";
+
+    static final String FILE_NAME = "test_reader.xlsx";
+
+    static final Date DATE = new Date(1262322000000L);
+
+    Resource resource;
+
+    Map<String, IResourceRuntime> deployedResources;
+
+    Model model;
+
+    @Before
+    public void setup() throws Exception {
+        FileUtils.deleteQuietly(new File(FILE_PATH));
+        new File(FILE_PATH).mkdirs();
+        resource = new Resource("files");
+        TypedProperties properties = new TypedProperties();
+        properties.put(LocalFile.LOCALFILE_PATH, FILE_PATH);
+        IResourceRuntime resourceRuntime = new LocalFile();
+        resourceRuntime.start(resource, properties);
+        deployedResources = new HashMap<>();
+        deployedResources.put(resource.getId(), resourceRuntime);
+
+        ModelEntity entity = new ModelEntity("entity", "ENTITY");
+        for (String id : new String[] { "text", "number", "date", "flag", "formula", "blank" }) {
+            entity.addModelAttribute(new ModelAttribute(id, entity.getId(), id.toUpperCase()));
+        }
+        model = new Model();
+        model.getModelEntities().add(entity);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (IResourceRuntime resourceRuntime : deployedResources.values()) {
+            resourceRuntime.stop();
+        }
+        FileUtils.deleteQuietly(new File(FILE_PATH));
+    }
+
+    @Test
+    public void testStreamingReadMatchesWorkbookRead() throws Exception {
+        writeWorkbook(false);
+        List<ArrayList<EntityData>> expected = read(false, false, 2);
+        List<ArrayList<EntityData>> actual = read(true, false, 2);
+        assertEquals(3, expected.size());
+        assertEquals(2, expected.get(0).size());
+        assertEquals(2, expected.get(1).size());
+        assertEquals(1, expected.get(2).size());
+        assertEquals(richTextAsString(expected), richTextAsString(actual));
+
+        EntityData first = actual.get(0).get(0);
+        assertEquals("first", first.get("text"));
+        assertEquals(1.5, first.get("number"));
+        assertEquals(DATE, first.get("date"));
+        assertEquals(Boolean.TRUE, first.get("flag"));
+        assertEquals("firstx", first.get("formula"));
+        assertNull(first.get("blank"));
+        assertTrue(first.containsKey("blank"));
+
+        EntityData last = actual.get(2).get(0);
+        assertEquals("shared", last.get("text"));
+        assertEquals(5d, last.get("number"));
+        assertEquals(Boolean.TRUE, last.get("flag"));
+    }
+
+    @Test
+    public void testFormulaAndCellErrors() throws Exception {
+        writeWorkbook(true);
+        for (boolean streaming : new boolean[] { false, true }) {
+            try {
+                read(streaming, false, 1000);
+                fail("Expected the numeric formula to fail");
+            } catch (UnsupportedOperationException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Error in cell formula: 1+1"));
+            }
+
+            List<ArrayList<EntityData>> messages = read(streaming, true, 1000);
+            assertEquals(1, messages.size());
+            assertEquals(6, messages.get(0).size());
+            EntityData errors = messages.get(0).get(5);
+            assertEquals("errors", errors.get("text"));
+            assertTrue(errors.containsKey("formula"));
+            assertNull(errors.get("formula"));
+            assertTrue(errors.containsKey("blank"));
+            assertNull(errors.get("blank"));
+        }
+    }
+
+    protected void writeWorkbook(boolean withErrors) throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        try {
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
+
+            Sheet skipped = workbook.createSheet("Skipped");
+            skipped.createRow(0).createCell(0).setCellValue("not read");
+
+            Sheet sheet = workbook.createSheet("Data");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("TEXT");
+            header.createCell(1).setCellValue("NUMBER");
+            String[] texts = { "first", "shared", "third", "shared", "shared" };
+            for (int i = 0; i < texts.length; i++) {
+                Row row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue(texts[i]);
+                row.createCell(1).setCellValue(i == 0 ? 1.5 : i + 1);
+                row.createCell(2).setCellValue(DATE);
+                row.getCell(2).setCellStyle(dateStyle);
+                row.createCell(3).setCellValue(i % 2 == 0);
+                row.createCell(4).setCellFormula("A" + (i + 2) + "&\"x\"");
+                row.createCell(5);
+                row.createCell(6).setCellValue("not mapped");
+            }
+            if (withErrors) {
+                Row row = sheet.createRow(texts.length + 1);
+                row.createCell(0).setCellValue("errors");
+                row.createCell(4).setCellFormula("1+1");
+                row.createCell(5).setCellErrorValue(FormulaError.DIV0.getCode());
+            }
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            OutputStream os = new FileOutputStream(new File(FILE_PATH, FILE_NAME));
+            try {
+                workbook.write(os);
+            } finally {
+                os.close();
+            }
+        } finally {
+            workbook.close();
+        }
+    }
+
+    protected List<ArrayList<EntityData>> read(boolean streaming, boolean ignoreError, int rowsPerMessage) {
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<ComponentAttributeSetting>();
+        String[] columns = { "A", "B", "C", "D", "E", "F" };
+        List<ModelAttribute> attributes = model.getModelEntities().get(0).getModelAttributes();
+        for (int i = 0; i < columns.length; i++) {
+            attributeSettings.add(new ComponentAttributeSetting(attributes.get(i).getId(), ExcelFileReader.SETTING_EXCEL_MAPPING,
+                    "Data:" + columns[i]));
+        }
+        Component component = TestUtils.createComponent(ExcelFileReader.TYPE, false, resource, null, model, null, attributeSettings,
+                new Setting(ExcelFileReader.SETTING_RELATIVE_PATH, FILE_NAME),
+                new Setting(ExcelFileReader.SETTING_HEADER_LINES_TO_SKIP, "1"),
+                new Setting(ExcelFileReader.SETTING_ROWS_PER_MESSAGE, Integer.toString(rowsPerMessage)),
+                new Setting(ExcelFileReader.IGNORE_ERROR, Boolean.toString(ignoreError)),
+                new Setting(ExcelFileReader.SETTING_STREAMING_READ, Boolean.toString(streaming)));
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), deployedResources, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        ExcelFileReader reader = new ExcelFileReader();
+        reader.setContext(context);
+        reader.start();
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        reader.handle(new ControlMessage("source"), callback, true);
+        return callback.getPayloadList();
+    }
+
+    /**
+     * A formula's string result is a rich text object when the whole
+     * workbook is loaded and a String when it is streamed
+     */
+    protected static List<ArrayList<EntityData>> richTextAsString(List<ArrayList<EntityData>> messages) {
+        for (ArrayList<EntityData> message : messages) {
+            for (EntityData data : message) {
+                for (Map.Entry<String, Object> entry : data.entrySet()) {
+                    if (entry.getValue() instanceof RichTextString) {
+                        entry.setValue(entry.getValue().toString());
+                    }
+                }
+            }
+        }
+        return messages;
+    }
+
+}
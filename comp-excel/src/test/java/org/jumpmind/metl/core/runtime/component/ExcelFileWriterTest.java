@@ -0,0 +1,208 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Resource;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.runtime.resource.LocalFile;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.jumpmind.properties.TypedProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExcelFileWriterTest {
+
+    static final String FILE_PATH = "build/files/excel-writer";
+
+    static final String FILE_NAME = "test_writer.xlsx";
+
+    Resource resource;
+
+    Map<String, IResourceRuntime> deployedResources;
+
+    Model model;
+
+    @Before
+    public void setup() throws Exception {
+        FileUtils.deleteQuietly(new File(FILE_PATH));
+        new File(FILE_PATH).mkdirs();
+        resource = new Resource("files");
+        TypedProperties properties = new TypedProperties();
+        properties.put(LocalFile.LOCALFILE_PATH, FILE_PATH);
+        IResourceRuntime resourceRuntime = new LocalFile();
+        resourceRuntime.start(resource, properties);
+        deployedResources = new HashMap<>();
+        deployedResources.put(resource.getId(), resourceRuntime);
+
+        ModelEntity entity = new ModelEntity("entity", "ENTITY");
+        ModelAttribute id = new ModelAttribute("id", entity.getId(), "ID");
+        id.setAttributeOrder(0);
+        entity.addModelAttribute(id);
+        ModelAttribute name = new ModelAttribute("name", entity.getId(), "NAME");
+        name.setAttributeOrder(1);
+        entity.addModelAttribute(name);
+        model = new Model();
+        model.getModelEntities().add(entity);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (IResourceRuntime resourceRuntime : deployedResources.values()) {
+            resourceRuntime.stop();
+        }
+        FileUtils.deleteQuietly(new File(FILE_PATH));
+    }
+
+    @Test
+    public void testWorkbookRoundTrip() throws Exception {
+        write(false, 3, 2);
+        assertWorkbook(3);
+        for (boolean streaming : new boolean[] { false, true }) {
+            List<EntityData> rows = read(streaming);
+            assertEquals(3, rows.size());
+            assertRow(rows, 0);
+            assertRow(rows, 2);
+        }
+    }
+
+    @Test
+    public void testStreamingWriteRoundTrip() throws Exception {
+        write(true, 40000, 15000);
+        assertWorkbook(40000);
+        List<EntityData> rows = read(true);
+        assertEquals(40000, rows.size());
+        for (int i = 0; i < rows.size(); i += 997) {
+            assertRow(rows, i);
+        }
+        assertRow(rows, Short.MAX_VALUE);
+        assertRow(rows, Short.MAX_VALUE + 1);
+        assertRow(rows, rows.size() - 1);
+    }
+
+    protected void write(boolean streaming, int rowCount, int rowsPerMessage) {
+        Component component = TestUtils.createComponent(ExcelFileWriter.TYPE, false, resource, model, null, null,
+                new ArrayList<ComponentAttributeSetting>(),
+                new Setting(ExcelFileWriter.SETTING_RELATIVE_PATH, FILE_NAME),
+                new Setting(ExcelFileWriter.SETTING_INCLUDE_HEADER, "true"),
+                new Setting(ExcelFileWriter.SETTING_SHEET_NAME, "Data"),
+                new Setting(ExcelFileWriter.EXCEL_OUTPUT_TYPE, ExcelFileWriter.EXCEL_OUTPUT_FORMAT),
+                new Setting(ExcelFileWriter.SETTING_STREAMING_WRITE, Boolean.toString(streaming)));
+        ExcelFileWriter writer = new ExcelFileWriter();
+        writer.setContext(createContext(component));
+        writer.start();
+        assertEquals(streaming, writer.wb instanceof SXSSFWorkbook);
+        SendMessageCallback<ArrayList<String>> callback = new SendMessageCallback<ArrayList<String>>();
+        for (int from = 0; from < rowCount; from += rowsPerMessage) {
+            ArrayList<EntityData> payload = new ArrayList<EntityData>();
+            for (int i = from; i < Math.min(from + rowsPerMessage, rowCount); i++) {
+                EntityData data = new EntityData();
+                data.put("id", i);
+                data.put("name", "name " + i);
+                payload.add(data);
+            }
+            writer.handle(new EntityDataMessage("source", payload), callback, false);
+        }
+        writer.handle(new ControlMessage("source"), callback, true);
+        writer.stop();
+        assertEquals(1, callback.getPayloadList().size());
+    }
+
+    protected void assertWorkbook(int rowCount) throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook(new File(FILE_PATH, FILE_NAME));
+        try {
+            assertEquals(1, workbook.getNumberOfSheets());
+            Sheet sheet = workbook.getSheet("Data");
+            assertEquals(rowCount, sheet.getLastRowNum());
+            Row header = sheet.getRow(0);
+            assertEquals("ID", header.getCell(0).getStringCellValue());
+            assertEquals("NAME", header.getCell(1).getStringCellValue());
+            Row last = sheet.getRow(rowCount);
+            assertEquals(rowCount, last.getRowNum());
+            assertEquals(Integer.toString(rowCount - 1), last.getCell(0).getStringCellValue());
+        } finally {
+            workbook.close();
+        }
+    }
+
+    protected List<EntityData> read(boolean streaming) {
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<ComponentAttributeSetting>();
+        ModelEntity entity = model.getModelEntities().get(0);
+        attributeSettings.add(new ComponentAttributeSetting(entity.getModelAttributeByName("ID").getId(),
+                ExcelFileReader.SETTING_EXCEL_MAPPING, "Data:A"));
+        attributeSettings.add(new ComponentAttributeSetting(entity.getModelAttributeByName("NAME").getId(),
+                ExcelFileReader.SETTING_EXCEL_MAPPING, "Data:B"));
+        Component component = TestUtils.createComponent(ExcelFileReader.TYPE, false, resource, null, model, null, attributeSettings,
+                new Setting(ExcelFileReader.SETTING_RELATIVE_PATH, FILE_NAME),
+                new Setting(ExcelFileReader.SETTING_HEADER_LINES_TO_SKIP, "1"),
+                new Setting(ExcelFileReader.SETTING_STREAMING_READ, Boolean.toString(streaming)));
+        ExcelFileReader reader = new ExcelFileReader();
+        reader.setContext(createContext(component));
+        reader.start();
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        reader.handle(new ControlMessage("source"), callback, true);
+        List<EntityData> rows = new ArrayList<EntityData>();
+        for (ArrayList<EntityData> message : callback.getPayloadList()) {
+            rows.addAll(message);
+        }
+        return rows;
+    }
+
+    protected ComponentContext createContext(Component component) {
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), deployedResources, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        return context;
+    }
+
+    protected static void assertRow(List<EntityData> rows, int index) {
+        EntityData row = rows.get(index);
+        assertEquals(Integer.toString(index), row.get("id"));
+        assertEquals("name " + index, row.get("name"));
+        assertEquals(2, row.size());
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.apache.commons.lang.StringUtils.isNotBlank;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.Message;
+import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.runtime.resource.LocalFileDirectory;
+import org.jumpmind.metl.core.util.FileChannelReader;
+import org.jumpmind.properties.TypedProperties;
+
+/**
+ * Reads and parses a delimited file in one step. Records are parsed straight
+ * from the file so a quoted value that contains line breaks is never split
+ * across messages, and no intermediate text messages are created. Local files
+ * are read through a {@link FileChannelReader}. Header and footer lines are
+ * both counted as physical lines of the file, even when a record spans
+ * several lines. Blank lines at the end of the file are not counted as
+ * footer lines.
+ */
+public class DelimitedFileReader extends AbstractFileReader {
+
+    public static final String TYPE = "Delimited File Reader";
+
+    public static final String SETTING_ROWS_PER_MESSAGE = "rows.per.message";
+
+    public static final String SETTING_ENCODING = DelimitedParser.SETTING_ENCODING;
+
+    int rowsPerMessage = 1000;
+
+    String encoding = "UTF-8";
+
+    DelimitedParser parser;
+
+    @Override
+    public void start() {
+        init();
+        TypedProperties properties = getTypedProperties();
+        rowsPerMessage = properties.getInt(SETTING_ROWS_PER_MESSAGE, rowsPerMessage);
+        encoding = properties.get(SETTING_ENCODING, encoding);
+
+        parser = new DelimitedParser();
+        parser.setContext(context);
+        parser.setComponentDefinition(componentDefinition);
+        parser.setThreadNumber(threadNumber);
+        parser.start();
+    }
+
+    @Override
+    public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        if ((PER_UNIT_OF_WORK.equals(runWhen) && inputMessage instanceof ControlMessage)
+                || (PER_MESSAGE.equals(runWhen) && !(inputMessage instanceof ControlMessage))) {
+            List<String> files = getFilesToRead(inputMessage);
+            processFiles(files, inputMessage, callback);
+        }
+    }
+
+    private void processFiles(List<String> files, Message inputMessage, ISendMessageCallback callback) {
+        if (directory == null) {
+            throw new IllegalStateException("The resource was not created.  Please check to see that it is properly configured");
+        }
+
+        filesRead.addAll(files);
+
+        for (String file : files) {
+            checkForInterruption();
+            Map<String, Serializable> headers = new HashMap<>(1);
+            headers.put("source.file.path", file);
+            if (isNotBlank(file)) {
+                info("Reading file: %s", file);
+            }
+            String filePath = resolveParamsAndHeaders(file, inputMessage);
+            DelimitedRecordReader reader = null;
+            try {
+                Reader in = open(filePath);
+                if (in != null) {
+                    reader = parser.createRecordReader(in);
+                    readRecords(reader, inputMessage, headers, callback);
+                } else {
+                    info("File %s didn't exist, but must exist setting was false.  Continuing", file);
+                }
+            } catch (IOException e) {
+                throw new IoException("Error reading from file " + e.getMessage());
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+
+            if (controlMessageOnEof) {
+                callback.sendControlMessage(headers);
+            }
+        }
+    }
+
+    protected Reader open(String filePath) throws IOException {
+        if (directory instanceof LocalFileDirectory) {
+            File file = ((LocalFileDirectory) directory).getFile(filePath);
+            if (file.isFile()) {
+                return new FileChannelReader(file, Charset.forName(encoding));
+            }
+        }
+        InputStream inStream = directory.getInputStream(filePath, mustExist, false);
+        if (inStream != null) {
+            return new BufferedReader(new InputStreamReader(inStream, encoding));
+        } else {
+            return null;
+        }
+    }
+
+    protected void readRecords(DelimitedRecordReader reader, Message inputMessage, Map<String, Serializable> headers,
+            ISendMessageCallback callback) throws IOException {
+        reader.skipLines(parser.getNumberOfHeaderLinesToSkip());
+        int footerLinesToSkip = parser.getNumberOfFooterLinesToSkip();
+        /*
+         * Records are held back until more than the footer's lines have been
+         * read from where they start. Whatever is still held at the end of
+         * the file starts in the footer.
+         */
+        ArrayDeque<String[]> footer = new ArrayDeque<String[]>(footerLinesToSkip + 1);
+        ArrayDeque<Integer> footerStartLines = new ArrayDeque<Integer>(footerLinesToSkip + 1);
+        ArrayList<EntityData> payload = new ArrayList<EntityData>(rowsPerMessage);
+        String[] record = null;
+        while ((record = reader.readRecord()) != null) {
+            footer.add(record);
+            footerStartLines.add(reader.getRecordStartLine());
+            while (!footer.isEmpty() && reader.getRecordEndLine() - footerStartLines.peek() > footerLinesToSkip) {
+                if (payload.size() == rowsPerMessage) {
+                    checkForInterruption();
+                    callback.sendEntityDataMessage(headers, payload);
+                    payload = new ArrayList<EntityData>(rowsPerMessage);
+                }
+                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                footerStartLines.poll();
+                payload.add(parser.toEntityData(inputMessage, footer.poll()));
+            }
+        }
+
+        if (payload.size() > 0) {
+            callback.sendEntityDataMessage(headers, payload);
+        }
+    }
+
+}
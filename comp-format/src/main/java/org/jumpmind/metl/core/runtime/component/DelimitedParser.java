@@ -22,9 +22,9 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -38,10 +38,10 @@ import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.IndexedEntityData;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.TextMessage;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
-import org.jumpmind.symmetric.csv.CsvReader;
 
 import groovy.json.StringEscapeUtils;
 
@@ -75,6 +75,8 @@ public class DelimitedParser extends AbstractComponentRuntime {
 
     List<AttributeFormat> attributes = new ArrayList<AttributeFormat>();
 
+    IndexedEntityData.Schema outputSchema;
+
     @Override
     public void start() {
         delimiter = StringEscapeUtils.unescapeJava(getComponent().get(SETTING_DELIMITER, delimiter));
@@ -82,10 +84,11 @@ public class DelimitedParser extends AbstractComponentRuntime {
         encoding = getComponent().get(SETTING_ENCODING, encoding);
         numberOfFooterLinesToSkip = getComponent().getInt(SETTING_FOOTER_LINES_TO_SKIP, 0);
         numberOfHeaderLinesToSkip = getComponent().getInt(SETTING_HEADER_LINES_TO_SKIP, 0);
-        convertAttributeSettingsToAttributeFormat();
         if (getComponent().getOutputModel() == null) {
             throw new IllegalStateException("This component requires an output model.  Please select one.");
         }
+        outputSchema = IndexedEntityData.Schema.of(getOutputModel());
+        convertAttributeSettingsToAttributeFormat();
     }
 
     @Override
@@ -127,44 +130,49 @@ public class DelimitedParser extends AbstractComponentRuntime {
     }
 
     private void processInputRows(Message inputMessage, StringBuilder inputRow, List<EntityData> payload) throws IOException {
-
-        CsvReader csvReader = new CsvReader(new ByteArrayInputStream(inputRow.toString().getBytes(Charset.forName(encoding))), Charset.forName(encoding));
-        csvReader.setDelimiter(delimiter.charAt(0));
-        if (isNotBlank(quoteCharacter)) {
-            csvReader.setTextQualifier(quoteCharacter.charAt(0));
-            csvReader.setUseTextQualifier(true);
-        } else {
-            csvReader.setUseTextQualifier(false);
+        DelimitedRecordReader reader = createRecordReader(new StringReader(inputRow.toString()));
+        String[] record = null;
+        while ((record = reader.readRecord()) != null) {
+            context.getComponentStatistics().incrementNumberEntitiesProcessed(getThreadNumber());
+            payload.add(toEntityData(inputMessage, record));
         }
-        while (csvReader.readRecord()) {
-            EntityData data = new EntityData();
-            if (attributes.size() > 0) {
-                for (AttributeFormat attribute : attributes) {
-                    Object value = csvReader.get(attribute.getOrdinal() - 1);
-                    if (isNotBlank(attribute.getFormatFunction())) {
-                        value = ModelAttributeScriptHelper.eval(inputMessage, context, attribute.getAttribute(), value, getOutputModel(), attribute.getEntity(),
-                                data, attribute.getFormatFunction());
-                    }
+    }
 
-                    data.put(attribute.getAttributeId(), value);
-                }
-            } else {
-                Model model = getComponent().getOutputModel();
-                List<ModelEntity> entities = model.getModelEntities();
-                int index = 0;
-                for (ModelEntity modelEntity : entities) {
-                    List<ModelAttribute> attributes = modelEntity.getModelAttributes();
-                    for (ModelAttribute modelAttribute : attributes) {
-                        data.put(modelAttribute.getId(), csvReader.get(index));
-                        index++;
-                    }
+    protected DelimitedRecordReader createRecordReader(Reader reader) {
+        return new DelimitedRecordReader(reader, delimiter.charAt(0), isNotBlank(quoteCharacter) ? quoteCharacter.charAt(0) : null);
+    }
+
+    protected EntityData toEntityData(Message inputMessage, String[] record) {
+        IndexedEntityData data = new IndexedEntityData(outputSchema);
+        if (attributes.size() > 0) {
+            for (AttributeFormat attribute : attributes) {
+                Object value = get(record, attribute.getOrdinal() - 1);
+                if (isNotBlank(attribute.getFormatFunction())) {
+                    value = ModelAttributeScriptHelper.eval(inputMessage, context, attribute.getAttribute(), value, getOutputModel(), attribute.getEntity(),
+                            data, attribute.getFormatFunction());
                 }
-            }
 
-            context.getComponentStatistics().incrementNumberEntitiesProcessed(getThreadNumber());
-            payload.add(data);
+                data.put(attribute.getSchemaIndex(), value);
+            }
+        } else {
+            /* the schema has the attributes of the output model in order */
+            for (int index = 0; index < outputSchema.size(); index++) {
+                data.put(index, get(record, index));
+            }
         }
+        return data;
+    }
+
+    private String get(String[] record, int index) {
+        return index >= 0 && index < record.length ? record[index] : "";
+    }
+
+    public int getNumberOfHeaderLinesToSkip() {
+        return numberOfHeaderLinesToSkip;
+    }
 
+    public int getNumberOfFooterLinesToSkip() {
+        return numberOfFooterLinesToSkip;
     }
 
     private void convertAttributeSettingsToAttributeFormat() {
@@ -207,6 +215,7 @@ public class DelimitedParser extends AbstractComponentRuntime {
             this.attributeId = attributeId;
             this.entity = entity;
             this.attribute = attribute;
+            this.schemaIndex = outputSchema.getOrdinal(attributeId);
         }
 
         ModelEntity entity;
@@ -217,12 +226,18 @@ public class DelimitedParser extends AbstractComponentRuntime {
 
         int ordinal;
 
+        int schemaIndex;
+
         String formatFunction;
 
         public String getAttributeId() {
             return attributeId;
         }
 
+        public int getSchemaIndex() {
+            return schemaIndex;
+        }
+
         public int getOrdinal() {
             return ordinal;
         }
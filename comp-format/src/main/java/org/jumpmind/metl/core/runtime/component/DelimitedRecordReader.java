@@ -0,0 +1,266 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits delimited text into records the same way the csv reader used by
+ * {@link DelimitedParser} always has: unquoted values are trimmed, a doubled
+ * quote inside a quoted value is a literal quote, anything between a closing
+ * quote and the next delimiter is ignored, quoted values may span lines and
+ * empty lines are skipped. Records are read straight from the underlying
+ * {@link Reader} so a record is never split just because it spans lines.
+ * The reader keeps track of the physical lines it has read so headers and
+ * footers can be counted in lines the same way for every record.
+ */
+public class DelimitedRecordReader implements Closeable {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static final int EOF = -1;
+
+    Reader reader;
+
+    char delimiter;
+
+    char quote;
+
+    boolean useQuote;
+
+    char[] buffer = new char[BUFFER_SIZE];
+
+    int position;
+
+    int limit;
+
+    StringBuilder value = new StringBuilder();
+
+    List<String> values = new ArrayList<String>();
+
+    int lineNumber;
+
+    int recordStartLine;
+
+    int recordEndLine;
+
+    public DelimitedRecordReader(Reader reader, char delimiter, Character quote) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+        this.useQuote = quote != null;
+        this.quote = useQuote ? quote : 0;
+    }
+
+    /**
+     * @return the values of the next record or null when there are no more
+     *         records
+     */
+    public String[] readRecord() throws IOException {
+        int c = peek();
+        while (c == '\r' || c == '\n') {
+            endLine(c);
+            c = peek();
+        }
+        if (c == EOF) {
+            return null;
+        }
+
+        recordStartLine = lineNumber;
+        values.clear();
+        boolean endOfRecord = false;
+        while (!endOfRecord) {
+            value.setLength(0);
+            c = skipWhitespace();
+            if (useQuote && c == quote) {
+                position++;
+                readQuoted();
+                lineNumber += countLineBreaks(value);
+                c = skipToEndOfValue();
+            } else {
+                c = readUnquoted();
+            }
+            values.add(value.toString());
+            if (c == delimiter) {
+                position++;
+            } else {
+                endOfRecord = true;
+                recordEndLine = lineNumber + 1;
+                endLine(c);
+            }
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * @return the zero based line the last record read started on
+     */
+    public int getRecordStartLine() {
+        return recordStartLine;
+    }
+
+    /**
+     * @return the zero based line after the last line of the last record
+     *         read
+     */
+    public int getRecordEndLine() {
+        return recordEndLine;
+    }
+
+    /**
+     * Skip the next lines of text, ignoring quotes. Used for headers and
+     * footers which are not expected to be well formed records.
+     */
+    public void skipLines(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int c = peek();
+            while (c != EOF && c != '\r' && c != '\n') {
+                position++;
+                c = peek();
+            }
+            if (c == EOF) {
+                break;
+            }
+            endLine(c);
+        }
+    }
+
+    protected void readQuoted() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return;
+            }
+            int start = position;
+            while (position < limit && buffer[position] != quote) {
+                position++;
+            }
+            value.append(buffer, start, position - start);
+            if (position < limit) {
+                position++;
+                if (peek() == quote) {
+                    value.append(quote);
+                    position++;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    protected int skipToEndOfValue() throws IOException {
+        int c = peek();
+        while (c != EOF && c != delimiter && c != '\r' && c != '\n') {
+            position++;
+            c = peek();
+        }
+        return c;
+    }
+
+    protected int readUnquoted() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                break;
+            }
+            int start = position;
+            char c = 0;
+            while (position < limit) {
+                c = buffer[position];
+                if (c == delimiter || c == '\r' || c == '\n') {
+                    break;
+                }
+                position++;
+            }
+            value.append(buffer, start, position - start);
+            if (position < limit) {
+                break;
+            }
+        }
+        int end = value.length();
+        while (end > 0 && isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        value.setLength(end);
+        return peek();
+    }
+
+    protected int skipWhitespace() throws IOException {
+        int c = peek();
+        while (c != EOF && c != delimiter && isWhitespace((char) c)) {
+            position++;
+            c = peek();
+        }
+        return c;
+    }
+
+    protected void endLine(int c) throws IOException {
+        if (c == '\r') {
+            position++;
+            lineNumber++;
+            if (peek() == '\n') {
+                position++;
+            }
+        } else if (c == '\n') {
+            position++;
+            lineNumber++;
+        }
+    }
+
+    protected static int countLineBreaks(CharSequence text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || (c == '\r' && (i + 1 == text.length() || text.charAt(i + 1) != '\n'))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    protected int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position];
+    }
+
+    protected boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        while (count == 0) {
+            count = reader.read(buffer, 0, buffer.length);
+        }
+        position = 0;
+        limit = count > 0 ? count : 0;
+        return count > 0;
+    }
+
+    protected static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
@@ -36,6 +36,7 @@ import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.IndexedEntityData;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.TextMessage;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
@@ -54,6 +55,8 @@ public class FixedLengthParser extends AbstractComponentRuntime {
 
     List<AttributeFormat> attributesList;
 
+    IndexedEntityData.Schema outputSchema;
+
     @Override
     public void start() {
         if (getComponent().getOutputModel() == null) {
@@ -61,6 +64,7 @@ public class FixedLengthParser extends AbstractComponentRuntime {
         }
         numberOfFooterLinesToSkip = getComponent().getInt(SETTING_FOOTER_LINES_TO_SKIP, 0);
         numberOfHeaderLinesToSkip = getComponent().getInt(SETTING_HEADER_LINES_TO_SKIP, 0);
+        outputSchema = IndexedEntityData.Schema.of(getOutputModel());
         convertAttributeSettingsToAttributeFormat();
     }
     
@@ -104,7 +108,7 @@ public class FixedLengthParser extends AbstractComponentRuntime {
 
     private EntityData processInputRow(Message inputMessage, String inputRow) throws IOException {
         if (attributesList.size() > 0) {
-            EntityData data = new EntityData();
+            IndexedEntityData data = new IndexedEntityData(outputSchema);
             for (AttributeFormat attribute : attributesList) {
                 int length = attribute.getLength() > inputRow.length() ? inputRow.length() : attribute.getLength();
                 Object value = inputRow.substring(0, length).trim();
@@ -114,7 +118,7 @@ public class FixedLengthParser extends AbstractComponentRuntime {
                             attribute.getFormatFunction());
                 }
 
-                data.put(attribute.getAttributeId(), value);
+                data.put(attribute.getSchemaIndex(), value);
             }
             return data;
         } else {
@@ -159,17 +163,23 @@ public class FixedLengthParser extends AbstractComponentRuntime {
         ModelEntity entity;
         int ordinal;
         int length;
+        int schemaIndex;
         String formatFunction;
 
         public AttributeFormat(ModelAttribute attribute, ModelEntity entity) {
             this.attribute = attribute;
             this.entity = entity;
+            this.schemaIndex = outputSchema.getOrdinal(attribute.getId());
         }
 
         public String getAttributeId() {
             return attribute.getId();
         }
 
+        public int getSchemaIndex() {
+            return schemaIndex;
+        }
+
         public int getOrdinal() {
             return ordinal;
         }
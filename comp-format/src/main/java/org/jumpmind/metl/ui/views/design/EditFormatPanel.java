@@ -35,6 +35,7 @@ import org.jumpmind.metl.core.model.ComponentAttributeSetting;
 import org.jumpmind.metl.core.model.Model;
 import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.component.DelimitedFileReader;
 import org.jumpmind.metl.core.runtime.component.DelimitedFormatter;
 import org.jumpmind.metl.core.runtime.component.DelimitedParser;
 import org.jumpmind.metl.core.runtime.component.FixedLengthFormatter;
@@ -129,7 +130,8 @@ public class EditFormatPanel extends AbstractComponentEditPanel {
         setExpandRatio(table, 1.0f);
 
         Model model = component.getInputModel();
-        if (component.getType().equals(DelimitedParser.TYPE) || component.getType().equals(FixedLengthParser.TYPE)) {
+        if (component.getType().equals(DelimitedParser.TYPE) || component.getType().equals(DelimitedFileReader.TYPE)
+                || component.getType().equals(FixedLengthParser.TYPE)) {
             model = component.getOutputModel();
         }
 
@@ -195,7 +197,8 @@ public class EditFormatPanel extends AbstractComponentEditPanel {
                 pos = endPos + 1;
             }
 
-        } else if (component.getType().equals(DelimitedFormatter.TYPE) || component.getType().equals(DelimitedParser.TYPE)) {
+        } else if (component.getType().equals(DelimitedFormatter.TYPE) || component.getType().equals(DelimitedParser.TYPE)
+                || component.getType().equals(DelimitedFileReader.TYPE)) {
             int ordinal = 1;
             for (RecordFormat record : container.getItemIds()) {
                 if (record.getOrdinalSetting() != ordinal) {
@@ -457,7 +460,8 @@ public class EditFormatPanel extends AbstractComponentEditPanel {
             this.modelEntity = modelEntity;
             this.modelAttribute = modelAttribute;
 
-            if (component.getType().equals(DelimitedFormatter.TYPE) || component.getType().equals(DelimitedParser.TYPE)) {
+            if (component.getType().equals(DelimitedFormatter.TYPE) || component.getType().equals(DelimitedParser.TYPE)
+                || component.getType().equals(DelimitedFileReader.TYPE)) {
                 ComponentAttributeSetting setting = component.getSingleAttributeSetting(modelAttribute.getId(),
                         DelimitedFormatter.DELIMITED_FORMATTER_ATTRIBUTE_ORDINAL);
                 if (setting != null) {
@@ -0,0 +1,109 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class DelimitedFileReaderTest {
+
+    @Test
+    public void testReadRecords() throws Exception {
+        List<ArrayList<EntityData>> messages = readRecords("h\n1,a\n2,b\n3,c\n", 2, 1, 0);
+        assertEquals(2, messages.size());
+        assertEquals(2, messages.get(0).size());
+        assertEquals(1, messages.get(1).size());
+        assertEquals("1", messages.get(0).get(0).get("col1"));
+        assertEquals("c", messages.get(1).get(0).get("col2"));
+    }
+
+    @Test
+    public void testFooterCountedInLines() throws Exception {
+        List<EntityData> rows = flatten(readRecords("h1\nh2\n1,\"multi\nline\"\n2,b\ntrailer 1\ntrailer 2\n\n", 10, 2, 2));
+        assertEquals(2, rows.size());
+        assertEquals("multi\nline", rows.get(0).get("col2"));
+        assertEquals("2", rows.get(1).get("col1"));
+
+        rows = flatten(readRecords("1,\"multi\nline\"\ntrailer\n", 10, 0, 2));
+        assertEquals(1, rows.size());
+        assertEquals("multi\nline", rows.get(0).get("col2"));
+
+        rows = flatten(readRecords("1,a\ntrailer,\"two\nlines\"\n", 10, 0, 2));
+        assertEquals(1, rows.size());
+        assertEquals("1", rows.get(0).get("col1"));
+
+        rows = flatten(readRecords("h\n1,a\n", 10, 1, 3));
+        assertEquals(0, rows.size());
+    }
+
+    protected List<ArrayList<EntityData>> readRecords(String text, int rowsPerMessage, int headerLines, int footerLines)
+            throws Exception {
+        ModelEntity entity = new ModelEntity("entity", "ENTITY");
+        entity.addModelAttribute(new ModelAttribute("col1", entity.getId(), "COL1"));
+        entity.addModelAttribute(new ModelAttribute("col2", entity.getId(), "COL2"));
+        Model model = new Model();
+        model.getModelEntities().add(entity);
+
+        Component component = TestUtils.createComponent(DelimitedFileReader.TYPE, false, null, null, model, null,
+                new ArrayList<>(), new Setting(DelimitedParser.SETTING_HEADER_LINES_TO_SKIP, Integer.toString(headerLines)),
+                new Setting(DelimitedParser.SETTING_FOOTER_LINES_TO_SKIP, Integer.toString(footerLines)));
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+
+        DelimitedParser parser = new DelimitedParser();
+        parser.setContext(context);
+        parser.start();
+        DelimitedFileReader reader = new DelimitedFileReader();
+        reader.setContext(context);
+        reader.parser = parser;
+        reader.rowsPerMessage = rowsPerMessage;
+
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        reader.readRecords(parser.createRecordReader(new StringReader(text)), null, new HashMap<>(), callback);
+        return callback.getPayloadList();
+    }
+
+    protected List<EntityData> flatten(List<ArrayList<EntityData>> messages) {
+        List<EntityData> rows = new ArrayList<>();
+        for (List<EntityData> message : messages) {
+            rows.addAll(message);
+        }
+        return rows;
+    }
+
+}
@@ -38,6 +38,7 @@ import org.jumpmind.metl.core.model.Setting;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
 import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.IndexedEntityData;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.utils.TestUtils;
 import org.junit.After;
@@ -72,11 +73,47 @@ public class DelimitedFormatterTest {
         assertEquals("tt1col2_value|tt1col1_value|tt2col2_value|tt2col3_value|tt1col3_value|tt2col1_value", payload.get(0));
     }
 
+    @Test
+    public void testDelimitedFormatterWithoutOrdinalsKeepsRowOrder() throws Exception {
+        FlowStep flowStep = createDelimitedFormatterFlowStep(new ArrayList<ComponentAttributeSetting>());
+        IndexedEntityData indexed = new IndexedEntityData(IndexedEntityData.Schema.of(createInputModel()));
+        EntityDataMessage message = (EntityDataMessage) createInboundMessage(indexed);
+        String expected = "tt1col1_value|tt1col2_value|tt1col3_value|tt2col1_value|tt2col2_value|tt2col3_value";
+        assertEquals(expected, format(flowStep, createInboundMessage()));
+        assertEquals(expected, format(flowStep, message));
+
+        indexed.clear();
+        EntityData entityData = new EntityData();
+        for (EntityData row : new EntityData[] { entityData, indexed }) {
+            row.put("tt2col3", "tt2col3_value");
+            row.put("tt1col1", "tt1col1_value");
+            row.put("tt2col1", "tt2col1_value");
+        }
+        ArrayList<EntityData> payload = new ArrayList<EntityData>();
+        payload.add(entityData);
+        EntityDataMessage plainMessage = new EntityDataMessage("fake step id");
+        plainMessage.setPayload(payload);
+        assertEquals("tt2col3_value|tt1col1_value|tt2col1_value", format(flowStep, plainMessage));
+        assertEquals("tt2col3_value|tt1col1_value|tt2col1_value", format(flowStep, message));
+    }
+
+    private static String format(FlowStep flowStep, Message message) {
+        DelimitedFormatter delimitedFormatter = new DelimitedFormatter();
+        delimitedFormatter.setContext(new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), null, null, null));
+        delimitedFormatter.start();
+        SendMessageCallback<ArrayList<String>> msgTarget = new SendMessageCallback<ArrayList<String>>();
+        delimitedFormatter.handle(message, msgTarget, true);
+        return msgTarget.getPayloadList().get(0).get(0);
+    }
+
     private static Message createInboundMessage() {
+        return createInboundMessage(new EntityData());
+    }
+
+    private static Message createInboundMessage(EntityData entityData) {
         
         EntityDataMessage message = new EntityDataMessage("fake step id");
         ArrayList<EntityData> inboundPayload = new ArrayList<EntityData>();
-        EntityData entityData = new EntityData();
         entityData.put("tt1col1", "tt1col1_value");
         entityData.put("tt1col2", "tt1col2_value");
         entityData.put("tt1col3", "tt1col3_value");
@@ -91,11 +128,15 @@ public class DelimitedFormatterTest {
     }
     
     private static FlowStep createDelimitedFormatterFlowStep() {
+        return createDelimitedFormatterFlowStep(createAttributeSettings());
+    }
+
+    private static FlowStep createDelimitedFormatterFlowStep(List<ComponentAttributeSetting> attributeSettings) {
         Folder folder = TestUtils.createFolder("Test Folder");
         Flow flow = TestUtils.createFlow("TestFlow", folder);
         Setting[] settingData = createDelimitedFormatterSettings();
         Component component = TestUtils.createComponent(DelimitedFormatter.TYPE, false, null,
-                createInputModel(), null, null, createAttributeSettings(), settingData);
+                createInputModel(), null, null, attributeSettings, settingData);
 
         FlowStep formatterFlowStep = new FlowStep();
         formatterFlowStep.setFlowId(flow.getId());
@@ -0,0 +1,71 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class DelimitedRecordReaderTest {
+
+    @Test
+    public void testReadRecords() throws Exception {
+        DelimitedRecordReader reader = new DelimitedRecordReader(
+                new StringReader(" a , \"b \"\"quoted\"\" value\" ,c,\r\n\r\n1,\"multi\nline\"junk,3\r2,x,y"), ',', '"');
+        assertArrayEquals(new String[] { "a", "b \"quoted\" value", "c", "" }, reader.readRecord());
+        assertArrayEquals(new String[] { "1", "multi\nline", "3" }, reader.readRecord());
+        assertArrayEquals(new String[] { "2", "x", "y" }, reader.readRecord());
+        assertNull(reader.readRecord());
+        reader.close();
+    }
+
+    @Test
+    public void testReadRecordsWithoutQuote() throws Exception {
+        DelimitedRecordReader reader = new DelimitedRecordReader(new StringReader("header\n\"a\"|b\n"), '|', null);
+        reader.skipLines(1);
+        assertArrayEquals(new String[] { "\"a\"", "b" }, reader.readRecord());
+        assertNull(reader.readRecord());
+        reader.close();
+    }
+
+    @Test
+    public void testRecordLines() throws Exception {
+        DelimitedRecordReader reader = new DelimitedRecordReader(
+                new StringReader("header\r\n\r\n1,\"multi\r\nline\rvalue\"\n2,x\n\n3,y"), ',', '"');
+        reader.skipLines(1);
+        assertArrayEquals(new String[] { "1", "multi\r\nline\rvalue" }, reader.readRecord());
+        assertEquals(2, reader.getRecordStartLine());
+        assertEquals(5, reader.getRecordEndLine());
+        assertArrayEquals(new String[] { "2", "x" }, reader.readRecord());
+        assertEquals(5, reader.getRecordStartLine());
+        assertEquals(6, reader.getRecordEndLine());
+        assertArrayEquals(new String[] { "3", "y" }, reader.readRecord());
+        assertEquals(7, reader.getRecordStartLine());
+        assertEquals(8, reader.getRecordEndLine());
+        assertNull(reader.readRecord());
+        reader.close();
+    }
+
+}
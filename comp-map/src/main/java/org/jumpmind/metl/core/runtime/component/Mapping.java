@@ -36,6 +36,7 @@ import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.IndexedEntityData;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
@@ -56,6 +57,13 @@ public class Mapping extends AbstractComponentRuntime {
 
     boolean entityPerRecord;
 
+    IndexedEntityData.Schema outputSchema;
+
+    IndexedEntityData.Schema inputSchema;
+
+    /* output ordinals by input ordinal for the last input schema seen */
+    int[][] ordinalMap;
+
     @Override
     public void start() {
 
@@ -64,6 +72,9 @@ public class Mapping extends AbstractComponentRuntime {
         setUnmappedAttributesToNull = getComponent().getBoolean(SET_UNMAPPED_ATTRIBUTES_TO_NULL,
                 false);
         entityPerRecord = getComponent().getBoolean(ENTITY_PER_ROW, false);
+        outputSchema = IndexedEntityData.Schema.of(getOutputModel());
+        inputSchema = null;
+        ordinalMap = null;
         attrToAttrMap = new HashMap<String, Set<String>>();
         List<ComponentAttributeSetting> attributeSettings = getComponent().getAttributeSettings();
         for (ComponentAttributeSetting attributeSetting : attributeSettings) {
@@ -179,19 +190,40 @@ public class Mapping extends AbstractComponentRuntime {
     protected ArrayList<EntityData> mapInputToOutput(EntityData inputRow) {
         ArrayList<EntityData> outputPayload = new ArrayList<EntityData>();
 
-        EntityData outputRow = new EntityData();
+        EntityData outputRow = outputSchema != null ? new IndexedEntityData(outputSchema) : new EntityData();
         outputRow.setChangeType(inputRow.getChangeType());
 
-        for (Entry<String, Object> attrEntry : inputRow.entrySet()) {
-            Set<String> newAttrIds = attrToAttrMap.get(attrEntry.getKey());
-            if (newAttrIds != null) {
-                for (String newAttrId : newAttrIds) {
-                    outputRow.put(newAttrId, attrEntry.getValue());
+        int[][] mappedOrdinals = getOrdinalMap(inputRow);
+        if (mappedOrdinals != null) {
+            IndexedEntityData indexedInputRow = (IndexedEntityData) inputRow;
+            IndexedEntityData indexedOutputRow = (IndexedEntityData) outputRow;
+            for (int i = 0; i < mappedOrdinals.length; i++) {
+                if (mappedOrdinals[i] != null && indexedInputRow.isSet(i)) {
+                    Object value = indexedInputRow.get(i);
+                    for (int ordinal : mappedOrdinals[i]) {
+                        indexedOutputRow.put(ordinal, value);
+                    }
+                }
+            }
+        } else {
+            for (Entry<String, Object> attrEntry : inputRow.entrySet()) {
+                Set<String> newAttrIds = attrToAttrMap.get(attrEntry.getKey());
+                if (newAttrIds != null) {
+                    for (String newAttrId : newAttrIds) {
+                        outputRow.put(newAttrId, attrEntry.getValue());
+                    }
                 }
             }
         }
 
-        if (setUnmappedAttributesToNull) {
+        if (setUnmappedAttributesToNull && outputRow instanceof IndexedEntityData) {
+            IndexedEntityData indexedOutputRow = (IndexedEntityData) outputRow;
+            for (int i = 0; i < outputSchema.size(); i++) {
+                if (!indexedOutputRow.isSet(i)) {
+                    indexedOutputRow.put(i, null);
+                }
+            }
+        } else if (setUnmappedAttributesToNull) {
             for (ModelEntity entity : getComponent().getOutputModel().getModelEntities()) {
                 for (ModelAttribute attr : entity.getModelAttributes()) {
                     if (!outputRow.containsKey(attr.getId())) {
@@ -209,4 +241,37 @@ public class Mapping extends AbstractComponentRuntime {
         return outputPayload;
 
     }
+
+    /*
+     * Maps the ordinals of an indexed input row straight to the ordinals of
+     * the output row. Returns null when the row has to be mapped by key.
+     */
+    protected int[][] getOrdinalMap(EntityData inputRow) {
+        if (outputSchema == null || !(inputRow instanceof IndexedEntityData) || ((IndexedEntityData) inputRow).hasExtraKeys()) {
+            return null;
+        }
+        IndexedEntityData.Schema schema = ((IndexedEntityData) inputRow).getSchema();
+        if (schema != inputSchema) {
+            inputSchema = schema;
+            ordinalMap = new int[schema.size()][];
+            for (int i = 0; i < schema.size() && ordinalMap != null; i++) {
+                Set<String> newAttrIds = attrToAttrMap.get(schema.getAttributeId(i));
+                if (newAttrIds != null) {
+                    int[] ordinals = new int[newAttrIds.size()];
+                    int index = 0;
+                    for (String newAttrId : newAttrIds) {
+                        ordinals[index] = outputSchema.getOrdinal(newAttrId);
+                        if (ordinals[index++] < 0) {
+                            ordinalMap = null;
+                            break;
+                        }
+                    }
+                    if (ordinalMap != null) {
+                        ordinalMap[i] = ordinals;
+                    }
+                }
+            }
+        }
+        return ordinalMap;
+    }
 }
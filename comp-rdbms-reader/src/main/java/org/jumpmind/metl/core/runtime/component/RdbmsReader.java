@@ -23,11 +23,16 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isBlank;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -35,6 +40,11 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.jumpmind.db.sql.SqlException;
 import org.jumpmind.metl.core.model.Model;
@@ -44,10 +54,12 @@ import org.jumpmind.metl.core.runtime.ContentMessage;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.IndexedEntityData;
 import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.util.ThreadUtils;
 import org.jumpmind.properties.TypedProperties;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ResultSetExtractor;
@@ -75,6 +87,35 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
     
     public static final String SQL_STATEMENT = "SQL STATEMENT";    
 
+    public final static String PARTITION_MODE = "partition.mode";
+
+    public final static String PARTITION_COLUMN = "partition.column";
+
+    public final static String PARTITION_COUNT = "partition.count";
+
+    public final static String PARTITION_PREDICATES = "partition.predicates";
+
+    public static final String PARTITION_MODE_NONE = "NONE";
+
+    public static final String PARTITION_MODE_RANGE = "COLUMN RANGE";
+
+    public static final String PARTITION_MODE_MODULO = "KEY MODULO";
+
+    public static final String PARTITION_MODE_PREDICATES = "PREDICATES";
+
+    /**
+     * Token that may be placed in the where clause of a partitioned statement
+     * to mark where the partition predicate goes. Statements without it are
+     * wrapped in a derived table that is filtered by the predicate.
+     */
+    public static final String PARTITION_TOKEN = "$(PARTITION)";
+
+    static final String PARTITION_LOWER_PARAM = "metl_partition_lower";
+
+    static final String PARTITION_UPPER_PARAM = "metl_partition_upper";
+
+    static final String PARTITION_COLUMN_TOKEN = "$(PARTITION_COLUMN)";
+
     List<String> sqls;
 
     String runWhen = PER_UNIT_OF_WORK;
@@ -92,10 +133,23 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
     int rowReadDuringHandle;
     
     String unitOfWork = COMPONENT_LIFETIME;
+
+    String partitionMode = PARTITION_MODE_NONE;
+
+    String partitionColumn;
+
+    int partitionCount = 4;
+
+    List<String> partitionPredicates;
+
+    ExecutorService partitionExecutor;
+
+    IndexedEntityData.Schema outputSchema;
     
     @Override
     public void start() {
         TypedProperties properties = getTypedProperties();
+        outputSchema = IndexedEntityData.Schema.of(getOutputModel());
         sqls = getSqlStatements(true);
         rowsPerMessage = properties.getLong(ROWS_PER_MESSAGE);
         trimColumns = properties.is(TRIM_COLUMNS);
@@ -104,6 +158,43 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
         runWhen = properties.get(RUN_WHEN, runWhen);
         unitOfWork = properties.get(UNIT_OF_WORK, unitOfWork);
         queryTimeout = properties.getInt(QUERY_TIMEOUT, queryTimeout);
+        fetchSize = properties.getInt(FETCH_SIZE, fetchSize);
+        partitionMode = properties.get(PARTITION_MODE, partitionMode);
+        partitionColumn = properties.get(PARTITION_COLUMN);
+        partitionCount = properties.getInt(PARTITION_COUNT, partitionCount);
+        partitionPredicates = new ArrayList<>();
+        for (String predicate : properties.get(PARTITION_PREDICATES, "").split("\\r?\\n")) {
+            if (isNotBlank(predicate)) {
+                partitionPredicates.add(predicate.trim());
+            }
+        }
+        if (isPartitioned()) {
+            if (partitionCount < 1) {
+                throw new MisconfiguredException("The partition count must be at least 1");
+            }
+            if (PARTITION_MODE_PREDICATES.equals(partitionMode)) {
+                if (partitionPredicates.isEmpty()) {
+                    throw new MisconfiguredException("At least one partition predicate must be configured when the partition mode is %s",
+                            partitionMode);
+                }
+            } else if (isBlank(partitionColumn)) {
+                throw new MisconfiguredException("A partition column must be configured when the partition mode is %s", partitionMode);
+            }
+            partitionExecutor = ThreadUtils.createFixedThreadPool(getFlowStepId() + "-reader", partitionCount, partitionCount);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (partitionExecutor != null) {
+            partitionExecutor.shutdownNow();
+            partitionExecutor = null;
+        }
+        super.stop();
+    }
+
+    protected boolean isPartitioned() {
+        return partitionMode != null && !PARTITION_MODE_NONE.equals(partitionMode);
     }
 
     @Override
@@ -116,8 +207,6 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
 
         rowReadDuringHandle = 0;
 
-        NamedParameterJdbcTemplate template = getJdbcTemplate();
-
         int inboundRecordCount = 0;
         Iterator<?> inboundPayload = null;
         if (PER_ENTITY.equals(runWhen) && inputMessage instanceof ContentMessage<?>) {
@@ -139,6 +228,30 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
          */
         ArrayList<EntityData> outboundPayload = new ArrayList<EntityData>(); // =
                                                                              // null;
+        if (inboundRecordCount > 0) {
+            if (isPartitioned()) {
+                query(null, inputMessage, callback, unitOfWorkBoundaryReached, inboundPayload, inboundRecordCount, outboundPayload);
+            } else if (fetchSize > 0) {
+                Connection connection = openStreamingConnection();
+                boolean success = false;
+                try {
+                    query(getStreamingJdbcTemplate(connection), inputMessage, callback, unitOfWorkBoundaryReached, inboundPayload,
+                            inboundRecordCount, outboundPayload);
+                    success = true;
+                } finally {
+                    closeStreamingConnection(connection, success);
+                }
+            } else {
+                query(getJdbcTemplate(), inputMessage, callback, unitOfWorkBoundaryReached, inboundPayload, inboundRecordCount,
+                        outboundPayload);
+            }
+        }
+        sendLeftOverRows(callback, outboundPayload);
+        
+    }
+
+    protected void query(NamedParameterJdbcTemplate template, Message inputMessage, ISendMessageCallback callback,
+            boolean unitOfWorkBoundaryReached, Iterator<?> inboundPayload, int inboundRecordCount, ArrayList<EntityData> outboundPayload) {
         for (int i = 0; i < inboundRecordCount; i++) {
             Object entity = inboundPayload != null && inboundPayload.hasNext() ? inboundPayload.next() : null;
             ResultSetToEntityDataConverter resultSetToEntityDataConverter = new ResultSetToEntityDataConverter(inputMessage, callback,
@@ -152,8 +265,13 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
                 Map<String, Object> paramMap = prepareParams(sqlToExecute, inputMessage, entity, runWhen);
                 log(LogLevel.INFO, "About to run: %s", sqlToExecute);
                 log(LogLevel.INFO, "Passing params: %s", paramMap);
-                resultSetToEntityDataConverter.setSqlToExecute(sqlToExecute);
-                template.query(sqlToExecute, paramMap, resultSetToEntityDataConverter);
+                if (isPartitioned()) {
+                    sendLeftOverRows(callback, outboundPayload);
+                    queryPartitions(sqlToExecute, paramMap, inputMessage, callback, unitOfWorkBoundaryReached);
+                } else {
+                    resultSetToEntityDataConverter.setSqlToExecute(sqlToExecute);
+                    template.query(sqlToExecute, paramMap, resultSetToEntityDataConverter);
+                }
                 if (unitOfWork.equalsIgnoreCase(SQL_STATEMENT)) {
                     sendLeftOverRows(callback, outboundPayload);
                     callback.sendControlMessage();
@@ -164,8 +282,179 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
                 callback.sendControlMessage();
             }
         }
-        sendLeftOverRows(callback, outboundPayload);
-        
+    }
+
+    /**
+     * Run one statement as a set of partitions on separate pooled
+     * connections. Rows from the partitions are handed back to this thread,
+     * which forwards them downstream as they arrive, so the caller can send
+     * unit of work control messages once this method returns.
+     */
+    protected void queryPartitions(String sql, Map<String, Object> paramMap, Message inputMessage, ISendMessageCallback callback,
+            boolean unitOfWorkBoundaryReached) {
+        List<Partition> partitions = getPartitions(sql, paramMap);
+        BlockingQueue<Object> queue = new LinkedBlockingQueue<>(partitions.size() * 2);
+        List<Future<?>> futures = new ArrayList<>(partitions.size());
+        for (Partition partition : partitions) {
+            final String partitionSql = partition.apply(sql);
+            final Map<String, Object> partitionParams = new HashMap<>(paramMap);
+            partitionParams.putAll(partition.params);
+            log(LogLevel.DEBUG, "Partition: %s", partitionSql);
+            futures.add(partitionExecutor.submit(() -> {
+                PartitionCompleted completed = new PartitionCompleted();
+                try {
+                    PartitionResultSetConverter converter = new PartitionResultSetConverter(inputMessage, callback,
+                            unitOfWorkBoundaryReached, queue);
+                    converter.setSqlToExecute(sql);
+                    queryPartition(partitionSql, partitionParams, converter);
+                    converter.sendPayload();
+                } catch (Throwable ex) {
+                    completed.error = ex;
+                } finally {
+                    try {
+                        queue.put(completed);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+
+        int remaining = partitions.size();
+        long ts = System.currentTimeMillis();
+        try {
+            while (remaining > 0) {
+                Object next = queue.take();
+                if (next instanceof PartitionCompleted) {
+                    remaining--;
+                    Throwable error = ((PartitionCompleted) next).error;
+                    if (error instanceof RuntimeException) {
+                        throw (RuntimeException) error;
+                    } else if (error instanceof Error) {
+                        throw (Error) error;
+                    } else if (error != null) {
+                        throw new SqlException(error);
+                    }
+                } else {
+                    @SuppressWarnings("unchecked")
+                    ArrayList<EntityData> rows = (ArrayList<EntityData>) next;
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber, rows.size());
+                    rowReadDuringHandle += rows.size();
+                    callback.sendEntityDataMessage(null, rows);
+                    long newTs = System.currentTimeMillis();
+                    if (newTs - ts > 10000) {
+                        getExecutionTracker().updateStatistics(threadNumber, context);
+                        ts = newTs;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } finally {
+            if (remaining > 0) {
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    protected void queryPartition(String sql, Map<String, Object> paramMap, ResultSetToEntityDataConverter converter) {
+        if (fetchSize > 0) {
+            Connection connection = openStreamingConnection();
+            boolean success = false;
+            try {
+                getStreamingJdbcTemplate(connection).query(sql, paramMap, converter);
+                success = true;
+            } finally {
+                closeStreamingConnection(connection, success);
+            }
+        } else {
+            getJdbcTemplate().query(sql, paramMap, converter);
+        }
+    }
+
+    protected List<Partition> getPartitions(String sql, Map<String, Object> paramMap) {
+        List<Partition> partitions = new ArrayList<>();
+        if (PARTITION_MODE_PREDICATES.equals(partitionMode)) {
+            for (String predicate : partitionPredicates) {
+                partitions.add(new Partition(predicate));
+            }
+        } else if (PARTITION_MODE_MODULO.equals(partitionMode)) {
+            String productName = getDatabaseProductName();
+            boolean sqlServer = productName.contains("microsoft") || productName.contains("sql server");
+            for (int i = 0; i < partitionCount; i++) {
+                String mod = sqlServer ? String.format("abs(%s %% %d)", PARTITION_COLUMN_TOKEN, partitionCount)
+                        : String.format("abs(mod(%s, %d))", PARTITION_COLUMN_TOKEN, partitionCount);
+                partitions.add(new Partition(mod + " = " + i + (i == 0 ? " or " + PARTITION_COLUMN_TOKEN + " is null" : ""),
+                        partitionColumn));
+            }
+        } else if (PARTITION_MODE_RANGE.equals(partitionMode)) {
+            partitions.addAll(getRangePartitions(sql, paramMap));
+        } else {
+            throw new MisconfiguredException("Unsupported partition mode: %s", partitionMode);
+        }
+        return partitions;
+    }
+
+    protected List<Partition> getRangePartitions(String sql, Map<String, Object> paramMap) {
+        String boundsSql = String.format("select min(%1$s), max(%1$s) from (%2$s) metl_bounds", Partition.unqualify(partitionColumn),
+                sql.replace(PARTITION_TOKEN, "1=1"));
+        Object[] bounds = getJdbcTemplate().query(boundsSql, paramMap, (ResultSetExtractor<Object[]>) rs -> rs.next()
+                ? new Object[] { JdbcUtils.getResultSetValue(rs, 1), JdbcUtils.getResultSetValue(rs, 2) } : new Object[2]);
+        List<Partition> partitions = new ArrayList<>(partitionCount);
+        Object min = bounds[0], max = bounds[1];
+        if (min == null || max == null) {
+            partitions.add(new Partition("1=1"));
+        } else if (min instanceof Date) {
+            long lower = ((Date) min).getTime();
+            long upper = ((Date) max).getTime();
+            long step = Math.max((upper - lower + partitionCount - 1) / partitionCount, 1);
+            for (long start = lower; start <= upper; start += step) {
+                long end = start + step;
+                addRangePartition(partitions, partitions.isEmpty(), end > upper, new Timestamp(start),
+                        new Timestamp(end > upper ? upper : end));
+            }
+        } else if (min instanceof Number) {
+            BigDecimal lower = new BigDecimal(min.toString());
+            BigDecimal upper = new BigDecimal(max.toString());
+            BigDecimal step = upper.subtract(lower).divide(BigDecimal.valueOf(partitionCount), MathContext.DECIMAL64);
+            if (step.signum() == 0) {
+                addRangePartition(partitions, true, true, lower, upper);
+            } else {
+                for (int i = 0; i < partitionCount; i++) {
+                    boolean last = i == partitionCount - 1;
+                    addRangePartition(partitions, i == 0, last, lower.add(step.multiply(BigDecimal.valueOf(i))),
+                            last ? upper : lower.add(step.multiply(BigDecimal.valueOf(i + 1))));
+                }
+            }
+        } else {
+            throw new MisconfiguredException("The partition column %s must be a numeric or date column to use the %s partition mode",
+                    partitionColumn, partitionMode);
+        }
+        return partitions;
+    }
+
+    protected void addRangePartition(List<Partition> partitions, boolean first, boolean last, Object lower, Object upper) {
+        String predicate = String.format("%1$s >= :%2$s and %1$s %3$s :%4$s", PARTITION_COLUMN_TOKEN, PARTITION_LOWER_PARAM,
+                last ? "<=" : "<", PARTITION_UPPER_PARAM);
+        if (first) {
+            predicate = predicate + " or " + PARTITION_COLUMN_TOKEN + " is null";
+        }
+        Partition partition = new Partition(predicate, partitionColumn);
+        partition.params.put(PARTITION_LOWER_PARAM, lower);
+        partition.params.put(PARTITION_UPPER_PARAM, upper);
+        partitions.add(partition);
+    }
+
+    protected String getDatabaseProductName() {
+        try {
+            String productName = (String) JdbcUtils.extractDatabaseMetaData(getDataSource(), "getDatabaseProductName");
+            return productName != null ? productName.toLowerCase() : "";
+        } catch (Exception e) {
+            throw new SqlException(e);
+        }
     }
 
     private void sendLeftOverRows(final ISendMessageCallback callback, ArrayList<EntityData> outboundPayload) {
@@ -175,6 +464,25 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
         } 
     }
     
+    /*
+     * The ordinals of the attributes in the output schema or null if a column
+     * maps to an attribute that is not part of the schema
+     */
+    private int[] getOrdinals(List<String> attributeIds) {
+        if (outputSchema == null) {
+            return null;
+        }
+        int[] ordinals = new int[attributeIds.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            String attributeId = attributeIds.get(i);
+            ordinals[i] = isNotBlank(attributeId) ? outputSchema.getOrdinal(attributeId) : -1;
+            if (isNotBlank(attributeId) && ordinals[i] < 0) {
+                return null;
+            }
+        }
+        return ordinals;
+    }
+
     private ArrayList<String> getAttributeIds(String sql, ResultSetMetaData meta, Map<Integer, String> sqlEntityHints) throws SQLException {
         ArrayList<String> attributeIds = new ArrayList<String>();
         boolean attributeFound = false;
@@ -409,6 +717,10 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
         this.sqls.add(sql);
     }
 
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
     public void setRowsPerMessage(long rowsPerMessage) {
         this.rowsPerMessage = rowsPerMessage;
     }
@@ -474,16 +786,16 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
             ResultSetMetaData meta = rs.getMetaData();
             Map<Integer, String> columnHints = getSqlColumnEntityHints(sqlToExecute);
             ArrayList<String> attributeIds = getAttributeIds(sqlToExecute, meta, columnHints);
+            int[] ordinals = getOrdinals(attributeIds);
             long ts = System.currentTimeMillis();
             while (rs.next()) {
                 if (outputRecCount++ % rowsPerMessage == 0 && payload != null && !payload.isEmpty()) {
-                    callback.sendEntityDataMessage(null, payload);
-                    payload.clear();
+                    sendPayload();
                 }
 
-                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                rowRead();
 
-                EntityData rowData = new EntityData();
+                EntityData rowData = ordinals != null ? new IndexedEntityData(outputSchema) : new EntityData();
                 rowData.setChangeType(entityChangeType);
                 for (int i = 1; i <= meta.getColumnCount(); i++) {
                     String attributeId = attributeIds.get(i - 1);
@@ -492,10 +804,13 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
                         if (trimColumns && value instanceof String) {
                             value = value.toString().trim();
                         }
-                        rowData.put(attributeId, value);
+                        if (ordinals != null) {
+                            ((IndexedEntityData) rowData).put(ordinals[i - 1], value);
+                        } else {
+                            rowData.put(attributeId, value);
+                        }
                     }
                 }
-                rowReadDuringHandle++;
                 payload.add(rowData);
                 if (context.getDeployment() != null && context.getDeployment().asLogLevel() == LogLevel.DEBUG) {
                     logEntityAttributes(rowData);
@@ -503,18 +818,114 @@ public class RdbmsReader extends AbstractRdbmsComponentRuntime {
 
                 long newTs = System.currentTimeMillis();
                 if (newTs - ts > 10000) {
-                    getExecutionTracker().updateStatistics(threadNumber, context);
+                    updateStatistics();
                     ts = newTs;
                 }
             }
             return payload;
         }
 
+        protected void sendPayload() {
+            callback.sendEntityDataMessage(null, payload);
+            payload.clear();
+        }
+
+        protected void rowRead() {
+            getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+            rowReadDuringHandle++;
+        }
+
+        protected void updateStatistics() {
+            getExecutionTracker().updateStatistics(threadNumber, context);
+        }
+
         public void setSqlToExecute(String sqlToExecute) {
             this.sqlToExecute = sqlToExecute;
         }
     }
 
+    /**
+     * Reads one partition on a pooled thread. Batches of rows are queued for
+     * the component thread, which does the sending and the statistics.
+     */
+    class PartitionResultSetConverter extends ResultSetToEntityDataConverter {
+
+        BlockingQueue<Object> queue;
+
+        PartitionResultSetConverter(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkLastMessage,
+                BlockingQueue<Object> queue) {
+            super(inputMessage, callback, unitOfWorkLastMessage, new ArrayList<EntityData>());
+            this.queue = queue;
+        }
+
+        @Override
+        protected void sendPayload() {
+            if (!payload.isEmpty()) {
+                try {
+                    queue.put(payload);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException();
+                }
+                payload = new ArrayList<EntityData>();
+            }
+        }
+
+        @Override
+        protected void rowRead() {
+        }
+
+        @Override
+        protected void updateStatistics() {
+        }
+    }
+
+    static class PartitionCompleted {
+        Throwable error;
+    }
+
+    /*
+     * A partition predicate built on the partition column refers to it
+     * through the column token. The column is used as configured when the
+     * predicate replaces the partition token, where a table qualifier like
+     * t.id is in scope. It is used without its qualifier when the statement
+     * is wrapped in a derived table, because the qualifier is not visible
+     * outside of it.
+     */
+    static class Partition {
+
+        String predicate;
+
+        String column;
+
+        Map<String, Object> params = new HashMap<>();
+
+        Partition(String predicate) {
+            this(predicate, null);
+        }
+
+        Partition(String predicate, String column) {
+            this.predicate = predicate;
+            this.column = column;
+        }
+
+        String apply(String sql) {
+            if (sql.contains(PARTITION_TOKEN)) {
+                return sql.replace(PARTITION_TOKEN, "(" + getPredicate(column) + ")");
+            } else {
+                return String.format("select * from (%s) metl_partition where %s", sql, getPredicate(unqualify(column)));
+            }
+        }
+
+        String getPredicate(String column) {
+            return column != null ? predicate.replace(PARTITION_COLUMN_TOKEN, column) : predicate;
+        }
+
+        static String unqualify(String column) {
+            return column != null ? column.substring(column.lastIndexOf('.') + 1) : null;
+        }
+    }
+
     public void setRunWhen(String runWhen) {
         this.runWhen = runWhen;
     }
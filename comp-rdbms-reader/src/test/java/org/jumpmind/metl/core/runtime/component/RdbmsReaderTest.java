@@ -2,6 +2,8 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
@@ -26,4 +28,69 @@ public class RdbmsReaderTest {
         assertEquals(hints.get(2), "COLB");
         assertEquals(hints.get(3), "COLC");
     }
+
+    @Test
+    public void testPartitionApply() {
+        RdbmsReader.Partition partition = new RdbmsReader.Partition("abs(mod(id, 4)) = 1");
+        assertEquals("select * from (select id from test) metl_partition where abs(mod(id, 4)) = 1",
+                partition.apply("select id from test"));
+        assertEquals("select id from test where a = 1 and (abs(mod(id, 4)) = 1)",
+                partition.apply("select id from test where a = 1 and $(PARTITION)"));
+    }
+
+    @Test
+    public void testPartitionApplyQualifiedColumn() {
+        RdbmsReader.Partition partition = new RdbmsReader.Partition(RdbmsReader.PARTITION_COLUMN_TOKEN + " > 1", "t.id");
+        assertEquals("select * from (select t.id from test t) metl_partition where id > 1",
+                partition.apply("select t.id from test t"));
+        assertEquals("select t.id from test t where (t.id > 1)", partition.apply("select t.id from test t where $(PARTITION)"));
+
+        partition = new RdbmsReader.Partition(RdbmsReader.PARTITION_COLUMN_TOKEN + " > 1", "id");
+        assertEquals("select * from (select id from test) metl_partition where id > 1", partition.apply("select id from test"));
+        assertEquals("select id from test where (id > 1)", partition.apply("select id from test where $(PARTITION)"));
+    }
+
+    @Test
+    public void testRangePartitionQualifiedColumn() {
+        RdbmsReader reader = new RdbmsReader();
+        reader.partitionColumn = "s.t.id";
+        List<RdbmsReader.Partition> partitions = new ArrayList<>();
+        reader.addRangePartition(partitions, true, false, 1, 10);
+        reader.addRangePartition(partitions, false, true, 10, 20);
+
+        assertEquals("select * from (select s.t.id from s.t) metl_partition where "
+                + "id >= :metl_partition_lower and id < :metl_partition_upper or id is null",
+                partitions.get(0).apply("select s.t.id from s.t"));
+        assertEquals("select s.t.id from s.t where "
+                + "(s.t.id >= :metl_partition_lower and s.t.id <= :metl_partition_upper)",
+                partitions.get(1).apply("select s.t.id from s.t where $(PARTITION)"));
+        assertEquals(1, partitions.get(0).params.get(RdbmsReader.PARTITION_LOWER_PARAM));
+        assertEquals(20, partitions.get(1).params.get(RdbmsReader.PARTITION_UPPER_PARAM));
+    }
+
+    @Test
+    public void testModuloPartitionQualifiedColumn() {
+        RdbmsReader reader = new RdbmsReader() {
+            @Override
+            protected String getDatabaseProductName() {
+                return "h2";
+            }
+        };
+        reader.partitionMode = RdbmsReader.PARTITION_MODE_MODULO;
+        reader.partitionColumn = "t.id";
+        reader.partitionCount = 2;
+        List<RdbmsReader.Partition> partitions = reader.getPartitions("select t.id from test t", null);
+        assertEquals(2, partitions.size());
+        assertEquals("select * from (select t.id from test t) metl_partition where abs(mod(id, 2)) = 0 or id is null",
+                partitions.get(0).apply("select t.id from test t"));
+        assertEquals("select t.id from test t where (abs(mod(t.id, 2)) = 1)",
+                partitions.get(1).apply("select t.id from test t where $(PARTITION)"));
+    }
+
+    @Test
+    public void testPredicatePartitionUnchanged() {
+        RdbmsReader.Partition partition = new RdbmsReader.Partition("t.name like 'a%'");
+        assertEquals("select t.name from test t where (t.name like 'a%')",
+                partition.apply("select t.name from test t where $(PARTITION)"));
+    }
 }
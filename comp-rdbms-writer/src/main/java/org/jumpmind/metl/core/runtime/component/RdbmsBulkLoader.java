@@ -0,0 +1,314 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.PGCopyOutputStream;
+
+/**
+ * Loads rows through a database specific bulk path instead of one insert
+ * statement per row. A loader is picked by the database platform name and
+ * null is returned when the platform does not have one.
+ */
+abstract public class RdbmsBulkLoader {
+
+    public static RdbmsBulkLoader create(String platformName) {
+        String name = platformName != null ? platformName.toLowerCase() : "";
+        if (name.startsWith("postgres") || name.startsWith("greenplum")) {
+            return new PostgresCopyLoader();
+        } else if (name.startsWith("h2")) {
+            return new H2CsvReadLoader();
+        } else if (name.startsWith("mysql") || name.startsWith("mariadb")) {
+            return new MySqlLoadDataLoader();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the loader can load columns of these jdbc types over
+     *         this connection
+     */
+    public boolean supports(Connection connection, int[] types) throws SQLException {
+        return true;
+    }
+
+    /**
+     * Loads the rows into the table on the given connection. The connection
+     * is not committed.
+     * 
+     * @return the number of rows loaded
+     */
+    abstract public int load(Connection connection, String tableName, String[] columnNames, List<Object[]> rows)
+            throws SQLException, IOException;
+
+    protected String getColumnList(String[] columnNames) {
+        StringBuilder columns = new StringBuilder();
+        for (String columnName : columnNames) {
+            if (columns.length() > 0) {
+                columns.append(",");
+            }
+            columns.append(columnName);
+        }
+        return columns.toString();
+    }
+
+    protected String formatValue(Object value) {
+        if (value instanceof Timestamp || value instanceof java.sql.Date || value instanceof java.sql.Time) {
+            return value.toString();
+        } else if (value instanceof java.util.Date) {
+            return new Timestamp(((java.util.Date) value).getTime()).toString();
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        } else if (value instanceof byte[]) {
+            return toHex((byte[]) value);
+        } else {
+            return value.toString();
+        }
+    }
+
+    protected String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(digits[(b >> 4) & 0xf]).append(digits[b & 0xf]);
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Writes rows as RFC 4180 csv. Nulls are written as an empty field and
+     * empty strings as a quoted empty field.
+     */
+    protected void writeCsv(Writer writer, String[] header, List<Object[]> rows) throws IOException {
+        if (header != null) {
+            for (int i = 0; i < header.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeCsvValue(writer, header[i]);
+            }
+            writer.write('\n');
+        }
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                if (row[i] != null) {
+                    writeCsvValue(writer, formatValue(row[i]));
+                }
+            }
+            writer.write('\n');
+        }
+    }
+
+    protected void writeCsvValue(Writer writer, String value) throws IOException {
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    protected File writeTempFile(String[] header, List<Object[]> rows) throws IOException {
+        File file = File.createTempFile("metl-bulk-", ".csv");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8));
+        try {
+            writeCsv(writer, header, rows);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    static class PostgresCopyLoader extends RdbmsBulkLoader {
+
+        static final int COPY_BUFFER_SIZE = 65536;
+
+        @Override
+        public int load(Connection connection, String tableName, String[] columnNames, List<Object[]> rows)
+                throws SQLException, IOException {
+            String sql = "COPY " + tableName + " (" + getColumnList(columnNames) + ") FROM STDIN WITH CSV";
+            PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            return copy(pgConnection.getCopyAPI().copyIn(sql), rows);
+        }
+
+        /**
+         * Streams the rows to the server as they are formatted, one buffer
+         * at a time, so the whole batch is never held as a single string.
+         * The driver always sets the client encoding to UTF-8. The copy is
+         * cancelled if it does not complete.
+         */
+        protected int copy(CopyIn copyIn, List<Object[]> rows) throws SQLException, IOException {
+            PGCopyOutputStream out = new PGCopyOutputStream(copyIn, COPY_BUFFER_SIZE);
+            try {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                writeCsv(writer, null, rows);
+                writer.flush();
+                return (int) out.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        }
+
+        @Override
+        protected String formatValue(Object value) {
+            if (value instanceof byte[]) {
+                return "\\x" + toHex((byte[]) value);
+            }
+            return super.formatValue(value);
+        }
+    }
+
+    static class H2CsvReadLoader extends RdbmsBulkLoader {
+
+        /**
+         * CSVREAD reads the file from the database's file system so it can
+         * only be used with an embedded database
+         */
+        @Override
+        public boolean supports(Connection connection, int[] types) throws SQLException {
+            String url = connection.getMetaData().getURL();
+            return url != null && !url.startsWith("jdbc:h2:tcp:") && !url.startsWith("jdbc:h2:ssl:");
+        }
+
+        @Override
+        public int load(Connection connection, String tableName, String[] columnNames, List<Object[]> rows)
+                throws SQLException, IOException {
+            String[] header = new String[columnNames.length];
+            for (int i = 0; i < header.length; i++) {
+                header[i] = "C" + i;
+            }
+            File file = writeTempFile(header, rows);
+            try {
+                String sql = "INSERT INTO " + tableName + " (" + getColumnList(columnNames) + ") SELECT * FROM CSVREAD('"
+                        + file.getAbsolutePath().replace("'", "''") + "', NULL, 'charset=UTF-8')";
+                Statement stmt = connection.createStatement();
+                try {
+                    return stmt.executeUpdate(sql);
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    static class MySqlLoadDataLoader extends RdbmsBulkLoader {
+
+        @Override
+        public boolean supports(Connection connection, int[] types) throws SQLException {
+            for (int type : types) {
+                if (type == Types.BINARY || type == Types.VARBINARY || type == Types.LONGVARBINARY || type == Types.BLOB) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int load(Connection connection, String tableName, String[] columnNames, List<Object[]> rows)
+                throws SQLException, IOException {
+            File file = File.createTempFile("metl-bulk-", ".txt");
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8));
+                try {
+                    for (Object[] row : rows) {
+                        for (int i = 0; i < row.length; i++) {
+                            if (i > 0) {
+                                writer.write('\t');
+                            }
+                            writer.write(row[i] == null ? "\\N" : escape(formatValue(row[i])));
+                        }
+                        writer.write('\n');
+                    }
+                } finally {
+                    writer.close();
+                }
+
+                String sql = "LOAD DATA LOCAL INFILE '" + file.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'")
+                        + "' INTO TABLE " + tableName + " CHARACTER SET utf8 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\'"
+                        + " LINES TERMINATED BY '\\n' (" + getColumnList(columnNames) + ")";
+                Statement stmt = connection.createStatement();
+                try {
+                    return stmt.executeUpdate(sql);
+                } finally {
+                    stmt.close();
+                }
+            } finally {
+                file.delete();
+            }
+        }
+
+        @Override
+        protected String formatValue(Object value) {
+            if (value instanceof Boolean) {
+                return ((Boolean) value) ? "1" : "0";
+            }
+            return super.formatValue(value);
+        }
+
+        protected String escape(String value) {
+            StringBuilder escaped = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\':
+                        escaped.append("\\\\");
+                        break;
+                    case '\t':
+                        escaped.append("\\t");
+                        break;
+                    case '\n':
+                        escaped.append("\\n");
+                        break;
+                    case '\r':
+                        escaped.append("\\r");
+                        break;
+                    case '\0':
+                        escaped.append("\\0");
+                        break;
+                    default:
+                        escaped.append(c);
+                }
+            }
+            return escaped.toString();
+        }
+    }
+}
@@ -23,6 +23,9 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -30,6 +33,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.sql.DataSource;
 
@@ -40,6 +46,7 @@ import org.jumpmind.db.platform.JdbcDatabasePlatformFactory;
 import org.jumpmind.db.sql.DmlStatement;
 import org.jumpmind.db.sql.DmlStatement.DmlType;
 import org.jumpmind.db.sql.ISqlTransaction;
+import org.jumpmind.db.sql.JdbcSqlTransaction;
 import org.jumpmind.db.sql.SqlException;
 import org.jumpmind.db.sql.SqlTemplateSettings;
 import org.jumpmind.db.sql.UniqueKeyException;
@@ -51,12 +58,14 @@ import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.IndexedEntityData;
 import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.metl.core.runtime.resource.IDatasourceRuntime;
 import org.jumpmind.metl.core.util.LogUtils;
+import org.jumpmind.metl.core.util.ThreadUtils;
 import org.jumpmind.properties.TypedProperties;
 import org.jumpmind.util.FormatUtils;
 
@@ -78,6 +87,13 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     public final static String TABLE_PREFIX = "table.prefix";
     public final static String AUTO_CREATE_TABLE = "table.auto.create";
     public final static String USE_CACHED_METADATA = "use.cached.table.metadata";
+    public final static String BATCH_SIZE = "batch.size";
+    public final static String COMMIT_WHEN = "commit.when";
+    public final static String COMMIT_INTERVAL = "commit.interval";
+    public final static String PARALLEL_CONNECTIONS = "parallel.connections";
+    public final static String BULK_LOAD = "bulk.load";
+    public final static String COMMIT_EVERY_N_ROWS = "EVERY N ROWS";
+    public final static String COMMIT_EVERY_N_MESSAGES = "EVERY N MESSAGES";
 
     boolean useCachedMetadata = false;
     boolean continueOnError = false;
@@ -94,6 +110,20 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     int inboundEntityDataCount = 0;
     int totalStatementCount = 0;
     boolean batchMode = false;
+    int batchSize = 100;
+    String commitWhen = PER_MESSAGE;
+    int commitInterval = 10000;
+    int parallelConnections = 1;
+    boolean bulkLoad = false;
+    RdbmsBulkLoader bulkLoader;
+    ISqlTransaction transaction;
+    int rowsSinceCommit = 0;
+    int messagesSinceCommit = 0;
+    List<RdbmsWriter> partitionWriters;
+    RdbmsWriter parentWriter;
+    ComponentStatistics partitionStatistics;
+    List<String> pkAttributeIds;
+    ExecutorService partitionWriterExecutor;
     IDatabasePlatform databasePlatform;
     List<TargetTableDefintion> targetTables;
     Throwable error;
@@ -126,10 +156,19 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         fitToColumn = properties.is(FIT_TO_COLUMN);
         tableSuffix = properties.get(TABLE_SUFFIX, "");
         autoCreateTable = properties.is(AUTO_CREATE_TABLE, false);
+        batchSize = properties.getInt(BATCH_SIZE, batchSize);
+        commitWhen = properties.get(COMMIT_WHEN, PER_MESSAGE);
+        commitInterval = properties.getInt(COMMIT_INTERVAL, commitInterval);
+        parallelConnections = properties.getInt(PARALLEL_CONNECTIONS, 1);
+        bulkLoad = properties.is(BULK_LOAD, false);
         
         if (batchMode && insertFallback) {
             throw new MisconfiguredException("Insert fallback is not supported in batch mode");
         }
+        
+        if (bulkLoad && (replaceRows || continueOnError)) {
+            throw new MisconfiguredException("Replacing rows and continuing on error are not supported in bulk load mode");
+        }
 
         if (tableSuffix == null) {
             tableSuffix = "";
@@ -147,8 +186,41 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
             schemaName = null;
         }
         
+        if (commitInterval <= 0 && (COMMIT_EVERY_N_ROWS.equals(commitWhen) || COMMIT_EVERY_N_MESSAGES.equals(commitWhen))) {
+            throw new MisconfiguredException("The commit interval must be greater than zero when committing %s", commitWhen);
+        }
+        
         statsMap = new HashMap<TargetTableDefintion, WriteStats>();
         lastStatsLogTime = System.currentTimeMillis();
+        
+        if (parallelConnections > 1 && parentWriter == null) {
+            partitionWriters = new ArrayList<>(parallelConnections);
+            for (int i = 0; i < parallelConnections; i++) {
+                partitionWriters.add(createPartitionWriter());
+            }
+            partitionWriterExecutor = ThreadUtils.createFixedThreadPool(getFlowStepId() + "-writer", parallelConnections,
+                    parallelConnections);
+        }
+    }
+
+    /**
+     * Partition writers are started from the same component settings as this
+     * writer. They keep their own statistics, which are added to this
+     * writer's statistics after each message so the shared statistics are
+     * only updated from one thread.
+     */
+    protected RdbmsWriter createPartitionWriter() {
+        RdbmsWriter writer = new RdbmsWriter();
+        writer.parentWriter = this;
+        writer.partitionStatistics = new ComponentStatistics();
+        writer.create(componentDefinition, context, threadNumber);
+        writer.start();
+        return writer;
+    }
+
+    @Override
+    protected ComponentStatistics getComponentStatistics() {
+        return partitionStatistics != null ? partitionStatistics : super.getComponentStatistics();
     }
 
     @Override
@@ -160,7 +232,6 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
     public void handle(final Message inputMessage, final ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
         if (inputMessage instanceof EntityDataMessage) {
             results.clear();
-            lastPreparedDml = null;
 
             if (error == null) {
                 if (databasePlatform == null) {
@@ -168,52 +239,72 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                         throw new RuntimeException("The data source resource has not been configured.  Please configure it.");
                     }
                     DataSource dataSource = (DataSource) getResourceReference();
-                    databasePlatform = JdbcDatabasePlatformFactory.createNewPlatformInstance(dataSource, new SqlTemplateSettings(),
+                    SqlTemplateSettings settings = new SqlTemplateSettings();
+                    settings.setBatchSize(batchSize);
+                    databasePlatform = JdbcDatabasePlatformFactory.createNewPlatformInstance(dataSource, settings,
                             quoteIdentifiers, false);
                 }
-                if (targetTables == null) {
-                    Model model = getInputModel();
-                    targetTables = new ArrayList<TargetTableDefintion>();
-                    for (ModelEntity entity : model.getModelEntities()) {
-                        String tableName = tablePrefix + entity.getName() + tableSuffix;
-                        IDatasourceRuntime resource = (IDatasourceRuntime)getResourceRuntime();
-                        Table table = resource != null ? resource.getTableFromCache(catalogName, schemaName, tableName) : null;
-                        if (table == null || !useCachedMetadata) {
-                            table = databasePlatform.getTableFromCache(catalogName, schemaName, tableName, true);
-                            if (resource != null) {
-                                resource.putTableInCache(catalogName, schemaName, tableName, table);
-                            }
-                        }
-                        if (table == null && autoCreateTable) {
-                            table = createTableFromEntity(entity, tableName);
-                            log(LogLevel.INFO, "Creating table: " + table.getName() + "  on db: " + databasePlatform.getDataSource().toString());
-                            databasePlatform.createTables(false, false, table);
-                        }
-                        if (table != null) {
-                            targetTables.add(new TargetTableDefintion(entity, new TargetTable(DmlType.UPDATE, entity, table.copy()),
-                                    new TargetTable(DmlType.INSERT, entity, table.copy()),
-                                    new TargetTable(DmlType.DELETE, entity, table.copy())));
-                        }
+                if (bulkLoad && bulkLoader == null && partitionWriters == null) {
+                    bulkLoader = RdbmsBulkLoader.create(databasePlatform.getName());
+                    if (bulkLoader == null) {
+                        log(LogLevel.INFO, "Bulk load is not available for %s.  Rows will be inserted with sql statements",
+                                databasePlatform.getName());
+                        bulkLoad = false;
                     }
                 }
 
                 ArrayList<EntityData> inputRows = ((EntityDataMessage) inputMessage).getPayload();
-                if (inputRows != null && inputRows.size() > 0) {
-                    ISqlTransaction transaction = databasePlatform.getSqlTemplate().startSqlTransaction();
-                    transaction.setInBatchMode(batchMode);
-                    try {
-                        write(transaction, (EntityDataMessage)inputMessage, callback, unitOfWorkBoundaryReached);
-                        transaction.commit();
-                    } catch (Throwable ex) {
-                        error = ex;
-                        transaction.rollback();
-                        if (ex instanceof RuntimeException) {
-                            throw (RuntimeException) ex;
-                        } else {
-                            throw new RuntimeException(ex);
+                if (partitionWriters != null) {
+                    writeToPartitions((EntityDataMessage) inputMessage, unitOfWorkBoundaryReached);
+                } else {
+                    if (targetTables == null) {
+                        Model model = getInputModel();
+                        targetTables = new ArrayList<TargetTableDefintion>();
+                        for (ModelEntity entity : model.getModelEntities()) {
+                            String tableName = tablePrefix + entity.getName() + tableSuffix;
+                            IDatasourceRuntime resource = (IDatasourceRuntime)getResourceRuntime();
+                            Table table = resource != null ? resource.getTableFromCache(catalogName, schemaName, tableName) : null;
+                            if (table == null || !useCachedMetadata) {
+                                table = databasePlatform.getTableFromCache(catalogName, schemaName, tableName, true);
+                                if (resource != null) {
+                                    resource.putTableInCache(catalogName, schemaName, tableName, table);
+                                }
+                            }
+                            if (table == null && autoCreateTable) {
+                                table = createTableFromEntity(entity, tableName);
+                                log(LogLevel.INFO, "Creating table: " + table.getName() + "  on db: " + databasePlatform.getDataSource().toString());
+                                databasePlatform.createTables(false, false, table);
+                            }
+                            if (table != null) {
+                                targetTables.add(new TargetTableDefintion(entity, new TargetTable(DmlType.UPDATE, entity, table.copy()),
+                                        new TargetTable(DmlType.INSERT, entity, table.copy()),
+                                        new TargetTable(DmlType.DELETE, entity, table.copy())));
+                            }
+                        }
+                    }
+
+                    if (inputRows != null && inputRows.size() > 0) {
+                        if (transaction == null) {
+                            transaction = databasePlatform.getSqlTemplate().startSqlTransaction();
+                            transaction.setInBatchMode(batchMode);
+                            lastPreparedDml = null;
+                        }
+                        try {
+                            write(transaction, (EntityDataMessage)inputMessage, callback, unitOfWorkBoundaryReached);
+                            rowsSinceCommit += inputRows.size();
+                            messagesSinceCommit++;
+                            if (isCommitDue(unitOfWorkBoundaryReached)) {
+                                commit();
+                            }
+                        } catch (Throwable ex) {
+                            error = ex;
+                            rollback();
+                            if (ex instanceof RuntimeException) {
+                                throw (RuntimeException) ex;
+                            } else {
+                                throw new RuntimeException(ex);
+                            }
                         }
-                    } finally {
-                        transaction.close();
                     }
                 }
                 if (callback != null && results.size() > 0) {
@@ -229,15 +320,177 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                 }
             }
         } 
+        
+        if (unitOfWorkBoundaryReached && error == null) {
+            if (partitionWriters != null) {
+                for (RdbmsWriter writer : partitionWriters) {
+                    writer.commit();
+                }
+            }
+            commit();
+        }
+    }
+
+    protected boolean isCommitDue(boolean unitOfWorkBoundaryReached) {
+        if (unitOfWorkBoundaryReached || PER_MESSAGE.equals(commitWhen)) {
+            return true;
+        } else if (COMMIT_EVERY_N_ROWS.equals(commitWhen)) {
+            return rowsSinceCommit >= commitInterval;
+        } else if (COMMIT_EVERY_N_MESSAGES.equals(commitWhen)) {
+            return messagesSinceCommit >= commitInterval;
+        } else {
+            return false;
+        }
+    }
+
+    protected void commit() {
+        if (transaction != null) {
+            try {
+                transaction.commit();
+            } catch (RuntimeException ex) {
+                error = ex;
+                transaction.rollback();
+                throw ex;
+            } finally {
+                closeTransaction();
+            }
+        }
+    }
+
+    protected void rollback() {
+        if (transaction != null) {
+            try {
+                transaction.rollback();
+            } finally {
+                closeTransaction();
+            }
+        }
+    }
+
+    protected void closeTransaction() {
+        try {
+            transaction.close();
+        } finally {
+            transaction = null;
+            rowsSinceCommit = 0;
+            messagesSinceCommit = 0;
+        }
+    }
+
+    /**
+     * Rows are spread across the partition writers by a hash of their
+     * primary key so all of the changes for a row go to the same connection
+     * in the order they arrived.
+     */
+    protected void writeToPartitions(EntityDataMessage inputMessage, boolean unitOfWorkBoundaryReached) {
+        List<ArrayList<EntityData>> partitions = new ArrayList<>(partitionWriters.size());
+        for (int i = 0; i < partitionWriters.size(); i++) {
+            partitions.add(new ArrayList<EntityData>());
+        }
+        if (pkAttributeIds == null) {
+            pkAttributeIds = getPrimaryKeyAttributeIds();
+        }
+        for (EntityData row : inputMessage.getPayload()) {
+            int hash = 0;
+            for (String attributeId : pkAttributeIds) {
+                Object value = row.get(attributeId);
+                hash = 31 * hash + (value != null ? value.toString().hashCode() : 0);
+            }
+            partitions.get((hash & Integer.MAX_VALUE) % partitions.size()).add(row);
+        }
+
+        List<Future<?>> futures = new ArrayList<>(partitionWriters.size());
+        for (int i = 0; i < partitionWriters.size(); i++) {
+            final RdbmsWriter writer = partitionWriters.get(i);
+            final EntityDataMessage partitionMessage = new EntityDataMessage(inputMessage.getHeader().getOriginatingStepId(),
+                    partitions.get(i));
+            writer.setDatabasePlatform(databasePlatform);
+            futures.add(partitionWriterExecutor.submit(() -> writer.handle(partitionMessage, null, unitOfWorkBoundaryReached)));
+        }
+
+        Throwable partitionError = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+                results.addAll(partitionWriters.get(i).results);
+            } catch (ExecutionException ex) {
+                partitionError = partitionError == null ? ex.getCause() : partitionError;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                partitionError = partitionError == null ? ex : partitionError;
+            }
+        }
+        collectPartitionStatistics();
+
+        if (partitionError != null) {
+            error = partitionError;
+            for (RdbmsWriter writer : partitionWriters) {
+                writer.rollback();
+            }
+            if (partitionError instanceof RuntimeException) {
+                throw (RuntimeException) partitionError;
+            } else {
+                throw new RuntimeException(partitionError);
+            }
+        }
+    }
+
+    protected void collectPartitionStatistics() {
+        for (RdbmsWriter writer : partitionWriters) {
+            getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber,
+                    writer.partitionStatistics.getNumberEntitiesProcessed(threadNumber));
+            writer.partitionStatistics = new ComponentStatistics();
+        }
+    }
+
+    protected List<String> getPrimaryKeyAttributeIds() {
+        List<String> pkAttributeIds = new ArrayList<>();
+        for (ModelEntity entity : getInputModel().getModelEntities()) {
+            for (ModelAttribute attribute : entity.getModelAttributes()) {
+                if (attribute.isPk()) {
+                    pkAttributeIds.add(attribute.getId());
+                }
+            }
+        }
+        return pkAttributeIds;
+    }
+
+    @Override
+    public void stop() {
+        if (partitionWriters != null) {
+            for (RdbmsWriter writer : partitionWriters) {
+                writer.stop();
+            }
+            partitionWriterExecutor.shutdown();
+            partitionWriters = null;
+        }
+        rollback();
+        super.stop();
     }
     
     @Override
     public void flowCompleted(boolean cancelled) {
+        if (partitionWriters != null) {
+            for (RdbmsWriter writer : partitionWriters) {
+                writer.flowCompleted(cancelled);
+            }
+        }
+        if (cancelled || error != null) {
+            rollback();
+        } else {
+            commit();
+        }
         writeStats(true);
     }
     
     @Override
     public void flowCompletedWithErrors(Throwable myError) {
+        if (partitionWriters != null) {
+            for (RdbmsWriter writer : partitionWriters) {
+                writer.flowCompletedWithErrors(myError);
+            }
+        }
+        rollback();
         writeStats(true);
     }
     
@@ -270,7 +523,7 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         ArrayList<Object> data = new ArrayList<Object>();
         for (TargetColumn modelColumn : modelTable.getTargetColumns()) {
             if ((isUpdate && modelColumn.isUpdateEnabled()) || (!isUpdate && modelColumn.isInsertEnabled())) {
-                Object value = inputRow.get(modelColumn.getModelAttribute().getId());
+                Object value = modelColumn.getValue(inputRow);
                 if (fitToColumn && value != null && value instanceof String) {
                     value = fitToColumn(modelTable.getTable(), modelColumn.getModelAttribute().getName(), (String) value);
                 }
@@ -281,7 +534,7 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         ArrayList<Object> keyValues = new ArrayList<Object>();
         for (TargetColumn modelColumn : modelTable.getKeyTargetColumns()) {
             if ((isUpdate && modelColumn.isUpdateEnabled()) || (!isUpdate && modelColumn.isInsertEnabled())) {
-                keyValues.add(inputRow.get(modelColumn.getModelAttribute().getId()));
+                keyValues.add(modelColumn.getValue(inputRow));
             }
         }
 
@@ -348,12 +601,35 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         return stats;
     }
 
+    /**
+     * Send the rows still waiting in the batch so they are counted with the
+     * table and operation they belong to
+     */
+    private int flushBatch(TargetTable targetTable, ISqlTransaction transaction) {
+        int count = 0;
+        if (batchMode && targetTable.getRowValues().size() > 0) {
+            long ts = System.currentTimeMillis();
+            try {
+                count = transaction.flush();
+            } finally {
+                sqlDuration += System.currentTimeMillis() - ts;
+            }
+            if (count > 0) {
+                results.add(new Result(targetTable.getStatement().getSql(), count));
+                totalStatementCount++;
+                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber, count);
+            }
+        }
+        return count;
+    }
+
     private void executeSqlDeletes(TargetTable targetTable, ISqlTransaction transaction, WriteStats stats) {
         for (EntityData inputRow : targetTable.getRowValues()) {
             Object[] rowData = getValues(false, targetTable, inputRow);
             int count = executeSql(targetTable, transaction, rowData);
             stats.deleteCount += count;
         }
+        stats.deleteCount += flushBatch(targetTable, transaction);
     }
 
     private void executeSqlChanges(TargetTableDefintion targetTableDefinition, ISqlTransaction transaction, WriteStats stats) {
@@ -380,12 +656,18 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                 }
             }
         }
+        stats.updateCount += flushBatch(targetUpdateTable, transaction);
     }
 
     private void executeSqlInserts(TargetTableDefintion targetTableDefinition, ISqlTransaction transaction, WriteStats stats) {
         TargetTable targetUpdateTable = targetTableDefinition.getUpdateTable();
         TargetTable targetInsertTable = targetTableDefinition.getInsertTable();
 
+        if (bulkLoader != null && targetInsertTable.getRowValues().size() > 0 && transaction instanceof JdbcSqlTransaction
+                && bulkLoad(targetInsertTable, (JdbcSqlTransaction) transaction, stats)) {
+            return;
+        }
+
         for (EntityData inputRow : targetInsertTable.getRowValues()) {
             try {
                 Object[] rowData = getValues(false, targetInsertTable, inputRow);
@@ -404,6 +686,52 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
                 }
             }
         }
+        stats.insertCount += flushBatch(targetInsertTable, transaction);
+    }
+
+    private boolean bulkLoad(TargetTable targetTable, JdbcSqlTransaction transaction, WriteStats stats) {
+        DmlStatement statement = targetTable.getStatement();
+        Connection connection = transaction.getConnection();
+        try {
+            if (!bulkLoader.supports(connection, statement.getTypes())) {
+                return false;
+            }
+
+            String quote = quoteIdentifiers ? databasePlatform.getDatabaseInfo().getDelimiterToken() : "";
+            Table table = targetTable.getTable();
+            String tableName = Table.getFullyQualifiedTableName(table.getCatalog(), table.getSchema(), table.getName(), quote,
+                    databasePlatform.getDatabaseInfo().getCatalogSeparator(), databasePlatform.getDatabaseInfo().getSchemaSeparator());
+            Column[] columns = statement.getColumns();
+            String[] columnNames = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                columnNames[i] = quote + columns[i].getName() + quote;
+            }
+
+            List<Object[]> rows = new ArrayList<>(targetTable.getRowValues().size());
+            for (EntityData inputRow : targetTable.getRowValues()) {
+                rows.add(getValues(false, targetTable, inputRow));
+            }
+
+            transaction.flush();
+            long ts = System.currentTimeMillis();
+            int count = 0;
+            try {
+                count = bulkLoader.load(connection, tableName, columnNames, rows);
+            } finally {
+                sqlDuration += System.currentTimeMillis() - ts;
+            }
+            stats.insertCount += count;
+            if (count > 0) {
+                results.add(new Result(statement.getSql(), count));
+                totalStatementCount++;
+                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber, count);
+            }
+            return true;
+        } catch (SQLException ex) {
+            throw new SqlException(ex);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
     }
 
     private int executeSql(TargetTable targetTable, ISqlTransaction transaction, Object[] rowData) {
@@ -411,7 +739,7 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         if (count > 0) {
             results.add(new Result(targetTable.getStatement().getSql(), count));
             totalStatementCount++;
-            getComponentStatistics().incrementNumberEntitiesProcessed(count);
+            getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber, count);
         }
         return count;
     }
@@ -725,7 +1053,7 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
 
         public boolean shouldProcess(EntityData entityData) {
             for (TargetColumn targetColumn : targetColumns) {
-                if (entityData.containsKey(targetColumn.getModelAttribute().getId())) {
+                if (targetColumn.isSet(entityData)) {
                     return true;
                 }
             }
@@ -738,6 +1066,8 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         Column column;
         boolean insertEnabled = true;
         boolean updateEnabled = true;
+        IndexedEntityData.Schema schema;
+        int ordinal = -1;
 
         TargetColumn(ModelAttribute modelAttribute, Column column) {
             this.modelAttribute = modelAttribute;
@@ -763,6 +1093,32 @@ public class RdbmsWriter extends AbstractRdbmsComponentRuntime {
         public boolean isUpdateEnabled() {
             return updateEnabled;
         }
+
+        public Object getValue(EntityData entityData) {
+            if (entityData instanceof IndexedEntityData && getOrdinal((IndexedEntityData) entityData) >= 0) {
+                return ((IndexedEntityData) entityData).get(ordinal);
+            }
+            return entityData.get(modelAttribute.getId());
+        }
+
+        public boolean isSet(EntityData entityData) {
+            if (entityData instanceof IndexedEntityData && getOrdinal((IndexedEntityData) entityData) >= 0) {
+                return ((IndexedEntityData) entityData).isSet(ordinal);
+            }
+            return entityData.containsKey(modelAttribute.getId());
+        }
+
+        /*
+         * Rows from the same component share a schema, so the ordinal is only
+         * looked up when the schema changes
+         */
+        private int getOrdinal(IndexedEntityData entityData) {
+            if (entityData.getSchema() != schema) {
+                schema = entityData.getSchema();
+                ordinal = schema.getOrdinal(modelAttribute.getId());
+            }
+            return ordinal;
+        }
     }
 
     class WriteStats {
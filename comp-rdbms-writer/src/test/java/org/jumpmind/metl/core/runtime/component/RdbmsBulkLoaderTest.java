@@ -0,0 +1,194 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jumpmind.metl.core.runtime.component.RdbmsBulkLoader.H2CsvReadLoader;
+import org.jumpmind.metl.core.runtime.component.RdbmsBulkLoader.PostgresCopyLoader;
+import org.junit.Test;
+import org.postgresql.copy.CopyIn;
+
+public class RdbmsBulkLoaderTest {
+
+    @Test
+    public void testPostgresCopyStreamsInChunks() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            rows.add(new Object[] { i, "résumé \"" + i + "\", line", null });
+        }
+        PostgresCopyLoader loader = new PostgresCopyLoader();
+        RecordingCopyIn copyIn = new RecordingCopyIn();
+        assertEquals(rows.size(), loader.copy(copyIn, rows));
+
+        assertTrue(copyIn.ended);
+        assertFalse(copyIn.cancelled);
+        assertTrue(copyIn.chunks > 1);
+        assertTrue(copyIn.largestChunk <= PostgresCopyLoader.COPY_BUFFER_SIZE);
+
+        StringWriter expected = new StringWriter();
+        loader.writeCsv(expected, null, rows);
+        assertEquals(expected.toString(), new String(copyIn.bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPostgresCopyCancelledOnFailure() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] { 1, "one" });
+        rows.add(new Object[] { 2, new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("bad value");
+            }
+        } });
+        RecordingCopyIn copyIn = new RecordingCopyIn();
+        try {
+            new PostgresCopyLoader().copy(copyIn, rows);
+            fail("Expected the bad value to fail the copy");
+        } catch (IllegalStateException e) {
+        }
+        assertFalse(copyIn.ended);
+        assertTrue(copyIn.cancelled);
+    }
+
+    @Test
+    public void testPostgresFormatsBinaryAsHex() {
+        assertEquals("\\x00ff10", new PostgresCopyLoader().formatValue(new byte[] { 0, (byte) 0xff, 0x10 }));
+    }
+
+    @Test
+    public void testH2CsvReadLoader() throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:bulk;DB_CLOSE_DELAY=-1", "jumpmind", "jumpmind")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("create table BULK_TABLE (ID integer primary key, NAME varchar(50), DATA varbinary(10))");
+            }
+            List<Object[]> rows = new ArrayList<>();
+            rows.add(new Object[] { 1, "plain", new byte[] { 1, 2 } });
+            rows.add(new Object[] { 2, "comma, \"quote\"\nnewline", null });
+            rows.add(new Object[] { 3, "", null });
+            rows.add(new Object[] { 4, null, null });
+            H2CsvReadLoader loader = new H2CsvReadLoader();
+            assertTrue(loader.supports(connection, new int[0]));
+            assertEquals(4, loader.load(connection, "BULK_TABLE", new String[] { "ID", "NAME", "DATA" }, rows));
+
+            try (Statement stmt = connection.createStatement();
+                    ResultSet rs = stmt.executeQuery("select ID, NAME, DATA from BULK_TABLE order by ID")) {
+                assertTrue(rs.next());
+                assertEquals("plain", rs.getString(2));
+                assertArrayEquals(new byte[] { 1, 2 }, rs.getBytes(3));
+                assertTrue(rs.next());
+                assertEquals("comma, \"quote\"\nnewline", rs.getString(2));
+                assertNull(rs.getBytes(3));
+                assertTrue(rs.next());
+                assertEquals("", rs.getString(2));
+                assertTrue(rs.next());
+                assertNull(rs.getString(2));
+                assertFalse(rs.next());
+            } finally {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("drop table BULK_TABLE");
+                }
+            }
+        }
+    }
+
+    static class RecordingCopyIn implements CopyIn {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        int chunks;
+
+        int largestChunk;
+
+        boolean ended;
+
+        boolean cancelled;
+
+        @Override
+        public void writeToCopy(byte[] buf, int off, int siz) throws SQLException {
+            bytes.write(buf, off, siz);
+            chunks++;
+            largestChunk = Math.max(largestChunk, siz);
+        }
+
+        @Override
+        public void flushCopy() throws SQLException {
+        }
+
+        @Override
+        public long endCopy() throws SQLException {
+            ended = true;
+            return getHandledRowCount();
+        }
+
+        @Override
+        public int getFieldCount() {
+            return 0;
+        }
+
+        @Override
+        public int getFormat() {
+            return 0;
+        }
+
+        @Override
+        public int getFieldFormat(int field) {
+            return 0;
+        }
+
+        @Override
+        public boolean isActive() {
+            return !ended && !cancelled;
+        }
+
+        @Override
+        public void cancelCopy() throws SQLException {
+            cancelled = true;
+        }
+
+        @Override
+        public long getHandledRowCount() {
+            long count = 0;
+            for (byte b : bytes.toByteArray()) {
+                if (b == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
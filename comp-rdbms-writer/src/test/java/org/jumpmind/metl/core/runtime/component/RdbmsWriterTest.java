@@ -0,0 +1,211 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Resource;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.resource.Datasource;
+import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.jumpmind.properties.TypedProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RdbmsWriterTest {
+
+    static int databaseNumber = 0;
+
+    Datasource datasource;
+
+    DataSource dataSource;
+
+    RdbmsWriter writer;
+
+    @Before
+    public void setup() throws Exception {
+        TypedProperties properties = new TypedProperties();
+        properties.setProperty(Datasource.DB_POOL_DRIVER, "org.h2.Driver");
+        properties.setProperty(Datasource.DB_POOL_URL, "jdbc:h2:mem:writer" + (databaseNumber++) + ";DB_CLOSE_DELAY=-1");
+        properties.setProperty(Datasource.DB_POOL_USER, "jumpmind");
+        properties.setProperty(Datasource.DB_POOL_PASSWORD, "jumpmind");
+        datasource = new Datasource();
+        datasource.start(new Resource("db"), properties);
+        dataSource = datasource.reference();
+        execute("create table TEST_TABLE (ID integer primary key, NAME varchar(50))");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (writer != null) {
+            writer.stop();
+        }
+        execute("drop table TEST_TABLE");
+        datasource.stop();
+    }
+
+    @Test
+    public void testRowByRowUnlessBatchMode() {
+        writer = createWriter(new Setting(RdbmsWriter.BATCH_SIZE, "10"));
+        assertFalse(writer.batchMode);
+        writer.handle(message(ChangeType.ADD, 0, 5, "name"), null, false);
+        try {
+            writer.handle(message(ChangeType.CHG, 3, 8, "changed"), null, false);
+            fail("Expected the update of a missing row to fail");
+        } catch (RuntimeException e) {
+        }
+        writer.stop();
+
+        writer = createWriter(new Setting(RdbmsWriter.BATCH_SIZE, "10"), new Setting(RdbmsWriter.BATCH_MODE, "true"));
+        assertTrue(writer.batchMode);
+        writer.handle(message(ChangeType.CHG, 3, 8, "changed"), null, true);
+        assertEquals(2, count("changed%"));
+    }
+
+    @Test
+    public void testBatchedWrites() {
+        writer = createWriter(new Setting(RdbmsWriter.BATCH_SIZE, "7"), new Setting(RdbmsWriter.BATCH_MODE, "true"));
+        writer.handle(message(ChangeType.ADD, 0, 25, "name"), null, false);
+        assertEquals(25, count(null));
+        assertEquals(25, writer.getComponentStatistics().getNumberEntitiesProcessed(1));
+
+        writer.handle(message(ChangeType.CHG, 0, 10, "changed"), null, false);
+        writer.handle(message(ChangeType.DEL, 20, 25, null), null, true);
+        assertEquals(20, count(null));
+        assertEquals(10, count("changed%"));
+        assertEquals(40, writer.getComponentStatistics().getNumberEntitiesProcessed(1));
+    }
+
+    @Test
+    public void testPartitionedWrites() {
+        writer = createWriter(new Setting(RdbmsWriter.BATCH_SIZE, "7"), new Setting(RdbmsWriter.PARALLEL_CONNECTIONS, "3"));
+        assertNotNull(writer.partitionWriters);
+        assertEquals(3, writer.partitionWriters.size());
+        for (RdbmsWriter partitionWriter : writer.partitionWriters) {
+            assertSame(writer, partitionWriter.parentWriter);
+            assertNull(partitionWriter.partitionWriters);
+            assertEquals(7, partitionWriter.batchSize);
+            assertEquals(RdbmsWriter.PER_MESSAGE, partitionWriter.commitWhen);
+        }
+
+        writer.handle(message(ChangeType.ADD, 0, 100, "name"), null, false);
+        assertEquals(100, count(null));
+        assertEquals(100, writer.getComponentStatistics().getNumberEntitiesProcessed(1));
+
+        writer.handle(message(ChangeType.CHG, 0, 50, "changed"), null, true);
+        assertEquals(50, count("changed%"));
+        assertEquals(150, writer.getComponentStatistics().getNumberEntitiesProcessed(1));
+        for (RdbmsWriter partitionWriter : writer.partitionWriters) {
+            assertEquals(0, partitionWriter.getComponentStatistics().getNumberEntitiesProcessed(1));
+        }
+    }
+
+    protected int count(String nameLike) {
+        String sql = "select count(*) from TEST_TABLE" + (nameLike != null ? " where NAME like ?" : "");
+        try (Connection connection = dataSource.getConnection(); PreparedStatement ps = connection.prepareStatement(sql)) {
+            if (nameLike != null) {
+                ps.setString(1, nameLike);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected void execute(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    protected EntityDataMessage message(ChangeType changeType, int from, int to, String name) {
+        ArrayList<EntityData> payload = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            EntityData data = new EntityData();
+            data.put("id", i);
+            if (changeType != ChangeType.DEL) {
+                data.put("name", name + " " + i);
+            }
+            data.setChangeType(changeType);
+            payload.add(data);
+        }
+        return new EntityDataMessage("source", payload);
+    }
+
+    protected RdbmsWriter createWriter(Setting... settings) {
+        ModelEntity entity = new ModelEntity("test", "TEST_TABLE");
+        ModelAttribute id = new ModelAttribute("id", entity.getId(), "ID");
+        id.setPk(true);
+        entity.addModelAttribute(id);
+        entity.addModelAttribute(new ModelAttribute("name", entity.getId(), "NAME"));
+        Model model = new Model();
+        model.getModelEntities().add(entity);
+
+        Resource resource = datasource.getResource();
+        Component component = TestUtils.createComponent(RdbmsWriter.TYPE, false, resource, model, null,
+                new ArrayList<>(), new ArrayList<>(), settings);
+        Flow flow = TestUtils.createFlow("TestFlow", null);
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        flow.getFlowSteps().add(step);
+
+        Map<String, IResourceRuntime> deployedResources = new HashMap<>();
+        deployedResources.put(resource.getId(), datasource);
+        RdbmsWriter writer = new RdbmsWriter();
+        writer.create(null, new ComponentContext(null, step, flow, new ExecutionTrackerNoOp(), deployedResources,
+                new HashMap<>(), null), 1);
+        writer.start();
+        return writer;
+    }
+
+}
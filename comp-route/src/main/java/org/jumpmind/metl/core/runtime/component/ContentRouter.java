@@ -23,21 +23,25 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.script.Bindings;
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptException;
-
-import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import org.codehaus.groovy.runtime.ScriptBytecodeAdapter;
 import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
@@ -50,6 +54,11 @@ import org.jumpmind.properties.TypedProperties;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import groovy.lang.Binding;
+import groovy.lang.GroovyShell;
+import groovy.lang.MissingPropertyException;
+import groovy.lang.Script;
+
 public class ContentRouter extends AbstractComponentRuntime {
 
     public static final String TYPE = "Content Router";
@@ -58,23 +67,36 @@ public class ContentRouter extends AbstractComponentRuntime {
 
     public final static String ONLY_ROUTE_FIRST_MATCH = "only.route.first.match";
 
+    public final static String NATIVE_PREDICATES = "native.predicates";
+
+    /**
+     * Matches simple comparisons like <code>ENTITY.ATTRIBUTE == 'X'</code> or
+     * <code>CHANGE_TYPE != 'DEL'</code> that can be evaluated without Groovy
+     */
+    static final Pattern SIMPLE_COMPARISON = Pattern.compile(
+            "^\\s*(\\w+)(?:\\.(\\w+))?\\s*(==|!=)\\s*(?:'([^'\\\\]*)'|\"([^\"\\\\$]*)\"|(-?\\d+)|(-?\\d+\\.\\d+)|(null))\\s*$");
+
     List<Route> routes;
 
-    ScriptEngine scriptEngine;
+    List<Predicate<RouteBinding>> routePredicates;
+
+    RouteBinding binding;
 
     boolean onlyRouteFirstMatch;
 
+    boolean nativePredicates = true;
+
     long rowsPerMessage = 1000;
     
     Set<String> targetStepsThatNeedControlMessages = new HashSet<>();
 
     @Override
     public void start() {
-        scriptEngine = new GroovyScriptEngineImpl();
         TypedProperties properties = getTypedProperties();
         rowsPerMessage = properties.getLong(ROWS_PER_MESSAGE);
         String json = getComponent().get(SETTING_CONFIG);
         onlyRouteFirstMatch = getComponent().getBoolean(ONLY_ROUTE_FIRST_MATCH, false);
+        nativePredicates = getComponent().getBoolean(NATIVE_PREDICATES, true);
         if (isNotBlank(json)) {
             try {
                 routes = new ObjectMapper().readValue(json, new TypeReference<List<Route>>() {
@@ -91,6 +113,88 @@ public class ContentRouter extends AbstractComponentRuntime {
                 throw new IoException(e);
             }
         }
+
+        binding = new RouteBinding(getInputModel());
+        routePredicates = new ArrayList<>();
+        if (routes != null) {
+            GroovyShell shell = new GroovyShell(getClass().getClassLoader(), binding);
+            for (Route route : routes) {
+                Predicate<RouteBinding> predicate = nativePredicates ? compileNativePredicate(shell, route.getMatchExpression()) : null;
+                if (predicate == null) {
+                    predicate = compileScriptPredicate(shell, route.getMatchExpression());
+                }
+                routePredicates.add(predicate);
+            }
+        }
+    }
+
+    protected Predicate<RouteBinding> compileScriptPredicate(GroovyShell shell, String expression) {
+        final Script script;
+        try {
+            script = shell.parse(expression);
+        } catch (RuntimeException e) {
+            throw new MisconfiguredException("Unable to compile the route expression '%s'.  %s", expression, e.getMessage());
+        }
+        return (b) -> {
+            b.clearScriptVariables();
+            return Boolean.TRUE.equals(script.run());
+        };
+    }
+
+    /**
+     * Build a plain Java predicate for a simple equality check against an
+     * attribute or the change type. Comparisons use Groovy's own equality
+     * rules so the result is the same as running the expression as a script.
+     * When a flow parameter or message header that is not a map hides an
+     * entity the expression is run as a script after all.
+     * 
+     * @return null if the expression is not simple enough
+     */
+    protected Predicate<RouteBinding> compileNativePredicate(GroovyShell shell, String expression) {
+        Matcher matcher = SIMPLE_COMPARISON.matcher(expression == null ? "" : expression);
+        if (!matcher.matches()) {
+            return null;
+        }
+        final String name = matcher.group(1);
+        final String attributeName = matcher.group(2);
+        final boolean notEqual = "!=".equals(matcher.group(3));
+        final Object literal;
+        if (matcher.group(4) != null) {
+            literal = matcher.group(4);
+        } else if (matcher.group(5) != null) {
+            literal = matcher.group(5);
+        } else if (matcher.group(6) != null) {
+            BigInteger number = new BigInteger(matcher.group(6));
+            if (number.bitLength() < 32) {
+                literal = number.intValue();
+            } else if (number.bitLength() < 64) {
+                literal = number.longValue();
+            } else {
+                literal = number;
+            }
+        } else if (matcher.group(7) != null) {
+            literal = new BigDecimal(matcher.group(7));
+        } else {
+            literal = null;
+        }
+
+        if (attributeName == null) {
+            if (!"CHANGE_TYPE".equals(name)) {
+                return null;
+            }
+            return (b) -> notEqual != ScriptBytecodeAdapter.compareEqual(b.getChangeType(), literal);
+        } else if (binding.isEntity(name)) {
+            final Predicate<RouteBinding> scriptPredicate = compileScriptPredicate(shell, expression);
+            return (b) -> {
+                Object value = b.getAttributeValue(name, attributeName);
+                if (value == RouteBinding.NOT_A_MAP) {
+                    return scriptPredicate.test(b);
+                }
+                return notEqual != ScriptBytecodeAdapter.compareEqual(value, literal);
+            };
+        } else {
+            return null;
+        }
     }
 
     @Override
@@ -119,31 +223,35 @@ public class ContentRouter extends AbstractComponentRuntime {
         Map<String, ArrayList<EntityData>> outboundMessages = new HashMap<String, ArrayList<EntityData>>();
         ArrayList<EntityData> inputDatas = inputMessage.getPayload();
 
+        binding.bindMessage(inputMessage, context.getFlowParameters());
         for (EntityData entityData : inputDatas) {
             getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-            bindEntityData(scriptEngine, inputMessage, entityData);
+            binding.bindEntityData(entityData);
             if (routes != null) {
-                for (Route route : routes) {
-                    try {
-                        if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                            ArrayList<EntityData> outboundPayload = outboundMessages.get(route.getTargetStepId());
-                            if (outboundPayload != null && outboundPayload.size() >= rowsPerMessage) {
-                                outboundMessages.remove(route.getTargetStepId());
-                                callback.sendEntityDataMessage(null, outboundPayload, route.getTargetStepId());
-                                targetStepsThatNeedControlMessages.add(route.getTargetStepId());
-                                outboundPayload = null;
-                            }
-                            if (outboundPayload == null) {
-                                outboundPayload = new ArrayList<EntityData>();
-                                outboundMessages.put(route.getTargetStepId(), outboundPayload);
-                            }
-                            outboundPayload.add(entityData.copy());
-                            if (onlyRouteFirstMatch) {
-                                break;
-                            }
+                boolean routed = false;
+                for (int i = 0; i < routes.size(); i++) {
+                    Route route = routes.get(i);
+                    if (routePredicates.get(i).test(binding)) {
+                        ArrayList<EntityData> outboundPayload = outboundMessages.get(route.getTargetStepId());
+                        if (outboundPayload != null && outboundPayload.size() >= rowsPerMessage) {
+                            outboundMessages.remove(route.getTargetStepId());
+                            callback.sendEntityDataMessage(null, outboundPayload, route.getTargetStepId());
+                            targetStepsThatNeedControlMessages.add(route.getTargetStepId());
+                            outboundPayload = null;
+                        }
+                        if (outboundPayload == null) {
+                            outboundPayload = new ArrayList<EntityData>();
+                            outboundMessages.put(route.getTargetStepId(), outboundPayload);
+                        }
+                        /*
+                         * The first target gets the row itself. Only rows
+                         * that fan out to more targets need to be copied.
+                         */
+                        outboundPayload.add(routed ? entityData.copy() : entityData);
+                        routed = true;
+                        if (onlyRouteFirstMatch) {
+                            break;
                         }
-                    } catch (ScriptException e) {
-                        throw new RuntimeException(e);
                     }
                 }
             }
@@ -156,21 +264,16 @@ public class ContentRouter extends AbstractComponentRuntime {
     }
 
     protected void handleControlMessages(ControlMessage inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
-        Bindings bindings = scriptEngine.createBindings();
-        bindHeadersAndFlowParameters(bindings, inputMessage);
-        scriptEngine.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        binding.bindMessage(inputMessage, context.getFlowParameters());
         if (routes != null) {
-            for (Route route : routes) {
-                try {
-                    if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                        callback.sendControlMessage(inputMessage.getHeader(), route.getTargetStepId());
-                        targetStepsThatNeedControlMessages.remove(route.getTargetStepId());
-                        if (onlyRouteFirstMatch) {
-                            break;
-                        }
+            for (int i = 0; i < routes.size(); i++) {
+                Route route = routes.get(i);
+                if (routePredicates.get(i).test(binding)) {
+                    callback.sendControlMessage(inputMessage.getHeader(), route.getTargetStepId());
+                    targetStepsThatNeedControlMessages.remove(route.getTargetStepId());
+                    if (onlyRouteFirstMatch) {
+                        break;
                     }
-                } catch (ScriptException e) {
-                    throw new RuntimeException(e);
                 }
             }
         }
@@ -179,30 +282,28 @@ public class ContentRouter extends AbstractComponentRuntime {
     protected void handleStringListPayload(TextMessage inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
         Map<String, ArrayList<String>> outboundMessages = new HashMap<String, ArrayList<String>>();
         ArrayList<String> inputDatas = (ArrayList<String>) inputMessage.getPayload();
+        binding.bindMessage(inputMessage, context.getFlowParameters());
         for (String data : inputDatas) {
             getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-            bindStringData(scriptEngine, inputMessage, data);
+            binding.bindText(data);
             if (routes != null) {
-                for (Route route : routes) {
-                    try {
-                        if (Boolean.TRUE.equals(scriptEngine.eval(route.getMatchExpression()))) {
-                            ArrayList<String> outboundPayload = outboundMessages.get(route.getTargetStepId());
-                            if (outboundPayload == null) {
-                                outboundPayload = new ArrayList<String>();
-                                outboundMessages.put(route.getTargetStepId(), outboundPayload);
-                            }
-                            if (outboundPayload.size() >= rowsPerMessage) {
-                                outboundMessages.remove(route.getTargetStepId());
-                                callback.sendTextMessage(null, outboundPayload, route.getTargetStepId());
-                                targetStepsThatNeedControlMessages.add(route.getTargetStepId());
-                            }
-                            outboundPayload.add(data);
-                            if (onlyRouteFirstMatch) {
-                                break;
-                            }
+                for (int i = 0; i < routes.size(); i++) {
+                    Route route = routes.get(i);
+                    if (routePredicates.get(i).test(binding)) {
+                        ArrayList<String> outboundPayload = outboundMessages.get(route.getTargetStepId());
+                        if (outboundPayload == null) {
+                            outboundPayload = new ArrayList<String>();
+                            outboundMessages.put(route.getTargetStepId(), outboundPayload);
+                        }
+                        if (outboundPayload.size() >= rowsPerMessage) {
+                            outboundMessages.remove(route.getTargetStepId());
+                            callback.sendTextMessage(null, outboundPayload, route.getTargetStepId());
+                            targetStepsThatNeedControlMessages.add(route.getTargetStepId());
+                        }
+                        outboundPayload.add(data);
+                        if (onlyRouteFirstMatch) {
+                            break;
                         }
-                    } catch (ScriptException e) {
-                        throw new RuntimeException(e);
                     }
                 }
             }
@@ -215,6 +316,140 @@ public class ContentRouter extends AbstractComponentRuntime {
 
     }
 
+    /**
+     * Variables for the route expressions. The message headers and flow
+     * parameters are bound once per message and each row is bound by
+     * reference. Entity maps are only built when an expression asks for them.
+     * Names resolve in the same order as
+     * {@link AbstractComponentRuntime#bindEntityData}: the row variables first,
+     * then flow parameters, message headers and finally the model entities.
+     */
+    static class RouteBinding extends Binding {
+
+        static final Object NOT_A_MAP = new Object();
+
+        Map<String, Map<String, String>> attributeIdsByEntityName = new HashMap<>();
+
+        EntityNameLookup entityNameLookup;
+
+        Message message;
+
+        Map<String, String> flowParameters = Collections.emptyMap();
+
+        EntityData entityData;
+
+        String text;
+
+        Map<String, Map<String, Object>> boundEntities = new HashMap<>();
+
+        RouteBinding(Model model) {
+            if (model != null) {
+                for (ModelEntity entity : model.getModelEntities()) {
+                    Map<String, String> attributeIds = new HashMap<>();
+                    for (ModelAttribute attribute : entity.getModelAttributes()) {
+                        attributeIds.put(attribute.getName(), attribute.getId());
+                    }
+                    attributeIdsByEntityName.put(entity.getName(), attributeIds);
+                }
+                entityNameLookup = new EntityNameLookup(model);
+            }
+        }
+
+        void bindMessage(Message message, Map<String, String> flowParameters) {
+            this.message = message;
+            this.flowParameters = flowParameters != null ? flowParameters : Collections.<String, String> emptyMap();
+            this.entityData = null;
+            this.text = null;
+            boundEntities.clear();
+        }
+
+        void bindEntityData(EntityData entityData) {
+            this.entityData = entityData;
+            boundEntities.clear();
+        }
+
+        void bindText(String text) {
+            this.text = text;
+        }
+
+        void clearScriptVariables() {
+            if (!getVariables().isEmpty()) {
+                getVariables().clear();
+            }
+        }
+
+        boolean isEntity(String name) {
+            return attributeIdsByEntityName.containsKey(name);
+        }
+
+        String getChangeType() {
+            return entityData != null ? entityData.getChangeType().name() : null;
+        }
+
+        /**
+         * @return {@link #NOT_A_MAP} if the entity is hidden by a flow
+         *         parameter or message header whose value is not a map
+         */
+        Object getAttributeValue(String entityName, String attributeName) {
+            if (flowParameters.containsKey(entityName) || message.getHeader().containsKey(entityName)) {
+                Object variable = getVariable(entityName);
+                return variable instanceof Map ? ((Map<?, ?>) variable).get(attributeName) : NOT_A_MAP;
+            } else if (entityData != null) {
+                String attributeId = attributeIdsByEntityName.get(entityName).get(attributeName);
+                return attributeId != null ? entityData.get(attributeId) : null;
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public Object getVariable(String name) {
+            if (getVariables().containsKey(name)) {
+                return super.getVariable(name);
+            }
+            switch (name) {
+                case "inputMessage":
+                    return message;
+                case "text":
+                    return text;
+                case "CHANGE_TYPE":
+                    return getChangeType();
+                case "ENTITY_NAMES":
+                    return entityData != null && entityNameLookup != null ? entityNameLookup.getEntityNames(entityData)
+                            : Collections.emptyList();
+                default:
+                    break;
+            }
+            if (flowParameters.containsKey(name)) {
+                return flowParameters.get(name);
+            } else if (message.getHeader().containsKey(name)) {
+                return message.getHeader().get(name);
+            } else if (attributeIdsByEntityName.containsKey(name)) {
+                Map<String, Object> boundEntity = boundEntities.get(name);
+                if (boundEntity == null) {
+                    boundEntity = new HashMap<>();
+                    for (Map.Entry<String, String> attribute : attributeIdsByEntityName.get(name).entrySet()) {
+                        boundEntity.put(attribute.getKey(), entityData != null ? entityData.get(attribute.getValue()) : null);
+                    }
+                    boundEntities.put(name, boundEntity);
+                }
+                return boundEntity;
+            } else {
+                throw new MissingPropertyException(name, getClass());
+            }
+        }
+
+        @Override
+        public boolean hasVariable(String name) {
+            try {
+                getVariable(name);
+                return true;
+            } catch (MissingPropertyException e) {
+                return false;
+            }
+        }
+    }
+
     static public class Route implements Serializable {
         
         private static final long serialVersionUID = 1L;
@@ -21,12 +21,18 @@
 package org.jumpmind.metl.core.runtime.component;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.io.Serializable;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 
 import org.jumpmind.metl.core.model.Component;
 import org.jumpmind.metl.core.model.Flow;
@@ -40,6 +46,7 @@ import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
 import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
 import org.jumpmind.metl.core.runtime.component.ContentRouter.Route;
+import org.jumpmind.metl.core.runtime.component.ContentRouter.RouteBinding;
 import org.jumpmind.metl.core.util.NameValue;
 import org.jumpmind.metl.core.utils.TestUtils;
 import org.junit.Before;
@@ -49,6 +56,8 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import groovy.lang.GroovyShell;
+
 @RunWith(PowerMockRunner.class)
 public class ContentRouterTest {
 
@@ -108,6 +117,56 @@ public class ContentRouterTest {
         assertEquals("Route to 2", datas.get(0).get("tt2colx"));
     }
     
+    @Test
+    public void testNativePredicatesMatchScriptPredicates() {
+        ContentRouter router = new ContentRouter();
+        router.binding = new RouteBinding(createInputModel());
+        router.binding.bindMessage(new EntityDataMessage(""), null);
+        router.binding.bindEntityData(new EntityData(new NameValue("tt1col1", "Route to 1"), new NameValue("tt1col2", 5)));
+        GroovyShell shell = new GroovyShell(router.binding);
+        String[] expressions = { "TEST_TABLE_1.COL1 == 'Route to 1'", "TEST_TABLE_1.COL1 != \"Route to 1\"", "TEST_TABLE_1.COL2 == 5.0",
+                "TEST_TABLE_1.COL3 == null", "CHANGE_TYPE == 'ADD'", "TEST_TABLE_2.COLX == 'Route to 1'" };
+        for (String expression : expressions) {
+            Predicate<RouteBinding> nativePredicate = router.compileNativePredicate(shell, expression);
+            assertNotNull(expression, nativePredicate);
+            assertEquals(expression, router.compileScriptPredicate(shell, expression).test(router.binding),
+                    nativePredicate.test(router.binding));
+        }
+        assertNull(router.compileNativePredicate(shell, "TEST_TABLE_1.COL1 == 'Route to 1' && CHANGE_TYPE == 'ADD'"));
+        assertNull(router.compileNativePredicate(shell, "UNKNOWN.COL1 == 'Route to 1'"));
+    }
+
+    @Test
+    public void testNativePredicatesWithEntityHiddenByHeader() {
+        ContentRouter router = new ContentRouter();
+        router.binding = new RouteBinding(createInputModel());
+        EntityDataMessage message = new EntityDataMessage("");
+        router.binding.bindMessage(message, null);
+        router.binding.bindEntityData(new EntityData(new NameValue("tt1col1", "Route to 1")));
+        GroovyShell shell = new GroovyShell(router.binding);
+
+        message.getHeader().put("TEST_TABLE_1", new HeaderBean());
+        String expression = "TEST_TABLE_1.COL1 == 'From bean'";
+        assertTrue(router.compileScriptPredicate(shell, expression).test(router.binding));
+        assertTrue(router.compileNativePredicate(shell, expression).test(router.binding));
+
+        HashMap<String, String> map = new HashMap<>();
+        map.put("COL1", "From header");
+        message.getHeader().put("TEST_TABLE_1", map);
+        expression = "TEST_TABLE_1.COL1 == 'From header'";
+        assertTrue(router.compileScriptPredicate(shell, expression).test(router.binding));
+        assertTrue(router.compileNativePredicate(shell, expression).test(router.binding));
+    }
+
+    public static class HeaderBean implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public String getCOL1() {
+            return "From bean";
+        }
+    }
+
     protected SendMessageCallback<ArrayList<EntityData>> route(EntityData...data) {
         SendMessageCallback<ArrayList<EntityData>> target = new SendMessageCallback<ArrayList<EntityData>>();
         ContentRouter router = new ContentRouter();
@@ -22,6 +22,7 @@ package org.jumpmind.metl.core.runtime.component;
 
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_AUTOMATIC;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_BINARY;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_JSON;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_XML;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.STRUCTURE;
@@ -51,10 +52,12 @@ public abstract class AbstractSerializer extends AbstractComponentRuntime {
     }
     
     protected String getDetectedFormat() {
-        String detectedFormat = null;
+        String detectedFormat = format;
         if (format.equals(FORMAT_AUTOMATIC)) {
             if (FORMAT_XML.equalsIgnoreCase(context.getFlowParameters().get(FORMAT))) {
                 detectedFormat = FORMAT_XML;
+            } else if (FORMAT_BINARY.equalsIgnoreCase(context.getFlowParameters().get(FORMAT))) {
+                detectedFormat = FORMAT_BINARY;
             } else if (FORMAT_JSON.equalsIgnoreCase(context.getFlowParameters().get(FORMAT))) {
                 detectedFormat = FORMAT_JSON;
             } else if (MimeTypeUtils.APPLICATION_XML.toString()
@@ -73,11 +76,17 @@ public abstract class AbstractSerializer extends AbstractComponentRuntime {
         return detectedFormat;
     }
 
-    protected ObjectMapper getObjectMapper() {
-        String detectedFormat = getDetectedFormat();
+    protected boolean isXml() {
+        return FORMAT_XML.equals(getDetectedFormat());
+    }
 
+    protected boolean isBinary() {
+        return FORMAT_BINARY.equals(getDetectedFormat());
+    }
+
+    protected ObjectMapper getObjectMapper() {
         ObjectMapper mapper = null;
-        if (FORMAT_XML.equals(detectedFormat)) {
+        if (isXml()) {
             mapper = new XmlMapper();
         } else {
             mapper = new ObjectMapper();
@@ -0,0 +1,252 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
+
+/**
+ * Compact binary form of a list of {@link EntityData} rows. The header holds
+ * a schema derived from the model: the id, entity name, attribute name and
+ * type of each attribute. Each row is then written as its change type, a
+ * bitmap of the attributes it has and the values of those attributes in
+ * schema order. Values are written the same way as in an
+ * {@link EntityDataSpillFile}, except that types without a binary form are
+ * written as strings rather than serialized, and serialized values are
+ * rejected when reading. Keys that are not in the model are written with
+ * their name after the values.
+ * <p>
+ * When reading, columns are matched to the model by attribute id and then
+ * by entity and attribute name so that flows with different models can
+ * exchange data.
+ */
+public class BinaryEntityDataFormat {
+
+    static final int MAGIC = 0x4d45544c;
+
+    static final byte VERSION = 1;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static final int END_OF_ROWS = 0;
+
+    static final int HAS_EXTRA_KEYS = 0x80;
+
+    static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+
+    public static class Writer {
+
+        DataOutputStream out;
+
+        List<ModelAttribute> columns = new ArrayList<>();
+
+        Map<String, Integer> columnIndexes = new HashMap<>();
+
+        byte[] present;
+
+        Object[] values;
+
+        List<String> extraKeys = new ArrayList<>();
+
+        public Writer(OutputStream os, Model model) {
+            this.out = new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+            if (model != null) {
+                for (ModelEntity entity : model.getModelEntities()) {
+                    for (ModelAttribute attribute : entity.getModelAttributes()) {
+                        columnIndexes.put(attribute.getId(), columns.size());
+                        columns.add(attribute);
+                    }
+                }
+            }
+            present = new byte[(columns.size() + 7) / 8];
+            values = new Object[columns.size()];
+            try {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(columns.size());
+                for (ModelAttribute attribute : columns) {
+                    ModelEntity entity = model.getEntityById(attribute.getEntityId());
+                    out.writeUTF(attribute.getId());
+                    out.writeUTF(entity != null ? entity.getName() : "");
+                    out.writeUTF(attribute.getName());
+                    out.writeUTF(attribute.getDataType() != null ? attribute.getDataType().name() : "");
+                }
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+
+        public void write(EntityData data) {
+            try {
+                extraKeys.clear();
+                for (Map.Entry<String, Object> entry : data.entrySet()) {
+                    Integer index = columnIndexes.get(entry.getKey());
+                    if (index != null) {
+                        present[index >> 3] |= 1 << (index & 7);
+                        values[index] = entry.getValue();
+                    } else {
+                        extraKeys.add(entry.getKey());
+                    }
+                }
+
+                int marker = data.getChangeType().ordinal() + 1;
+                out.writeByte(extraKeys.size() > 0 ? marker | HAS_EXTRA_KEYS : marker);
+                out.write(present);
+                for (int i = 0; i < present.length; i++) {
+                    if (present[i] != 0) {
+                        for (int bit = 0; bit < 8; bit++) {
+                            if ((present[i] & (1 << bit)) != 0) {
+                                int index = (i << 3) + bit;
+                                EntityDataSpillFile.writeValue(out, values[index], false);
+                                values[index] = null;
+                            }
+                        }
+                        present[i] = 0;
+                    }
+                }
+
+                if (extraKeys.size() > 0) {
+                    out.writeInt(extraKeys.size());
+                    for (String key : extraKeys) {
+                        EntityDataSpillFile.writeString(out, key);
+                        EntityDataSpillFile.writeValue(out, data.get(key), false);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+
+        public void close() {
+            try {
+                out.writeByte(END_OF_ROWS);
+                out.close();
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+    }
+
+    public static class Reader {
+
+        DataInputStream in;
+
+        String[] attributeIds;
+
+        byte[] present;
+
+        boolean done;
+
+        public Reader(InputStream is, Model model) {
+            this.in = new DataInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("The data is not in the binary entity data format");
+                }
+                byte version = in.readByte();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported binary entity data format version: " + version);
+                }
+                attributeIds = new String[in.readInt()];
+                for (int i = 0; i < attributeIds.length; i++) {
+                    String attributeId = in.readUTF();
+                    String entityName = in.readUTF();
+                    String attributeName = in.readUTF();
+                    in.readUTF();
+                    if (model == null) {
+                        attributeIds[i] = attributeId;
+                    } else if (model.getAttributeById(attributeId) != null) {
+                        attributeIds[i] = attributeId;
+                    } else {
+                        ModelAttribute attribute = model.getAttributeByName(entityName, attributeName);
+                        attributeIds[i] = attribute != null ? attribute.getId() : null;
+                    }
+                }
+                present = new byte[(attributeIds.length + 7) / 8];
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+
+        /**
+         * @return the next row or null when all rows have been read
+         */
+        public EntityData read() {
+            if (done) {
+                return null;
+            }
+            try {
+                int marker = in.readUnsignedByte();
+                if (marker == END_OF_ROWS) {
+                    done = true;
+                    return null;
+                }
+                EntityData data = new EntityData();
+                data.setChangeType(CHANGE_TYPES[(marker & ~HAS_EXTRA_KEYS) - 1]);
+                in.readFully(present);
+                for (int i = 0; i < present.length; i++) {
+                    if (present[i] != 0) {
+                        for (int bit = 0; bit < 8; bit++) {
+                            if ((present[i] & (1 << bit)) != 0) {
+                                String attributeId = attributeIds[(i << 3) + bit];
+                                Object value = EntityDataSpillFile.readValue(in, false);
+                                if (attributeId != null) {
+                                    data.put(attributeId, value);
+                                }
+                            }
+                        }
+                    }
+                }
+
+                if ((marker & HAS_EXTRA_KEYS) != 0) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String key = EntityDataSpillFile.readString(in);
+                        data.put(key, EntityDataSpillFile.readValue(in, false));
+                    }
+                }
+                return data;
+            } catch (EOFException e) {
+                throw new IoException("The binary entity data ended before the end of the rows");
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+    }
+}
@@ -20,35 +20,65 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.ROWS_PER_MESSAGE;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.STRUCTURE_BY_TABLE;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.jumpmind.metl.core.model.EntityRow;
 import org.jumpmind.metl.core.model.EntityTable;
 import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.runtime.BinaryMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.TextMessage;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class Deserializer extends AbstractSerializer {
 
+    int rowsPerMessage = 1000;
+
+    Map<String, EntityAttributes> entityAttributesByName;
+
+    @Override
+    public void start() {
+        super.start();
+        rowsPerMessage = properties.getInt(ROWS_PER_MESSAGE, rowsPerMessage);
+        entityAttributesByName = new HashMap<>();
+    }
+
     @Override
     public void handle(Message inputMessage, ISendMessageCallback callback,
             boolean unitOfWorkBoundaryReached) {
         try {
-            if (inputMessage instanceof TextMessage) {
+            if (inputMessage instanceof BinaryMessage) {
+                Model outputModel = getOutputModel();
+                if (outputModel != null) {
+                    readBinary(((BinaryMessage) inputMessage).getPayload(), outputModel, inputMessage, callback);
+                }
+            } else if (inputMessage instanceof TextMessage) {
                 TextMessage textMessage = (TextMessage) inputMessage;
                 Model outputModel = getOutputModel();
                 if (outputModel != null) {
                     List<String> textList = textMessage.getPayload();
                     for (String text : textList) {
                         ObjectMapper mapper = getObjectMapper();
-                        if (structure.equals(STRUCTURE_BY_TABLE)) {
+                        if (!isXml()) {
+                            readJson(mapper, text, outputModel, inputMessage, callback);
+                        } else if (structure.equals(STRUCTURE_BY_TABLE)) {
                             List<EntityTable> entityTables = mapper.readValue(text,
                                     mapper.getTypeFactory().constructCollectionType(List.class,
                                             EntityTable.class));
@@ -83,4 +113,198 @@ public class Deserializer extends AbstractSerializer {
         }
     }
 
+    private void readBinary(byte[] bytes, Model outputModel, Message inputMessage, ISendMessageCallback callback) {
+        BinaryEntityDataFormat.Reader reader = new BinaryEntityDataFormat.Reader(new ByteArrayInputStream(bytes),
+                outputModel);
+        ArrayList<EntityData> payload = new ArrayList<>();
+        boolean sent = false;
+        EntityData data = null;
+        while ((data = reader.read()) != null) {
+            payload.add(data);
+            if (payload.size() >= rowsPerMessage) {
+                callback.sendEntityDataMessage(inputMessage.getHeader(), payload);
+                payload = new ArrayList<>();
+                sent = true;
+            }
+        }
+        if (payload.size() > 0 || !sent) {
+            callback.sendEntityDataMessage(inputMessage.getHeader(), payload);
+        }
+    }
+
+    /**
+     * Parses JSON with a streaming parser, creating the same entity data that
+     * binding to {@link EntityRow} or {@link EntityTable} would. Rows are sent
+     * in batches of {@link #rowsPerMessage} as they are read.
+     */
+    private void readJson(ObjectMapper mapper, String text, Model outputModel, Message inputMessage,
+            ISendMessageCallback callback) throws IOException {
+        JsonParser parser = mapper.getFactory().createParser(text);
+        try {
+            ArrayList<EntityData> payload = new ArrayList<>();
+            boolean sent = false;
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected a JSON array");
+            }
+            List<String> namesAndValues = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String name = null;
+                List<EntityData> rows = null;
+                namesAndValues.clear();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String fieldName = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+                    if (fieldName.equals("name")) {
+                        name = parser.getValueAsString();
+                    } else if (fieldName.equals("data") && token == JsonToken.START_OBJECT) {
+                        namesAndValues.clear();
+                        readObject(parser, namesAndValues);
+                    } else if (fieldName.equals("rows") && token == JsonToken.START_ARRAY) {
+                        rows = new ArrayList<>();
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            namesAndValues.clear();
+                            readObject(parser, namesAndValues);
+                            rows.add(toEntityData(outputModel, null, namesAndValues));
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+
+                if (structure.equals(STRUCTURE_BY_TABLE)) {
+                    if (rows != null && name != null) {
+                        ModelEntity entity = outputModel.getEntityByName(name);
+                        for (EntityData row : rows) {
+                            EntityData data = toEntityData(outputModel, entity, row);
+                            if (data != null) {
+                                payload.add(data);
+                            }
+                        }
+                    }
+                } else {
+                    EntityData data = toEntityData(outputModel, name, namesAndValues);
+                    if (data != null) {
+                        payload.add(data);
+                    }
+                }
+
+                if (payload.size() >= rowsPerMessage) {
+                    callback.sendEntityDataMessage(inputMessage.getHeader(), payload);
+                    payload = new ArrayList<>();
+                    sent = true;
+                }
+            }
+            if (payload.size() > 0 || !sent) {
+                callback.sendEntityDataMessage(inputMessage.getHeader(), payload);
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    private void readObject(JsonParser parser, List<String> namesAndValues) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            namesAndValues.add(parser.getCurrentName());
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                namesAndValues.add(null);
+            } else if (token.isScalarValue()) {
+                namesAndValues.add(parser.getValueAsString());
+            } else {
+                throw new JsonParseException(parser, "Expected a value for " + parser.getCurrentName());
+            }
+        }
+    }
+
+    /**
+     * Values are added in the order of the attributes in the model, the same
+     * as {@link EntityRow#toEntityData(Model)}.
+     */
+    private EntityData toEntityData(Model outputModel, String name, List<String> namesAndValues) {
+        EntityData entityData = null;
+        if (name != null) {
+            EntityAttributes entityAttributes = entityAttributesByName.get(name);
+            if (entityAttributes == null) {
+                entityAttributes = new EntityAttributes(outputModel, name);
+                entityAttributesByName.put(name, entityAttributes);
+            }
+            ModelAttribute[] attributes = entityAttributes.attributes;
+            String[] values = new String[attributes.length];
+            boolean[] present = new boolean[attributes.length];
+            for (int i = 0; i < namesAndValues.size(); i += 2) {
+                int[] indexes = entityAttributes.indexesByName.get(namesAndValues.get(i));
+                if (indexes != null) {
+                    for (int index : indexes) {
+                        values[index] = namesAndValues.get(i + 1);
+                        present[index] = true;
+                    }
+                }
+            }
+            for (int i = 0; i < attributes.length; i++) {
+                if (present[i]) {
+                    if (entityData == null) {
+                        entityData = new EntityData();
+                    }
+                    entityData.put(attributes[i].getId(), values[i]);
+                }
+            }
+        } else {
+            entityData = new EntityData();
+            for (int i = 0; i < namesAndValues.size(); i += 2) {
+                entityData.put(namesAndValues.get(i), namesAndValues.get(i + 1));
+            }
+        }
+        return entityData;
+    }
+
+    /**
+     * A table row is first read keyed by attribute name because the entity
+     * name can follow the rows. This maps it to the entity's attribute ids.
+     */
+    private EntityData toEntityData(Model outputModel, ModelEntity entity, EntityData row) {
+        EntityData entityData = null;
+        if (entity != null) {
+            for (Map.Entry<String, Object> entry : row.entrySet()) {
+                ModelAttribute attribute = entity.getModelAttributeByName(entry.getKey());
+                if (attribute != null) {
+                    if (entityData == null) {
+                        entityData = new EntityData();
+                    }
+                    entityData.put(attribute.getId(), entry.getValue());
+                }
+            }
+        }
+        return entityData;
+    }
+
+    /**
+     * The attributes of the entities with a given name, in model order, and
+     * their positions by attribute name.
+     */
+    static class EntityAttributes {
+
+        ModelAttribute[] attributes;
+
+        Map<String, int[]> indexesByName = new HashMap<>();
+
+        EntityAttributes(Model model, String name) {
+            List<ModelAttribute> list = new ArrayList<>();
+            for (ModelEntity entity : model.getModelEntities()) {
+                if (name.equals(entity.getName())) {
+                    list.addAll(entity.getModelAttributes());
+                }
+            }
+            attributes = list.toArray(new ModelAttribute[list.size()]);
+            for (int i = 0; i < attributes.length; i++) {
+                int[] indexes = indexesByName.get(attributes[i].getName());
+                if (indexes == null) {
+                    indexes = new int[] { i };
+                } else {
+                    indexes = Arrays.copyOf(indexes, indexes.length + 1);
+                    indexes[indexes.length - 1] = i;
+                }
+                indexesByName.put(attributes[i].getName(), indexes);
+            }
+        }
+    }
 }
@@ -23,8 +23,13 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.STRUCTURE_BY_TABLE;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -42,37 +47,71 @@ import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.util.FormatUtils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
 public class Serializer extends AbstractSerializer {
 
     List<EntityData> payload;
 
+    StringWriter jsonOut;
+
+    JsonGenerator jsonGenerator;
+
+    Map<String, JsonTable> jsonTables;
+
+    Map<String, JsonKeyOrder> jsonKeyOrders;
+
+    ByteArrayOutputStream binaryOut;
+
+    BinaryEntityDataFormat.Writer binaryWriter;
+
     @Override
     public void start() {
         super.start();
         payload = new ArrayList<>();
+        jsonKeyOrders = new HashMap<>();
     }
 
     @Override
     public void handle(Message inputMessage, ISendMessageCallback callback,
             boolean unitOfWorkBoundaryReached) {
         try {
+            boolean xml = isXml();
+            boolean binary = isBinary();
             if (inputMessage instanceof EntityDataMessage) {
                 EntityDataMessage entityMessage = (EntityDataMessage) inputMessage;
-                payload.addAll(entityMessage.getPayload());
+                if (binary) {
+                    writeBinary(entityMessage.getPayload());
+                } else if (xml) {
+                    payload.addAll(entityMessage.getPayload());
+                } else if (STRUCTURE_BY_TABLE.equals(structure)) {
+                    writeByTableJson(entityMessage.getPayload());
+                } else {
+                    writeByInboundRowJson(entityMessage.getPayload());
+                }
             }
 
-            if (unitOfWorkBoundaryReached) {
-                ArrayList<?> response = null;
-                if (STRUCTURE_BY_TABLE.equals(structure)) {
-                    response = createByTablePayload(payload);
+            if (unitOfWorkBoundaryReached && binary) {
+                Map<String,Serializable> header = new HashMap<>(inputMessage.getHeader());
+                header.put(FORMAT, getDetectedFormat());
+                callback.sendBinaryMessage(header, finishBinary());
+            } else if (unitOfWorkBoundaryReached) {
+                String text = null;
+                if (!xml) {
+                    text = finishJson();
                 } else {
-                    response = createByInboundRowPayload(payload);
+                    ArrayList<?> response = null;
+                    if (STRUCTURE_BY_TABLE.equals(structure)) {
+                        response = createByTablePayload(payload);
+                    } else {
+                        response = createByInboundRowPayload(payload);
+                    }
+                    text = getObjectMapper().writeValueAsString(response);
+                    payload = new ArrayList<>();
                 }
                 Map<String,Serializable> header = new HashMap<>(inputMessage.getHeader());
                 header.put(FORMAT, getDetectedFormat());
-                callback.sendTextMessage(header,
-                        getObjectMapper().writeValueAsString(response));
-                payload = new ArrayList<>();
+                callback.sendTextMessage(header, text);
             }
 
         } catch (RuntimeException e) {
@@ -82,7 +121,129 @@ public class Serializer extends AbstractSerializer {
         }
     }
 
-    private ArrayList<EntityRow> createByInboundRowPayload(List<EntityData> payload) {
+    private void writeBinary(List<EntityData> payload) {
+        if (binaryWriter == null) {
+            binaryOut = new ByteArrayOutputStream();
+            binaryWriter = new BinaryEntityDataFormat.Writer(binaryOut, getInputModel());
+        }
+        for (EntityData entityData : payload) {
+            binaryWriter.write(entityData);
+        }
+    }
+
+    private byte[] finishBinary() {
+        writeBinary(Collections.<EntityData> emptyList());
+        binaryWriter.close();
+        byte[] bytes = binaryOut.toByteArray();
+        binaryWriter = null;
+        binaryOut = null;
+        return bytes;
+    }
+
+    /**
+     * JSON is written with a generator as the rows arrive. The output is the
+     * same as serializing the {@link EntityRow} and {@link EntityTable}
+     * objects, including the order of the keys of the hash maps they hold.
+     */
+    private JsonGenerator getJsonGenerator() throws IOException {
+        if (jsonGenerator == null) {
+            jsonOut = new StringWriter();
+            jsonGenerator = getObjectMapper().getFactory().createGenerator(jsonOut);
+            jsonGenerator.writeStartArray();
+            jsonTables = new HashMap<>();
+        }
+        return jsonGenerator;
+    }
+
+    private String finishJson() throws IOException {
+        JsonGenerator generator = getJsonGenerator();
+        for (JsonTable table : jsonTables.values()) {
+            table.generator.writeEndArray();
+            table.generator.close();
+            generator.writeStartObject();
+            generator.writeStringField("name", table.name);
+            generator.writeFieldName("rows");
+            generator.writeRawValue(table.out.toString());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.close();
+        String text = jsonOut.toString();
+        jsonGenerator = null;
+        jsonOut = null;
+        jsonTables = null;
+        return text;
+    }
+
+    private void writeByInboundRowJson(List<EntityData> payload) throws IOException {
+        JsonGenerator generator = getJsonGenerator();
+        Model inputModel = getInputModel();
+        for (EntityData entityData : payload) {
+            for (ModelEntity entity : inputModel.getModelEntities()) {
+                List<ModelAttribute> attributes = entity.getModelAttributes();
+                BitSet present = null;
+                for (int i = 0; i < attributes.size(); i++) {
+                    if (entityData.containsKey(attributes.get(i).getId())) {
+                        if (present == null) {
+                            present = new BitSet(attributes.size());
+                        }
+                        present.set(i);
+                    }
+                }
+                if (present != null) {
+                    JsonKeyOrder keyOrder = jsonKeyOrders.get(entity.getId());
+                    if (keyOrder == null) {
+                        keyOrder = new JsonKeyOrder(attributes.size());
+                        jsonKeyOrders.put(entity.getId(), keyOrder);
+                    }
+                    int[] order = keyOrder.get(present, attributes);
+                    generator.writeStartObject();
+                    generator.writeStringField("name", entity.getName());
+                    generator.writeObjectFieldStart("data");
+                    for (int i : order) {
+                        ModelAttribute attribute = attributes.get(i);
+                        generator.writeStringField(attribute.getName(), toString(entityData.get(attribute.getId())));
+                    }
+                    generator.writeEndObject();
+                    generator.writeEndObject();
+                }
+            }
+        }
+    }
+
+    private void writeByTableJson(List<EntityData> payload) throws IOException {
+        getJsonGenerator();
+        Model inputModel = getInputModel();
+        for (EntityData entityData : payload) {
+            if (entityData.isEmpty()) {
+                continue;
+            }
+            List<ModelAttribute> attributes = new ArrayList<>(entityData.size());
+            for (String attributeId : entityData.keySet()) {
+                attributes.add(inputModel.getAttributeById(attributeId));
+            }
+            ModelEntity entity = inputModel.getEntityById(attributes.get(0).getEntityId());
+            JsonTable table = jsonTables.get(entity.getName());
+            if (table == null) {
+                table = new JsonTable(entity.getName());
+                jsonTables.put(entity.getName(), table);
+            }
+            int[] order = table.keyOrder.get(attributes);
+            table.generator.writeStartObject();
+            for (int i : order) {
+                ModelAttribute attribute = attributes.get(i);
+                table.generator.writeStringField(attribute.getName(), toString(entityData.get(attribute.getId())));
+            }
+            table.generator.writeEndObject();
+        }
+    }
+
+    private String toString(Object value) {
+        // dates are written with toString() to match the object serialization
+        return value != null ? value.toString() : null;
+    }
+
+    ArrayList<EntityRow> createByInboundRowPayload(List<EntityData> payload) {
         ArrayList<EntityRow> entityResponse = new ArrayList<>();
         if (payload != null) {
             Model inputModel = getInputModel();
@@ -113,7 +274,7 @@ public class Serializer extends AbstractSerializer {
         return entityResponse;
     }
 
-    private ArrayList<EntityTable> createByTablePayload(List<EntityData> payload) {
+    ArrayList<EntityTable> createByTablePayload(List<EntityData> payload) {
         Map<String, EntityTable> entityTables = new HashMap<String, EntityTable>();
         if (payload != null) {
             Model inputModel = getInputModel();
@@ -148,4 +309,83 @@ public class Serializer extends AbstractSerializer {
         }
         return new ArrayList<>(entityTables.values());        
     }
+
+    class JsonTable {
+
+        String name;
+
+        StringWriter out = new StringWriter();
+
+        JsonGenerator generator;
+
+        JsonKeyOrder keyOrder = new JsonKeyOrder(-1);
+
+        JsonTable(String name) throws IOException {
+            this.name = name;
+            this.generator = getObjectMapper().getFactory().createGenerator(out);
+            this.generator.writeStartArray();
+        }
+    }
+
+    /**
+     * Works out the order the keys of a {@link HashMap} are serialized in
+     * when the names of the given attributes are put into it in order. When
+     * an attribute name repeats, the last attribute with the name supplies the
+     * value. Rows usually have the same attributes, so the order is cached.
+     */
+    static class JsonKeyOrder {
+
+        int initialCapacity;
+
+        Map<Object, int[]> orders = new HashMap<>();
+
+        JsonKeyOrder(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+        }
+
+        int[] get(BitSet present, List<ModelAttribute> attributes) {
+            int[] order = orders.get(present);
+            if (order == null) {
+                List<ModelAttribute> presentAttributes = new ArrayList<>(present.cardinality());
+                List<Integer> indexes = new ArrayList<>(present.cardinality());
+                for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+                    presentAttributes.add(attributes.get(i));
+                    indexes.add(i);
+                }
+                order = computeOrder(presentAttributes);
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = indexes.get(order[i]);
+                }
+                orders.put(present, order);
+            }
+            return order;
+        }
+
+        int[] get(List<ModelAttribute> attributes) {
+            List<String> attributeIds = new ArrayList<>(attributes.size());
+            for (ModelAttribute attribute : attributes) {
+                attributeIds.add(attribute.getId());
+            }
+            int[] order = orders.get(attributeIds);
+            if (order == null) {
+                order = computeOrder(attributes);
+                orders.put(attributeIds, order);
+            }
+            return order;
+        }
+
+        private int[] computeOrder(List<ModelAttribute> attributes) {
+            Map<String, Integer> map = initialCapacity >= 0 ? new HashMap<String, Integer>(initialCapacity)
+                    : new HashMap<String, Integer>();
+            for (int i = 0; i < attributes.size(); i++) {
+                map.put(attributes.get(i).getName(), i);
+            }
+            int[] order = new int[map.size()];
+            int i = 0;
+            for (Integer index : map.values()) {
+                order[i++] = index;
+            }
+            return order;
+        }
+    }
 }
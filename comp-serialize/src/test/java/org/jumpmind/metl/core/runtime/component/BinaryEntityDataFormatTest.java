@@ -0,0 +1,189 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_BINARY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.BinaryMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class BinaryEntityDataFormatTest {
+
+    @Test
+    public void testRoundTripThroughSerializerAndDeserializer() throws Exception {
+        Model model = new Model();
+        ModelEntity entity = new ModelEntity("entity", "ENTITY");
+        model.getModelEntities().add(entity);
+        Object[] values = { null, "text é😀", new BigDecimal("-12345678901234567890.123"), Long.MIN_VALUE,
+                Integer.MAX_VALUE, 3.25d, Boolean.TRUE, Boolean.FALSE, timestamp(1500000000123L, 123456789),
+                new java.sql.Date(1500000000000L), new java.util.Date(1500000000123L), new byte[] { 0, 1, -1 } };
+        for (int i = 0; i < values.length; i++) {
+            entity.addModelAttribute(new ModelAttribute("attr" + i, entity.getId(), "ATTR" + i));
+        }
+
+        ArrayList<EntityData> payload = new ArrayList<>();
+        for (ChangeType changeType : ChangeType.values()) {
+            EntityData data = new EntityData();
+            data.setChangeType(changeType);
+            for (int i = 0; i < values.length; i++) {
+                data.put("attr" + i, values[i]);
+            }
+            data.put("extra", "not in the model");
+            payload.add(data);
+        }
+
+        List<EntityData> rows = deserialize(model, serialize(model, payload));
+        assertEquals(payload.size(), rows.size());
+        for (int i = 0; i < payload.size(); i++) {
+            assertEntityDataEquals(payload.get(i), rows.get(i));
+        }
+    }
+
+    @Test
+    public void testUnknownTypesAreWrittenAsStrings() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        BigInteger bigInteger = new BigInteger("123456789012345678901234567890");
+        Model model = new Model();
+        ModelEntity entity = new ModelEntity("entity", "ENTITY");
+        entity.addModelAttribute(new ModelAttribute("uuid", entity.getId(), "UUID"));
+        model.getModelEntities().add(entity);
+        EntityData data = new EntityData();
+        data.put("uuid", uuid);
+        data.put("bigInteger", bigInteger);
+        ArrayList<EntityData> payload = new ArrayList<>();
+        payload.add(data);
+
+        List<EntityData> rows = deserialize(model, serialize(model, payload));
+        assertEquals(1, rows.size());
+        assertEquals(uuid.toString(), rows.get(0).get("uuid"));
+        assertEquals(bigInteger.toString(), rows.get(0).get("bigInteger"));
+    }
+
+    @Test
+    public void testSerializedValuesAreRejected() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BinaryEntityDataFormat.MAGIC);
+        out.writeByte(BinaryEntityDataFormat.VERSION);
+        out.writeInt(0);
+        out.writeByte((ChangeType.ADD.ordinal() + 1) | BinaryEntityDataFormat.HAS_EXTRA_KEYS);
+        out.writeInt(1);
+        EntityDataSpillFile.writeString(out, "uuid");
+        EntityDataSpillFile.writeValue(out, UUID.randomUUID(), true);
+        out.writeByte(BinaryEntityDataFormat.END_OF_ROWS);
+        out.close();
+
+        BinaryEntityDataFormat.Reader reader = new BinaryEntityDataFormat.Reader(
+                new ByteArrayInputStream(bytes.toByteArray()), null);
+        try {
+            reader.read();
+            fail("Expected serialized values to be rejected");
+        } catch (IoException e) {
+        }
+    }
+
+    protected void assertEntityDataEquals(EntityData expected, EntityData actual) {
+        assertEquals(expected.getChangeType(), actual.getChangeType());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Object> entry : expected.entrySet()) {
+            Object value = actual.get(entry.getKey());
+            if (entry.getValue() == null) {
+                assertNull(value);
+            } else if (entry.getValue() instanceof byte[]) {
+                assertArrayEquals((byte[]) entry.getValue(), (byte[]) value);
+            } else {
+                assertEquals(entry.getKey(), entry.getValue().getClass(), value.getClass());
+                assertEquals(entry.getKey(), entry.getValue(), value);
+            }
+        }
+    }
+
+    protected byte[] serialize(Model model, ArrayList<EntityData> payload) {
+        Serializer serializer = new Serializer();
+        serializer.create(null, createContext(model, null), 0);
+        serializer.start();
+        SendMessageCallback<byte[]> callback = new SendMessageCallback<byte[]>();
+        EntityDataMessage message = new EntityDataMessage("source", null);
+        message.setPayload(payload);
+        serializer.handle(message, callback, true);
+        assertEquals(1, callback.getPayloadList().size());
+        return callback.getPayloadList().get(0);
+    }
+
+    protected List<EntityData> deserialize(Model model, byte[] bytes) {
+        Deserializer deserializer = new Deserializer();
+        deserializer.create(null, createContext(null, model), 0);
+        deserializer.start();
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        deserializer.handle(new BinaryMessage("source", bytes), callback, true);
+        List<EntityData> rows = new ArrayList<>();
+        for (ArrayList<EntityData> message : callback.getPayloadList()) {
+            rows.addAll(message);
+        }
+        return rows;
+    }
+
+    protected ComponentContext createContext(Model inputModel, Model outputModel) {
+        Component component = TestUtils.createComponent("Serializer", false, null, inputModel, outputModel, null, null,
+                new Setting(FORMAT, FORMAT_BINARY));
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        return context;
+    }
+
+    protected static Timestamp timestamp(long time, int nanos) {
+        Timestamp timestamp = new Timestamp(time);
+        timestamp.setNanos(nanos);
+        return timestamp;
+    }
+
+}
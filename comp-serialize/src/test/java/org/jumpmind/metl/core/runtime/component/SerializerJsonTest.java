@@ -0,0 +1,225 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_JSON;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.STRUCTURE;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.STRUCTURE_BY_INBOUND_ROW;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.STRUCTURE_BY_TABLE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.EntityRow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.IndexedEntityData;
+import org.jumpmind.metl.core.runtime.TextMessage;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SerializerJsonTest {
+
+    Model model;
+
+    List<EntityData> payload;
+
+    @Before
+    public void setup() {
+        model = new Model();
+        ModelEntity customer = new ModelEntity("customer", "CUSTOMER");
+        customer.addModelAttribute(new ModelAttribute("c_id", customer.getId(), "ID"));
+        customer.addModelAttribute(new ModelAttribute("c_name", customer.getId(), "NAME"));
+        customer.addModelAttribute(new ModelAttribute("c_city", customer.getId(), "CITY"));
+        customer.addModelAttribute(new ModelAttribute("c_balance", customer.getId(), "BALANCE"));
+        model.getModelEntities().add(customer);
+        ModelEntity order = new ModelEntity("order", "ORDERS");
+        order.addModelAttribute(new ModelAttribute("o_id", order.getId(), "ID"));
+        order.addModelAttribute(new ModelAttribute("o_customer_id", order.getId(), "CUSTOMER_ID"));
+        order.addModelAttribute(new ModelAttribute("o_placed", order.getId(), "PLACED"));
+        model.getModelEntities().add(order);
+
+        payload = new ArrayList<>();
+        payload.add(row("c_id", 1, "c_name", "Ann", "c_city", "Columbus", "c_balance", new BigDecimal("10.50")));
+        payload.add(row("o_id", 100L, "o_customer_id", 1, "o_placed", new Date(0)));
+        payload.add(row("c_id", 2, "c_name", null, "c_balance", new BigDecimal("0")));
+        payload.add(row("c_city", "Dayton", "c_id", 3));
+        payload.add(row("o_id", 101L, "o_customer_id", 3));
+    }
+
+    @Test
+    public void testJsonByRowMatchesObjectMapper() throws Exception {
+        Serializer serializer = createSerializer(STRUCTURE_BY_INBOUND_ROW);
+        String expected = new ObjectMapper().writeValueAsString(serializer.createByInboundRowPayload(payload));
+        assertEquals(expected, serialize(serializer));
+    }
+
+    @Test
+    public void testJsonByTableMatchesObjectMapper() throws Exception {
+        Serializer serializer = createSerializer(STRUCTURE_BY_TABLE);
+        String expected = new ObjectMapper().writeValueAsString(serializer.createByTablePayload(payload));
+        assertEquals(expected, serialize(serializer));
+    }
+
+    @Test
+    public void testJsonByRowMatchesObjectBinding() throws Exception {
+        String text = serialize(createSerializer(STRUCTURE_BY_INBOUND_ROW));
+        ObjectMapper mapper = new ObjectMapper();
+        List<EntityRow> entityRows = mapper.readValue(text,
+                mapper.getTypeFactory().constructCollectionType(List.class, EntityRow.class));
+        List<EntityData> expected = new ArrayList<>();
+        for (EntityRow entityRow : entityRows) {
+            expected.add(entityRow.toEntityData(model));
+        }
+        assertEquals(expected, deserialize(STRUCTURE_BY_INBOUND_ROW, text));
+        assertEquals(toStrings(payload), expected);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJsonByTableMatchesObjectBinding() throws Exception {
+        String text = serialize(createSerializer(STRUCTURE_BY_TABLE));
+        /* EntityTable has no default constructor, so bind the tables as maps */
+        List<Map<String, Object>> entityTables = new ObjectMapper().readValue(text, List.class);
+        List<EntityData> expected = new ArrayList<>();
+        for (Map<String, Object> entityTable : entityTables) {
+            ModelEntity entity = model.getEntityByName((String) entityTable.get("name"));
+            for (Map<String, String> row : (List<Map<String, String>>) entityTable.get("rows")) {
+                EntityData data = new EntityData();
+                for (Map.Entry<String, String> entry : row.entrySet()) {
+                    data.put(entity.getModelAttributeByName(entry.getKey()).getId(), entry.getValue());
+                }
+                expected.add(data);
+            }
+        }
+        assertEquals(expected, deserialize(STRUCTURE_BY_TABLE, text));
+        assertEquals(toStrings(payload).size(), expected.size());
+        assertTrue(expected.containsAll(toStrings(payload)));
+    }
+
+    @Test
+    public void testJsonIsTheSameForIndexedRows() throws Exception {
+        String byRow = serialize(createSerializer(STRUCTURE_BY_INBOUND_ROW));
+        String byTable = serialize(createSerializer(STRUCTURE_BY_TABLE));
+        IndexedEntityData.Schema schema = IndexedEntityData.Schema.of(model);
+        List<EntityData> indexed = new ArrayList<>();
+        for (EntityData row : payload) {
+            IndexedEntityData data = new IndexedEntityData(schema);
+            data.putAll(row);
+            indexed.add(data);
+        }
+        payload = indexed;
+        assertEquals(byRow, serialize(createSerializer(STRUCTURE_BY_INBOUND_ROW)));
+        assertEquals(byTable, serialize(createSerializer(STRUCTURE_BY_TABLE)));
+    }
+
+    @Test
+    public void testJsonByRowDoesNotCarryValuesIntoObjectWithoutData() throws Exception {
+        String text = "[{\"name\":\"CUSTOMER\",\"data\":{\"ID\":\"1\",\"NAME\":\"Ann\"}},"
+                + "{\"name\":\"CUSTOMER\"},"
+                + "{\"data\":{\"ID\":\"3\"},\"name\":\"CUSTOMER\"}]";
+        List<EntityData> expected = new ArrayList<>();
+        expected.add(row("c_id", "1", "c_name", "Ann"));
+        expected.add(row("c_id", "3"));
+        assertEquals(expected, deserialize(STRUCTURE_BY_INBOUND_ROW, text));
+    }
+
+    protected String serialize(Serializer serializer) {
+        SendMessageCallback<ArrayList<String>> callback = new SendMessageCallback<ArrayList<String>>();
+        EntityDataMessage first = new EntityDataMessage("source", null);
+        first.setPayload(new ArrayList<>(payload.subList(0, 2)));
+        serializer.handle(first, callback, false);
+        EntityDataMessage second = new EntityDataMessage("source", null);
+        second.setPayload(new ArrayList<>(payload.subList(2, payload.size())));
+        serializer.handle(second, callback, true);
+        assertEquals(1, callback.getPayloadList().size());
+        return callback.getPayloadList().get(0).get(0);
+    }
+
+    protected List<EntityData> deserialize(String structure, String text) {
+        Deserializer deserializer = new Deserializer();
+        deserializer.create(null, createContext(structure), 0);
+        deserializer.start();
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        ArrayList<String> texts = new ArrayList<>();
+        texts.add(text);
+        deserializer.handle(new TextMessage("source", texts), callback, true);
+        List<EntityData> rows = new ArrayList<>();
+        for (ArrayList<EntityData> message : callback.getPayloadList()) {
+            rows.addAll(message);
+        }
+        return rows;
+    }
+
+    protected Serializer createSerializer(String structure) {
+        Serializer serializer = new Serializer();
+        serializer.create(null, createContext(structure), 0);
+        serializer.start();
+        return serializer;
+    }
+
+    protected ComponentContext createContext(String structure) {
+        Component component = TestUtils.createComponent("Serializer", false, null, model, model, null, null,
+                new Setting(FORMAT, FORMAT_JSON), new Setting(STRUCTURE, structure));
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        return context;
+    }
+
+    protected static List<EntityData> toStrings(List<EntityData> rows) {
+        List<EntityData> strings = new ArrayList<>();
+        for (EntityData row : rows) {
+            EntityData data = new EntityData();
+            for (Map.Entry<String, Object> entry : row.entrySet()) {
+                data.put(entry.getKey(), entry.getValue() != null ? entry.getValue().toString() : null);
+            }
+            strings.add(data);
+        }
+        return strings;
+    }
+
+    protected static EntityData row(Object... idsAndValues) {
+        EntityData data = new EntityData();
+        for (int i = 0; i < idsAndValues.length; i += 2) {
+            data.put((String) idsAndValues[i], idsAndValues[i + 1]);
+        }
+        return data;
+    }
+
+}
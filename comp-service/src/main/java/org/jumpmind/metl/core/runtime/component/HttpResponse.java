@@ -6,24 +6,49 @@ import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstant
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_JSON;
 import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_XML;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.jumpmind.exception.IoException;
 import org.jumpmind.metl.core.runtime.ContentMessage;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 
-public class HttpResponse extends AbstractHttpRequestResponse implements IHasResults {
+public class HttpResponse extends AbstractHttpRequestResponse implements IHasResults, IStreamsResults {
 
     public static final String TYPE = "16170152-eee5-11e5-9ce9-5e5517507c66";
+
+    public static final String STREAMING = "streaming";
     
     StringBuilder response;
 
     String detectedFormat;
 
+    IResultsStream resultsStream;
+
+    OutputStream out;
+
+    Charset charset;
+
     public HttpResponse() {
     }
 
     @Override
     public void start() {
         response = new StringBuilder();
+        out = null;
+    }
+
+    @Override
+    public boolean isStreamingResults() {
+        return properties.is("returns.data") && properties.is(STREAMING, false);
+    }
+
+    @Override
+    public void setResultsStream(IResultsStream resultsStream) {
+        this.resultsStream = resultsStream;
     }
 
     @Override
@@ -32,10 +57,53 @@ public class HttpResponse extends AbstractHttpRequestResponse implements IHasRes
         if (properties.is("returns.data")) {
             if (inputMessage instanceof ContentMessage) {
                 ContentMessage<?> textMessage = (ContentMessage<?>) inputMessage;
-                response.append(textMessage.getTextFromPayload());
-                detectedFormat = (String)textMessage.getHeader().get(FORMAT);
+                if (resultsStream != null) {
+                    write(textMessage);
+                } else {
+                    response.append(textMessage.getTextFromPayload());
+                    detectedFormat = (String)textMessage.getHeader().get(FORMAT);
+                }
+            }
+        }
+    }
+
+    /*
+     * The response is committed with the format of the first message. Each
+     * message is flushed so the client receives it as a chunk right away.
+     */
+    protected void write(ContentMessage<?> message) {
+        try {
+            if (out == null) {
+                detectedFormat = (String) message.getHeader().get(FORMAT);
+                String contentType = getContentType();
+                charset = getCharset(contentType);
+                out = resultsStream.open(contentType);
+            }
+            Object payload = message.getPayload();
+            if (payload instanceof byte[]) {
+                out.write((byte[]) payload);
+            } else {
+                out.write(message.getTextFromPayload().getBytes(charset));
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    private Charset getCharset(String contentType) {
+        if (isNotBlank(contentType)) {
+            int index = contentType.toLowerCase().indexOf("charset=");
+            if (index >= 0) {
+                String name = contentType.substring(index + "charset=".length()).split(";")[0].trim().replace("\"", "");
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalArgumentException e) {
+                    warn("Unsupported charset %s.  Using UTF-8", name);
+                }
             }
         }
+        return StandardCharsets.UTF_8;
     }
 
     @Override
@@ -58,7 +126,9 @@ public class HttpResponse extends AbstractHttpRequestResponse implements IHasRes
     }
 
     private Object getResponse() {
-        if (response instanceof CharSequence) {
+        if (out != null) {
+            return null;
+        } else if (response instanceof CharSequence) {
             return response.toString();
         } else {
             return response;
@@ -0,0 +1,159 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_JSON;
+import static org.jumpmind.metl.core.runtime.component.ComponentSettingsConstants.FORMAT_XML;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.TextMessage;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class HttpResponseTest {
+
+    @Test
+    public void testStreamingIsOptIn() {
+        assertFalse(createResponse(new Setting("returns.data", "true")).isStreamingResults());
+        assertFalse(createResponse(new Setting("returns.data", "false"), new Setting(HttpResponse.STREAMING, "true"))
+                .isStreamingResults());
+        assertTrue(createResponse(new Setting("returns.data", "true"), new Setting(HttpResponse.STREAMING, "true"))
+                .isStreamingResults());
+    }
+
+    @Test
+    public void testBufferedWithoutAResultsStream() {
+        HttpResponse response = createResponse(new Setting("returns.data", "true"), new Setting(HttpResponse.STREAMING, "true"));
+        response.handle(message(FORMAT_JSON, "{\"a\":1}"), null, false);
+        response.handle(message(FORMAT_JSON, "{\"b\":2}"), null, true);
+        Results results = response.getResults();
+        assertEquals("{\"a\":1}{\"b\":2}", results.getValue());
+        assertEquals("application/json;charset=utf-8", results.getContentType());
+    }
+
+    @Test
+    public void testContentTypeComesFromTheFirstMessage() {
+        HttpResponse response = createResponse(new Setting("returns.data", "true"), new Setting(HttpResponse.STREAMING, "true"));
+        RecordingResultsStream stream = new RecordingResultsStream();
+        response.setResultsStream(stream);
+        response.handle(message(FORMAT_XML, "<a/>"), null, false);
+        response.handle(message(FORMAT_JSON, "{\"b\":2}"), null, false);
+        response.handle(new ControlMessage("source"), null, true);
+
+        assertEquals(1, stream.contentTypes.size());
+        assertEquals("application/xml;charset=utf-8", stream.contentTypes.get(0));
+        assertEquals("<a/>{\"b\":2}", new String(stream.out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(2, stream.flushes);
+
+        Results results = response.getResults();
+        assertNull(results.getValue());
+        assertEquals("application/xml;charset=utf-8", results.getContentType());
+    }
+
+    @Test
+    public void testCharsetComesFromTheContentType() {
+        String text = "caf\u00e9";
+        HttpResponse response = createResponse(new Setting("returns.data", "true"), new Setting(HttpResponse.STREAMING, "true"),
+                new Setting("content.type", "text/plain; charset=\"ISO-8859-1\""));
+        RecordingResultsStream stream = new RecordingResultsStream();
+        response.setResultsStream(stream);
+        response.handle(message(null, text), null, true);
+        assertEquals("text/plain; charset=\"ISO-8859-1\"", stream.contentTypes.get(0));
+        assertArrayEquals(text.getBytes(StandardCharsets.ISO_8859_1), stream.out.toByteArray());
+
+        response = createResponse(new Setting("returns.data", "true"), new Setting(HttpResponse.STREAMING, "true"),
+                new Setting("content.type", "text/plain"));
+        stream = new RecordingResultsStream();
+        response.setResultsStream(stream);
+        response.handle(message(null, text), null, true);
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), stream.out.toByteArray());
+    }
+
+    protected TextMessage message(String format, String text) {
+        ArrayList<String> payload = new ArrayList<String>();
+        payload.add(text);
+        TextMessage message = new TextMessage("source", payload);
+        if (format != null) {
+            message.getHeader().put(FORMAT, format);
+        }
+        return message;
+    }
+
+    protected HttpResponse createResponse(Setting... settings) {
+        Component component = TestUtils.createComponent(HttpResponse.TYPE, false, null, null, null, null, null, settings);
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        HttpResponse response = new HttpResponse();
+        response.create(null, context, 0);
+        response.start();
+        return response;
+    }
+
+    static class RecordingResultsStream implements IResultsStream {
+
+        List<String> contentTypes = new ArrayList<String>();
+
+        int flushes;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public OutputStream open(String contentType) throws IOException {
+            contentTypes.add(contentType);
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    flushes++;
+                }
+            };
+        }
+    }
+
+}
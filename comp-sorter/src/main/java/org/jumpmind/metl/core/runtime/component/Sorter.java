@@ -27,6 +27,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.UUID;
 
 import org.apache.commons.lang.ObjectUtils;
@@ -37,6 +38,7 @@ import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
 import org.jumpmind.metl.core.runtime.LogLevel;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
@@ -63,8 +65,34 @@ public class Sorter extends AbstractComponentRuntime {
 
     public final static String ATTRIBUTE_SORTER_ENABLED = "sort.enabled";
 
+    public final static String SORTER_ATTRIBUTE_DESCENDING = "sort.attribute.descending";
+
+    public final static String SORT_MODE = "sort.mode";
+
+    public final static String SORT_MODE_IN_MEMORY = "IN MEMORY";
+
+    public final static String SORT_MODE_EXTERNAL_MERGE = "EXTERNAL MERGE";
+
+    public final static String SORT_MEMORY_BUFFER_SIZE = "sort.memory.buffer.size";
+
     int rowsPerMessage;
 
+    boolean externalMerge;
+
+    long memoryBufferSize;
+
+    String[] sortKeyAttributeIds;
+
+    boolean[] sortKeyDescending;
+
+    Map<String, Integer> entityOrdinals;
+
+    List<SortRecord> sortBuffer = new ArrayList<>();
+
+    long sortBufferSize;
+
+    List<EntityDataSpillFile> sortRuns = new ArrayList<>();
+
     IDatabasePlatform databasePlatform;
 
     RdbmsWriter databaseWriter;
@@ -87,6 +115,8 @@ public class Sorter extends AbstractComponentRuntime {
     public void start() {
         TypedProperties properties = getTypedProperties();
         rowsPerMessage = properties.getInt(ROWS_PER_MESSAGE);
+        externalMerge = SORT_MODE_EXTERNAL_MERGE.equals(properties.get(SORT_MODE, SORT_MODE_IN_MEMORY));
+        memoryBufferSize = properties.getLong(SORT_MEMORY_BUFFER_SIZE, 64) * 1024 * 1024;
         String sortAttribute = properties.get(SORT_ATTRIBUTE);
         Model inputModel = this.getComponent().getInputModel();
         Component component = context.getFlowStep().getComponent();
@@ -131,7 +161,25 @@ public class Sorter extends AbstractComponentRuntime {
         	throw new IllegalStateException(
         			"Sort attribute must be a valid 'entity.attribute' in the input model. "
         			+ "Or at least one attribute must be specified to sort on in the component editor.");
-        }        
+        }
+
+        sortKeyAttributeIds = new String[sortKeyAttributeIdList.size()];
+        sortKeyDescending = new boolean[sortKeyAttributeIdList.size()];
+        for (int i = 0; i < sortKeyAttributeIds.length; i++) {
+            sortKeyAttributeIds[i] = sortKeyAttributeIdList.get(i).getAttributeId();
+            ComponentAttributeSetting descendingSetting = component.getSingleAttributeSetting(sortKeyAttributeIds[i],
+                    SORTER_ATTRIBUTE_DESCENDING);
+            sortKeyDescending[i] = descendingSetting != null && Boolean.parseBoolean(descendingSetting.getValue());
+        }
+
+        if (externalMerge) {
+            entityOrdinals = new HashMap<>();
+            for (int i = 0; i < entities.size(); i++) {
+                for (ModelAttribute attribute : entities.get(i).getModelAttributes()) {
+                    entityOrdinals.put(attribute.getId(), i);
+                }
+            }
+        }
     }
     
     @Override
@@ -141,6 +189,11 @@ public class Sorter extends AbstractComponentRuntime {
 
     @Override
     public void handle(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        if (externalMerge) {
+            handleExternalMerge(inputMessage, callback, unitOfWorkBoundaryReached);
+            return;
+        }
+
     	if (inputMessage instanceof EntityDataMessage) {
             if (!entitySort) {
 	            createDatabase();
@@ -187,20 +240,184 @@ public class Sorter extends AbstractComponentRuntime {
     	Collections.sort(sortedRecords, new Comparator<EntityData>() {
     		@Override
     		public int compare(EntityData o1, EntityData o2) {
-    			Object obj1 = o1.get(sortAttributeId);
-    			Object obj2 = o2.get(sortAttributeId);
-    			if ((obj1 instanceof Comparable || obj1 == null)
-    					&& (obj2 instanceof Comparable || obj2 == null)) {
-    				return ObjectUtils.compare((Comparable<?>) obj1, (Comparable<?>) obj2);
-    			} else {
-    				String str1 = obj1 != null ? obj1.toString() : null;
-    				String str2 = obj2 != null ? obj2.toString() : null;
-    				return ObjectUtils.compare(str1, str2);
-    			}
+    			return compareSortKeys(o1, o2);
     		}
     	});
     }
 
+    protected int compareSortKeys(EntityData o1, EntityData o2) {
+        for (int i = 0; i < sortKeyAttributeIds.length; i++) {
+            int result = compareValues(o1.get(sortKeyAttributeIds[i]), o2.get(sortKeyAttributeIds[i]));
+            if (result != 0) {
+                return sortKeyDescending[i] ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    protected int compareValues(Object obj1, Object obj2) {
+        if ((obj1 instanceof Comparable || obj1 == null)
+                && (obj2 instanceof Comparable || obj2 == null)) {
+            return ObjectUtils.compare((Comparable<?>) obj1, (Comparable<?>) obj2);
+        } else {
+            String str1 = obj1 != null ? obj1.toString() : null;
+            String str2 = obj2 != null ? obj2.toString() : null;
+            return ObjectUtils.compare(str1, str2);
+        }
+    }
+
+    protected int compareSortRecords(SortRecord o1, SortRecord o2) {
+        if (!entitySort && o1.entityOrdinal != o2.entityOrdinal) {
+            // keep the entities grouped in model order like the database sort does
+            return o1.entityOrdinal < o2.entityOrdinal ? -1 : 1;
+        }
+        return compareSortKeys(o1.data, o2.data);
+    }
+
+    protected void handleExternalMerge(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        if (inputMessage instanceof EntityDataMessage) {
+            ArrayList<EntityData> payload = ((EntityDataMessage) inputMessage).getPayload();
+            for (EntityData record : payload) {
+                getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                sortBuffer.add(new SortRecord(getEntityOrdinal(record), record));
+                sortBufferSize += EntityDataSpillFile.estimateSize(record);
+                if (sortBufferSize >= memoryBufferSize) {
+                    spillSortBuffer();
+                }
+            }
+        }
+
+        if (unitOfWorkBoundaryReached) {
+            try {
+                if (sortRuns.size() == 0) {
+                    sortSortBuffer();
+                    ArrayList<EntityData> dataToSend = new ArrayList<EntityData>();
+                    for (SortRecord record : sortBuffer) {
+                        dataToSend = send(record.data, dataToSend, callback);
+                    }
+                    flush(dataToSend, callback);
+                } else {
+                    if (sortBuffer.size() > 0) {
+                        spillSortBuffer();
+                    }
+                    mergeSortRuns(callback);
+                }
+            } finally {
+                sortBuffer.clear();
+                sortBufferSize = 0;
+                deleteSortRuns();
+            }
+        }
+    }
+
+    protected int getEntityOrdinal(EntityData record) {
+        if (!entitySort) {
+            for (String attributeId : record.keySet()) {
+                Integer ordinal = entityOrdinals.get(attributeId);
+                if (ordinal != null) {
+                    return ordinal;
+                }
+            }
+        }
+        return 0;
+    }
+
+    protected void sortSortBuffer() {
+        Collections.sort(sortBuffer, new Comparator<SortRecord>() {
+            @Override
+            public int compare(SortRecord o1, SortRecord o2) {
+                return compareSortRecords(o1, o2);
+            }
+        });
+    }
+
+    protected void spillSortBuffer() {
+        sortSortBuffer();
+        EntityDataSpillFile run = new EntityDataSpillFile("metl-sort-");
+        sortRuns.add(run);
+        EntityDataSpillFile.Writer writer = run.openWriter();
+        try {
+            for (SortRecord record : sortBuffer) {
+                writer.write(record.data, record.entityOrdinal);
+            }
+        } finally {
+            writer.close();
+        }
+        log(LogLevel.DEBUG, "Spilled %d sorted records to %s", sortBuffer.size(), run.getFile().getAbsolutePath());
+        sortBuffer.clear();
+        sortBufferSize = 0;
+    }
+
+    protected void mergeSortRuns(ISendMessageCallback callback) {
+        info("Merging %d sorted runs", sortRuns.size());
+        PriorityQueue<SortRun> queue = new PriorityQueue<>(sortRuns.size(), new Comparator<SortRun>() {
+            @Override
+            public int compare(SortRun o1, SortRun o2) {
+                int result = compareSortRecords(o1.current, o2.current);
+                // runs are spilled in arrival order so ties go to the earlier run to keep the sort stable
+                return result != 0 ? result : Integer.compare(o1.index, o2.index);
+            }
+        });
+        List<SortRun> runs = new ArrayList<>(sortRuns.size());
+        try {
+            for (int i = 0; i < sortRuns.size(); i++) {
+                SortRun run = new SortRun(i, sortRuns.get(i).openReader());
+                runs.add(run);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+
+            ArrayList<EntityData> dataToSend = new ArrayList<EntityData>();
+            while (queue.size() > 0) {
+                SortRun run = queue.poll();
+                dataToSend = send(run.current.data, dataToSend, callback);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+            flush(dataToSend, callback);
+        } finally {
+            for (SortRun run : runs) {
+                run.reader.close();
+            }
+        }
+    }
+
+    protected ArrayList<EntityData> send(EntityData record, ArrayList<EntityData> dataToSend, ISendMessageCallback callback) {
+        if (dataToSend.size() >= rowsPerMessage) {
+            callback.sendEntityDataMessage(null, dataToSend);
+            dataToSend = new ArrayList<EntityData>();
+        }
+        dataToSend.add(record);
+        return dataToSend;
+    }
+
+    protected void flush(ArrayList<EntityData> dataToSend, ISendMessageCallback callback) {
+        if (dataToSend.size() > 0) {
+            callback.sendEntityDataMessage(null, dataToSend);
+        }
+    }
+
+    protected void deleteSortRuns() {
+        for (EntityDataSpillFile run : sortRuns) {
+            run.delete();
+        }
+        sortRuns.clear();
+    }
+
+    @Override
+    public void stop() {
+        deleteSortRuns();
+        super.stop();
+    }
+
+    @Override
+    public void flowCompletedWithErrors(Throwable myError) {
+        deleteSortRuns();
+        super.flowCompletedWithErrors(myError);
+    }
+
 	private void sortData(ISendMessageCallback callback) {
 		Map<ModelEntity, String> sqls = new HashMap<>();
 		boolean addOrderBy = false;
@@ -269,7 +486,13 @@ public class Sorter extends AbstractComponentRuntime {
 		for (ComponentAttributeSetting componentAttribute : sortKeyAttributeIdList) {
 			for (ModelAttribute attribute : entity.getModelAttributes()) {
 				if (componentAttribute.getAttributeId().equals(attribute.getId())) {
-					sql.append(attribute.getName()).append(",");
+					sql.append(attribute.getName());
+					ComponentAttributeSetting descendingSetting = context.getFlowStep().getComponent()
+							.getSingleAttributeSetting(attribute.getId(), SORTER_ATTRIBUTE_DESCENDING);
+					if (descendingSetting != null && Boolean.parseBoolean(descendingSetting.getValue())) {
+						sql.append(" desc");
+					}
+					sql.append(",");
 					break;
 				}
 			}
@@ -364,4 +587,36 @@ public class Sorter extends AbstractComponentRuntime {
 			}
 		}
 	}
+
+	static class SortRecord {
+
+		int entityOrdinal;
+
+		EntityData data;
+
+		SortRecord(int entityOrdinal, EntityData data) {
+			this.entityOrdinal = entityOrdinal;
+			this.data = data;
+		}
+	}
+
+	static class SortRun {
+
+		int index;
+
+		EntityDataSpillFile.Reader reader;
+
+		SortRecord current;
+
+		SortRun(int index, EntityDataSpillFile.Reader reader) {
+			this.index = index;
+			this.reader = reader;
+		}
+
+		boolean next() {
+			EntityData data = reader.read();
+			current = data != null ? new SortRecord(reader.getTag(), data) : null;
+			return current != null;
+		}
+	}
 }
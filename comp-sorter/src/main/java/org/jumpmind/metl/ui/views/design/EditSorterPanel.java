@@ -102,8 +102,8 @@ public class EditSorterPanel extends AbstractComponentEditPanel {
         table.setSortEnabled(false);
         table.setImmediate(true);
         table.setSizeFull();
-        table.setVisibleColumns(new Object[] { "entityName", "attributeName", "ordinalSetting", "sortSetting" });
-        table.setColumnHeaders(new String[] { "Entity Name", "Attribute Name", "Sort Order", "Sort" });
+        table.setVisibleColumns(new Object[] { "entityName", "attributeName", "ordinalSetting", "sortSetting", "descendingSetting" });
+        table.setColumnHeaders(new String[] { "Entity Name", "Attribute Name", "Sort Order", "Sort", "Descending" });
         table.setTableFieldFactory(new EditFieldFactory());
         table.setCellStyleGenerator(new TableCellStyleGenerator());
         table.setEditable(true);
@@ -506,6 +506,8 @@ public class EditSorterPanel extends AbstractComponentEditPanel {
             Field<?> field = null;
             if (propertyId.equals("sortSetting")) {
                 return createAttributeCheckBox(record, Sorter.ATTRIBUTE_SORTER_ENABLED);
+            } else if (propertyId.equals("descendingSetting")) {
+                return createDescendingCheckBox(record);
             }
 
             RecordFormat selected = getSelectedItem();
@@ -550,6 +552,20 @@ public class EditSorterPanel extends AbstractComponentEditPanel {
             return checkBox;
         }
         
+        protected CheckBox createDescendingCheckBox(final RecordFormat record) {
+            final CheckBox checkBox = new CheckBox();
+            checkBox.setImmediate(true);
+            checkBox.addValueChangeListener(new ValueChangeListener() {
+                private static final long serialVersionUID = 1L;
+                @Override
+                public void valueChange(ValueChangeEvent event) {
+                    record.setDescendingSetting(checkBox.getValue());
+                    saveSetting(record.getAttributeId(), Sorter.SORTER_ATTRIBUTE_DESCENDING, checkBox.getValue().toString());
+                }
+            });
+            return checkBox;
+        }
+
         protected void focusOn(RecordFormat record, Object propertyId) {
             record.setFocusFieldId(propertyId);
             for (Object itemId : getSelectedItems()) {
@@ -579,6 +595,8 @@ public class EditSorterPanel extends AbstractComponentEditPanel {
 
         boolean sortSetting = false;
 
+        boolean descendingSetting = false;
+
         int ordinalSetting;
         
         public RecordFormat(ModelEntity modelEntity, ModelAttribute modelAttribute) {
@@ -597,6 +615,12 @@ public class EditSorterPanel extends AbstractComponentEditPanel {
 	            if (setting != null) {
 	                this.sortSetting = Boolean.parseBoolean(setting.getValue());
 	            }
+
+	            setting = component.getSingleAttributeSetting(modelAttribute.getId(),
+	                    Sorter.SORTER_ATTRIBUTE_DESCENDING);
+	            if (setting != null) {
+	                this.descendingSetting = Boolean.parseBoolean(setting.getValue());
+	            }
             } else {
             	ComponentEntitySetting setting = component.getSingleEntitySetting(modelEntity.getId(),
                 		Sorter.SORTER_ATTRIBUTE_ORDINAL);
@@ -647,6 +671,14 @@ public class EditSorterPanel extends AbstractComponentEditPanel {
             this.sortSetting = sortSetting;
         }
 
+        public boolean getDescendingSetting() {
+            return descendingSetting;
+        }
+
+        public void setDescendingSetting(boolean descendingSetting) {
+            this.descendingSetting = descendingSetting;
+        }
+
         public void addField(Object id, Field<?> field) {
             fields.put(id, field);
         }
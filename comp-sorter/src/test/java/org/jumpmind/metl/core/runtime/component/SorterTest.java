@@ -0,0 +1,220 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SorterTest {
+
+    Model model;
+
+    @Before
+    public void setup() {
+        model = new Model();
+        ModelEntity customer = new ModelEntity("customer", "CUSTOMER");
+        customer.addModelAttribute(new ModelAttribute("c_id", customer.getId(), "ID"));
+        customer.addModelAttribute(new ModelAttribute("c_name", customer.getId(), "NAME"));
+        customer.addModelAttribute(new ModelAttribute("c_balance", customer.getId(), "BALANCE"));
+        model.getModelEntities().add(customer);
+        ModelEntity order = new ModelEntity("order", "ORDERS");
+        order.addModelAttribute(new ModelAttribute("o_id", order.getId(), "ID"));
+        order.addModelAttribute(new ModelAttribute("o_amount", order.getId(), "AMOUNT"));
+        model.getModelEntities().add(order);
+    }
+
+    @Test
+    public void testInMemorySortAttributeMatchesSingleKeyComparison() {
+        List<EntityData> rows = new ArrayList<>();
+        rows.add(customer(1, "b", null));
+        rows.add(customer(2, null, null));
+        rows.add(customer(3, "a", null));
+        rows.add(customer(4, new Name("c"), null));
+        rows.add(customer(5, "b", null));
+        rows.add(customer(6, new Name("a"), null));
+        rows.add(customer(7, null, null));
+
+        /* the comparison the in memory sort made on its single sort attribute */
+        List<EntityData> expected = new ArrayList<>(rows);
+        Collections.sort(expected, new Comparator<EntityData>() {
+            @Override
+            public int compare(EntityData o1, EntityData o2) {
+                Object obj1 = o1.get("c_name");
+                Object obj2 = o2.get("c_name");
+                if ((obj1 instanceof Comparable || obj1 == null) && (obj2 instanceof Comparable || obj2 == null)) {
+                    return ObjectUtils.compare((Comparable<?>) obj1, (Comparable<?>) obj2);
+                } else {
+                    String str1 = obj1 != null ? obj1.toString() : null;
+                    String str2 = obj2 != null ? obj2.toString() : null;
+                    return ObjectUtils.compare(str1, str2);
+                }
+            }
+        });
+
+        Sorter sorter = createSorter(null, new Setting(Sorter.SORT_ATTRIBUTE, "CUSTOMER.NAME"));
+        List<EntityData> sorted = sort(sorter, 3, rows);
+        assertEquals(expected.size(), sorted.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), sorted.get(i));
+        }
+    }
+
+    @Test
+    public void testExternalMergeSpillsAndMergesRuns() {
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<>();
+        attributeSettings.add(new ComponentAttributeSetting("c_name", Sorter.SORTER_ATTRIBUTE_ORDINAL, "1"));
+        attributeSettings.add(new ComponentAttributeSetting("c_name", Sorter.SORTER_ATTRIBUTE_DESCENDING, "true"));
+        attributeSettings.add(new ComponentAttributeSetting("c_id", Sorter.SORTER_ATTRIBUTE_ORDINAL, "2"));
+
+        List<EntityData> rows = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            if (i % 4 == 3) {
+                rows.add(order(i, new BigDecimal(i + ".25")));
+            } else {
+                rows.add(customer(39 - i, "name" + (i % 5), i % 7 == 0 ? null : new BigDecimal(i)));
+            }
+        }
+
+        List<EntityData> expected = new ArrayList<>();
+        for (EntityData row : rows) {
+            if (row.containsKey("c_id")) {
+                expected.add(row);
+            }
+        }
+        Collections.sort(expected, new Comparator<EntityData>() {
+            @Override
+            public int compare(EntityData o1, EntityData o2) {
+                int result = ((String) o2.get("c_name")).compareTo((String) o1.get("c_name"));
+                return result != 0 ? result : ((Integer) o1.get("c_id")).compareTo((Integer) o2.get("c_id"));
+            }
+        });
+        for (EntityData row : rows) {
+            if (row.containsKey("o_id")) {
+                expected.add(row);
+            }
+        }
+
+        Setting externalMerge = new Setting(Sorter.SORT_MODE, Sorter.SORT_MODE_EXTERNAL_MERGE);
+        List<EntityData> inMemory = sort(createSorter(attributeSettings, externalMerge), 7, rows);
+        assertEquals(expected, inMemory);
+
+        List<Integer> spilled = new ArrayList<>();
+        Sorter spilling = new Sorter() {
+            @Override
+            protected void spillSortBuffer() {
+                spilled.add(sortBuffer.size());
+                super.spillSortBuffer();
+            }
+        };
+        start(spilling, attributeSettings, externalMerge);
+        spilling.memoryBufferSize = 1;
+        List<EntityData> merged = sort(spilling, 7, rows);
+        assertEquals(rows.size(), spilled.size());
+        assertEquals(expected, merged);
+        assertTrue(spilling.sortRuns.isEmpty());
+    }
+
+    protected List<EntityData> sort(Sorter sorter, int rowsPerMessage, List<EntityData> rows) {
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        for (int i = 0; i < rows.size(); i += rowsPerMessage) {
+            ArrayList<EntityData> payload = new ArrayList<>(rows.subList(i, Math.min(i + rowsPerMessage, rows.size())));
+            sorter.handle(new EntityDataMessage("source", payload), callback, i + rowsPerMessage >= rows.size());
+        }
+        List<EntityData> sorted = new ArrayList<>();
+        for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+            assertTrue(payload.size() <= 5);
+            sorted.addAll(payload);
+        }
+        return sorted;
+    }
+
+    protected Sorter createSorter(List<ComponentAttributeSetting> attributeSettings, Setting... settings) {
+        Sorter sorter = new Sorter();
+        start(sorter, attributeSettings, settings);
+        return sorter;
+    }
+
+    protected void start(Sorter sorter, List<ComponentAttributeSetting> attributeSettings, Setting... settings) {
+        Setting[] allSettings = new Setting[settings.length + 1];
+        System.arraycopy(settings, 0, allSettings, 0, settings.length);
+        allSettings[settings.length] = new Setting(Sorter.ROWS_PER_MESSAGE, "5");
+        Component component = TestUtils.createComponent(Sorter.TYPE, false, null, model, model, null,
+                attributeSettings != null ? attributeSettings : new ArrayList<ComponentAttributeSetting>(), allSettings);
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        sorter.create(null, context, 0);
+        sorter.start();
+    }
+
+    protected static EntityData customer(int id, Object name, BigDecimal balance) {
+        EntityData data = new EntityData();
+        data.put("c_id", id);
+        data.put("c_name", name);
+        data.put("c_balance", balance);
+        return data;
+    }
+
+    protected static EntityData order(int id, BigDecimal amount) {
+        EntityData data = new EntityData();
+        data.put("o_id", id);
+        data.put("o_amount", amount);
+        return data;
+    }
+
+    static class Name {
+
+        String name;
+
+        Name(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+}
@@ -81,15 +81,18 @@ public class Transformer extends AbstractComponentRuntime {
     
     protected Set<String> getAllAttributesForIncludedEntities(EntityData data) {
         Set<String> allAttributesForIncludedEntities = new HashSet<>();
+        Set<String> includedEntityIds = new HashSet<>();
         Model inputModel = getComponent().getInputModel();
         Set<String> attributeIds = data.keySet();
         for (String attributeId : attributeIds) {
             ModelAttribute attribute = inputModel.getAttributeById(attributeId);
             if (attribute != null) {
-                ModelEntity entity = inputModel.getEntityById(attribute.getEntityId());
-                List<ModelAttribute> attributes = entity.getModelAttributes();
-                for (ModelAttribute modelAttribute : attributes) {
-                    allAttributesForIncludedEntities.add(modelAttribute.getId());
+                if (includedEntityIds.add(attribute.getEntityId())) {
+                    ModelEntity entity = inputModel.getEntityById(attribute.getEntityId());
+                    List<ModelAttribute> attributes = entity.getModelAttributes();
+                    for (ModelAttribute modelAttribute : attributes) {
+                        allAttributesForIncludedEntities.add(modelAttribute.getId());
+                    }
                 }
             } else {
                 log.warn("Found an attribute that wasn't in the configured model.  The attribute id was: {}", attributeId);
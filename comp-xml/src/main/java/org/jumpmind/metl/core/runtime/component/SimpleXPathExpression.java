@@ -0,0 +1,217 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The subset of XPath that can be evaluated while streaming through a
+ * document: an absolute path of child steps (or a path that starts with
+ * <code>//</code>) where each step is an element name or <code>*</code>,
+ * optionally filtered by attribute predicates such as <code>[@type]</code>
+ * or <code>[@type='home']</code>. The path may end with an
+ * <code>@attribute</code> or <code>text()</code> step.
+ */
+public class SimpleXPathExpression {
+
+    static final Pattern STEP = Pattern.compile("(\\*|[A-Za-z_][\\w\\-.]*)((?:\\[\\s*@[A-Za-z_][\\w\\-.]*\\s*(?:=\\s*(?:'[^']*'|\"[^\"]*\")\\s*)?\\])*)");
+
+    static final Pattern PREDICATE = Pattern.compile("\\[\\s*@([A-Za-z_][\\w\\-.]*)\\s*(?:=\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*)?\\]");
+
+    static final Pattern ATTRIBUTE = Pattern.compile("@([A-Za-z_][\\w\\-.]*)");
+
+    String expression;
+
+    boolean anyDepth;
+
+    Step[] steps;
+
+    String attributeName;
+
+    boolean text;
+
+    SimpleXPathExpression(String expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * @return the compiled expression or null if the expression is not part
+     *         of the supported subset
+     */
+    public static SimpleXPathExpression compile(String expression) {
+        if (expression == null) {
+            return null;
+        }
+        SimpleXPathExpression xpath = new SimpleXPathExpression(expression);
+        String path = expression.trim();
+        if (path.startsWith("//")) {
+            xpath.anyDepth = true;
+            path = path.substring(2);
+        } else if (path.startsWith("/")) {
+            path = path.substring(1);
+        } else {
+            return null;
+        }
+
+        List<Step> steps = new ArrayList<Step>();
+        String[] parts = splitSteps(path);
+        if (parts == null) {
+            return null;
+        }
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            boolean last = i == parts.length - 1;
+            Matcher matcher = null;
+            if (last && steps.size() > 0 && part.equals("text()")) {
+                xpath.text = true;
+            } else if (last && steps.size() > 0 && (matcher = ATTRIBUTE.matcher(part)).matches()) {
+                xpath.attributeName = matcher.group(1);
+            } else if ((matcher = STEP.matcher(part)).matches()) {
+                Step step = new Step(matcher.group(1).equals("*") ? null : matcher.group(1));
+                Matcher predicate = PREDICATE.matcher(matcher.group(2));
+                while (predicate.find()) {
+                    step.addPredicate(predicate.group(1), predicate.group(2) != null ? predicate.group(2) : predicate.group(3));
+                }
+                steps.add(step);
+            } else {
+                return null;
+            }
+        }
+        if (steps.size() == 0) {
+            return null;
+        }
+        xpath.steps = steps.toArray(new Step[steps.size()]);
+        return xpath;
+    }
+
+    /**
+     * Split on slashes that are not inside of a predicate. An empty step
+     * means the path used <code>//</code> somewhere other than at the start,
+     * which is not supported.
+     */
+    static String[] splitSteps(String path) {
+        List<String> parts = new ArrayList<String>();
+        char quote = 0;
+        int brackets = 0;
+        int start = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[') {
+                brackets++;
+            } else if (c == ']') {
+                brackets--;
+            } else if (c == '/' && brackets == 0) {
+                parts.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(path.substring(start));
+        for (String part : parts) {
+            if (part.trim().length() == 0) {
+                return null;
+            }
+        }
+        return parts.toArray(new String[parts.size()]);
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public boolean isAnyDepth() {
+        return anyDepth;
+    }
+
+    public Step[] getSteps() {
+        return steps;
+    }
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    public boolean isText() {
+        return text;
+    }
+
+    public boolean isElement() {
+        return attributeName == null && !text;
+    }
+
+    public static class Step {
+
+        String name;
+
+        List<String> predicateNames = new ArrayList<String>(0);
+
+        List<String> predicateValues = new ArrayList<String>(0);
+
+        Step(String name) {
+            this.name = name;
+        }
+
+        void addPredicate(String attributeName, String value) {
+            predicateNames.add(attributeName);
+            predicateValues.add(value);
+        }
+
+        /**
+         * @param attributes
+         *            alternating attribute names and values of the element
+         */
+        public boolean matches(String elementName, String[] attributes) {
+            if (name != null && !name.equals(elementName)) {
+                return false;
+            }
+            for (int i = 0; i < predicateNames.size(); i++) {
+                String value = getAttribute(attributes, predicateNames.get(i));
+                String expected = predicateValues.get(i);
+                if (value == null || (expected != null && !expected.equals(value))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static String getAttribute(String[] attributes, String name) {
+        for (int i = 0; i < attributes.length; i += 2) {
+            if (attributes[i].equals(name)) {
+                return attributes[i + 1];
+            }
+        }
+        return null;
+    }
+
+}
@@ -21,19 +21,29 @@
 package org.jumpmind.metl.core.runtime.component;
 
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Stack;
 
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.apache.commons.lang.StringUtils;
 import org.jdom2.Attribute;
+import org.jdom2.Content;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.Namespace;
+import org.jdom2.Text;
 import org.jdom2.filter.Filters;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.input.sax.XMLReaders;
@@ -75,6 +85,12 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
 
     public final static String XML_FORMATTER_TEMPLATE = "xml.formatter.template";
 
+    public final static String XML_FORMATTER_STREAMING = "xml.formatter.streaming";
+
+    public final static String XML_FORMATTER_STREAMING_ROWS_PER_MESSAGE = "xml.formatter.streaming.rows.per.message";
+
+    final static String XSI_URI = "http://www.w3.org/2001/XMLSchema-instance";
+
     boolean ignoreNamespace = true;
 
     String xmlFormat;
@@ -93,6 +109,18 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
 
     String runWhen;
 
+    boolean streaming;
+
+    int streamingRowsPerMessage = 1000;
+
+    StreamingTemplate streamingTemplate;
+
+    StreamingXmlWriter streamingWriter;
+
+    Map<String, XPathExpression<Object>> expressions = new HashMap<String, XPathExpression<Object>>();
+
+    Map<String, XPathExpression<Element>> elementExpressions = new HashMap<String, XPathExpression<Element>>();
+
     @Override
     public void start() {
         super.start();
@@ -106,6 +134,11 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
         templateDoc = getTemplateDoc();
         entityAttributeDtls = fillEntityAttributeDetails(templateDoc);
         runWhen = getComponent().get(RUN_WHEN, PER_MESSAGE);
+        streaming = properties.is(XML_FORMATTER_STREAMING, streaming);
+        streamingRowsPerMessage = properties.getInt(XML_FORMATTER_STREAMING_ROWS_PER_MESSAGE, streamingRowsPerMessage);
+        if (streaming) {
+            streamingTemplate = new StreamingTemplate();
+        }
     }
 
     @Override
@@ -117,6 +150,11 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
     public void handle(Message inputMessage, ISendMessageCallback callback,
             boolean unitOfWorkBoundaryReached) {
 
+        if (streaming) {
+            handleStreaming(inputMessage, callback);
+            return;
+        }
+
         if (!(inputMessage instanceof ControlMessage)) {
             messagesToProcess.add(inputMessage);
         }
@@ -129,6 +167,68 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
         }
     }
 
+    /**
+     * Writes the xml as rows arrive instead of building a document for the
+     * whole unit of work. Output is sent every
+     * {@link #XML_FORMATTER_STREAMING_ROWS_PER_MESSAGE} rows.
+     */
+    private void handleStreaming(Message inputMessage, ISendMessageCallback callback) {
+        try {
+            if (!(inputMessage instanceof ControlMessage)) {
+                if (streamingWriter == null) {
+                    streamingWriter = new StreamingXmlWriter();
+                }
+                ArrayList<EntityData> inputRows = ((EntityDataMessage) inputMessage).getPayload();
+                for (EntityData inputRow : inputRows) {
+                    streamingWriter.writeRow(inputRow);
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    if (streamingWriter.getRowsInChunk() >= streamingRowsPerMessage) {
+                        streamingWriter.sendChunk(callback);
+                    }
+                }
+            }
+
+            if ((PER_UNIT_OF_WORK.equals(runWhen) && inputMessage instanceof ControlMessage)
+                    || (!PER_UNIT_OF_WORK.equals(runWhen) && !(inputMessage instanceof ControlMessage))) {
+                if (streamingWriter == null) {
+                    streamingWriter = new StreamingXmlWriter();
+                }
+                streamingWriter.finish(callback);
+                streamingWriter = null;
+            }
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected XPathExpression<Object> compile(String xpath) {
+        XPathExpression<Object> expression = expressions.get(xpath);
+        if (expression == null) {
+            expression = XPathFactory.instance().compile(xpath);
+            expressions.put(xpath, expression);
+        }
+        return expression;
+    }
+
+    protected XPathExpression<Element> compileElement(String xpath) {
+        XPathExpression<Element> expression = elementExpressions.get(xpath);
+        if (expression == null) {
+            expression = XPathFactory.instance().compile(xpath, Filters.element());
+            elementExpressions.put(xpath, expression);
+        }
+        return expression;
+    }
+
+    protected Format getFormat() {
+        if (xmlFormat.equals(COMPACT_FORMAT)) {
+            return Format.getCompactFormat();
+        } else if (xmlFormat.equals(RAW_FORMAT)) {
+            return Format.getRawFormat();
+        } else {
+            return Format.getPrettyFormat();
+        }
+    }
+
     private void createXml(ISendMessageCallback callback) {
 
         Document generatedXml = new Document();
@@ -139,15 +239,7 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
             processMsgEntities(parentStack, msg, generatedXml);
         }
         XMLOutputter xmlOutputter = new XMLOutputter();
-        Format format = null;
-        if (xmlFormat.equals(COMPACT_FORMAT)) {
-            format = Format.getCompactFormat();
-        } else if (xmlFormat.equals(RAW_FORMAT)) {
-            format = Format.getRawFormat();
-        } else {
-            format = Format.getPrettyFormat();
-        }
-        xmlOutputter.setFormat(format);
+        xmlOutputter.setFormat(getFormat());
         outboundPayload.add(xmlOutputter.outputString(generatedXml));
         callback.sendTextMessage(null, outboundPayload);
     }
@@ -222,8 +314,7 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
             Element newRootElement = templateDoc.getRootElement().clone();
             generatedXml.setRootElement(newRootElement);
             namespaces = removeNamespaces(generatedXml);
-            XPathExpression<Element> expression = XPathFactory.instance()
-                    .compile(firstDocElement.xpath, Filters.element());
+            XPathExpression<Element> expression = compileElement(firstDocElement.xpath);
             List<Element> matches = expression.evaluate(generatedXml.getRootElement());
             if (matches.size() != 0) {
                 elementToPutOnStack = matches.get(0).getParentElement();
@@ -239,8 +330,7 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
             // we already have a genertedXml going, but need other static
             // elements from the template
             namespaces = removeNamespaces(templateDoc);
-            XPathExpression<Element> expression = XPathFactory.instance()
-                    .compile(firstDocElement.xpath, Filters.element());
+            XPathExpression<Element> expression = compileElement(firstDocElement.xpath);
             List<Element> matches = expression.evaluate(templateDoc.getRootElement());
             // TODO: do something here for when the attribute is more than one
             // level away from the entity
@@ -317,8 +407,7 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
 
                 // first get the parent element for this model attribute, and
                 // gets its xpath
-                XPathExpression<Element> expression = XPathFactory.instance()
-                        .compile(templateDocElement.xpath, Filters.element());
+                XPathExpression<Element> expression = compileElement(templateDocElement.xpath);
                 List<Element> matches = expression.evaluate(templateDoc.getRootElement());
                 if (matches.size() != 0) {
                     templateParentElement = matches.get(0).getParentElement();
@@ -334,8 +423,7 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
                 do {
                     templateParentXPath = XPathHelper.getRelativePath(entityDocElement.xmlElement,
                             templateParentElement);
-                    expression = XPathFactory.instance().compile(templateParentXPath,
-                            Filters.element());
+                    expression = compileElement(templateParentXPath);
                     matches = expression.evaluate(parentStack.peek().xmlElement);
                     if (matches.size() == 0) {
                         Element elementToAdd = templateParentElement.clone();
@@ -368,7 +456,7 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
     }
 
     private void applyAttributeXPath(Document generatedXml, String xpath, String value) {
-        List<Object> matches = XPathFactory.instance().compile(xpath).evaluate(generatedXml.getRootElement());
+        List<Object> matches = compile(xpath).evaluate(generatedXml.getRootElement());
         if (matches.size() == 0) {
             log(LogLevel.WARN, "XPath expression " + xpath + " did not find any matches");
             return;
@@ -512,6 +600,260 @@ public class XmlFormatter extends AbstractXMLComponentRuntime {
         return templateDoc;
     }
 
+    /**
+     * The parts of the template that the streaming writer needs, worked out
+     * once: the element for each entity, the elements above it and the
+     * template elements and attributes that model attributes are written to.
+     */
+    class StreamingTemplate {
+
+        Map<String, Element> entityElements = new HashMap<String, Element>();
+
+        Map<String, List<Element>> entityParents = new HashMap<String, List<Element>>();
+
+        Set<Element> entityElementSet = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+
+        Set<Element> entityParentSet = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+
+        Map<Element, String> elementAttributeIds = new IdentityHashMap<Element, String>();
+
+        Map<Attribute, String> attributeAttributeIds = new IdentityHashMap<Attribute, String>();
+
+        StreamingTemplate() {
+            for (ComponentEntitySetting setting : getComponent().getEntitySettings()) {
+                DocElement docElement = entityAttributeDtls.get(setting.getEntityId());
+                if (setting.getName().equals(XML_FORMATTER_XPATH) && docElement != null) {
+                    Element element = docElement.xmlElement;
+                    List<Element> parents = new ArrayList<Element>();
+                    for (Element parent = element.getParentElement(); parent != null; parent = parent.getParentElement()) {
+                        parents.add(0, parent);
+                    }
+                    entityElements.put(setting.getEntityId(), element);
+                    entityParents.put(setting.getEntityId(), parents);
+                    entityElementSet.add(element);
+                    entityParentSet.addAll(parents);
+                }
+            }
+            for (ComponentAttributeSetting setting : getComponent().getAttributeSettings()) {
+                DocElement docElement = entityAttributeDtls.get(setting.getAttributeId());
+                if (setting.getName().equals(XML_FORMATTER_XPATH) && docElement != null) {
+                    if (docElement.xmlElement != null) {
+                        elementAttributeIds.put(docElement.xmlElement, setting.getAttributeId());
+                    } else {
+                        attributeAttributeIds.put(docElement.xmlAttribute, setting.getAttributeId());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes one xml document. Each entity is written as a copy of its
+     * element in the template with the row's values filled in. Elements of
+     * other entities and their parents found under it in the template are
+     * left out and the entity element is kept open so that rows for child
+     * entities can be written inside of it.
+     */
+    class StreamingXmlWriter {
+
+        Format format = getFormat();
+
+        StringWriter buffer = new StringWriter();
+
+        XMLStreamWriter writer;
+
+        List<Element> openElements = new ArrayList<Element>();
+
+        List<Boolean> openElementsHaveChildren = new ArrayList<Boolean>();
+
+        int rowsInChunk;
+
+        StreamingXmlWriter() throws XMLStreamException {
+            buffer.write("<?xml version=\"1.0\" encoding=\"" + format.getEncoding() + "\"?>");
+            buffer.write(format.getLineSeparator());
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(buffer);
+        }
+
+        int getRowsInChunk() {
+            return rowsInChunk;
+        }
+
+        void writeRow(EntityData inputRow) throws XMLStreamException {
+            String entityId = null;
+            Map<String, Object> values = new HashMap<String, Object>();
+            for (Entry<String, Object> attribute : inputRow.entrySet()) {
+                String attributeEntityId = inputModel.getAttributeById(attribute.getKey()).getEntityId();
+                if (attributeEntityId != null && !attributeEntityId.equals(entityId)
+                        && streamingTemplate.entityElements.containsKey(attributeEntityId)) {
+                    if (entityId != null) {
+                        writeEntity(entityId, values);
+                        values = new HashMap<String, Object>();
+                    }
+                    entityId = attributeEntityId;
+                }
+                values.put(attribute.getKey(), attribute.getValue());
+            }
+            if (entityId != null) {
+                writeEntity(entityId, values);
+            }
+            rowsInChunk++;
+        }
+
+        void writeEntity(String entityId, Map<String, Object> values) throws XMLStreamException {
+            Element entityElement = streamingTemplate.entityElements.get(entityId);
+            List<Element> parents = streamingTemplate.entityParents.get(entityId);
+            while (openElements.size() > parents.size()
+                    || (openElements.size() > 0 && openElements.get(openElements.size() - 1) != parents.get(openElements.size() - 1))) {
+                writeEndElement();
+            }
+            for (int i = openElements.size(); i < parents.size(); i++) {
+                writeStartElement(parents.get(i), null, false);
+            }
+            writeStartElement(entityElement, values, false);
+            writeContent(entityElement, values);
+        }
+
+        void writeContent(Element element, Map<String, Object> values) throws XMLStreamException {
+            for (Content content : element.getContent()) {
+                if (content instanceof Element) {
+                    Element child = (Element) content;
+                    if (!streamingTemplate.entityElementSet.contains(child)
+                            && !streamingTemplate.entityParentSet.contains(child)) {
+                        writeElement(child, values);
+                    }
+                } else if (content instanceof Text) {
+                    writeText(((Text) content).getText());
+                }
+            }
+        }
+
+        void writeElement(Element element, Map<String, Object> values) throws XMLStreamException {
+            String attributeId = streamingTemplate.elementAttributeIds.get(element);
+            if (attributeId != null && values.containsKey(attributeId)) {
+                Object value = values.get(attributeId);
+                if (value == null && nullHandling.equals(NULL_HANDLING_REMOVE)) {
+                    return;
+                }
+                writeStartElement(element, values, value == null && nullHandling.equalsIgnoreCase(NULL_HANDLING_XML_NIL));
+                if (value != null) {
+                    writeText(value.toString());
+                }
+            } else {
+                writeStartElement(element, values, false);
+                writeContent(element, values);
+            }
+            writeEndElement();
+        }
+
+        void writeStartElement(Element element, Map<String, Object> values, boolean nil) throws XMLStreamException {
+            if (openElements.size() > 0) {
+                openElementsHaveChildren.set(openElementsHaveChildren.size() - 1, true);
+                writeIndent(openElements.size());
+            }
+            writer.writeStartElement(element.getNamespacePrefix(), element.getName(), element.getNamespaceURI());
+            for (Namespace namespace : element.getNamespacesIntroduced()) {
+                if (namespace.getPrefix().length() == 0) {
+                    writer.writeDefaultNamespace(namespace.getURI());
+                } else {
+                    writer.writeNamespace(namespace.getPrefix(), namespace.getURI());
+                }
+            }
+            if (values != null) {
+                for (Attribute attribute : element.getAttributes()) {
+                    String value = attribute.getValue();
+                    String attributeId = streamingTemplate.attributeAttributeIds.get(attribute);
+                    if (attributeId != null && values.get(attributeId) != null) {
+                        value = values.get(attributeId).toString();
+                    }
+                    if (attribute.getNamespaceURI().length() == 0) {
+                        writer.writeAttribute(attribute.getName(), value);
+                    } else {
+                        writer.writeAttribute(attribute.getNamespacePrefix(), attribute.getNamespaceURI(), attribute.getName(), value);
+                    }
+                }
+            }
+            if (nil) {
+                Namespace xsi = element.getNamespace("xsi");
+                if (xsi == null || !XSI_URI.equals(xsi.getURI())) {
+                    writer.writeNamespace("xsi", XSI_URI);
+                }
+                writer.writeAttribute("xsi", XSI_URI, "nil", "true");
+            }
+            openElements.add(element);
+            openElementsHaveChildren.add(false);
+        }
+
+        void writeEndElement() throws XMLStreamException {
+            openElements.remove(openElements.size() - 1);
+            if (openElementsHaveChildren.remove(openElementsHaveChildren.size() - 1)) {
+                writeIndent(openElements.size());
+            }
+            writer.writeEndElement();
+        }
+
+        void writeText(String text) throws XMLStreamException {
+            switch (format.getTextMode()) {
+                case TRIM:
+                    text = Format.trimBoth(text);
+                    break;
+                case NORMALIZE:
+                    text = Format.compact(text);
+                    break;
+                case TRIM_FULL_WHITE:
+                    text = Format.trimBoth(text).length() == 0 ? "" : text;
+                    break;
+                default:
+                    break;
+            }
+            if (text.length() > 0) {
+                writer.writeCharacters(text);
+            }
+        }
+
+        /**
+         * Indentation goes straight to the buffer because the stream writer
+         * would escape a carriage return in the line separator.
+         */
+        void writeIndent(int depth) throws XMLStreamException {
+            if (format.getIndent() != null) {
+                writer.writeCharacters("");
+                writer.flush();
+                buffer.write(format.getLineSeparator());
+                for (int i = 0; i < depth; i++) {
+                    buffer.write(format.getIndent());
+                }
+            }
+        }
+
+        /**
+         * Send what has been written so far. An empty write makes sure a
+         * start tag is closed before the text is taken.
+         */
+        void sendChunk(ISendMessageCallback callback) throws XMLStreamException {
+            writer.writeCharacters("");
+            writer.flush();
+            if (buffer.getBuffer().length() > 0) {
+                ArrayList<String> outboundPayload = new ArrayList<String>(1);
+                outboundPayload.add(buffer.toString());
+                callback.sendTextMessage(null, outboundPayload);
+                buffer.getBuffer().setLength(0);
+            }
+            rowsInChunk = 0;
+        }
+
+        void finish(ISendMessageCallback callback) throws XMLStreamException {
+            while (openElements.size() > 0) {
+                writeEndElement();
+            }
+            writer.flush();
+            writer.close();
+            buffer.write(format.getLineSeparator());
+            ArrayList<String> outboundPayload = new ArrayList<String>(1);
+            outboundPayload.add(buffer.toString());
+            callback.sendTextMessage(null, outboundPayload);
+        }
+    }
+
     class DocElement {
 
         int level;
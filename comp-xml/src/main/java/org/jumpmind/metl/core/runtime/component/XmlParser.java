@@ -30,6 +30,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.jdom2.Attribute;
 import org.jdom2.Content;
 import org.jdom2.Document;
@@ -56,12 +61,20 @@ public class XmlParser extends AbstractXMLComponentRuntime {
 
     public static final String TYPE = "Parse XML";
 
+    public static final String SETTING_STREAMING_XPATH = "streaming.xpath";
+
+    static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
     Map<String, List<XmlFormatterEntitySetting>> entitySettingsByPath = new HashMap<>();  //THIS DOESN'T WORK BECAUSE THERE CAN BE MULTIPLE ENTITY SETTINGS PER PATH
     
     List<XmlFormatterEntitySetting> entitySettings = new ArrayList<XmlFormatterEntitySetting>();
 
     boolean optimizeForSpeed = false;
 
+    boolean streamingXPath = false;
+
+    XMLInputFactory xmlInputFactory;
+
     int rowsPerMessage;
 
     @Override
@@ -70,6 +83,7 @@ public class XmlParser extends AbstractXMLComponentRuntime {
         TypedProperties properties = getTypedProperties();
         optimizeForSpeed = properties.is("optimize.for.speed");
         rowsPerMessage = properties.getInt(ROWS_PER_MESSAGE);
+        streamingXPath = properties.is(SETTING_STREAMING_XPATH, streamingXPath);
 
         Model model = getComponent().getOutputModel();
         if (model == null) {
@@ -84,7 +98,8 @@ public class XmlParser extends AbstractXMLComponentRuntime {
             if (compEntitySetting.getName().equals(XML_FORMATTER_XPATH)) {
                 String entityXPath = compEntitySetting.getValue();
                 XPathExpression<?> expression = XPathFactory.instance().compile(entityXPath);
-                XmlFormatterEntitySetting entitySetting = new XmlFormatterEntitySetting(compEntitySetting, expression);
+                XmlFormatterEntitySetting entitySetting = new XmlFormatterEntitySetting(compEntitySetting, expression,
+                        SimpleXPathExpression.compile(entityXPath));
                 
                 entitySettingsForPath = entitySettingsByPath.get(compEntitySetting.getValue());
                 if (entitySettingsForPath == null) {
@@ -103,7 +118,8 @@ public class XmlParser extends AbstractXMLComponentRuntime {
                             attributeXPath = "/*/" + attributeXPath.substring(entityXPath.length()+1);
                         }
                         expression = XPathFactory.instance().compile(attributeXPath);
-                        entitySetting.getAttributeSettings().add(new XmlFormatterAttributeSetting(componentAttributeSetting, expression));
+                        entitySetting.getAttributeSettings().add(new XmlFormatterAttributeSetting(componentAttributeSetting, expression,
+                                SimpleXPathExpression.compile(attributeXPath)));
                     }
                 }
             }
@@ -112,6 +128,45 @@ public class XmlParser extends AbstractXMLComponentRuntime {
         if (entitySettings.size() == 0) {
             throw new MisconfiguredException("At least one XPATH setting must be provided.");
         }
+
+        streamingXPath = streamingXPath && !optimizeForSpeed && isStreamable();
+        if (streamingXPath) {
+            xmlInputFactory = XMLInputFactory.newInstance();
+            if (xmlInputFactory.isPropertySupported(REPORT_CDATA_EVENT)) {
+                xmlInputFactory.setProperty(REPORT_CDATA_EVENT, true);
+            }
+        }
+    }
+
+    /**
+     * @return true if every entity and attribute xpath is in the subset
+     *         supported by {@link SimpleXPathExpression}. An attribute xpath
+     *         must either be relative to the entity, name the entity element
+     *         as its first step or select an attribute of an ancestor.
+     *         Anything else may need content outside of the entity element.
+     */
+    protected boolean isStreamable() {
+        for (XmlFormatterEntitySetting entitySetting : entitySettings) {
+            SimpleXPathExpression entityExpression = entitySetting.getSimpleExpression();
+            if (entityExpression == null || !entityExpression.isElement()) {
+                return false;
+            }
+            SimpleXPathExpression.Step[] entitySteps = entityExpression.getSteps();
+            String entityName = entitySteps[entitySteps.length - 1].getName();
+            for (XmlFormatterAttributeSetting attributeSetting : entitySetting.getAttributeSettings()) {
+                SimpleXPathExpression attributeExpression = attributeSetting.getSimpleExpression();
+                if (attributeExpression == null || attributeExpression.isAnyDepth()) {
+                    return false;
+                }
+                boolean relativeToEntity = !attributeSetting.getSetting().getValue().equals(attributeExpression.getExpression());
+                boolean startsWithEntity = entityName != null && entityName.equals(attributeExpression.getSteps()[0].getName());
+                boolean ancestorAttribute = attributeExpression.getAttributeName() != null && attributeExpression.getSteps().length == 1;
+                if (!relativeToEntity && !startsWithEntity && !ancestorAttribute) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     @Override
@@ -124,6 +179,8 @@ public class XmlParser extends AbstractXMLComponentRuntime {
         if (inputMessage instanceof TextMessage) {
             if (optimizeForSpeed) {
                 handleUsingPullParser(inputMessage, callback, unitOfWorkBoundaryReached);
+            } else if (streamingXPath) {
+                handleUsingStreamingXPath(inputMessage, callback, unitOfWorkBoundaryReached);
             } else {
                 handleUsingXPath(inputMessage, callback, unitOfWorkBoundaryReached);
             }
@@ -244,6 +301,150 @@ public class XmlParser extends AbstractXMLComponentRuntime {
         return entitiesData;
     }
 
+    /**
+     * Evaluates the xpath expressions in a single pass over each document.
+     * An entity is complete when its element is closed. Entities are sent in
+     * the same order as {@link #handleUsingXPath} would send them: in document
+     * order for each entity setting.
+     */
+    protected void handleUsingStreamingXPath(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
+        ArrayList<String> inputRows = ((TextMessage) inputMessage).getPayload();
+        ArrayList<EntityData> payload = new ArrayList<EntityData>();
+        if (inputRows != null) {
+            for (String xml : inputRows) {
+                try {
+                    XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+                    try {
+                        payload = parseStreaming(reader, payload, callback);
+                    } finally {
+                        reader.close();
+                    }
+                } catch (XMLStreamException e) {
+                    throw new RuntimeException(e);
+                }
+
+                if (payload.size() > rowsPerMessage) {
+                    callback.sendEntityDataMessage(null, payload);
+                    payload = new ArrayList<>();
+                }
+            }
+        }
+
+        if (payload.size() > 0) {
+            callback.sendEntityDataMessage(null, payload);
+        }
+    }
+
+    protected ArrayList<EntityData> parseStreaming(XMLStreamReader reader, ArrayList<EntityData> payload, ISendMessageCallback callback)
+            throws XMLStreamException {
+        boolean singleEntity = entitySettings.size() == 1;
+        List<List<EntityData>> entitiesBySetting = new ArrayList<List<EntityData>>(entitySettings.size());
+        for (int i = 0; i < entitySettings.size(); i++) {
+            entitiesBySetting.add(singleEntity ? payload : new ArrayList<EntityData>());
+        }
+
+        List<String> names = new ArrayList<String>();
+        List<String[]> attributes = new ArrayList<String[]>();
+        List<StreamingEntity> openEntities = new ArrayList<StreamingEntity>();
+        StringBuilder text = new StringBuilder();
+        boolean cdata = false;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            boolean isText = event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE
+                    || event == XMLStreamConstants.CDATA;
+            if (text.length() > 0 && (!isText || cdata != (event == XMLStreamConstants.CDATA))) {
+                /* a text node ends at any other event and cdata is a separate node just like it is in jdom */
+                for (StreamingEntity entity : openEntities) {
+                    entity.text(text, names.size() - 1);
+                }
+                text.setLength(0);
+            }
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    names.add(getElementName(reader));
+                    attributes.add(getAttributes(reader));
+                    for (int i = 0; i < entitySettings.size(); i++) {
+                        XmlFormatterEntitySetting entitySetting = entitySettings.get(i);
+                        SimpleXPathExpression expression = entitySetting.getSimpleExpression();
+                        int index = names.size() - expression.getSteps().length;
+                        if ((index == 0 || (index > 0 && expression.isAnyDepth())) && matches(expression, names, attributes, index)) {
+                            openEntities.add(new StreamingEntity(entitySetting, names.size() - 1, entitiesBySetting.get(i)));
+                        }
+                    }
+                    for (StreamingEntity entity : openEntities) {
+                        entity.startElement(names, attributes);
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (openEntities.size() > 0) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        cdata = event == XMLStreamConstants.CDATA;
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    int index = names.size() - 1;
+                    for (int i = openEntities.size() - 1; i >= 0; i--) {
+                        StreamingEntity entity = openEntities.get(i);
+                        entity.endElement(index);
+                        if (entity.getIndex() == index) {
+                            entity.close(names, attributes);
+                            openEntities.remove(i);
+                        }
+                    }
+                    names.remove(index);
+                    attributes.remove(index);
+
+                    if (singleEntity && openEntities.size() == 0 && payload.size() > rowsPerMessage) {
+                        callback.sendEntityDataMessage(null, payload);
+                        payload = new ArrayList<>();
+                        entitiesBySetting.set(0, payload);
+                    }
+                    break;
+            }
+        }
+
+        if (!singleEntity) {
+            for (List<EntityData> entities : entitiesBySetting) {
+                payload.addAll(entities);
+            }
+        }
+        return payload;
+    }
+
+    protected String getElementName(XMLStreamReader reader) {
+        String namespace = reader.getNamespaceURI();
+        if (ignoreNamespace || namespace == null || namespace.length() == 0) {
+            return reader.getLocalName();
+        } else {
+            return "{" + namespace + "}" + reader.getLocalName();
+        }
+    }
+
+    protected String[] getAttributes(XMLStreamReader reader) {
+        int count = reader.getAttributeCount();
+        List<String> attributes = new ArrayList<String>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String namespace = reader.getAttributeNamespace(i);
+            if (namespace == null || namespace.length() == 0) {
+                attributes.add(reader.getAttributeLocalName(i));
+                attributes.add(reader.getAttributeValue(i));
+            }
+        }
+        return attributes.toArray(new String[attributes.size()]);
+    }
+
+    protected static boolean matches(SimpleXPathExpression expression, List<String> names, List<String[]> attributes, int index) {
+        SimpleXPathExpression.Step[] steps = expression.getSteps();
+        for (int i = 0; i < steps.length; i++) {
+            if (!steps[i].matches(names.get(index + i), attributes.get(index + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @SuppressWarnings("unchecked")
     protected void handleUsingXPath(Message inputMessage, ISendMessageCallback callback, boolean unitOfWorkBoundaryReached) {
         ArrayList<String> inputRows = ((TextMessage) inputMessage).getPayload();
@@ -274,10 +475,10 @@ public class XmlParser extends AbstractXMLComponentRuntime {
                                         resultsFound = true;
                                         if (object instanceof Attribute) {
                                             data.put(attributeSetting.getSetting().getAttributeId(), ((Attribute) object).getValue());
-                                        } else if (object instanceof Content) {
-                                            data.put(attributeSetting.getSetting().getAttributeId(), ((Content) object).getValue());
                                         } else if (object instanceof Element) {
                                             data.put(attributeSetting.getSetting().getAttributeId(), ((Element) object).getTextTrim());
+                                        } else if (object instanceof Content) {
+                                            data.put(attributeSetting.getSetting().getAttributeId(), ((Content) object).getValue());
                                         } else {
                                             data.put(attributeSetting.getSetting().getAttributeId(), object);
                                         }
@@ -322,15 +523,149 @@ public class XmlParser extends AbstractXMLComponentRuntime {
 
     }
 
+    /**
+     * An entity element that has been opened but not yet closed. Values are
+     * collected as the element's content streams by. The last match for an
+     * attribute wins, which is what happens when the attribute xpath matches
+     * more than once in {@link XmlParser#handleUsingXPath}. An element's
+     * value is its own text without the text of its child elements, trimmed
+     * like {@link Element#getTextTrim()}. Attributes that are not found within
+     * the entity fall back to the attributes of its ancestors.
+     */
+    class StreamingEntity {
+
+        XmlFormatterEntitySetting entitySetting;
+
+        int index;
+
+        List<EntityData> entities;
+
+        EntityData data = new EntityData();
+
+        Object[] values;
+
+        boolean[] found;
+
+        List<int[]> captures = new ArrayList<int[]>(0);
+
+        List<StringBuilder> captureText = new ArrayList<StringBuilder>(0);
+
+        StreamingEntity(XmlFormatterEntitySetting entitySetting, int index, List<EntityData> entities) {
+            this.entitySetting = entitySetting;
+            this.index = index;
+            this.entities = entities;
+            int count = entitySetting.getAttributeSettings().size();
+            this.values = new Object[count];
+            this.found = new boolean[count];
+            entities.add(data);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        void startElement(List<String> names, List<String[]> attributes) {
+            int depth = names.size() - index;
+            List<XmlFormatterAttributeSetting> attributeSettings = entitySetting.getAttributeSettings();
+            for (int i = 0; i < attributeSettings.size(); i++) {
+                SimpleXPathExpression expression = attributeSettings.get(i).getSimpleExpression();
+                if (expression.getSteps().length == depth && matches(expression, names, attributes, index)) {
+                    if (expression.getAttributeName() != null) {
+                        String value = SimpleXPathExpression.getAttribute(attributes.get(names.size() - 1), expression.getAttributeName());
+                        if (value != null) {
+                            values[i] = value;
+                            found[i] = true;
+                        }
+                    } else {
+                        captures.add(new int[] { i, names.size() - 1 });
+                        captureText.add(expression.isText() ? null : new StringBuilder());
+                    }
+                }
+            }
+        }
+
+        void text(CharSequence text, int current) {
+            for (int i = 0; i < captures.size(); i++) {
+                int[] capture = captures.get(i);
+                if (capture[1] == current) {
+                    StringBuilder value = captureText.get(i);
+                    if (value != null) {
+                        value.append(text);
+                    } else {
+                        values[capture[0]] = text.toString();
+                        found[capture[0]] = true;
+                    }
+                }
+            }
+        }
+
+        void endElement(int current) {
+            for (int i = captures.size() - 1; i >= 0; i--) {
+                int[] capture = captures.get(i);
+                if (capture[1] == current) {
+                    StringBuilder value = captureText.get(i);
+                    if (value != null) {
+                        values[capture[0]] = value.toString().trim();
+                        found[capture[0]] = true;
+                    }
+                    captures.remove(i);
+                    captureText.remove(i);
+                }
+            }
+        }
+
+        void close(List<String> names, List<String[]> attributes) {
+            getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+            String name = names.get(index);
+            List<XmlFormatterAttributeSetting> attributeSettings = entitySetting.getAttributeSettings();
+            for (int i = 0; i < attributeSettings.size(); i++) {
+                XmlFormatterAttributeSetting attributeSetting = attributeSettings.get(i);
+                SimpleXPathExpression expression = attributeSetting.getSimpleExpression();
+                if (!found[i] && expression.getAttributeName() != null && expression.getSteps().length == 1
+                        && !expression.getExpression().startsWith("/" + name)) {
+                    for (int j = index - 1; j >= 0 && !found[i]; j--) {
+                        if (expression.getSteps()[0].matches(names.get(j), attributes.get(j))) {
+                            String value = SimpleXPathExpression.getAttribute(attributes.get(j), expression.getAttributeName());
+                            if (value != null) {
+                                values[i] = value;
+                                found[i] = true;
+                            }
+                        }
+                    }
+                }
+                if (found[i]) {
+                    data.put(attributeSetting.getSetting().getAttributeId(), values[i]);
+                } else {
+                    info("Did not find a match for: %s\n in: <%s/>", expression.getExpression(), name);
+                }
+            }
+
+            if (data.size() == 0) {
+                for (int i = entities.size() - 1; i >= 0; i--) {
+                    if (entities.get(i) == data) {
+                        entities.remove(i);
+                        break;
+                    }
+                }
+                log(LogLevel.WARN, "Found entity element: <%s/> with no matching attributes.  Please make sure your xpath expressions match",
+                        name);
+            }
+        }
+    }
+
     class XmlFormatterAttributeSetting {
 
         ComponentAttributeSetting setting;
 
         XPathExpression<?> expression;
 
-        XmlFormatterAttributeSetting(ComponentAttributeSetting setting, XPathExpression<?> expression) {
+        SimpleXPathExpression simpleExpression;
+
+        XmlFormatterAttributeSetting(ComponentAttributeSetting setting, XPathExpression<?> expression,
+                SimpleXPathExpression simpleExpression) {
             this.setting = setting;
             this.expression = expression;
+            this.simpleExpression = simpleExpression;
         }
 
         public ComponentAttributeSetting getSetting() {
@@ -340,6 +675,10 @@ public class XmlParser extends AbstractXMLComponentRuntime {
         public XPathExpression<?> getExpression() {
             return expression;
         }
+
+        public SimpleXPathExpression getSimpleExpression() {
+            return simpleExpression;
+        }
     }
 
     class XmlFormatterEntitySetting {
@@ -350,9 +689,13 @@ public class XmlParser extends AbstractXMLComponentRuntime {
 
         List<XmlFormatterAttributeSetting> attributeSettings;
 
-        XmlFormatterEntitySetting(ComponentEntitySetting setting, XPathExpression<?> expression) {
+        SimpleXPathExpression simpleExpression;
+
+        XmlFormatterEntitySetting(ComponentEntitySetting setting, XPathExpression<?> expression,
+                SimpleXPathExpression simpleExpression) {
             this.setting = setting;
             this.expression = expression;
+            this.simpleExpression = simpleExpression;
             this.attributeSettings = new ArrayList<XmlFormatterAttributeSetting>();
         }
 
@@ -364,6 +707,10 @@ public class XmlParser extends AbstractXMLComponentRuntime {
             return expression;
         }
 
+        public SimpleXPathExpression getSimpleExpression() {
+            return simpleExpression;
+        }
+
         public List<XmlFormatterAttributeSetting> getAttributeSettings() {
             return attributeSettings;
         }
@@ -23,12 +23,14 @@ package org.jumpmind.metl.core.runtime.component;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.LineNumberReader;
+import java.io.Reader;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -61,6 +63,8 @@ public class XmlReader extends AbstractComponentRuntime {
 
     public static final String SETTING_MUST_EXIST = "must.exist";
 
+    static final long PROGRESS_INTERVAL_MS = 10000;
+
     String runWhen = PER_UNIT_OF_WORK;
 
     boolean getFileNameFromMessage = false;
@@ -127,22 +131,19 @@ public class XmlReader extends AbstractComponentRuntime {
             }
             Map<String, Serializable> headers = new HashMap<>();
             headers.put("source.file.path", file);
-            LineNumberReader lineNumberReader = null;
-            InputStream parserIs = null;
+            RecordingReader reader = null;
             try {
                 String filePath = resolveParamsAndHeaders(file, inputMessage);
-                parserIs = directory.getInputStream(filePath, mustExist);
-                if (parserIs != null) {
-                    InputStreamReader reader = new InputStreamReader(directory.getInputStream(filePath, mustExist), encoding);
-                    parser.setInput(parserIs, encoding);
-                    lineNumberReader = new LineNumberReader(reader);
-                    lineNumberReader.setLineNumber(1);
-                    int startCol = 0;
-                    int startLine = 1;
-                    int prevEndLine = 1;
-                    int prevEndCol = 0;
+                InputStream is = directory.getInputStream(filePath, mustExist);
+                if (is != null) {
+                    reader = new RecordingReader(new InputStreamReader(is, encoding));
+                    parser.setInput(reader);
+                    long previousEnd = 0;
+                    long fragmentStart = -1;
+                    int fragmentDepth = 0;
+                    long tagsRead = 0;
+                    long lastProgressTime = System.currentTimeMillis();
                     int eventType = parser.getEventType();
-                    String line = null;
                     while (eventType != XmlPullParser.END_DOCUMENT) {
                         switch (eventType) {
                             case XmlPullParser.START_TAG:
@@ -150,68 +151,43 @@ public class XmlReader extends AbstractComponentRuntime {
                                     readTag = parser.getName();
                                     info("Read tag was not set, defaulting to root tag: " + readTag);
                                 }
-                                if (parser.getName().equals(readTag)) {
-                                    startCol = prevEndCol;
-                                    startLine = prevEndLine;
+                                if (fragmentStart < 0 && parser.getName().equals(readTag)) {
+                                    fragmentStart = previousEnd;
+                                    fragmentDepth = parser.getDepth();
                                 }
-                                prevEndCol = parser.getColumnNumber();
-                                prevEndLine = parser.getLineNumber();
                                 break;
                             case XmlPullParser.END_TAG:
-                                prevEndCol = parser.getColumnNumber();
-                                prevEndLine = parser.getLineNumber();
-                                if (parser.getName().equals(readTag)) {
-                                    StringBuilder xml = new StringBuilder();
-    
-                                    forward(startLine, lineNumberReader);
-    
-                                    int linesToRead = parser.getLineNumber() - lineNumberReader.getLineNumber();
-                                    if (lineNumberReader.getLineNumber() > startLine) {
-                                        startCol = 0;
-                                    }
-                                    line = lineNumberReader.readLine();
-    
-                                    while (linesToRead >= 0 && line != null) {
-                                        if (startCol > 0) {
-                                            if (line.length() > startCol) {
-                                                xml.append(line.substring(startCol)).append("\n");
-                                            }
-                                            startCol = 0;
-                                        } else if (linesToRead == 0) {
-                                            if (line.length() > parser.getColumnNumber()) {
-                                                xml.append(line.substring(0, parser.getColumnNumber()));
-                                            } else {
-                                                xml.append(line).append("\n");
-                                            }
-                                        } else {
-                                            xml.append(line).append("\n");
-                                        }
-    
-                                        linesToRead--;
-                                        if (linesToRead >= 0) {
-                                            line = lineNumberReader.readLine();
-                                        }
-                                    }
+                                if (fragmentStart >= 0 && parser.getDepth() == fragmentDepth && parser.getName().equals(readTag)) {
+                                    long fragmentEnd = reader.getOffset(parser.getLineNumber(), parser.getColumnNumber());
                                     getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
-                                    outboundPayload.add(xml.toString());
+                                    outboundPayload.add(reader.substring(fragmentStart, fragmentEnd));
+                                    fragmentStart = -1;
+                                    tagsRead++;
                                     if (outboundPayload.size() == readTagsPerMessage) {
                                         callback.sendTextMessage(headers, outboundPayload);
                                         outboundPayload = new ArrayList<String>();
                                     }
-                                    startCol = 0;
+                                    if (System.currentTimeMillis() - lastProgressTime > PROGRESS_INTERVAL_MS) {
+                                        info("Read %d %s tags and %d characters from %s so far", tagsRead, readTag, reader.getCharactersRead(), file);
+                                        lastProgressTime = System.currentTimeMillis();
+                                    }
                                 }
                                 break;
                         }
+                        previousEnd = reader.getOffset(parser.getLineNumber(), parser.getColumnNumber());
+                        if (fragmentStart < 0) {
+                            reader.discard(previousEnd);
+                        }
                         eventType = parser.next();
                     }
+                    info("Read %d %s tags and %d characters from %s", tagsRead, readTag, reader.getCharactersRead(), file);
                 } else {
                     if (isNotBlank(file)) {
                        info("File %s didn't exist, but must exist setting was false.  Continuing",file);
                     }
                 }
             } finally {
-                closeQuietly(lineNumberReader);
-                closeQuietly(parserIs);
+                closeQuietly(reader);
             }
 
             if (outboundPayload.size() > 0) {
@@ -220,15 +196,6 @@ public class XmlReader extends AbstractComponentRuntime {
         }
     }
 
-    protected static void forward(int toLine, LineNumberReader lineNumberReader) throws IOException {
-        while (lineNumberReader.getLineNumber() < toLine) {
-            String output = lineNumberReader.readLine();
-            if (output == null) {
-                break;
-            }
-        }
-    }
-
     @Override
     public boolean supportsStartupMessages() {
         return true;
@@ -237,4 +204,112 @@ public class XmlReader extends AbstractComponentRuntime {
     public void setRunWhen(String runWhen) {
         this.runWhen = runWhen;
     }
+
+    /**
+     * Keeps the characters that the parser has read so that the text of a tag
+     * can be cut out of the document without reading the file a second time.
+     * Only the characters from the given offset on are kept. The parser
+     * reports positions as line and column, so the offset of each line is
+     * remembered as well. Like the parser, a carriage return, a line feed or
+     * both together end a line.
+     */
+    static class RecordingReader extends FilterReader {
+
+        StringBuilder buffer = new StringBuilder();
+
+        long bufferOffset;
+
+        long charactersRead;
+
+        long[] lineOffsets = new long[16];
+
+        int lineCount;
+
+        int firstLine = 2;
+
+        boolean lastWasCarriageReturn;
+
+        RecordingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            char[] c = new char[1];
+            return read(c, 0, 1) < 0 ? -1 : c[0];
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int count = super.read(cbuf, off, len);
+            if (count > 0 && charactersRead == 0 && cbuf[off] == '\uFEFF') {
+                System.arraycopy(cbuf, off + 1, cbuf, off, --count);
+                if (count == 0) {
+                    return read(cbuf, off, len);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                char c = cbuf[off + i];
+                if (lastWasCarriageReturn && c != '\n') {
+                    addLine(charactersRead + i);
+                }
+                if (c == '\n') {
+                    addLine(charactersRead + i + 1);
+                }
+                lastWasCarriageReturn = c == '\r';
+            }
+            if (count > 0) {
+                buffer.append(cbuf, off, count);
+                charactersRead += count;
+            }
+            return count;
+        }
+
+        protected void addLine(long offset) {
+            if (lineCount == lineOffsets.length) {
+                lineOffsets = Arrays.copyOf(lineOffsets, lineCount * 2);
+            }
+            lineOffsets[lineCount++] = offset;
+        }
+
+        /**
+         * @return the offset of a position reported by the parser. Columns
+         *         start at zero on the first line and at one on the following
+         *         lines.
+         */
+        long getOffset(int line, int column) {
+            if (line < firstLine) {
+                return column;
+            } else {
+                return lineOffsets[line - firstLine] + column - 1;
+            }
+        }
+
+        String substring(long start, long end) {
+            return buffer.substring((int) (start - bufferOffset), (int) (end - bufferOffset));
+        }
+
+        /**
+         * Forget the characters before the offset
+         */
+        void discard(long offset) {
+            if (offset > bufferOffset) {
+                buffer.delete(0, (int) (offset - bufferOffset));
+                bufferOffset = offset;
+            }
+            int keep = 0;
+            while (keep + 1 < lineCount && lineOffsets[keep + 1] <= offset) {
+                keep++;
+            }
+            if (keep > 0) {
+                System.arraycopy(lineOffsets, keep, lineOffsets, 0, lineCount - keep);
+                lineCount -= keep;
+                firstLine += keep;
+            }
+        }
+
+        long getCharactersRead() {
+            return charactersRead;
+        }
+    }
 }
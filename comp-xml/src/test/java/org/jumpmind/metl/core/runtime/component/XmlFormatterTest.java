@@ -0,0 +1,244 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.ComponentEntitySetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XmlFormatterTest {
+
+    static final String TEMPLATE = "<orders xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'>"
+            + "<order id=''><customer/><note>fixed</note>"
+            + "<line no=''><sku/><qty/></line>"
+            + "</order>"
+            + "</orders>";
+
+    static final String ORDER_1 = "<order id='1'><customer>Ann</customer><note>fixed</note>"
+            + "<line no='1'><sku>A</sku><qty>2</qty></line>"
+            + "<line no='2'><sku>B</sku><qty>1</qty></line></order>";
+
+    Model model;
+
+    Map<String, String> xpaths;
+
+    List<ArrayList<EntityData>> messages;
+
+    @Before
+    public void setup() {
+        model = new Model();
+        xpaths = new HashMap<String, String>();
+        ModelEntity order = entity("order", "/orders/order");
+        attribute(order, "o_id", "/orders/order/@id");
+        attribute(order, "o_customer", "/orders/order/customer");
+        ModelEntity line = entity("line", "/orders/order/line");
+        attribute(line, "l_no", "/orders/order/line/@no");
+        attribute(line, "l_sku", "/orders/order/line/sku");
+        attribute(line, "l_qty", "/orders/order/line/qty");
+
+        messages = new ArrayList<ArrayList<EntityData>>();
+        messages.add(rows(row("o_id", 1, "o_customer", "Ann"), row("l_no", 1, "l_sku", "A", "l_qty", 2)));
+        messages.add(rows(row("l_no", 2, "l_sku", "B", "l_qty", 1), row("o_id", 2, "o_customer", null),
+                row("l_no", 1, "l_sku", "C", "l_qty", null)));
+    }
+
+    @Test
+    public void testStreamingNestsChildEntities() throws Exception {
+        List<String> output = format(createFormatter(true, XmlFormatter.NULL_HANDLING_XML_NIL, 1000));
+        assertEquals(1, output.size());
+        assertEquals(compact("<orders xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'>" + ORDER_1
+                + "<order id='2'><customer xsi:nil='true'/><note>fixed</note>"
+                + "<line no='1'><sku>C</sku><qty xsi:nil='true'/></line></order>"
+                + "</orders>"), compact(output.get(0)));
+    }
+
+    @Test
+    public void testStreamingNullHandling() throws Exception {
+        List<String> output = format(createFormatter(true, XmlFormatter.NULL_HANDLING_EMPTY, 1000));
+        assertEquals(compact("<orders xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'>" + ORDER_1
+                + "<order id='2'><customer/><note>fixed</note>"
+                + "<line no='1'><sku>C</sku><qty/></line></order>"
+                + "</orders>"), compact(output.get(0)));
+
+        output = format(createFormatter(true, XmlFormatter.NULL_HANDLING_REMOVE, 1000));
+        assertEquals(compact("<orders xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'>" + ORDER_1
+                + "<order id='2'><note>fixed</note>"
+                + "<line no='1'><sku>C</sku></line></order>"
+                + "</orders>"), compact(output.get(0)));
+    }
+
+    @Test
+    public void testStreamingRowsPerMessage() throws Exception {
+        String whole = format(createFormatter(true, XmlFormatter.NULL_HANDLING_XML_NIL, 1000)).get(0);
+        List<String> chunks = format(createFormatter(true, XmlFormatter.NULL_HANDLING_XML_NIL, 2));
+        assertEquals(3, chunks.size());
+        assertTrue(chunks.get(0).endsWith("<qty>2</qty>"));
+        assertTrue(chunks.get(1).endsWith("<note>fixed</note>"));
+        StringBuilder joined = new StringBuilder();
+        for (String chunk : chunks) {
+            joined.append(chunk);
+        }
+        assertEquals(whole, joined.toString());
+    }
+
+    @Test
+    public void testStreamingIsOffByDefault() {
+        XmlFormatter formatter = createFormatter(null, XmlFormatter.NULL_HANDLING_XML_NIL, 1000);
+        assertFalse(formatter.streaming);
+        assertNull(formatter.streamingTemplate);
+    }
+
+    @Test
+    public void testDocumentCompilesEachXPathOnce() throws Exception {
+        XmlFormatter formatter = createFormatter(false, XmlFormatter.NULL_HANDLING_XML_NIL, 1000);
+        List<String> output = format(formatter);
+        assertEquals(1, output.size());
+        assertEquals(compact("<orders xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'>"
+                + "<order id='2'><line no='1'><sku>C</sku><qty xsi:nil='true'/></line>"
+                + "<customer xsi:nil='true'/><note>fixed</note><line no=''><sku/><qty/></line></order>"
+                + "<order id='1'><line no='2'><sku>B</sku><qty>1</qty></line>"
+                + "<line no='1'><sku>A</sku><qty>2</qty></line>"
+                + "<customer>Ann</customer><note>fixed</note><line no=''><sku/><qty/></line></order>"
+                + "</orders>"), compact(output.get(0)));
+
+        Set<String> elementXPaths = new HashSet<String>();
+        elementXPaths.add(xpaths.get("o_customer"));
+        elementXPaths.add(xpaths.get("l_sku"));
+        elementXPaths.add(xpaths.get("l_qty"));
+        assertEquals(elementXPaths, formatter.expressions.keySet());
+        for (String xpath : elementXPaths) {
+            assertSame(formatter.expressions.get(xpath), formatter.compile(xpath));
+        }
+        for (String xpath : formatter.elementExpressions.keySet()) {
+            assertSame(formatter.elementExpressions.get(xpath), formatter.compileElement(xpath));
+        }
+
+        assertEquals(output, format(formatter));
+        assertEquals(elementXPaths, formatter.expressions.keySet());
+    }
+
+    protected List<String> format(XmlFormatter formatter) {
+        SendMessageCallback<ArrayList<String>> callback = new SendMessageCallback<ArrayList<String>>();
+        for (ArrayList<EntityData> payload : messages) {
+            formatter.handle(new EntityDataMessage("source", new ArrayList<EntityData>(payload)), callback, false);
+        }
+        formatter.handle(new ControlMessage("source"), callback, true);
+        List<String> output = new ArrayList<String>();
+        for (ArrayList<String> payload : callback.getPayloadList()) {
+            output.addAll(payload);
+        }
+        return output;
+    }
+
+    protected static String compact(String xml) throws Exception {
+        return new XMLOutputter(Format.getCompactFormat()).outputString(new SAXBuilder().build(new StringReader(xml)));
+    }
+
+    protected XmlFormatter createFormatter(Boolean streaming, String nullHandling, int rowsPerMessage) {
+        List<ComponentEntitySetting> entitySettings = new ArrayList<ComponentEntitySetting>();
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<ComponentAttributeSetting>();
+        for (ModelEntity entity : model.getModelEntities()) {
+            entitySettings.add(new ComponentEntitySetting(entity.getId(), XmlFormatter.XML_FORMATTER_XPATH, xpaths.get(entity.getId())));
+            for (ModelAttribute attribute : entity.getModelAttributes()) {
+                attributeSettings.add(new ComponentAttributeSetting(attribute.getId(), XmlFormatter.XML_FORMATTER_XPATH,
+                        xpaths.get(attribute.getId())));
+            }
+        }
+        List<Setting> settings = new ArrayList<Setting>();
+        settings.add(new Setting(XmlFormatter.XML_FORMATTER_TEMPLATE, TEMPLATE));
+        settings.add(new Setting(XmlFormatter.IGNORE_NAMESPACE, "true"));
+        settings.add(new Setting(XmlFormatter.XML_FORMAT, XmlFormatter.PRETTY_FORMAT));
+        settings.add(new Setting(XmlFormatter.NULL_HANDLING, nullHandling));
+        settings.add(new Setting(XmlFormatter.RUN_WHEN, XmlFormatter.PER_UNIT_OF_WORK));
+        settings.add(new Setting(XmlFormatter.XML_FORMATTER_STREAMING_ROWS_PER_MESSAGE, Integer.toString(rowsPerMessage)));
+        if (streaming != null) {
+            settings.add(new Setting(XmlFormatter.XML_FORMATTER_STREAMING, streaming.toString()));
+        }
+        Component component = TestUtils.createComponent(XmlFormatter.TYPE, false, null, model, null, entitySettings, attributeSettings,
+                settings.toArray(new Setting[settings.size()]));
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        XmlFormatter formatter = new XmlFormatter();
+        formatter.create(null, context, 0);
+        formatter.start();
+        return formatter;
+    }
+
+    protected ModelEntity entity(String id, String xpath) {
+        ModelEntity entity = new ModelEntity(id, id.toUpperCase());
+        model.getModelEntities().add(entity);
+        xpaths.put(id, xpath);
+        return entity;
+    }
+
+    protected void attribute(ModelEntity entity, String id, String xpath) {
+        entity.addModelAttribute(new ModelAttribute(id, entity.getId(), id.toUpperCase()));
+        xpaths.put(id, xpath);
+    }
+
+    protected static ArrayList<EntityData> rows(EntityData... rows) {
+        ArrayList<EntityData> list = new ArrayList<EntityData>();
+        for (EntityData row : rows) {
+            list.add(row);
+        }
+        return list;
+    }
+
+    protected static EntityData row(Object... idsAndValues) {
+        EntityData data = new EntityData();
+        for (int i = 0; i < idsAndValues.length; i += 2) {
+            data.put((String) idsAndValues[i], idsAndValues[i + 1]);
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.ComponentEntitySetting;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.TextMessage;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class XmlParserTest {
+
+    static final String XML = "<root region='east'>"
+            + "<item id='1' type='a'>"
+            + "<name>  First <b>bold</b> name  </name>"
+            + "<value><![CDATA[ cdata ]]> text </value>"
+            + "<nested><name>inner</name></nested>"
+            + "</item>"
+            + "<item id='2'><name>\n  Second\n</name><value/></item>"
+            + "<group><item id='3'><name>Third</name></item></group>"
+            + "</root>";
+
+    @Test
+    public void testStreamingMatchesXPath() throws Exception {
+        String[][] cases = {
+                { "/root/item", "/root/item/@id", "/root/item/name", "/root/item/value", "/root/item/@type" },
+                { "/root/item", "/root/item/value/text()", "/root/item/nested/name", "/root/@region" },
+                { "//item", "//item/@id", "//item/name" },
+                { "/root/item[@type='a']", "/root/item[@type='a']/name", "/root/item[@type='a']/b" },
+                { "/root/*/item", "/root/*/item/name", "/root/*/item/@id", "/root/@region" } };
+        for (String[] xpaths : cases) {
+            List<EntityData> streamed = parse(true, XML, xpaths);
+            List<EntityData> expected = parse(false, XML, xpaths);
+            assertEquals(xpaths[0], expected, streamed);
+        }
+    }
+
+    @Test
+    public void testStreamingElementTextIsDirectAndTrimmed() throws Exception {
+        List<EntityData> rows = parse(true, XML, "/root/item", "/root/item/name", "/root/item/value", "/root/item/value/text()");
+        assertEquals(2, rows.size());
+        assertEquals("First  name", rows.get(0).get("attr0"));
+        assertEquals("cdata  text", rows.get(0).get("attr1"));
+        assertEquals(" text ", rows.get(0).get("attr2"));
+        assertEquals("Second", rows.get(1).get("attr0"));
+        assertEquals("", rows.get(1).get("attr1"));
+        assertNull(rows.get(1).get("attr2"));
+    }
+
+    @Test
+    public void testStreamingIsOffByDefault() throws Exception {
+        XmlParser parser = createParser(null, "/root/item", "/root/item/name");
+        assertFalse(parser.streamingXPath);
+        parser = createParser(true, "/root/item", "/root/item/name");
+        assertTrue(parser.streamingXPath);
+    }
+
+    protected List<EntityData> parse(boolean streaming, String xml, String... xpaths) throws Exception {
+        XmlParser parser = createParser(streaming, xpaths);
+        assertEquals(streaming, parser.streamingXPath);
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<ArrayList<EntityData>>();
+        ArrayList<String> payload = new ArrayList<String>();
+        payload.add(xml);
+        parser.handle(new TextMessage("source", payload), callback, true);
+        List<EntityData> rows = new ArrayList<EntityData>();
+        for (ArrayList<EntityData> message : callback.getPayloadList()) {
+            rows.addAll(message);
+        }
+        return rows;
+    }
+
+    protected XmlParser createParser(Boolean streaming, String... xpaths) {
+        ModelEntity entity = new ModelEntity("entity", "ENTITY");
+        Model model = new Model();
+        model.getModelEntities().add(entity);
+        List<ComponentEntitySetting> entitySettings = new ArrayList<ComponentEntitySetting>();
+        entitySettings.add(new ComponentEntitySetting(entity.getId(), XmlParser.XML_FORMATTER_XPATH, xpaths[0]));
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<ComponentAttributeSetting>();
+        for (int i = 1; i < xpaths.length; i++) {
+            ModelAttribute attribute = new ModelAttribute("attr" + (i - 1), entity.getId(), "ATTR" + (i - 1));
+            entity.addModelAttribute(attribute);
+            attributeSettings.add(new ComponentAttributeSetting(attribute.getId(), XmlParser.XML_FORMATTER_XPATH, xpaths[i]));
+        }
+
+        List<Setting> settings = new ArrayList<Setting>();
+        settings.add(new Setting(XmlParser.ROWS_PER_MESSAGE, "1000"));
+        settings.add(new Setting(XmlParser.IGNORE_NAMESPACE, "true"));
+        if (streaming != null) {
+            settings.add(new Setting(XmlParser.SETTING_STREAMING_XPATH, streaming.toString()));
+        }
+        Component component = TestUtils.createComponent(XmlParser.TYPE, false, null, null, model, entitySettings, attributeSettings,
+                settings.toArray(new Setting[settings.size()]));
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+
+        XmlParser parser = new XmlParser();
+        parser.setContext(context);
+        parser.start();
+        return parser;
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Resource;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.ControlMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.component.XmlReader.RecordingReader;
+import org.jumpmind.metl.core.runtime.resource.IDirectory;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class XmlReaderTest {
+
+    static final String FIRST = "<order id=\"1\"><line>a</line></order>";
+
+    static final String SECOND = "<order id=\"2\">\r\n"
+            + "    <order id=\"empty\"/>\n"
+            + "    <order id=\"nested\"><line>b</line></order>\n"
+            + "    <line>c</line>\n"
+            + "  </order>";
+
+    static final String THIRD = "<order id=\"3\">d</order>";
+
+    static final String XML = "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<orders>\n"
+            + "  " + FIRST + SECOND + "<note>e</note>\n"
+            + "  <other>" + THIRD + "</other>\r"
+            + "</orders>\n";
+
+    @Test
+    public void testFragmentsAreCutFromTheDocument() {
+        List<ArrayList<String>> messages = read(XML, "order", 1);
+        List<String> fragments = new ArrayList<>();
+        for (ArrayList<String> message : messages) {
+            assertEquals(1, message.size());
+            fragments.addAll(message);
+        }
+        assertEquals(Arrays.asList(FIRST, SECOND, THIRD), fragments);
+    }
+
+    @Test
+    public void testTagsPerMessage() {
+        List<ArrayList<String>> messages = read(XML, "order", 2);
+        assertEquals(2, messages.size());
+        assertEquals(Arrays.asList(FIRST, SECOND), messages.get(0));
+        assertEquals(Arrays.asList(THIRD), messages.get(1));
+    }
+
+    @Test
+    public void testRootTagIsReadWhenNoTagIsSet() {
+        String xml = XML.substring(XML.indexOf("<orders>"));
+        List<ArrayList<String>> messages = read(xml, null, 1);
+        assertEquals(1, messages.size());
+        assertEquals(xml.substring(0, xml.lastIndexOf('\n')), messages.get(0).get(0));
+    }
+
+    @Test
+    public void testRecordingReaderOffsets() throws IOException {
+        String text = "ab\r\ncd\ref\ngh\r";
+        RecordingReader reader = new RecordingReader(new ChunkedReader("\uFEFF" + text, 3));
+        char[] buffer = new char[5];
+        StringBuilder read = new StringBuilder();
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) >= 0) {
+            read.append(buffer, 0, count);
+        }
+        reader.close();
+        assertEquals(text, read.toString());
+        assertEquals(text.length(), reader.getCharactersRead());
+        assertEquals(1, reader.getOffset(1, 1));
+        assertEquals(text.indexOf('c'), reader.getOffset(2, 1));
+        assertEquals(text.indexOf('e'), reader.getOffset(3, 1));
+        assertEquals(text.indexOf('h'), reader.getOffset(4, 2));
+
+        reader.discard(text.indexOf('d'));
+        assertEquals("d\ref\n", reader.substring(text.indexOf('d'), text.indexOf('g')));
+        assertEquals(text.indexOf('e'), reader.getOffset(3, 1));
+        assertEquals(text.indexOf('h'), reader.getOffset(4, 2));
+    }
+
+    protected List<ArrayList<String>> read(String xml, String readTag, int tagsPerMessage) {
+        IDirectory directory = mock(IDirectory.class);
+        when(directory.getInputStream(anyString(), anyBoolean()))
+                .thenReturn(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        XmlReader reader = new XmlReader() {
+            @Override
+            @SuppressWarnings("unchecked")
+            protected <T> T getResourceReference() {
+                return (T) directory;
+            }
+        };
+        List<Setting> settings = new ArrayList<>();
+        settings.add(new Setting(XmlReader.SETTING_RELATIVE_PATH, "orders.xml"));
+        settings.add(new Setting(XmlReader.SETTING_READ_TAGS_PER_MESSAGE, Integer.toString(tagsPerMessage)));
+        if (readTag != null) {
+            settings.add(new Setting(XmlReader.SETTING_READ_TAG, readTag));
+        }
+        Component component = TestUtils.createComponent(XmlReader.TYPE, false, new Resource("directory"), null, null, null, null,
+                settings.toArray(new Setting[settings.size()]));
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        ComponentContext context = new ComponentContext(null, step, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        reader.create(null, context, 0);
+        reader.start();
+        SendMessageCallback<ArrayList<String>> callback = new SendMessageCallback<ArrayList<String>>();
+        reader.handle(new ControlMessage("source"), callback, true);
+        return callback.getPayloadList();
+    }
+
+    /**
+     * Returns at most a few characters from each read so that line endings
+     * and the byte order mark can fall on the edge of a read
+     */
+    static class ChunkedReader extends Reader {
+
+        Reader in;
+
+        int chunkSize;
+
+        ChunkedReader(String text, int chunkSize) {
+            this.in = new StringReader(text);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return in.read(cbuf, off, Math.min(len, chunkSize));
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
@@ -20,17 +20,24 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -44,6 +51,7 @@ import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.metl.core.runtime.resource.FileInfo;
 import org.jumpmind.metl.core.runtime.resource.IDirectory;
 import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.runtime.resource.LocalFileDirectory;
 import org.jumpmind.metl.core.util.LogUtils;
 import org.jumpmind.properties.TypedProperties;
 
@@ -68,6 +76,12 @@ public class UnZip extends AbstractComponentRuntime {
     
     public final static String SETTING_OVERWRITE = "overwrite";
 
+    public final static String SETTING_EXTRACT_TO_MESSAGES = "extract.to.messages";
+
+    public final static String SETTING_BUFFER_SIZE = "buffer.size";
+
+    public final static String HEADER_ENTRY_NAME = "zip.entry.name";
+
     boolean mustExist;
 
     String encoding = "UTF-8";
@@ -80,6 +94,10 @@ public class UnZip extends AbstractComponentRuntime {
     
     boolean overwrite = true;
 
+    boolean extractToMessages = false;
+
+    int bufferSize = 64 * 1024;
+
     IDirectory sourceDir;
 
     IDirectory targetDir;
@@ -91,6 +109,11 @@ public class UnZip extends AbstractComponentRuntime {
         TypedProperties properties = getTypedProperties();
 
         deleteOnComplete = properties.is(SETTING_DELETE_ON_COMPLETE, deleteOnComplete);
+        extractToMessages = properties.is(SETTING_EXTRACT_TO_MESSAGES, extractToMessages);
+        bufferSize = properties.getInt(SETTING_BUFFER_SIZE, bufferSize);
+        if (bufferSize < 1) {
+            throw new MisconfiguredException("The buffer size must be at least 1 byte");
+        }
 
         String sourceResourceId = properties.get(SETTING_SOURCE_RESOURCE);
         IResourceRuntime sourceResource = context.getDeployedResources().get(sourceResourceId);
@@ -102,10 +125,10 @@ public class UnZip extends AbstractComponentRuntime {
 
         String targetResourceId = properties.get(SETTING_TARGET_RESOURCE);
         IResourceRuntime targetResource = context.getDeployedResources().get(targetResourceId);
-        if (targetResource == null) {
-            throw new MisconfiguredException("The target resource must be defined");
-        } else {
+        if (targetResource != null) {
             targetDir = targetResource.reference();
+        } else if (!extractToMessages) {
+            throw new MisconfiguredException("The target resource must be defined");
         }
 
         targetRelativePath = properties.get(SETTING_TARGET_RELATIVE_PATH, "");
@@ -128,14 +151,21 @@ public class UnZip extends AbstractComponentRuntime {
                 if (mustExist && sourceZipFile == null) {
                     throw new IoException(String.format("Could not find file to extract: %s", fileName));
                 }
-                if (sourceZipFile != null) {
+                if (sourceZipFile != null && extractToMessages) {
+                    sendEntries(fileName, callback);
+                    if (deleteOnComplete) {
+                        sourceDir.delete(fileName);
+                    }
+                    log(LogLevel.INFO, "Extracted %s", fileName);
+                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                } else if (sourceZipFile != null) {
                     File unzipDir = new File(LogUtils.getLogDir(), "unzip");
                     unzipDir.mkdirs();
 
-                    File localZipFile = copyZipLocally(fileName, unzipDir);
+                    boolean copied = !(sourceDir instanceof LocalFileDirectory);
+                    File localZipFile = copied ? copyZipLocally(fileName, unzipDir) : ((LocalFileDirectory) sourceDir).getFile(fileName);
                     ZipFile zipFile = getNewZipFile(localZipFile);
-                    InputStream in = null;
-                    OutputStream out = null;
+                    byte[] buffer = new byte[bufferSize];
                     try {
                         String targetDirNameResolved = resolveParamsAndHeaders(targetRelativePath, inputMessage);
                         if (targetSubDir) {
@@ -147,9 +177,14 @@ public class UnZip extends AbstractComponentRuntime {
                                 String relativePathToEntry = targetDirNameResolved + "/" + entry.getName();
                                 if (overwrite || targetDir.listFile(relativePathToEntry) == null) {
                                     info("Unzipping %s", entry.getName());
-                                    out = targetDir.getOutputStream(relativePathToEntry, false);
-                                    in = zipFile.getInputStream(entry);
-                                    IOUtils.copy(in, out);
+                                    OutputStream out = targetDir.getOutputStream(relativePathToEntry, false);
+                                    InputStream in = zipFile.getInputStream(entry);
+                                    try {
+                                        IOUtils.copyLarge(in, out, buffer);
+                                    } finally {
+                                        IOUtils.closeQuietly(in);
+                                        IOUtils.closeQuietly(out);
+                                    }
                                     filePaths.add(relativePathToEntry);
                                 } else if (!overwrite) {
                                     info("Not unzipping %s.  It already exists and the override property is not enabled", entry.getName());
@@ -159,10 +194,10 @@ public class UnZip extends AbstractComponentRuntime {
                     } catch (IOException e) {
                         throw new IoException(e);
                     } finally {
-                        IOUtils.closeQuietly(in);
-                        IOUtils.closeQuietly(out);
                         IOUtils.closeQuietly(zipFile);
-                        FileUtils.deleteQuietly(localZipFile);
+                        if (copied) {
+                            FileUtils.deleteQuietly(localZipFile);
+                        }
                     }
                     if (deleteOnComplete) {
                         sourceDir.delete(fileName);
@@ -178,6 +213,39 @@ public class UnZip extends AbstractComponentRuntime {
         }
     }
 
+    /**
+     * Read the zip file as a stream and send each entry as a binary message.
+     * Nothing is written to disk.
+     */
+    protected void sendEntries(String fileName, ISendMessageCallback callback) {
+        InputStream is = sourceDir.getInputStream(fileName, true);
+        if (is == null) {
+            throw new IoException(String.format("Failed to open %s.", fileName));
+        }
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(is, bufferSize), Charset.forName(encoding));
+        try {
+            byte[] buffer = new byte[bufferSize];
+            for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
+                if (!entry.isDirectory()) {
+                    ByteArrayOutputStream payload = new ByteArrayOutputStream(
+                            entry.getSize() > 0 && entry.getSize() < Integer.MAX_VALUE ? (int) entry.getSize() : bufferSize);
+                    IOUtils.copyLarge(zis, payload, buffer);
+                    if (extractEmptyFiles || payload.size() > 0) {
+                        info("Unzipping %s", entry.getName());
+                        Map<String, Serializable> headers = new HashMap<>(2);
+                        headers.put("source.file.path", fileName);
+                        headers.put(HEADER_ENTRY_NAME, entry.getName());
+                        callback.sendBinaryMessage(headers, payload.toByteArray());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IoException(e);
+        } finally {
+            IOUtils.closeQuietly(zis);
+        }
+    }
+
     protected File copyZipLocally(String fileName, File unzipDir) {
         InputStream is = null;
         FileOutputStream os = null;
@@ -20,11 +20,23 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -39,6 +51,8 @@ import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
 import org.jumpmind.metl.core.runtime.resource.FileInfo;
 import org.jumpmind.metl.core.runtime.resource.IDirectory;
 import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
+import org.jumpmind.metl.core.runtime.resource.LocalFileDirectory;
+import org.jumpmind.metl.core.util.ThreadUtils;
 import org.jumpmind.properties.TypedProperties;
 
 public class Zip extends AbstractComponentRuntime {
@@ -57,6 +71,14 @@ public class Zip extends AbstractComponentRuntime {
 
     public final static String SETTING_ENCODING = "encoding";
 
+    public final static String SETTING_COMPRESSION_LEVEL = "compression.level";
+
+    public final static String SETTING_BUFFER_SIZE = "buffer.size";
+
+    public final static String SETTING_PARALLEL_COMPRESSION = "parallel.compression";
+
+    public final static String SETTING_PARALLEL_THREADS = "parallel.threads";
+
     IResourceRuntime sourceResource;
     
     IResourceRuntime targetResource;
@@ -75,6 +97,16 @@ public class Zip extends AbstractComponentRuntime {
 
     List<String> fileNames;
 
+    int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    int bufferSize = 64 * 1024;
+
+    boolean parallelCompression = false;
+
+    int parallelThreads = 0;
+
+    ExecutorService compressionExecutor;
+
     @Override
     public void start() {
         
@@ -98,6 +130,32 @@ public class Zip extends AbstractComponentRuntime {
 
         targetRelativePath = properties.get(SETTING_TARGET_RELATIVE_PATH, "");
         mustExist = properties.is(SETTING_MUST_EXIST, mustExist);
+
+        compressionLevel = properties.getInt(SETTING_COMPRESSION_LEVEL, compressionLevel);
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new MisconfiguredException("The compression level must be between 0 and 9, or -1 for the default level");
+        }
+        bufferSize = properties.getInt(SETTING_BUFFER_SIZE, bufferSize);
+        if (bufferSize < 1) {
+            throw new MisconfiguredException("The buffer size must be at least 1 byte");
+        }
+        parallelCompression = properties.is(SETTING_PARALLEL_COMPRESSION, parallelCompression);
+        parallelThreads = properties.getInt(SETTING_PARALLEL_THREADS, parallelThreads);
+        if (parallelThreads < 1) {
+            parallelThreads = Runtime.getRuntime().availableProcessors();
+        }
+        if (parallelCompression) {
+            compressionExecutor = ThreadUtils.createFixedThreadPool(getFlowStepId() + "-zip", parallelThreads * 2, parallelThreads);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (compressionExecutor != null) {
+            compressionExecutor.shutdownNow();
+            compressionExecutor = null;
+        }
+        super.stop();
     }
     
     @Override
@@ -116,62 +174,183 @@ public class Zip extends AbstractComponentRuntime {
         }
         
         if (inputMessage instanceof ControlMessage) {
-            IDirectory sourceDir = null;
-            IDirectory targetDir = null;
-            ZipOutputStream zos = null;
+            IDirectory sourceDir = sourceResource.reference();
+            IDirectory targetDir = targetResource.reference();
 
-            sourceDir = sourceResource.reference();
-            targetDir = targetResource.reference();
-        	
-            try {
-            	targetDir.delete(targetPath);
-                zos = new ZipOutputStream(targetDir.getOutputStream(targetPath, false), Charset.forName(encoding));
+            targetDir.delete(targetPath);
+            if (parallelCompression || compressionLevel == Deflater.NO_COMPRESSION) {
+                writeArchive(sourceDir, targetDir, targetPath, unitOfWorkBoundaryReached);
+            } else {
+                writeZipOutputStream(sourceDir, targetDir, targetPath, unitOfWorkBoundaryReached);
+            }
+            log(LogLevel.INFO, "Generated %s", targetPath);
 
+            if (deleteOnComplete) {
                 for (String fileName : fileNames) {
-                    FileInfo sourceZipFile = sourceDir.listFile(fileName);           
-                    log(LogLevel.INFO, "Received file name to add to zip: %s", sourceZipFile);
-                    if (mustExist && sourceZipFile == null) {
-                        throw new IoException(String.format("Could not find file to zip: %s", sourceZipFile));
-                    }
+                	sourceDir.delete(fileName);
+                }
+            }  
+            
+            fileNames.clear();
+        }
+    }
 
-                    if (sourceZipFile != null) {
-                        try {
-                            if (!sourceZipFile.isDirectory()) {
-                                ZipEntry entry = new ZipEntry(sourceZipFile.getName());
-                                entry.setSize(sourceZipFile.getSize());
-                                entry.setTime(sourceZipFile.getLastUpdated());
-                                zos.putNextEntry(entry);
-                                log(LogLevel.INFO, "Adding %s", sourceZipFile.getName());                        
-                                InputStream fis = sourceDir.getInputStream(sourceZipFile.getRelativePath(), unitOfWorkBoundaryReached);
-                                if (fis != null) {
-                                    try {
-                                        IOUtils.copy(fis, zos);
-                                    } finally {
-                                        IOUtils.closeQuietly(fis);
-                                    }
+
+    protected void writeZipOutputStream(IDirectory sourceDir, IDirectory targetDir, String targetPath, boolean unitOfWorkBoundaryReached) {
+        ZipOutputStream zos = null;
+        try {
+            zos = new ZipOutputStream(new BufferedOutputStream(targetDir.getOutputStream(targetPath, false), bufferSize),
+                    Charset.forName(encoding));
+            zos.setLevel(compressionLevel);
+            byte[] buffer = new byte[bufferSize];
+            for (String fileName : fileNames) {
+                FileInfo sourceZipFile = getSourceFile(sourceDir, fileName);
+                if (sourceZipFile != null) {
+                    try {
+                        if (!sourceZipFile.isDirectory()) {
+                            ZipEntry entry = new ZipEntry(sourceZipFile.getName());
+                            entry.setSize(sourceZipFile.getSize());
+                            entry.setTime(sourceZipFile.getLastUpdated());
+                            zos.putNextEntry(entry);
+                            log(LogLevel.INFO, "Adding %s", sourceZipFile.getName());
+                            InputStream fis = sourceDir.getInputStream(sourceZipFile.getRelativePath(), unitOfWorkBoundaryReached);
+                            if (fis != null) {
+                                try {
+                                    IOUtils.copyLarge(fis, zos, buffer);
+                                } finally {
+                                    IOUtils.closeQuietly(fis);
                                 }
                             }
-                            zos.closeEntry();
-                        } catch (IOException e) {
-                            throw new IoException(e);
                         }
+                        zos.closeEntry();
+                    } catch (IOException e) {
+                        throw new IoException(e);
+                    }
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(zos);
+        }
+    }
+
+    /**
+     * Compress entries ahead of the archive on the compression thread pool,
+     * or on this thread when parallel compression is off, and write them to
+     * the archive in order. At most two entries per thread are held in
+     * memory while they wait to be written.
+     */
+    protected void writeArchive(IDirectory sourceDir, IDirectory targetDir, String targetPath, boolean unitOfWorkBoundaryReached) {
+        Deque<Future<ZipArchiveWriter.Entry>> pending = new ArrayDeque<>();
+        int maxPending = compressionExecutor != null ? parallelThreads * 2 : 1;
+        ZipArchiveWriter writer = null;
+        try {
+            writer = new ZipArchiveWriter(targetDir.getOutputStream(targetPath, false), Charset.forName(encoding), bufferSize);
+            for (String fileName : fileNames) {
+                FileInfo sourceZipFile = getSourceFile(sourceDir, fileName);
+                if (sourceZipFile != null && !sourceZipFile.isDirectory()) {
+                    log(LogLevel.INFO, "Adding %s", sourceZipFile.getName());
+                    pending.add(submit(prepareEntry(sourceDir, sourceZipFile, unitOfWorkBoundaryReached)));
+                    while (pending.size() >= maxPending) {
+                        writer.write(pending.poll().get());
                     }
                 }
-                
-                log(LogLevel.INFO, "Generated %s", targetPath);
+            }
+            while (!pending.isEmpty()) {
+                writer.write(pending.poll().get());
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new IoException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IoException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else {
+                throw new IoException(e.getCause());
+            }
+        } finally {
+            for (Future<ZipArchiveWriter.Entry> future : pending) {
+                discard(future);
+            }
+            IOUtils.closeQuietly(writer);
+        }
+    }
 
+    protected Callable<ZipArchiveWriter.Entry> prepareEntry(IDirectory sourceDir, FileInfo sourceZipFile, boolean unitOfWorkBoundaryReached)
+            throws IOException {
+        final String name = sourceZipFile.getName();
+        final long time = sourceZipFile.getLastUpdated();
+        if (sourceDir instanceof LocalFileDirectory) {
+            final File file = ((LocalFileDirectory) sourceDir).getFile(sourceZipFile.getRelativePath());
+            if (compressionLevel == Deflater.NO_COMPRESSION) {
+                return () -> ZipArchiveWriter.store(name, time, file, bufferSize);
+            } else {
+                return () -> {
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        return ZipArchiveWriter.deflate(name, time, in, compressionLevel, bufferSize);
+                    } finally {
+                        IOUtils.closeQuietly(in);
+                    }
+                };
+            }
+        } else {
+            /*
+             * Other directories are not safe to read from several threads, so
+             * the content is read here and only compressed on the pool
+             */
+            InputStream in = sourceDir.getInputStream(sourceZipFile.getRelativePath(), unitOfWorkBoundaryReached);
+            final ZipArchiveWriter.Entry stored;
+            try {
+                stored = ZipArchiveWriter.store(name, time, in != null ? in : new ByteArrayInputStream(new byte[0]), bufferSize);
             } finally {
-                IOUtils.closeQuietly(zos);
+                IOUtils.closeQuietly(in);
             }
-            
-            if (deleteOnComplete) {
-                for (String fileName : fileNames) {
-                	sourceDir.delete(fileName);
-                }
-            }  
-            
-            fileNames.clear();
+            if (compressionLevel == Deflater.NO_COMPRESSION) {
+                return () -> stored;
+            } else {
+                return () -> {
+                    InputStream storedIn = stored.openStream();
+                    try {
+                        return ZipArchiveWriter.deflate(name, time, storedIn, compressionLevel, bufferSize);
+                    } finally {
+                        IOUtils.closeQuietly(storedIn);
+                        stored.release();
+                    }
+                };
+            }
+        }
+    }
+
+    protected Future<ZipArchiveWriter.Entry> submit(Callable<ZipArchiveWriter.Entry> task) {
+        if (compressionExecutor != null) {
+            return compressionExecutor.submit(task);
+        } else {
+            FutureTask<ZipArchiveWriter.Entry> future = new FutureTask<>(task);
+            future.run();
+            return future;
+        }
+    }
+
+    protected void discard(Future<ZipArchiveWriter.Entry> future) {
+        if (!future.cancel(true) && future.isDone()) {
+            try {
+                future.get().release();
+            } catch (Exception e) {
+                log.debug("Could not release a discarded zip entry", e);
+            }
+        }
+    }
+
+    protected FileInfo getSourceFile(IDirectory sourceDir, String fileName) {
+        FileInfo sourceZipFile = sourceDir.listFile(fileName);
+        log(LogLevel.INFO, "Received file name to add to zip: %s", sourceZipFile);
+        if (mustExist && sourceZipFile == null) {
+            throw new IoException(String.format("Could not find file to zip: %s", sourceZipFile));
         }
+        return sourceZipFile;
     }
 
 }
@@ -0,0 +1,404 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+/**
+ * Writes a zip archive from entries that have already been compressed. This
+ * lets entries be deflated on other threads and then assembled in order.
+ * Entry content that lives in a file is copied to the archive with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}. Zip64
+ * records are written when sizes, offsets or the entry count need them.
+ */
+public class ZipArchiveWriter implements Closeable {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    static final int END_SIGNATURE = 0x06054b50;
+
+    static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    static final int ZIP64_EXTRA_ID = 0x0001;
+
+    static final int UTF8_FLAG = 0x800;
+
+    /**
+     * Compressed output larger than this is kept in a temporary file instead
+     * of memory.
+     */
+    static final int MEMORY_THRESHOLD = 8 * 1024 * 1024;
+
+    OutputStream target;
+
+    OutputStream out;
+
+    WritableByteChannel channel;
+
+    long written;
+
+    Charset charset;
+
+    int flags;
+
+    List<Entry> entries = new ArrayList<>();
+
+    public ZipArchiveWriter(OutputStream target, Charset charset, int bufferSize) {
+        this.target = target;
+        this.out = new BufferedOutputStream(target, bufferSize);
+        this.channel = target instanceof FileOutputStream ? ((FileOutputStream) target).getChannel() : Channels.newChannel(target);
+        this.charset = charset;
+        this.flags = StandardCharsets.UTF_8.equals(charset) ? UTF8_FLAG : 0;
+    }
+
+    /**
+     * Deflate the content of a stream. Safe to call from any thread.
+     */
+    public static Entry deflate(String name, long time, InputStream in, int level, int bufferSize) throws IOException {
+        Entry entry = new Entry(name, time, ZipEntry.DEFLATED);
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DeferredFileOutputStream data = new DeferredFileOutputStream(MEMORY_THRESHOLD, "zip", ".tmp", null);
+        Deflater deflater = new Deflater(level, true);
+        try {
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(data, deflater, bufferSize);
+            entry.size = IOUtils.copyLarge(checked, deflaterOut, new byte[bufferSize]);
+            deflaterOut.finish();
+            deflaterOut.close();
+        } finally {
+            deflater.end();
+            IOUtils.closeQuietly(data);
+        }
+        entry.crc = checked.getChecksum().getValue();
+        entry.compressedSize = data.getByteCount();
+        if (data.isInMemory()) {
+            entry.data = data.getData();
+        } else {
+            entry.file = data.getFile();
+            entry.deleteFile = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Store a local file without compression. Only the checksum is calculated
+     * here. The content is transferred to the archive when the entry is
+     * written.
+     */
+    public static Entry store(String name, long time, File file, int bufferSize) throws IOException {
+        Entry entry = new Entry(name, time, ZipEntry.STORED);
+        CheckedInputStream checked = new CheckedInputStream(new FileInputStream(file), new CRC32());
+        try {
+            byte[] buffer = new byte[bufferSize];
+            while (checked.read(buffer) >= 0) {
+            }
+        } finally {
+            IOUtils.closeQuietly(checked);
+        }
+        entry.crc = checked.getChecksum().getValue();
+        entry.size = file.length();
+        entry.compressedSize = entry.size;
+        entry.file = file;
+        return entry;
+    }
+
+    /**
+     * Store the content of a stream without compression. The content is
+     * buffered in memory, or in a temporary file when it is large.
+     */
+    public static Entry store(String name, long time, InputStream in, int bufferSize) throws IOException {
+        Entry entry = new Entry(name, time, ZipEntry.STORED);
+        CheckedInputStream checked = new CheckedInputStream(in, new CRC32());
+        DeferredFileOutputStream data = new DeferredFileOutputStream(MEMORY_THRESHOLD, "zip", ".tmp", null);
+        try {
+            entry.size = IOUtils.copyLarge(checked, data, new byte[bufferSize]);
+        } finally {
+            IOUtils.closeQuietly(data);
+        }
+        entry.crc = checked.getChecksum().getValue();
+        entry.compressedSize = entry.size;
+        if (data.isInMemory()) {
+            entry.data = data.getData();
+        } else {
+            entry.file = data.getFile();
+            entry.deleteFile = true;
+        }
+        return entry;
+    }
+
+    public void write(Entry entry) throws IOException {
+        try {
+            entry.offset = written;
+            byte[] extra = entry.isZip64() ? zip64Extra(entry.size, entry.compressedSize) : new byte[0];
+            writeInt(LOCAL_HEADER_SIGNATURE);
+            writeShort(entry.getVersionNeeded());
+            writeShort(flags);
+            writeShort(entry.method);
+            writeInt(entry.dosTime);
+            writeInt(entry.crc);
+            writeInt(entry.isZip64() ? ZIP64_MAGIC : entry.compressedSize);
+            writeInt(entry.isZip64() ? ZIP64_MAGIC : entry.size);
+            byte[] name = entry.name.getBytes(charset);
+            writeShort(name.length);
+            writeShort(extra.length);
+            writeBytes(name);
+            writeBytes(extra);
+            if (entry.data != null) {
+                writeBytes(entry.data);
+            } else if (entry.file != null) {
+                transfer(entry.file, entry.compressedSize);
+            }
+            entries.add(entry);
+        } finally {
+            entry.release();
+        }
+    }
+
+    protected void transfer(File file, long length) throws IOException {
+        out.flush();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel source = in.getChannel();
+            long position = 0;
+            while (position < length) {
+                position += source.transferTo(position, length - position, channel);
+            }
+            written += length;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    public void finish() throws IOException {
+        long centralOffset = written;
+        for (Entry entry : entries) {
+            boolean zip64Size = entry.isZip64();
+            boolean zip64Offset = entry.offset >= ZIP64_MAGIC;
+            byte[] extra = new byte[0];
+            if (zip64Size && zip64Offset) {
+                extra = zip64Extra(entry.size, entry.compressedSize, entry.offset);
+            } else if (zip64Size) {
+                extra = zip64Extra(entry.size, entry.compressedSize);
+            } else if (zip64Offset) {
+                extra = zip64Extra(entry.offset);
+            }
+            int version = zip64Size || zip64Offset ? 45 : entry.getVersionNeeded();
+            writeInt(CENTRAL_HEADER_SIGNATURE);
+            writeShort(version);
+            writeShort(version);
+            writeShort(flags);
+            writeShort(entry.method);
+            writeInt(entry.dosTime);
+            writeInt(entry.crc);
+            writeInt(zip64Size ? ZIP64_MAGIC : entry.compressedSize);
+            writeInt(zip64Size ? ZIP64_MAGIC : entry.size);
+            byte[] name = entry.name.getBytes(charset);
+            writeShort(name.length);
+            writeShort(extra.length);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(zip64Offset ? ZIP64_MAGIC : entry.offset);
+            writeBytes(name);
+            writeBytes(extra);
+        }
+        long centralSize = written - centralOffset;
+        int count = entries.size();
+        if (count >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = written;
+            writeInt(ZIP64_END_SIGNATURE);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralSize);
+            writeLong(centralOffset);
+            writeInt(ZIP64_LOCATOR_SIGNATURE);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+        writeInt(END_SIGNATURE);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt(Math.min(centralSize, ZIP64_MAGIC));
+        writeInt(Math.min(centralOffset, ZIP64_MAGIC));
+        writeShort(0);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    protected static byte[] zip64Extra(long... values) {
+        byte[] extra = new byte[4 + values.length * 8];
+        putShort(extra, 0, ZIP64_EXTRA_ID);
+        putShort(extra, 2, values.length * 8);
+        for (int i = 0; i < values.length; i++) {
+            for (int j = 0; j < 8; j++) {
+                extra[4 + i * 8 + j] = (byte) (values[i] >>> (j * 8));
+            }
+        }
+        return extra;
+    }
+
+    protected static void putShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+    protected void writeShort(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        written += 2;
+    }
+
+    protected void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xffff));
+        writeShort((int) ((value >>> 16) & 0xffff));
+    }
+
+    protected void writeLong(long value) throws IOException {
+        writeInt(value & ZIP64_MAGIC);
+        writeInt(value >>> 32);
+    }
+
+    protected void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        written += bytes.length;
+    }
+
+    protected static long toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    public static class Entry {
+
+        String name;
+
+        long dosTime;
+
+        int method;
+
+        long crc;
+
+        long size;
+
+        long compressedSize;
+
+        long offset;
+
+        byte[] data;
+
+        File file;
+
+        boolean deleteFile;
+
+        Entry(String name, long time, int method) {
+            this.name = name;
+            this.dosTime = toDosTime(time);
+            this.method = method;
+        }
+
+        boolean isZip64() {
+            return size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC;
+        }
+
+        int getVersionNeeded() {
+            if (isZip64()) {
+                return 45;
+            }
+            return method == ZipEntry.DEFLATED ? 20 : 10;
+        }
+
+        /**
+         * Open the content of the entry as it will be written to the archive.
+         */
+        public InputStream openStream() throws IOException {
+            if (data != null) {
+                return new ByteArrayInputStream(data);
+            } else if (file != null) {
+                return new FileInputStream(file);
+            } else {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        }
+
+        /**
+         * Free the content of an entry that will not be written.
+         */
+        public void release() {
+            data = null;
+            if (deleteFile && file != null) {
+                FileUtils.deleteQuietly(file);
+            }
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZipArchiveWriterTest {
+
+    static final int BUFFER_SIZE = 8192;
+
+    File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = File.createTempFile("zip", "test");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void cleanup() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testStoredAndDeflatedEntries() throws Exception {
+        byte[] text = "Hello, zip. Hello, zip. Hello, zip.".getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[100000];
+        new Random(1).nextBytes(random);
+        File source = new File(dir, "source.bin");
+        FileUtils.writeByteArrayToFile(source, random);
+        long time = System.currentTimeMillis();
+
+        File zip = new File(dir, "test.zip");
+        ZipArchiveWriter writer = new ZipArchiveWriter(new FileOutputStream(zip), StandardCharsets.UTF_8, BUFFER_SIZE);
+        try {
+            writer.write(ZipArchiveWriter.deflate("deflated.txt", time, new ByteArrayInputStream(text),
+                    Deflater.DEFAULT_COMPRESSION, BUFFER_SIZE));
+            writer.write(ZipArchiveWriter.store("stored-file.bin", time, source, BUFFER_SIZE));
+            writer.write(ZipArchiveWriter.store("dir/stored-stream.txt", time, new ByteArrayInputStream(text), BUFFER_SIZE));
+            writer.write(ZipArchiveWriter.deflate("dir/ünïcödé.bin", time, new ByteArrayInputStream(random),
+                    Deflater.BEST_SPEED, BUFFER_SIZE));
+            writer.write(ZipArchiveWriter.deflate("empty.txt", time, new ByteArrayInputStream(new byte[0]),
+                    Deflater.DEFAULT_COMPRESSION, BUFFER_SIZE));
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+        assertTrue("The source of a stored file must be kept", source.exists());
+
+        ZipFile zipFile = new ZipFile(zip, StandardCharsets.UTF_8);
+        try {
+            assertEquals(5, zipFile.size());
+            assertEntry(zipFile, "deflated.txt", ZipEntry.DEFLATED, text);
+            assertEntry(zipFile, "stored-file.bin", ZipEntry.STORED, random);
+            assertEntry(zipFile, "dir/stored-stream.txt", ZipEntry.STORED, text);
+            assertEntry(zipFile, "dir/ünïcödé.bin", ZipEntry.DEFLATED, random);
+            assertEntry(zipFile, "empty.txt", ZipEntry.DEFLATED, new byte[0]);
+            assertEquals(time / 2000, zipFile.getEntry("deflated.txt").getTime() / 2000);
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testLargeEntryIsTransferredFromTemporaryFile() throws Exception {
+        byte[] random = new byte[ZipArchiveWriter.MEMORY_THRESHOLD + 1024];
+        new Random(2).nextBytes(random);
+        File zip = new File(dir, "large.zip");
+        ZipArchiveWriter writer = new ZipArchiveWriter(new FileOutputStream(zip), StandardCharsets.UTF_8, BUFFER_SIZE);
+        try {
+            ZipArchiveWriter.Entry entry = ZipArchiveWriter.deflate("large.bin", 0, new ByteArrayInputStream(random),
+                    Deflater.NO_COMPRESSION, BUFFER_SIZE);
+            File temp = entry.file;
+            assertTrue(temp != null && temp.exists());
+            writer.write(entry);
+            assertTrue("The temporary file must be deleted once written", !temp.exists());
+            writer.write(ZipArchiveWriter.store("small.txt", 0, new ByteArrayInputStream(new byte[] { 1, 2, 3 }),
+                    BUFFER_SIZE));
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        ZipFile zipFile = new ZipFile(zip, StandardCharsets.UTF_8);
+        try {
+            assertEntry(zipFile, "large.bin", ZipEntry.DEFLATED, random);
+            assertEntry(zipFile, "small.txt", ZipEntry.STORED, new byte[] { 1, 2, 3 });
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testZip64EntryCount() throws Exception {
+        int count = ZipArchiveWriter.ZIP64_MAGIC_COUNT + 10;
+        File zip = new File(dir, "zip64.zip");
+        ZipArchiveWriter writer = new ZipArchiveWriter(new FileOutputStream(zip), StandardCharsets.UTF_8, BUFFER_SIZE);
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] content = Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+                if (i % 2 == 0) {
+                    writer.write(ZipArchiveWriter.store("entry" + i, 0, new ByteArrayInputStream(content), 64));
+                } else {
+                    writer.write(ZipArchiveWriter.deflate("entry" + i, 0, new ByteArrayInputStream(content),
+                            Deflater.DEFAULT_COMPRESSION, 64));
+                }
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+        byte[] bytes = FileUtils.readFileToByteArray(zip);
+        assertEquals("The zip64 locator must precede the end record", ZipArchiveWriter.ZIP64_LOCATOR_SIGNATURE,
+                readInt(bytes, bytes.length - 22 - 20));
+
+        ZipFile zipFile = new ZipFile(zip, StandardCharsets.UTF_8);
+        try {
+            assertEquals(count, zipFile.size());
+            int read = 0;
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals("entry" + read, entry.getName());
+                InputStream in = zipFile.getInputStream(entry);
+                try {
+                    assertEquals(Integer.toString(read), IOUtils.toString(in, StandardCharsets.UTF_8));
+                } finally {
+                    in.close();
+                }
+                read++;
+            }
+            assertEquals(count, read);
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void testZip64Extra() {
+        byte[] extra = ZipArchiveWriter.zip64Extra(0x100000000L, 0x1234567890L);
+        assertArrayEquals(new byte[] { 1, 0, 16, 0, 0, 0, 0, 0, 1, 0, 0, 0, (byte) 0x90, 0x78, 0x56, 0x34, 0x12, 0, 0, 0 },
+                extra);
+    }
+
+    protected static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    protected void assertEntry(ZipFile zipFile, String name, int method, byte[] expected) throws IOException {
+        ZipEntry entry = zipFile.getEntry(name);
+        assertEquals(name, method, entry.getMethod());
+        assertEquals(name, expected.length, entry.getSize());
+        CRC32 crc = new CRC32();
+        crc.update(expected);
+        assertEquals(name, crc.getValue(), entry.getCrc());
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+            assertArrayEquals(name, expected, IOUtils.toByteArray(in));
+        } finally {
+            in.close();
+        }
+    }
+
+}
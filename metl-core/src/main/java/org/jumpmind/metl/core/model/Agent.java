@@ -61,6 +61,19 @@ public class Agent extends AbstractNamedObject {
     
     int execThreadCount = 10;
 
+    /*
+     * The number of threads shared by the steps of all flows running on this
+     * agent. Zero means each step of each running flow gets its own thread.
+     */
+    int stepThreadCount = 0;
+
+    /*
+     * The number of runtimes kept ready for each flow that is run on request,
+     * like flows behind a web service. Zero means runtimes are built when
+     * they are requested.
+     */
+    int warmFlowRuntimeCount = 0;
+
     public Agent(String name) {
         this();
         this.name = name;
@@ -236,4 +249,20 @@ public class Agent extends AbstractNamedObject {
         return execThreadCount;
     }
 
+    public void setStepThreadCount(int stepThreadCount) {
+        this.stepThreadCount = stepThreadCount;
+    }
+
+    public int getStepThreadCount() {
+        return stepThreadCount;
+    }
+
+    public void setWarmFlowRuntimeCount(int warmFlowRuntimeCount) {
+        this.warmFlowRuntimeCount = warmFlowRuntimeCount;
+    }
+
+    public int getWarmFlowRuntimeCount() {
+        return warmFlowRuntimeCount;
+    }
+
 }
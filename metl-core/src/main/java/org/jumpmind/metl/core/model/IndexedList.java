@@ -0,0 +1,168 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A list that keeps a lookup index over its elements. The index is built on
+ * first use and dropped whenever the list is changed, so lookups never have to
+ * check whether it is still current. A list nested in one of the elements can
+ * name this list as its parent so that changing it drops this index too.
+ */
+class IndexedList<T, I> extends ArrayList<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    final transient Function<List<T>, I> indexer;
+
+    transient volatile I index;
+
+    transient volatile IndexedList<?, ?> parent;
+
+    IndexedList(Collection<? extends T> elements, Function<List<T>, I> indexer) {
+        super(elements);
+        this.indexer = indexer;
+    }
+
+    I getIndex() {
+        I current = index;
+        if (current == null) {
+            current = indexer.apply(this);
+            index = current;
+        }
+        return current;
+    }
+
+    void changed() {
+        index = null;
+        IndexedList<?, ?> parent = this.parent;
+        if (parent != null) {
+            parent.changed();
+        }
+    }
+
+    @Override
+    public boolean add(T e) {
+        changed();
+        return super.add(e);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        changed();
+        super.add(index, element);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        changed();
+        return super.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends T> c) {
+        changed();
+        return super.addAll(index, c);
+    }
+
+    @Override
+    public T set(int index, T element) {
+        changed();
+        return super.set(index, element);
+    }
+
+    @Override
+    public T remove(int index) {
+        changed();
+        return super.remove(index);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        changed();
+        return super.remove(o);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        changed();
+        return super.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        changed();
+        return super.retainAll(c);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super T> filter) {
+        changed();
+        return super.removeIf(filter);
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<T> operator) {
+        changed();
+        super.replaceAll(operator);
+    }
+
+    @Override
+    public void sort(Comparator<? super T> c) {
+        changed();
+        super.sort(c);
+    }
+
+    @Override
+    public void clear() {
+        changed();
+        super.clear();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        changed();
+        super.removeRange(fromIndex, toIndex);
+    }
+
+    @Override
+    public List<T> subList(int fromIndex, int toIndex) {
+        /* a sub list can set elements without going through this list */
+        changed();
+        return super.subList(fromIndex, toIndex);
+    }
+
+    /*
+     * The indexer is not serializable, so serialize as a plain list. The
+     * owning object wraps it again when it is read back.
+     */
+    protected Object writeReplace() {
+        return new ArrayList<T>(this);
+    }
+
+}
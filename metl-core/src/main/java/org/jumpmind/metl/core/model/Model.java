@@ -21,10 +21,12 @@
 package org.jumpmind.metl.core.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import org.jumpmind.db.sql.Row;
@@ -52,7 +54,7 @@ public class Model extends AbstractNamedObject implements IAuditable {
     boolean deleted = false;
 
     public Model() {
-        this.modelEntities = new ArrayList<ModelEntity>();
+        this.modelEntities = new IndexedList<>(Collections.emptyList(), Index::new);
     }
 
     public Model(String id) {
@@ -99,37 +101,45 @@ public class Model extends AbstractNamedObject implements IAuditable {
     }
 
     public ModelEntity getEntityById(String entityId) {
-        for (ModelEntity entity : modelEntities) {
-            if (entity.getId().equalsIgnoreCase(entityId)) {
-                return entity;
-            }
+        if (entityId != null) {
+            return getIndex().getEntityById(entityId);
         }
         return null;
     }
 
     public ModelEntity getEntityByName(String entityName) {
-        for (ModelEntity entity : modelEntities) {
-            if (entity.getName().equalsIgnoreCase(entityName)) {
-                return entity;
+        if (entityName == null) {
+            return null;
+        }
+        ModelEntity entity = getIndex().entitiesByName.get(entityName);
+        if (entity != null && entityName.equalsIgnoreCase(entity.getName())) {
+            return entity;
+        }
+        /* not found or renamed since the index was built */
+        for (ModelEntity modelEntity : modelEntities) {
+            if (modelEntity.getName().equalsIgnoreCase(entityName)) {
+                return modelEntity;
             }
         }
         return null;
     }
 
     public ModelAttribute getAttributeById(String attributeId) {
-        for (ModelEntity entity : modelEntities) {
-            for (ModelAttribute modelAttribute : entity.getModelAttributes()) {
-                if (modelAttribute.getId().equalsIgnoreCase(attributeId)) {
-                    return modelAttribute;
-                }
-            }
+        if (attributeId != null) {
+            return getIndex().getAttributeById(attributeId);
         }
         return null;
     }
 
     public ModelAttribute getAttributeByName(String entityName, String attributeName) {
         ModelEntity entity = getEntityByName(entityName);
-        if (entity != null) {
+        if (entity != null && attributeName != null) {
+            Map<String, ModelAttribute> attributesByName = getIndex().attributesByEntityIdAndName.get(entity.getId());
+            ModelAttribute attribute = attributesByName != null ? attributesByName.get(attributeName) : null;
+            if (attribute != null && attributeName.equalsIgnoreCase(attribute.getName())) {
+                return attribute;
+            }
+            /* not found or renamed since the index was built */
             for (ModelAttribute modelAttribute : entity.getModelAttributes()) {
                 if (modelAttribute.getName().equalsIgnoreCase(attributeName)) {
                     return modelAttribute;
@@ -140,7 +150,22 @@ public class Model extends AbstractNamedObject implements IAuditable {
     }
 
     public List<ModelAttribute> getAttributesByName(String attributeName) {
-        List<ModelAttribute> attributes = new ArrayList<ModelAttribute>();
+        if (attributeName == null) {
+            return new ArrayList<ModelAttribute>();
+        }
+        List<ModelAttribute> attributes = getIndex().attributesByName.get(attributeName);
+        boolean current = attributes != null;
+        if (current) {
+            for (ModelAttribute modelAttribute : attributes) {
+                current &= attributeName.equalsIgnoreCase(modelAttribute.getName());
+            }
+        }
+        if (current) {
+            return new ArrayList<ModelAttribute>(attributes);
+        }
+
+        /* not found or renamed since the index was built */
+        attributes = new ArrayList<ModelAttribute>();
         for (ModelEntity entity : modelEntities) {
             for (ModelAttribute modelAttribute : entity.getModelAttributes()) {
                 if (modelAttribute.getName().equalsIgnoreCase(attributeName)) {
@@ -151,12 +176,27 @@ public class Model extends AbstractNamedObject implements IAuditable {
         return attributes;
     }
 
+    /*
+     * Lookups by id and name are served from an immutable index that is kept
+     * by the entity list. Adding, removing or replacing entities or attributes
+     * drops it, and it is built again by the next lookup.
+     */
+    @SuppressWarnings("unchecked")
+    protected Index getIndex() {
+        return ((IndexedList<ModelEntity, Index>) modelEntities).getIndex();
+    }
+
     public List<ModelEntity> getModelEntities() {
         return modelEntities;
     }
 
     public void setModelEntities(List<ModelEntity> modelEntities) {
-        this.modelEntities = modelEntities;
+        this.modelEntities = modelEntities != null ? new IndexedList<>(modelEntities, Index::new) : null;
+    }
+
+    protected Object readResolve() {
+        setModelEntities(modelEntities);
+        return this;
     }
 
     public void setProjectVersionId(String projectVersionId) {
@@ -236,4 +276,67 @@ public class Model extends AbstractNamedObject implements IAuditable {
         return row;
     }
 
+    static class Index {
+
+        final Map<String, ModelEntity> entitiesById = new HashMap<>();
+
+        final Map<String, ModelEntity> entitiesByIdIgnoreCase = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        final Map<String, ModelEntity> entitiesByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        final Map<String, ModelAttribute> attributesById = new HashMap<>();
+
+        final Map<String, ModelAttribute> attributesByIdIgnoreCase = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        final Map<String, List<ModelAttribute>> attributesByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        final Map<String, Map<String, ModelAttribute>> attributesByEntityIdAndName = new HashMap<>();
+
+        Index(List<ModelEntity> entities) {
+            for (ModelEntity entity : entities) {
+                List<ModelAttribute> attributes = entity.getModelAttributes();
+                /* changes to the attributes of an entity drop this index */
+                ((IndexedList<?, ?>) attributes).parent = (IndexedList<?, ?>) entities;
+
+                putIfAbsent(entitiesById, entity.getId(), entity);
+                putIfAbsent(entitiesByIdIgnoreCase, entity.getId(), entity);
+                putIfAbsent(entitiesByName, entity.getName(), entity);
+
+                Map<String, ModelAttribute> entityAttributesByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (ModelAttribute attribute : attributes) {
+                    putIfAbsent(attributesById, attribute.getId(), attribute);
+                    putIfAbsent(attributesByIdIgnoreCase, attribute.getId(), attribute);
+                    putIfAbsent(entityAttributesByName, attribute.getName(), attribute);
+                    if (attribute.getName() != null) {
+                        List<ModelAttribute> named = attributesByName.get(attribute.getName());
+                        if (named == null) {
+                            named = new ArrayList<>(1);
+                            attributesByName.put(attribute.getName(), named);
+                        }
+                        named.add(attribute);
+                    }
+                }
+                if (entity.getId() != null && !attributesByEntityIdAndName.containsKey(entity.getId())) {
+                    attributesByEntityIdAndName.put(entity.getId(), Collections.unmodifiableMap(entityAttributesByName));
+                }
+            }
+        }
+
+        private static <T> void putIfAbsent(Map<String, T> map, String key, T value) {
+            if (key != null && !map.containsKey(key)) {
+                map.put(key, value);
+            }
+        }
+
+        ModelEntity getEntityById(String entityId) {
+            ModelEntity entity = entitiesById.get(entityId);
+            return entity != null ? entity : entitiesByIdIgnoreCase.get(entityId);
+        }
+
+        ModelAttribute getAttributeById(String attributeId) {
+            ModelAttribute attribute = attributesById.get(attributeId);
+            return attribute != null ? attribute : attributesByIdIgnoreCase.get(attributeId);
+        }
+    }
+
 }
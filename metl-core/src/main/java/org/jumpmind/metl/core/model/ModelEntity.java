@@ -20,8 +20,10 @@
  */
 package org.jumpmind.metl.core.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class ModelEntity extends AbstractNamedObject implements IAuditable {
 
@@ -36,7 +38,7 @@ public class ModelEntity extends AbstractNamedObject implements IAuditable {
     String description;
 
     public ModelEntity() {
-        modelAttributes = new ArrayList<ModelAttribute>();
+        modelAttributes = new IndexedList<>(Collections.emptyList(), AttributeIndex::new);
     }
 
     public ModelEntity(String id, String name) {
@@ -50,7 +52,12 @@ public class ModelEntity extends AbstractNamedObject implements IAuditable {
     }
 
     public void setModelAttributes(List<ModelAttribute> modelAttributes) {
-        this.modelAttributes = modelAttributes;
+        this.modelAttributes = modelAttributes != null ? new IndexedList<>(modelAttributes, AttributeIndex::new) : null;
+    }
+
+    protected Object readResolve() {
+        setModelAttributes(modelAttributes);
+        return this;
     }
 
     public void addModelAttribute(ModelAttribute modelAttribute) {
@@ -63,6 +70,16 @@ public class ModelEntity extends AbstractNamedObject implements IAuditable {
     }
 
     public ModelAttribute getModelAttributeByName(String name) {
+        if (name == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        AttributeIndex index = ((IndexedList<ModelAttribute, AttributeIndex>) modelAttributes).getIndex();
+        ModelAttribute attribute = index.attributesByName.get(name);
+        if (attribute != null && name.equalsIgnoreCase(attribute.getName())) {
+            return attribute;
+        }
+        /* not found or renamed since the index was built */
         for (ModelAttribute modelAttribute : modelAttributes) {
             if (modelAttribute.getName().equalsIgnoreCase(name)) {
                 return modelAttribute;
@@ -116,4 +133,17 @@ public class ModelEntity extends AbstractNamedObject implements IAuditable {
 //        return entity;
 //    }
 
+    static class AttributeIndex {
+
+        final Map<String, ModelAttribute> attributesByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        AttributeIndex(List<ModelAttribute> attributes) {
+            for (ModelAttribute attribute : attributes) {
+                if (attribute.getName() != null && !attributesByName.containsKey(attribute.getName())) {
+                    attributesByName.put(attribute.getName(), attribute);
+                }
+            }
+        }
+    }
+
 }
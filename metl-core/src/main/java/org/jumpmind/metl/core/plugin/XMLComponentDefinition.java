@@ -95,6 +95,9 @@ public class XMLComponentDefinition extends XMLAbstractDefinition {
     @XmlAttribute(required = false)
     protected boolean supportsMultipleThreads;
 
+    @XmlAttribute(required = false)
+    protected boolean readOnlyInput;
+
     @XmlAttribute(required = false)
     protected boolean inputOutputModelsMatch;
 
@@ -177,6 +180,19 @@ public class XMLComponentDefinition extends XMLAbstractDefinition {
         this.supportsMultipleThreads = supportsMultipleThreads;
     }
 
+    /**
+     * @return true if the component never changes the entity data or bytes of
+     *         the messages it receives. Such a component shares the payload
+     *         that was sent instead of getting its own copy.
+     */
+    public boolean isReadOnlyInput() {
+        return readOnlyInput;
+    }
+
+    public void setReadOnlyInput(boolean readOnlyInput) {
+        this.readOnlyInput = readOnlyInput;
+    }
+
     public void setFlowManipulatorClassName(String flowManipulatorClassName) {
         this.flowManipulatorClassName = flowManipulatorClassName;
     }
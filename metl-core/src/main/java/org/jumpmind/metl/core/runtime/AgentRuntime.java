@@ -34,6 +34,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledFuture;
 
@@ -64,6 +67,7 @@ import org.jumpmind.metl.core.plugin.XMLResourceDefinition;
 import org.jumpmind.metl.core.runtime.component.IComponentDeploymentListener;
 import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
 import org.jumpmind.metl.core.runtime.component.Results;
+import org.jumpmind.metl.core.runtime.flow.FlowPlan;
 import org.jumpmind.metl.core.runtime.flow.FlowRuntime;
 import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
 import org.jumpmind.metl.core.runtime.subscribe.ISubscribeManager;
@@ -109,6 +113,10 @@ public class AgentRuntime {
 
     ExecutorService flowStepsExecutionThreads;
 
+    ExecutorService flowStepsSharedThreads;
+
+    ExecutorService flowRuntimeWarmUpThread;
+
     ThreadPoolTaskScheduler flowExecutionScheduler;
 
     ScheduledFuture<?> agentRequestHandler;
@@ -121,6 +129,15 @@ public class AgentRuntime {
 
     Map<AgentDeployment, List<FlowRuntime>> runningFlows = Collections.synchronizedMap(new HashMap<>());
 
+    /*
+     * Plans and runtimes that are built ahead of time for flows that are run
+     * on request. They are only used when the agent does not auto refresh,
+     * because otherwise the flow has to be reloaded for every run.
+     */
+    Map<AgentProjectVersionFlowDeployment, FlowPlan> flowPlans = new ConcurrentHashMap<>();
+
+    Map<AgentProjectVersionFlowDeployment, BlockingQueue<FlowRuntime>> warmFlowRuntimes = new ConcurrentHashMap<>();
+
     public AgentRuntime(Agent agent, IOperationsService operationsService, IConfigurationService configurationService,
             IExecutionService executionService, IComponentRuntimeFactory componentFactory, IDefinitionFactory definitionFactory,
             IHttpRequestMappingRegistry httpRequestMappingRegistry, ISubscribeManager subscribeManager) {
@@ -176,6 +193,18 @@ public class AgentRuntime {
 
             this.flowStepsExecutionThreads = ThreadUtils.createUnboundedThreadPool(namePrefix);
 
+            this.flowRuntimeWarmUpThread = ThreadUtils.createSingleThreadPool(namePrefix + "-warm");
+
+            /*
+             * When configured, the steps of all flows running on this agent
+             * share a bounded pool of threads and only occupy a thread while
+             * they have messages to process
+             */
+            if (agent.getStepThreadCount() > 0) {
+                this.flowStepsSharedThreads = ThreadUtils.createWorkStealingThreadPool(namePrefix + "-step",
+                        agent.getStepThreadCount());
+            }
+
             this.flowExecutionScheduler = new ThreadPoolTaskScheduler();
             this.flowExecutionScheduler.setDaemon(true);
             this.flowExecutionScheduler.setThreadNamePrefix(namePrefix + "-job-");
@@ -239,6 +268,16 @@ public class AgentRuntime {
                 this.flowStepsExecutionThreads = null;
             }
 
+            if (flowStepsSharedThreads != null) {
+                this.flowStepsSharedThreads.shutdownNow();
+                this.flowStepsSharedThreads = null;
+            }
+
+            if (flowRuntimeWarmUpThread != null) {
+                this.flowRuntimeWarmUpThread.shutdownNow();
+                this.flowRuntimeWarmUpThread = null;
+            }
+
             Collection<IResourceRuntime> resourceCollection = deployedResources.values();
             for (IResourceRuntime resource : resourceCollection) {
                 log.info("Stopping the {} resource on the {} agent", resource.getResource().getName(), agent.getName());
@@ -246,6 +285,8 @@ public class AgentRuntime {
             }
             
             deployedResources.clear();
+            flowPlans.clear();
+            warmFlowRuntimes.clear();
 
             log.info("Agent '{}' has been stopped", agent);
         }
@@ -330,6 +371,7 @@ public class AgentRuntime {
 
                 deployment.setStatus(DeploymentStatus.ENABLED.name());
                 deployment.setMessage("");
+                discardFlowPlans(deployment);
                 deployed.add(agentProjectVersionFlowDeployment);
                 log.info("Flow '{}' has been deployed", deployment.getName());
             } catch (Exception e) {
@@ -461,9 +503,68 @@ public class AgentRuntime {
 
     public FlowRuntime createFlowRuntime(String userId, AgentDeployment deployment, Map<String, String> runtimeParameters) throws Exception {
         String executionId = createExecutionId();
-        return new FlowRuntime(executionId, userId, findDeployed(deployment), agent, componentRuntimeFactory, definitionFactory,
-                flowStepsExecutionThreads, operationsService, configurationService, executionService, deployedResources, null, globalSettings,
-                runtimeParameters);
+        AgentProjectVersionFlowDeployment agentProjectVersionFlowDeployment = findDeployed(deployment);
+        FlowRuntime flowRuntime = null;
+        if (agentProjectVersionFlowDeployment != null && !agent.isAutoRefresh()) {
+            flowRuntime = takeFlowRuntime(agentProjectVersionFlowDeployment);
+            flowRuntime.bind(executionId, userId, runtimeParameters);
+        } else {
+            flowRuntime = new FlowRuntime(executionId, userId, agentProjectVersionFlowDeployment, agent, componentRuntimeFactory,
+                    definitionFactory, flowStepsExecutionThreads, operationsService, configurationService, executionService,
+                    deployedResources, null, globalSettings, runtimeParameters);
+        }
+        flowRuntime.setStepExecutor(flowStepsSharedThreads);
+        return flowRuntime;
+    }
+
+    /*
+     * Take a runtime that was built ahead of time from the deployment's plan
+     * and start building its replacement. A runtime is built on this thread
+     * when none are ready. Replacements are built one at a time on their own
+     * thread so they do not compete with running flows for threads.
+     */
+    protected FlowRuntime takeFlowRuntime(AgentProjectVersionFlowDeployment deployment) {
+        FlowPlan plan = flowPlans.computeIfAbsent(deployment, d -> new FlowPlan(d, definitionFactory, configurationService));
+        FlowRuntime flowRuntime = null;
+        int warmCount = agent.getWarmFlowRuntimeCount();
+        ExecutorService warmUpThread = flowRuntimeWarmUpThread;
+        if (warmCount > 0 && warmUpThread != null) {
+            BlockingQueue<FlowRuntime> warm = warmFlowRuntimes.computeIfAbsent(deployment, d -> new ArrayBlockingQueue<>(warmCount));
+            flowRuntime = warm.poll();
+            if (warm.remainingCapacity() > 0) {
+                warmUpThread.execute(() -> warmUp(plan, warm));
+            }
+        }
+        if (flowRuntime == null) {
+            flowRuntime = createFlowRuntime(plan);
+        }
+        return flowRuntime;
+    }
+
+    protected void warmUp(FlowPlan plan, BlockingQueue<FlowRuntime> warm) {
+        try {
+            while (warm.remainingCapacity() > 0 && flowPlans.get(plan.getDeployment()) == plan) {
+                if (!warm.offer(createFlowRuntime(plan))) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to prepare a runtime for '{}'", plan.getDeployment().getName(), e);
+        }
+    }
+
+    protected FlowRuntime createFlowRuntime(FlowPlan plan) {
+        return new FlowRuntime(plan, agent, componentRuntimeFactory, definitionFactory, flowStepsExecutionThreads, configurationService,
+                executionService, deployedResources, null, globalSettings);
+    }
+
+    protected void discardFlowPlans(AgentDeployment deployment) {
+        for (AgentProjectVersionFlowDeployment planned : new ArrayList<>(flowPlans.keySet())) {
+            if (planned.getAgentDeployment().equals(deployment)) {
+                flowPlans.remove(planned);
+                warmFlowRuntimes.remove(planned);
+            }
+        }
     }
 
     public Results execute(String userId, AgentDeployment deployment, Map<String, String> runtimeParameters) throws Exception {
@@ -482,6 +583,8 @@ public class AgentRuntime {
     }
 
     protected void stop(AgentDeployment deployment, DeploymentStatus nextStatus) {
+        discardFlowPlans(deployment);
+
         ScheduledFuture<?> future = scheduledDeployments.get(deployment);
         if (future != null) {
             future.cancel(true);
@@ -613,6 +716,7 @@ public class AgentRuntime {
                 flowRuntime = new FlowRuntime(executionId, userId, deployment, agent, componentRuntimeFactory, definitionFactory,
                         flowStepsExecutionThreads, operationsService, configurationService, executionService, deployedResources,
                         notifications, globalSettings, runtimeParameters);
+                flowRuntime.setStepExecutor(flowStepsSharedThreads);
                 addToRunning(deployment.getAgentDeployment(), flowRuntime);
                 flowRuntime.execute();
             } catch (Exception e) {
@@ -655,6 +759,7 @@ public class AgentRuntime {
                 if (agent.getStatus().equals(AgentStatus.REQUEST_REFRESH.name())) {
                     log.info("Agent '" + agent.getName() + "' is refreshing settings");
                     globalSettings = operationsService.findGlobalSettingsAsMap();
+                    warmFlowRuntimes.clear();
                     agent.setStatus(AgentStatus.RUNNING.name());
                     operationsService.save(agent);
                 }
@@ -0,0 +1,436 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.exception.IoException;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+
+/**
+ * Temporary file of {@link EntityData} records used by components that need
+ * to spill rows to disk. Attribute ids are written once per file and then
+ * referenced by index, and common value types are written in a compact binary
+ * form. Each record may carry extra long tags for the caller's use.
+ */
+public class EntityDataSpillFile {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte BIG_DECIMAL = 2;
+    static final byte LONG = 3;
+    static final byte INTEGER = 4;
+    static final byte DOUBLE = 5;
+    static final byte BOOLEAN_TRUE = 6;
+    static final byte BOOLEAN_FALSE = 7;
+    static final byte TIMESTAMP = 8;
+    static final byte SQL_DATE = 9;
+    static final byte DATE = 10;
+    static final byte BYTES = 11;
+    static final byte SERIALIZED = 12;
+
+    static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+
+    File file;
+
+    public EntityDataSpillFile(String prefix) {
+        try {
+            this.file = File.createTempFile(prefix, ".spill");
+            this.file.deleteOnExit();
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Writer openWriter() {
+        try {
+            return new Writer(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)));
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    public Reader openReader() {
+        try {
+            return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
+        } catch (IOException e) {
+            throw new IoException(e);
+        }
+    }
+
+    public void delete() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Rough number of bytes an {@link EntityData} occupies on the heap. Used
+     * to decide when an in memory buffer should be spilled.
+     */
+    public static long estimateSize(EntityData data) {
+        long size = 64;
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            size += 48 + 2 * entry.getKey().length();
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                size += 40 + 2 * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value != null) {
+                size += 32;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes. Unlike
+     * {@link DataOutput#writeUTF(String)} there is no 64K limit.
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a value as a type byte followed by the value in binary form.
+     * Types that are not known are serialized, or written as their string
+     * form when they are not serializable.
+     */
+    public static void writeValue(DataOutput out, Object value) throws IOException {
+        writeValue(out, value, true);
+    }
+
+    /**
+     * Writes a value as a type byte followed by the value in binary form.
+     * Types that are not known are written as their string form unless
+     * serialize is set and they are serializable. Data that is read back by
+     * another process should not be serialized.
+     */
+    public static void writeValue(DataOutput out, Object value, boolean serialize) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.writeByte(BIG_DECIMAL);
+            out.writeInt(decimal.scale());
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? BOOLEAN_TRUE : BOOLEAN_FALSE);
+        } else if (value instanceof java.sql.Timestamp) {
+            java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+            out.writeByte(TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value.getClass().equals(java.util.Date.class)) {
+            out.writeByte(DATE);
+            out.writeLong(((java.util.Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (serialize && value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+            out.writeByte(SERIALIZED);
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+        } else {
+            out.writeByte(STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static Object readValue(DataInput in) throws IOException {
+        return readValue(in, true);
+    }
+
+    /**
+     * Reads a value written by {@link #writeValue(DataOutput, Object, boolean)}.
+     * Serialized values are rejected unless deserialize is set, so that data
+     * from another process cannot create arbitrary objects.
+     */
+    public static Object readValue(DataInput in, boolean deserialize) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case BIG_DECIMAL: {
+                int scale = in.readInt();
+                byte[] unscaled = new byte[in.readInt()];
+                in.readFully(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            }
+            case LONG:
+                return in.readLong();
+            case INTEGER:
+                return in.readInt();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN_TRUE:
+                return Boolean.TRUE;
+            case BOOLEAN_FALSE:
+                return Boolean.FALSE;
+            case TIMESTAMP: {
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            }
+            case SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case DATE:
+                return new java.util.Date(in.readLong());
+            case BYTES: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            }
+            case SERIALIZED: {
+                if (!deserialize) {
+                    throw new IOException("Serialized values are not accepted");
+                }
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                } finally {
+                    objectIn.close();
+                }
+            }
+            default:
+                throw new IOException("Unexpected value type: " + type);
+        }
+    }
+
+    public static class Writer implements Closeable {
+
+        DataOutputStream out;
+
+        Map<String, Integer> keys = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void write(EntityData data, long... tags) {
+            try {
+                out.writeBoolean(true);
+                out.writeByte(tags.length);
+                for (long tag : tags) {
+                    out.writeLong(tag);
+                }
+                out.writeByte(data.getChangeType().ordinal());
+                out.writeInt(data.size());
+                for (Map.Entry<String, Object> entry : data.entrySet()) {
+                    writeKey(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+
+        protected void writeKey(String key) throws IOException {
+            Integer index = keys.get(key);
+            if (index == null) {
+                out.writeInt(-1);
+                writeString(key);
+                keys.put(key, keys.size());
+            } else {
+                out.writeInt(index);
+            }
+        }
+
+        protected void writeString(String value) throws IOException {
+            EntityDataSpillFile.writeString(out, value);
+        }
+
+        protected void writeValue(Object value) throws IOException {
+            EntityDataSpillFile.writeValue(out, value);
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.writeBoolean(false);
+                out.close();
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+    }
+
+    public static class Reader implements Closeable {
+
+        DataInputStream in;
+
+        List<String> keys = new ArrayList<>();
+
+        long[] tags = new long[0];
+
+        boolean done;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next record or null when the end of the file has been
+         *         reached
+         */
+        public EntityData read() {
+            if (done) {
+                return null;
+            }
+            try {
+                if (!in.readBoolean()) {
+                    done = true;
+                    return null;
+                }
+                int tagCount = in.readByte();
+                if (tags.length != tagCount) {
+                    tags = new long[tagCount];
+                }
+                for (int i = 0; i < tagCount; i++) {
+                    tags[i] = in.readLong();
+                }
+                EntityData data = new EntityData();
+                data.setChangeType(CHANGE_TYPES[in.readByte()]);
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    String key = readKey();
+                    data.put(key, readValue());
+                }
+                return data;
+            } catch (EOFException e) {
+                done = true;
+                return null;
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+
+        /**
+         * @return the first tag that was written with the last record read
+         */
+        public int getTag() {
+            return tags.length > 0 ? (int) tags[0] : 0;
+        }
+
+        /**
+         * @return the tags that were written with the last record read. The
+         *         array is reused for the next record.
+         */
+        public long[] getTags() {
+            return tags;
+        }
+
+        protected String readKey() throws IOException {
+            int index = in.readInt();
+            if (index < 0) {
+                String key = readString();
+                keys.add(key);
+                return key;
+            } else {
+                return keys.get(index);
+            }
+        }
+
+        protected String readString() throws IOException {
+            return EntityDataSpillFile.readString(in);
+        }
+
+        protected Object readValue() throws IOException {
+            return EntityDataSpillFile.readValue(in);
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new IoException(e);
+            }
+        }
+    }
+}
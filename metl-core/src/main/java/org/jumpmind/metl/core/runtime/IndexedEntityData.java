@@ -0,0 +1,727 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.util.LinkedCaseInsensitiveMap;
+
+/**
+ * An {@link EntityData} that keeps the values of the attributes of a
+ * {@link Schema} in an array indexed by the attribute's ordinal instead of in
+ * hash map entries. A row only costs its values and two arrays, and the
+ * attribute id keys are shared by all the rows of the schema. Keys that are
+ * not part of the schema are kept in a regular case insensitive map, so the
+ * full {@link Map} API still works.
+ * <p>
+ * Components that know the schema can use {@link #get(int)} and
+ * {@link #put(int, Object)} to skip the key lookup altogether.
+ * <p>
+ * Entries are iterated in the order their keys were first put, the same as
+ * an {@link EntityData}, so formatters that write a row in iteration order
+ * produce the same output for both.
+ */
+public class IndexedEntityData extends EntityData {
+
+    private static final long serialVersionUID = 1L;
+
+    /* marks a slot that holds a null value. An empty slot is not set. */
+    static final Object NULL = new Object();
+
+    /* marks a position in the order that holds a key that is not part of the schema */
+    static final int EXTRA = -1;
+
+    final Schema schema;
+
+    Object[] values;
+
+    int count;
+
+    LinkedCaseInsensitiveMap<Object> extra;
+
+    /* the ordinals of the set slots, or EXTRA, in the order they were first put */
+    int[] order;
+
+    /* the extra key at each EXTRA position of the order */
+    String[] orderedExtraKeys;
+
+    int orderSize;
+
+    transient int modCount;
+
+    public IndexedEntityData(Schema schema) {
+        this.schema = schema;
+        this.values = new Object[schema.size()];
+        this.order = new int[schema.size()];
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public Object get(int ordinal) {
+        Object value = values[ordinal];
+        return value == NULL ? null : value;
+    }
+
+    public Object put(int ordinal, Object value) {
+        Object old = values[ordinal];
+        if (old == null) {
+            count++;
+            modCount++;
+            appendOrder(ordinal, null);
+        }
+        values[ordinal] = value == null ? NULL : value;
+        return old == NULL ? null : old;
+    }
+
+    public boolean isSet(int ordinal) {
+        return values[ordinal] != null;
+    }
+
+    /**
+     * @return true if a key that is not part of the schema has a value
+     */
+    public boolean hasExtraKeys() {
+        return extra != null && !extra.isEmpty();
+    }
+
+    public Object remove(int ordinal) {
+        Object old = values[ordinal];
+        if (old != null) {
+            values[ordinal] = null;
+            count--;
+            modCount++;
+            removeOrderAt(indexOfOrdinal(ordinal));
+        }
+        return old == NULL ? null : old;
+    }
+
+    @Override
+    public int size() {
+        return count + (extra != null ? extra.size() : 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int ordinal = schema.getOrdinal(key);
+        if (ordinal >= 0) {
+            return values[ordinal] != null;
+        } else {
+            return extra != null && extra.containsKey(key);
+        }
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Object match = value == null ? NULL : value;
+        for (Object object : values) {
+            if (object != null && object.equals(match)) {
+                return true;
+            }
+        }
+        return extra != null && extra.containsValue(value);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int ordinal = schema.getOrdinal(key);
+        if (ordinal >= 0) {
+            return get(ordinal);
+        } else {
+            return extra != null ? extra.get(key) : null;
+        }
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+        return containsKey(key) ? get(key) : defaultValue;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int ordinal = schema.getOrdinal(key);
+        if (ordinal >= 0) {
+            return put(ordinal, value);
+        } else {
+            if (extra == null) {
+                extra = new LinkedCaseInsensitiveMap<>();
+            }
+            int position = indexOfExtraKey(key);
+            if (position < 0) {
+                modCount++;
+                appendOrder(EXTRA, key);
+            } else if (!orderedExtraKeys[position].equals(key)) {
+                /* the case insensitive map moves a key that changes case to the end */
+                removeOrderAt(position);
+                appendOrder(EXTRA, key);
+            }
+            return extra.put(key, value);
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> map) {
+        if (map instanceof IndexedEntityData && ((IndexedEntityData) map).schema == schema) {
+            IndexedEntityData other = (IndexedEntityData) map;
+            for (int i = 0; i < other.orderSize; i++) {
+                int ordinal = other.order[i];
+                if (ordinal == EXTRA) {
+                    String key = other.orderedExtraKeys[i];
+                    put(key, other.extra.get(key));
+                } else {
+                    put(ordinal, other.get(ordinal));
+                }
+            }
+        } else {
+            for (Map.Entry<? extends String, ? extends Object> entry : map.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int ordinal = schema.getOrdinal(key);
+        if (ordinal >= 0) {
+            return remove(ordinal);
+        } else if (extra != null && extra.containsKey(key)) {
+            modCount++;
+            removeOrderAt(indexOfExtraKey((String) key));
+            return extra.remove(key);
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        count = 0;
+        extra = null;
+        orderSize = 0;
+        orderedExtraKeys = null;
+        modCount++;
+    }
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        Object current = get(key);
+        if (current == null) {
+            current = put(key, value);
+        }
+        return current;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (containsKey(key) && equal(get(key), value)) {
+            remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        if (containsKey(key) && equal(get(key), oldValue)) {
+            put(key, newValue);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Object replace(String key, Object value) {
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public Object computeIfAbsent(String key, Function<? super String, ? extends Object> mappingFunction) {
+        Object value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+        Object value = get(key);
+        if (value != null) {
+            value = remappingFunction.apply(key, value);
+            if (value != null) {
+                put(key, value);
+            } else {
+                remove(key);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public Object compute(String key, BiFunction<? super String, ? super Object, ? extends Object> remappingFunction) {
+        Object value = remappingFunction.apply(key, get(key));
+        if (value != null) {
+            put(key, value);
+        } else {
+            remove(key);
+        }
+        return value;
+    }
+
+    @Override
+    public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ? extends Object> remappingFunction) {
+        Object old = get(key);
+        Object newValue = old == null ? value : remappingFunction.apply(old, value);
+        if (newValue != null) {
+            put(key, newValue);
+        } else {
+            remove(key);
+        }
+        return newValue;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        for (int i = 0; i < orderSize; i++) {
+            int ordinal = order[i];
+            if (ordinal == EXTRA) {
+                action.accept(orderedExtraKeys[i], extra.get(orderedExtraKeys[i]));
+            } else {
+                action.accept(schema.getAttributeId(ordinal), get(ordinal));
+            }
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ? extends Object> function) {
+        for (int i = 0; i < orderSize; i++) {
+            int ordinal = order[i];
+            if (ordinal == EXTRA) {
+                String key = orderedExtraKeys[i];
+                extra.put(key, function.apply(key, extra.get(key)));
+            } else {
+                Object value = function.apply(schema.getAttributeId(ordinal), get(ordinal));
+                values[ordinal] = value == null ? NULL : value;
+            }
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Map.Entry<String, Object>> entries = new EntryIterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return entries.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return IndexedEntityData.this.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+            @Override
+            public boolean remove(Object key) {
+                if (containsKey(key)) {
+                    IndexedEntityData.this.remove(key);
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void clear() {
+                IndexedEntityData.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+        return new AbstractCollection<Object>() {
+            @Override
+            public Iterator<Object> iterator() {
+                Iterator<Map.Entry<String, Object>> entries = new EntryIterator();
+                return new Iterator<Object>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Object next() {
+                        return entries.next().getValue();
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return IndexedEntityData.this.size();
+            }
+
+            @Override
+            public void clear() {
+                IndexedEntityData.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return IndexedEntityData.this.size();
+            }
+
+            @Override
+            public void clear() {
+                IndexedEntityData.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof Map) || ((Map<?, ?>) o).size() != size()) {
+            return false;
+        }
+        Map<?, ?> other = (Map<?, ?>) o;
+        for (Map.Entry<String, Object> entry : entrySet()) {
+            Object value = entry.getValue();
+            if (value == null ? other.get(entry.getKey()) != null || !other.containsKey(entry.getKey())
+                    : !value.equals(other.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hashCode = 0;
+        for (Map.Entry<String, Object> entry : entrySet()) {
+            hashCode += entry.hashCode();
+        }
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("{");
+        Iterator<Map.Entry<String, Object>> i = entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String, Object> entry = i.next();
+            b.append(entry.getKey()).append('=').append(entry.getValue());
+            if (i.hasNext()) {
+                b.append(", ");
+            }
+        }
+        return b.append('}').toString();
+    }
+
+    @Override
+    public EntityData copy() {
+        return clone();
+    }
+
+    /*
+     * The hash map this class extends is never used, so it must not be
+     * cloned or serialized by the super class
+     */
+    @Override
+    public IndexedEntityData clone() {
+        IndexedEntityData copy = new IndexedEntityData(schema);
+        System.arraycopy(values, 0, copy.values, 0, values.length);
+        copy.count = count;
+        if (extra != null) {
+            copy.extra = new LinkedCaseInsensitiveMap<>();
+            copy.extra.putAll(extra);
+        }
+        copy.order = order.clone();
+        copy.orderedExtraKeys = orderedExtraKeys != null ? orderedExtraKeys.clone() : null;
+        copy.orderSize = orderSize;
+        copy.setChangeType(getChangeType());
+        return copy;
+    }
+
+    protected Object writeReplace() {
+        EntityData data = new EntityData();
+        data.putAll(this);
+        data.setChangeType(getChangeType());
+        return data;
+    }
+
+    void appendOrder(int ordinal, String extraKey) {
+        if (orderSize == order.length) {
+            order = Arrays.copyOf(order, Math.max(4, order.length * 2));
+            if (orderedExtraKeys != null) {
+                orderedExtraKeys = Arrays.copyOf(orderedExtraKeys, order.length);
+            }
+        }
+        if (extraKey != null) {
+            if (orderedExtraKeys == null) {
+                orderedExtraKeys = new String[order.length];
+            }
+            orderedExtraKeys[orderSize] = extraKey;
+        }
+        order[orderSize++] = ordinal;
+    }
+
+    void removeOrderAt(int position) {
+        int moved = orderSize - position - 1;
+        System.arraycopy(order, position + 1, order, position, moved);
+        if (orderedExtraKeys != null) {
+            System.arraycopy(orderedExtraKeys, position + 1, orderedExtraKeys, position, moved);
+            orderedExtraKeys[orderSize - 1] = null;
+        }
+        orderSize--;
+    }
+
+    int indexOfOrdinal(int ordinal) {
+        for (int i = 0; i < orderSize; i++) {
+            if (order[i] == ordinal) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int indexOfExtraKey(String key) {
+        for (int i = 0; i < orderSize; i++) {
+            if (order[i] == EXTRA && orderedExtraKeys[i].equalsIgnoreCase(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        int next;
+
+        int current = -1;
+
+        int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < orderSize;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            } else if (next >= orderSize) {
+                throw new NoSuchElementException();
+            }
+            current = next++;
+            int ordinal = order[current];
+            return ordinal == EXTRA ? new ExtraEntry(orderedExtraKeys[current]) : new IndexedEntry(ordinal);
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            } else if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            int ordinal = order[current];
+            if (ordinal == EXTRA) {
+                IndexedEntityData.this.remove(orderedExtraKeys[current]);
+            } else {
+                IndexedEntityData.this.remove(ordinal);
+            }
+            next = current;
+            current = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    class IndexedEntry extends SimpleEntry<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        final int ordinal;
+
+        IndexedEntry(int ordinal) {
+            super(schema.getAttributeId(ordinal), IndexedEntityData.this.get(ordinal));
+            this.ordinal = ordinal;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            super.setValue(value);
+            return put(ordinal, value);
+        }
+    }
+
+    class ExtraEntry extends SimpleEntry<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        ExtraEntry(String key) {
+            super(key, extra.get(key));
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            super.setValue(value);
+            return extra.put(getKey(), value);
+        }
+    }
+
+    /**
+     * The attribute ids of a {@link Model} and their ordinals. Build a schema
+     * once when a component starts and share it with all the rows it creates.
+     */
+    public static class Schema {
+
+        final String[] attributeIds;
+
+        final Map<String, Integer> ordinals;
+
+        final Map<String, Integer> lowerCaseOrdinals;
+
+        public Schema(List<String> attributeIds) {
+            this.attributeIds = attributeIds.toArray(new String[attributeIds.size()]);
+            this.ordinals = new HashMap<>(attributeIds.size() * 2);
+            this.lowerCaseOrdinals = new HashMap<>(attributeIds.size() * 2);
+            for (int i = 0; i < this.attributeIds.length; i++) {
+                ordinals.putIfAbsent(this.attributeIds[i], i);
+                lowerCaseOrdinals.putIfAbsent(this.attributeIds[i].toLowerCase(), i);
+            }
+        }
+
+        /**
+         * @return the schema of all the attributes of the model or null if
+         *         there is no model
+         */
+        public static Schema of(Model model) {
+            if (model == null) {
+                return null;
+            }
+            List<String> attributeIds = new ArrayList<>();
+            for (ModelEntity entity : model.getModelEntities()) {
+                for (ModelAttribute attribute : entity.getModelAttributes()) {
+                    attributeIds.add(attribute.getId());
+                }
+            }
+            return new Schema(attributeIds);
+        }
+
+        public int size() {
+            return attributeIds.length;
+        }
+
+        public String getAttributeId(int ordinal) {
+            return attributeIds[ordinal];
+        }
+
+        /**
+         * @return the ordinal of the attribute id, ignoring case, or -1 if it
+         *         is not part of the schema
+         */
+        public int getOrdinal(Object attributeId) {
+            if (attributeId instanceof String) {
+                Integer ordinal = ordinals.get(attributeId);
+                if (ordinal == null) {
+                    ordinal = lowerCaseOrdinals.get(((String) attributeId).toLowerCase());
+                }
+                if (ordinal != null) {
+                    return ordinal;
+                }
+            }
+            return -1;
+        }
+
+    }
+
+}
@@ -37,7 +37,7 @@ abstract public class AbstractXMLComponentRuntime extends AbstractComponentRunti
 
     public final static String XML_FORMATTER_XPATH = "xml.formatter.xpath";
 
-    boolean ignoreNamespace = true;
+    protected boolean ignoreNamespace = true;
     
     protected String toXML(Element element) {
         XMLOutputter xmlOutputter = new XMLOutputter();
@@ -93,6 +93,10 @@ public class ComponentContext {
         return executionTracker;
     }
 
+    public void setExecutionTracker(IExecutionTracker executionTracker) {
+        this.executionTracker = executionTracker;
+    }
+
     public Map<String, IResourceRuntime> getDeployedResources() {
         return deployedResources;
     }
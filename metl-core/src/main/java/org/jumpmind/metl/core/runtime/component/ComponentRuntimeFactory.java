@@ -20,6 +20,10 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import org.jumpmind.metl.core.plugin.IDefinitionFactory;
 import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
 
@@ -27,21 +31,38 @@ public class ComponentRuntimeFactory implements IComponentRuntimeFactory {
 
     IDefinitionFactory componentDefinitionFactory;
 
+    /*
+     * Component classes by definition so that class loading is not repeated
+     * for every runtime that is created. Weak keys let definitions that are
+     * reloaded go away.
+     */
+    Map<XMLComponentDefinition, Class<?>> componentClasses = Collections.synchronizedMap(new WeakHashMap<>());
+
     public ComponentRuntimeFactory(IDefinitionFactory componentDefinitionFactory) {
         this.componentDefinitionFactory = componentDefinitionFactory;
     }
 
     @Override
-    synchronized public IComponentRuntime create(String projectVersionId, String id, ComponentContext context, int threadNumber) {
+    public IComponentRuntime create(String projectVersionId, String id, ComponentContext context, int threadNumber) {
+        XMLComponentDefinition definition = componentDefinitionFactory.getComponentDefinition(projectVersionId, id);
+        if (definition != null) {
+            return create(definition, context, threadNumber);
+        } else {
+            throw new IllegalStateException("Could not find a class associated with the component id of " + id);
+        }
+    }
+
+    @Override
+    public IComponentRuntime create(XMLComponentDefinition definition, ComponentContext context, int threadNumber) {
         try {
-            XMLComponentDefinition definition = componentDefinitionFactory.getComponentDefinition(projectVersionId, id);
-            if (definition != null) {
-                IComponentRuntime component = (IComponentRuntime) Class.forName(definition.getClassName().trim(), true, definition.getClassLoader()).newInstance();
-                component.create(definition, context, threadNumber);
-                return component;
-            } else {
-                throw new IllegalStateException("Could not find a class associated with the component id of " + id);
+            Class<?> componentClass = componentClasses.get(definition);
+            if (componentClass == null) {
+                componentClass = Class.forName(definition.getClassName().trim(), true, definition.getClassLoader());
+                componentClasses.put(definition, componentClass);
             }
+            IComponentRuntime component = (IComponentRuntime) componentClass.newInstance();
+            component.create(definition, context, threadNumber);
+            return component;
         } catch (RuntimeException e) {
             throw e;
         } catch (Exception e) {
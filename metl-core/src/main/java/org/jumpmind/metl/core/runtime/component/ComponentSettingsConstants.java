@@ -29,6 +29,7 @@ final public class ComponentSettingsConstants {
     public static final String FORMAT_AUTOMATIC = "AUTOMATIC";
     public static final String FORMAT_JSON = "JSON";
     public static final String FORMAT_XML = "XML";
+    public static final String FORMAT_BINARY = "BINARY";
 
     public static final String STRUCTURE = "structure";
     public static final String STRUCTURE_BY_INBOUND_ROW = "BY_INBOUND_ROW";
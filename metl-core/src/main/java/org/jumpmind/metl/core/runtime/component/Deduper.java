@@ -21,8 +21,12 @@
 package org.jumpmind.metl.core.runtime.component;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
 
 import org.jumpmind.metl.core.model.Component;
 import org.jumpmind.metl.core.model.ComponentAttributeSetting;
@@ -31,9 +35,11 @@ import org.jumpmind.metl.core.model.ModelAttribute;
 import org.jumpmind.metl.core.model.ModelEntity;
 import org.jumpmind.metl.core.runtime.EntityData;
 import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.EntityDataSpillFile;
 import org.jumpmind.metl.core.runtime.Message;
 import org.jumpmind.metl.core.runtime.MisconfiguredException;
 import org.jumpmind.metl.core.runtime.flow.ISendMessageCallback;
+import org.jumpmind.metl.core.util.HashUtils;
 import org.jumpmind.properties.TypedProperties;
 
 public class Deduper extends AbstractComponentRuntime {
@@ -51,6 +57,19 @@ public class Deduper extends AbstractComponentRuntime {
     public final static String PRESERVE_RECORD = "preserve.record";
 
     public final static String ATTRIBUTE_DEDUPE_ENABLED = "dedupe.enabled";
+
+    public final static String DEDUPE_MEMORY_BUFFER_SIZE = "dedupe.memory.buffer.size";
+
+    static final int PARTITION_COUNT = 64;
+
+    static final int PARTITION_BITS = 6;
+
+    /*
+     * Each level partitions on the next bits of the key hash. A partition
+     * that is still over the memory buffer at this level is deduped in memory
+     * anyway.
+     */
+    static final int MAX_PARTITION_LEVEL = 4;
     
     int rowsPerMessage = 1000;
     
@@ -62,7 +81,27 @@ public class Deduper extends AbstractComponentRuntime {
     
     String preserveRecord = PRESERVE_FIRST;
 
-    LinkedHashMap<String, EntityData> deduped = new LinkedHashMap<String, EntityData>();
+    LinkedHashMap<DedupeKey, EntityData> deduped = new LinkedHashMap<DedupeKey, EntityData>();
+
+    long memoryBufferSize;
+
+    long dedupedSize;
+
+    byte[] keyBuffer = new byte[256];
+
+    int keyLength;
+
+    long sequence;
+
+    long spilledCount;
+
+    EntityDataSpillFile[] partitions;
+
+    EntityDataSpillFile.Writer[] partitionWriters;
+
+    long[] partitionSizes;
+
+    int deepestPartitionLevel;
 
     @Override
     public void start() {
@@ -70,6 +109,7 @@ public class Deduper extends AbstractComponentRuntime {
         rowsPerMessage = getComponent().getInt(ROWS_PER_MESSAGE, rowsPerMessage);
         dedupeType = properties.get(DEDUPE_TYPE);
         preserveRecord = properties.get(PRESERVE_RECORD);
+        memoryBufferSize = properties.getLong(DEDUPE_MEMORY_BUFFER_SIZE, 0) * 1024 * 1024;
         Model inputModel = this.getComponent().getInputModel();
         if (inputModel == null) {
             throw new MisconfiguredException("The input model is not set and it is required");
@@ -108,19 +148,18 @@ public class Deduper extends AbstractComponentRuntime {
         if (inputMessage instanceof EntityDataMessage) {
             ArrayList<EntityData> payload = ((EntityDataMessage)inputMessage).getPayload();
             for (EntityData entityData : payload) {
-                String key = "";
+                DedupeKey key = createKey(entityData);
 
-                if (DEDUPE_ATTRIBUTE.equals(dedupeType)) {
-                	for (String attributeId : dedupeKeyAttributeIdList) {
-                		key += entityData.get(attributeId);
-                	}
-                } else {
-                	key = entityData.toString();
-                }
-                
                 if (!deduped.containsKey(key)) {
-                    getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    /* once spilled, unique records are counted as the partitions are deduped */
+                    if (partitionWriters == null) {
+                        getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    }
                     deduped.put(key, entityData);
+                    dedupedSize += EntityDataSpillFile.estimateSize(entityData) + 96;
+                    if (memoryBufferSize > 0 && dedupedSize >= memoryBufferSize) {
+                        spill();
+                    }
                 } else {
                     // else it exists, check if we need to save the first or last value and replace if necessary
                 	if (PRESERVE_LAST.equals(preserveRecord)) {
@@ -131,7 +170,14 @@ public class Deduper extends AbstractComponentRuntime {
         }
 
         if (unitOfWorkBoundaryReached) {
-            if (deduped.size() > 0) {
+            if (partitionWriters != null) {
+                try {
+                    spill();
+                    sendSpilledPartitions(callback);
+                } finally {
+                    deleteSpillFiles();
+                }
+            } else if (deduped.size() > 0) {
                 int count = 0;
                 ArrayList<EntityData> payload = new ArrayList<EntityData>(rowsPerMessage);
                 for (EntityData data : deduped.values()) {
@@ -145,10 +191,352 @@ public class Deduper extends AbstractComponentRuntime {
                 }
 
                 deduped.clear();
+                dedupedSize = 0;
 
                 callback.sendEntityDataMessage(null, payload);
             }
         }
     }
 
+    /**
+     * The key is a 128 bit hash of the length prefixed values (and attribute
+     * ids for entity dedupes) so that different values can not run together
+     * into the same key the way concatenated strings could.
+     */
+    protected DedupeKey createKey(EntityData entityData) {
+        keyLength = 0;
+        if (DEDUPE_ATTRIBUTE.equals(dedupeType)) {
+            for (String attributeId : dedupeKeyAttributeIdList) {
+                appendKeyValue(entityData.get(attributeId));
+            }
+        } else {
+            for (Map.Entry<String, Object> entry : entityData.entrySet()) {
+                appendKeyValue(entry.getKey());
+                appendKeyValue(entry.getValue());
+            }
+        }
+        long[] hash = HashUtils.murmur3Hash128(keyBuffer, keyLength);
+        return new DedupeKey(hash[0], hash[1]);
+    }
+
+    protected void appendKeyValue(Object value) {
+        if (value == null) {
+            ensureKeyCapacity(1);
+            keyBuffer[keyLength++] = 0;
+        } else {
+            String text = value.toString();
+            int length = text.length();
+            ensureKeyCapacity(5 + length * 2);
+            keyBuffer[keyLength++] = 1;
+            keyBuffer[keyLength++] = (byte) (length >>> 24);
+            keyBuffer[keyLength++] = (byte) (length >>> 16);
+            keyBuffer[keyLength++] = (byte) (length >>> 8);
+            keyBuffer[keyLength++] = (byte) length;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                keyBuffer[keyLength++] = (byte) (c >>> 8);
+                keyBuffer[keyLength++] = (byte) c;
+            }
+        }
+    }
+
+    protected void ensureKeyCapacity(int additional) {
+        if (keyLength + additional > keyBuffer.length) {
+            byte[] newBuffer = new byte[Math.max(keyBuffer.length * 2, keyLength + additional)];
+            System.arraycopy(keyBuffer, 0, newBuffer, 0, keyLength);
+            keyBuffer = newBuffer;
+        }
+    }
+
+    /**
+     * Moves the unique records found so far into partition files by key along
+     * with their arrival sequence so the original order can be restored. The
+     * first spill creates the partition files. Records keep being deduped in
+     * memory after that and are appended to the partition files each time the
+     * memory buffer fills up again.
+     */
+    protected void spill() {
+        boolean firstSpill = partitionWriters == null;
+        if (firstSpill) {
+            info("The deduper exceeded its memory buffer.  Partitioning records to disk");
+            partitions = new EntityDataSpillFile[PARTITION_COUNT];
+            partitionWriters = new EntityDataSpillFile.Writer[PARTITION_COUNT];
+            partitionSizes = new long[PARTITION_COUNT];
+            for (int i = 0; i < PARTITION_COUNT; i++) {
+                partitions[i] = new EntityDataSpillFile("metl-dedupe-");
+                partitionWriters[i] = partitions[i].openWriter();
+            }
+            sequence = 0;
+        }
+
+        for (Map.Entry<DedupeKey, EntityData> entry : deduped.entrySet()) {
+            DedupeKey key = entry.getKey();
+            int partition = key.partition(0);
+            partitionWriters[partition].write(entry.getValue(), sequence++, key.high, key.low);
+            partitionSizes[partition] += EntityDataSpillFile.estimateSize(entry.getValue()) + 96;
+        }
+        if (firstSpill) {
+            spilledCount = sequence;
+        }
+        deduped.clear();
+        dedupedSize = 0;
+    }
+
+    protected void sendSpilledPartitions(ISendMessageCallback callback) {
+        for (EntityDataSpillFile.Writer writer : partitionWriters) {
+            writer.close();
+        }
+        partitionWriters = null;
+
+        /*
+         * Each partition is deduped on its own and written back out in order
+         * of first arrival. The partitions are then merged on that order.
+         */
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            EntityDataSpillFile dedupedPartition = dedupePartition(partitions[i], partitionSizes[i], 0);
+            partitions[i].delete();
+            partitions[i] = dedupedPartition;
+        }
+
+        ArrayList<ArrayList<EntityData>> payload = new ArrayList<>(1);
+        payload.add(new ArrayList<EntityData>(rowsPerMessage));
+        merge(partitions, (entityData, sequence) -> {
+            if (payload.get(0).size() >= rowsPerMessage) {
+                callback.sendEntityDataMessage(null, payload.get(0));
+                payload.set(0, new ArrayList<EntityData>(rowsPerMessage));
+            }
+            payload.get(0).add(entityData);
+        });
+        callback.sendEntityDataMessage(null, payload.get(0));
+    }
+
+    /**
+     * Merges deduped partitions on the arrival sequence of their records
+     */
+    protected void merge(EntityDataSpillFile[] dedupedPartitions, BiConsumer<EntityData, Long> output) {
+        PriorityQueue<DedupedRun> queue = new PriorityQueue<>(PARTITION_COUNT, new Comparator<DedupedRun>() {
+            @Override
+            public int compare(DedupedRun o1, DedupedRun o2) {
+                return Long.compare(o1.sequence, o2.sequence);
+            }
+        });
+        List<DedupedRun> runs = new ArrayList<>();
+        try {
+            for (EntityDataSpillFile dedupedPartition : dedupedPartitions) {
+                if (dedupedPartition != null) {
+                    DedupedRun run = new DedupedRun(dedupedPartition.openReader());
+                    runs.add(run);
+                    if (run.next()) {
+                        queue.add(run);
+                    }
+                }
+            }
+
+            while (queue.size() > 0) {
+                DedupedRun run = queue.poll();
+                output.accept(run.current, run.sequence);
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+        } finally {
+            for (DedupedRun run : runs) {
+                run.reader.close();
+            }
+        }
+    }
+
+    /**
+     * @return a new file with the unique records of the partition in order of
+     *         first arrival
+     */
+    protected EntityDataSpillFile dedupePartition(EntityDataSpillFile partition, long size, int level) {
+        if (size > memoryBufferSize && level < MAX_PARTITION_LEVEL) {
+            return dedupeSubPartitions(partition, level + 1);
+        }
+
+        LinkedHashMap<DedupeKey, DedupedRecord> records = new LinkedHashMap<>();
+        EntityDataSpillFile.Reader reader = partition.openReader();
+        try {
+            EntityData entityData = null;
+            while ((entityData = reader.read()) != null) {
+                long[] tags = reader.getTags();
+                DedupeKey key = new DedupeKey(tags[1], tags[2]);
+                DedupedRecord record = records.get(key);
+                if (record == null) {
+                    if (tags[0] >= spilledCount) {
+                        getComponentStatistics().incrementNumberEntitiesProcessed(threadNumber);
+                    }
+                    records.put(key, new DedupedRecord(tags[0], entityData));
+                } else if (PRESERVE_LAST.equals(preserveRecord)) {
+                    record.entityData = entityData;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        EntityDataSpillFile dedupedPartition = new EntityDataSpillFile("metl-dedupe-");
+        EntityDataSpillFile.Writer writer = dedupedPartition.openWriter();
+        try {
+            for (DedupedRecord record : records.values()) {
+                writer.write(record.entityData, record.sequence);
+            }
+        } finally {
+            writer.close();
+        }
+        return dedupedPartition;
+    }
+
+    /**
+     * Splits a partition that is too big to dedupe in memory on the next bits
+     * of the key hash, dedupes each piece and merges them back into one file
+     */
+    protected EntityDataSpillFile dedupeSubPartitions(EntityDataSpillFile partition, int level) {
+        info("A deduper partition exceeded the memory buffer.  Partitioning it again");
+        deepestPartitionLevel = Math.max(deepestPartitionLevel, level);
+        EntityDataSpillFile[] subPartitions = new EntityDataSpillFile[PARTITION_COUNT];
+        long[] sizes = new long[PARTITION_COUNT];
+        try {
+            EntityDataSpillFile.Writer[] writers = new EntityDataSpillFile.Writer[PARTITION_COUNT];
+            EntityDataSpillFile.Reader reader = partition.openReader();
+            try {
+                EntityData entityData = null;
+                while ((entityData = reader.read()) != null) {
+                    long[] tags = reader.getTags();
+                    int p = new DedupeKey(tags[1], tags[2]).partition(level);
+                    if (writers[p] == null) {
+                        subPartitions[p] = new EntityDataSpillFile("metl-dedupe-");
+                        writers[p] = subPartitions[p].openWriter();
+                    }
+                    writers[p].write(entityData, tags);
+                    sizes[p] += EntityDataSpillFile.estimateSize(entityData) + 96;
+                }
+            } finally {
+                reader.close();
+                for (EntityDataSpillFile.Writer writer : writers) {
+                    if (writer != null) {
+                        writer.close();
+                    }
+                }
+            }
+
+            for (int p = 0; p < PARTITION_COUNT; p++) {
+                if (subPartitions[p] != null) {
+                    EntityDataSpillFile dedupedPartition = dedupePartition(subPartitions[p], sizes[p], level);
+                    subPartitions[p].delete();
+                    subPartitions[p] = dedupedPartition;
+                }
+            }
+
+            EntityDataSpillFile merged = new EntityDataSpillFile("metl-dedupe-");
+            EntityDataSpillFile.Writer writer = merged.openWriter();
+            try {
+                merge(subPartitions, (entityData, sequence) -> writer.write(entityData, sequence));
+            } finally {
+                writer.close();
+            }
+            return merged;
+        } finally {
+            for (EntityDataSpillFile subPartition : subPartitions) {
+                if (subPartition != null) {
+                    subPartition.delete();
+                }
+            }
+        }
+    }
+
+    protected void deleteSpillFiles() {
+        if (partitionWriters != null) {
+            for (EntityDataSpillFile.Writer writer : partitionWriters) {
+                writer.close();
+            }
+            partitionWriters = null;
+        }
+        if (partitions != null) {
+            for (EntityDataSpillFile partition : partitions) {
+                partition.delete();
+            }
+            partitions = null;
+        }
+        partitionSizes = null;
+        sequence = 0;
+        spilledCount = 0;
+    }
+
+    @Override
+    public void stop() {
+        deleteSpillFiles();
+        super.stop();
+    }
+
+    @Override
+    public void flowCompletedWithErrors(Throwable myError) {
+        deleteSpillFiles();
+        super.flowCompletedWithErrors(myError);
+    }
+
+    static class DedupeKey {
+
+        final long high;
+
+        final long low;
+
+        DedupeKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        int partition(int level) {
+            return (int) ((high >>> (level * PARTITION_BITS)) & (PARTITION_COUNT - 1));
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (low ^ (low >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof DedupeKey) {
+                DedupeKey key = (DedupeKey) obj;
+                return high == key.high && low == key.low;
+            }
+            return false;
+        }
+    }
+
+    static class DedupedRecord {
+
+        long sequence;
+
+        EntityData entityData;
+
+        DedupedRecord(long sequence, EntityData entityData) {
+            this.sequence = sequence;
+            this.entityData = entityData;
+        }
+    }
+
+    static class DedupedRun {
+
+        EntityDataSpillFile.Reader reader;
+
+        long sequence;
+
+        EntityData current;
+
+        DedupedRun(EntityDataSpillFile.Reader reader) {
+            this.reader = reader;
+        }
+
+        boolean next() {
+            current = reader.read();
+            if (current != null) {
+                sequence = reader.getTags()[0];
+            }
+            return current != null;
+        }
+    }
+
 }
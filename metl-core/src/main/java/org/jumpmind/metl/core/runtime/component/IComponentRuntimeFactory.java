@@ -20,8 +20,12 @@
  */
 package org.jumpmind.metl.core.runtime.component;
 
+import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
+
 public interface IComponentRuntimeFactory {
 
     public IComponentRuntime create(String projectVersionId, String type, ComponentContext context, int threadNumber);
 
+    public IComponentRuntime create(XMLComponentDefinition definition, ComponentContext context, int threadNumber);
+
 }
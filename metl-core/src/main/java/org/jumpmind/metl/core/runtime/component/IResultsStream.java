@@ -0,0 +1,22 @@
+package org.jumpmind.metl.core.runtime.component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Where a component that streams its results writes them, like the body of
+ * an HTTP response.
+ */
+public interface IResultsStream {
+
+    /**
+     * Commit the response with the content type of the results. Called once,
+     * before the first results are written.
+     * 
+     * @param contentType
+     *            the content type or null when it is not known
+     * @return the stream to write the results to
+     */
+    OutputStream open(String contentType) throws IOException;
+
+}
@@ -0,0 +1,9 @@
+package org.jumpmind.metl.core.runtime.component;
+
+public interface IStreamsResults {
+
+    boolean isStreamingResults();
+
+    void setResultsStream(IResultsStream resultsStream);
+
+}
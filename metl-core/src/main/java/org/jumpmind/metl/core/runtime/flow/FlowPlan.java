@@ -0,0 +1,150 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.apache.commons.lang.StringUtils.isNotBlank;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.model.AgentProjectVersionFlowDeployment;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.persist.IConfigurationService;
+import org.jumpmind.metl.core.plugin.IDefinitionFactory;
+import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
+import org.jumpmind.metl.core.runtime.component.AbstractComponentRuntime;
+
+/**
+ * The parts of a {@link FlowRuntime} that only depend on the deployment: the
+ * manipulated flow, the component definition of each enabled step and the
+ * links between the enabled steps. A plan can be built once and shared by
+ * every runtime of the deployment. It is not changed after it is built.
+ */
+public class FlowPlan {
+
+    final AgentProjectVersionFlowDeployment deployment;
+
+    final Flow manipulatedFlow;
+
+    final List<FlowStep> enabledSteps;
+
+    final Map<String, XMLComponentDefinition> componentDefinitions;
+
+    final Map<String, List<String>> targetStepIds;
+
+    final Map<String, List<String>> sourceStepIds;
+
+    public FlowPlan(AgentProjectVersionFlowDeployment deployment, IDefinitionFactory definitionFactory,
+            IConfigurationService configurationService) {
+        this.deployment = deployment;
+        this.manipulatedFlow = manipulateFlow(deployment.getFlow(), definitionFactory, configurationService);
+
+        List<FlowStep> enabledSteps = new ArrayList<>();
+        Map<String, XMLComponentDefinition> componentDefinitions = new HashMap<>();
+        for (FlowStep flowStep : manipulatedFlow.getFlowSteps()) {
+            boolean enabled = flowStep.getComponent().getBoolean(AbstractComponentRuntime.ENABLED, true);
+            if (enabled) {
+                enabledSteps.add(flowStep);
+                componentDefinitions.put(flowStep.getId(), definitionFactory
+                        .getComponentDefinition(flowStep.getComponent().getProjectVersionId(), flowStep.getComponent().getType()));
+            }
+        }
+
+        Map<String, List<String>> targetStepIds = new HashMap<>();
+        Map<String, List<String>> sourceStepIds = new HashMap<>();
+        for (FlowStep flowStep : enabledSteps) {
+            targetStepIds.put(flowStep.getId(), new ArrayList<>());
+            sourceStepIds.put(flowStep.getId(), new ArrayList<>());
+        }
+        for (FlowStepLink link : manipulatedFlow.getFlowStepLinks()) {
+            List<String> targets = targetStepIds.get(link.getSourceStepId());
+            List<String> sources = sourceStepIds.get(link.getTargetStepId());
+            if (targets != null && sources != null) {
+                targets.add(link.getTargetStepId());
+                sources.add(link.getSourceStepId());
+            }
+        }
+
+        manipulatedFlow.calculateApproximateOrder();
+
+        this.enabledSteps = Collections.unmodifiableList(enabledSteps);
+        this.componentDefinitions = Collections.unmodifiableMap(componentDefinitions);
+        this.targetStepIds = Collections.unmodifiableMap(targetStepIds);
+        this.sourceStepIds = Collections.unmodifiableMap(sourceStepIds);
+    }
+
+    public static Flow manipulateFlow(Flow flow, IDefinitionFactory definitionFactory, IConfigurationService configurationService) {
+        Flow clone = (Flow) flow.clone();
+        clone.setFlowParameters(new ArrayList<>());
+        clone.getFlowParameters().addAll(flow.getFlowParameters());
+        clone.setFlowSteps(new ArrayList<>());
+        clone.getFlowSteps().addAll(flow.getFlowSteps());
+        clone.setFlowStepLinks(new ArrayList<>());
+        clone.getFlowStepLinks().addAll(flow.getFlowStepLinks());
+
+        for (FlowStep flowStep : new ArrayList<>(clone.getFlowSteps())) {
+            XMLComponentDefinition componentDefintion = definitionFactory.getComponentDefinition(flow.getProjectVersionId(),
+                    flowStep.getComponent().getType());
+            if (isNotBlank(componentDefintion.getFlowManipulatorClassName())) {
+                try {
+                    IFlowManipulator flowManipulator = (IFlowManipulator) Class.forName(componentDefintion.getFlowManipulatorClassName())
+                            .newInstance();
+                    clone = flowManipulator.manipulate(clone, flowStep, configurationService);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return clone;
+    }
+
+    public AgentProjectVersionFlowDeployment getDeployment() {
+        return deployment;
+    }
+
+    public Flow getManipulatedFlow() {
+        return manipulatedFlow;
+    }
+
+    public List<FlowStep> getEnabledSteps() {
+        return enabledSteps;
+    }
+
+    public XMLComponentDefinition getComponentDefinition(String flowStepId) {
+        return componentDefinitions.get(flowStepId);
+    }
+
+    public List<String> getTargetStepIds(String flowStepId) {
+        return targetStepIds.get(flowStepId);
+    }
+
+    public List<String> getSourceStepIds(String flowStepId) {
+        return sourceStepIds.get(flowStepId);
+    }
+
+}
@@ -30,7 +30,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
@@ -52,18 +54,18 @@ import org.jumpmind.metl.core.persist.IConfigurationService;
 import org.jumpmind.metl.core.persist.IExecutionService;
 import org.jumpmind.metl.core.persist.IOperationsService;
 import org.jumpmind.metl.core.plugin.IDefinitionFactory;
-import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
 import org.jumpmind.metl.core.runtime.ControlMessage;
 import org.jumpmind.metl.core.runtime.ExecutionTrackerLogger;
 import org.jumpmind.metl.core.runtime.ExecutionTrackerRecorder;
 import org.jumpmind.metl.core.runtime.IExecutionTracker;
-import org.jumpmind.metl.core.runtime.component.AbstractComponentRuntime;
 import org.jumpmind.metl.core.runtime.component.ComponentContext;
 import org.jumpmind.metl.core.runtime.component.ComponentStatistics;
 import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
 import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
 import org.jumpmind.metl.core.runtime.component.IHasResults;
 import org.jumpmind.metl.core.runtime.component.IHasSecurity;
+import org.jumpmind.metl.core.runtime.component.IResultsStream;
+import org.jumpmind.metl.core.runtime.component.IStreamsResults;
 import org.jumpmind.metl.core.runtime.component.Results;
 import org.jumpmind.metl.core.runtime.resource.IResourceRuntime;
 import org.jumpmind.metl.core.runtime.resource.MailSession;
@@ -94,6 +96,8 @@ public class FlowRuntime {
 
     ExecutorService threadService;
 
+    ExecutorService stepExecutor;
+
     Map<String, StepRuntime> stepRuntimes;
 
     Agent agent;
@@ -114,6 +118,8 @@ public class FlowRuntime {
     
     Flow manipulatedFlow;
 
+    CountDownLatch completionLatch;
+
     public FlowRuntime(String executionId, String userId, AgentProjectVersionFlowDeployment deployment, Agent agent,
             IComponentRuntimeFactory componentRuntimeFactory,
             IDefinitionFactory componentDefinitionFactory,            
@@ -140,8 +146,28 @@ public class FlowRuntime {
             deployment.setAgentDeployment(operationsService.findAgentDeployment(deployment.getAgentDeployment().getId()));
             operationsService.refreshAgentParameters(agent);
         }
-        this.executionId = executionId;
-        this.agentProjectVersionFlowDeployment = deployment;
+        init(new FlowPlan(deployment, definitionFactory, configurationService), agent, componentRuntimeFactory, definitionFactory,
+                threadService, configurationService, executionService, deployedResources, notifications, globalSettings);
+        bind(executionId, userId, runtimeParameters);
+    }
+
+    /**
+     * Create a runtime from a plan that was already built for the
+     * deployment. The runtime must be bound to an execution with
+     * {@link #bind(String, String, Map)} before it is started. A runtime can
+     * only be executed once.
+     */
+    public FlowRuntime(FlowPlan plan, Agent agent, IComponentRuntimeFactory componentRuntimeFactory, IDefinitionFactory definitionFactory,
+            ExecutorService threadService, IConfigurationService configurationService, IExecutionService executionService,
+            Map<String, IResourceRuntime> deployedResources, List<Notification> notifications, Map<String, String> globalSettings) {
+        init(plan, agent, componentRuntimeFactory, definitionFactory, threadService, configurationService, executionService,
+                deployedResources, notifications, globalSettings);
+    }
+
+    private void init(FlowPlan plan, Agent agent, IComponentRuntimeFactory componentRuntimeFactory, IDefinitionFactory definitionFactory,
+            ExecutorService threadService, IConfigurationService configurationService, IExecutionService executionService,
+            Map<String, IResourceRuntime> deployedResources, List<Notification> notifications, Map<String, String> globalSettings) {
+        this.agentProjectVersionFlowDeployment = plan.getDeployment();
         this.agent = agent;
         this.notifications = notifications;
         this.componentRuntimeFactory = componentRuntimeFactory;
@@ -151,65 +177,75 @@ public class FlowRuntime {
         this.executionService = executionService;
         this.deployedResources = deployedResources;
         this.globalSettings = globalSettings;
-        
-        this.flowParameters = getFlowParameters(agent, deployment);
+        this.flowParameters = new HashMap<String, String>();
+        this.stepRuntimes = new HashMap<String, StepRuntime>();
+
+        manipulatedFlow = plan.getManipulatedFlow();
+
+        /* create a step runtime for every enabled component in the flow */
+        for (FlowStep flowStep : plan.getEnabledSteps()) {
+            ComponentContext context = new ComponentContext(agentProjectVersionFlowDeployment.getAgentDeployment(), flowStep,
+                    manipulatedFlow, null, deployedResources, flowParameters, globalSettings);
+            StepRuntime stepRuntime = new StepRuntime(componentRuntimeFactory, definitionFactory,
+                    plan.getComponentDefinition(flowStep.getId()), context, this);
+            stepRuntimes.put(flowStep.getId(), stepRuntime);
+        }
+
+        /* for each step runtime, set their list of msgTarget step runtimes */
+        for (Map.Entry<String, StepRuntime> entry : stepRuntimes.entrySet()) {
+            List<StepRuntime> targetStepRuntimes = new ArrayList<StepRuntime>();
+            for (String targetStepId : plan.getTargetStepIds(entry.getKey())) {
+                targetStepRuntimes.add(stepRuntimes.get(targetStepId));
+            }
+            List<StepRuntime> sourceStepRuntimes = new ArrayList<StepRuntime>();
+            for (String sourceStepId : plan.getSourceStepIds(entry.getKey())) {
+                sourceStepRuntimes.add(stepRuntimes.get(sourceStepId));
+            }
+            entry.getValue().setTargetStepRuntimes(targetStepRuntimes);
+            entry.getValue().setSourceStepRuntimes(sourceStepRuntimes);
+        }
+    }
+
+    /**
+     * Give this runtime its execution id, the user that runs it and its
+     * parameters. The flow parameters are resolved here so date and time
+     * parameters reflect when the flow runs, not when the runtime was built.
+     */
+    public void bind(String executionId, String userId, Map<String, String> runtimeParameters) {
+        this.executionId = executionId;
+        this.flowParameters.putAll(getFlowParameters(agent, agentProjectVersionFlowDeployment));
         if (runtimeParameters != null) {
             this.flowParameters.putAll(runtimeParameters);
         }
-        
+
         if (threadService != null && executionService != null) {
-            this.executionTracker = new ExecutionTrackerRecorder(agent, deployment, threadService,
+            this.executionTracker = new ExecutionTrackerRecorder(agent, agentProjectVersionFlowDeployment, threadService,
                     executionService, userId, flowParameters.toString());
         } else {
-            this.executionTracker = new ExecutionTrackerLogger(deployment);
+            this.executionTracker = new ExecutionTrackerLogger(agentProjectVersionFlowDeployment);
         }
-        this.stepRuntimes = new HashMap<String, StepRuntime>();
 
-        manipulatedFlow = manipulateFlow(deployment.getFlow());
-        
-        /* create a step runtime for every component in the flow */
-        for (FlowStep flowStep : manipulatedFlow.getFlowSteps()) {
-            boolean enabled = flowStep.getComponent().getBoolean(AbstractComponentRuntime.ENABLED,
-                    true);
-            if (enabled) {
-                ComponentContext context = new ComponentContext(deployment.getAgentDeployment(), flowStep,
-                        manipulatedFlow, executionTracker, deployedResources, flowParameters,
-                        globalSettings);
-                StepRuntime stepRuntime = new StepRuntime(componentRuntimeFactory,
-                        definitionFactory, context, this);
-                stepRuntimes.put(flowStep.getId(), stepRuntime);
-            }
+        /*
+         * each context holds its own copy of the flow parameters because
+         * components may change them, so every copy is filled in here
+         */
+        for (StepRuntime stepRuntime : stepRuntimes.values()) {
+            ComponentContext context = stepRuntime.getComponentContext();
+            context.setExecutionTracker(executionTracker);
+            context.getFlowParameters().putAll(flowParameters);
         }
+    }
 
-        List<FlowStepLink> links = manipulatedFlow.getFlowStepLinks();
-
-        /* for each step runtime, set their list of msgTarget step runtimes */
-        for (String stepId : stepRuntimes.keySet()) {
-            List<StepRuntime> targetStepRuntimes = new ArrayList<StepRuntime>();
-            List<StepRuntime> sourceStepRuntimes = new ArrayList<StepRuntime>();
-            for (FlowStepLink flowStepLink : links) {
-                if (stepId.equals(flowStepLink.getSourceStepId())) {
-                    StepRuntime runtime = stepRuntimes.get(flowStepLink.getTargetStepId());
-                    if (runtime != null) {
-                        targetStepRuntimes.add(runtime);
-                    }
-                }
-                if (stepId.equals(flowStepLink.getTargetStepId())) {
-                    StepRuntime runtime = stepRuntimes.get(flowStepLink.getSourceStepId());
-                    if (runtime != null) {
-                        sourceStepRuntimes.add(runtime);
-                    }
-                }
-            }
-            StepRuntime runtime = stepRuntimes.get(stepId);
-            if (runtime != null) {
-                runtime.setTargetStepRuntimes(targetStepRuntimes);
-                runtime.setSourceStepRuntimes(sourceStepRuntimes);
-            }
+    /**
+     * Run the steps of this flow on a thread pool shared with other flows
+     * instead of giving each step its own thread. Must be called before the
+     * flow is started.
+     */
+    public void setStepExecutor(ExecutorService stepExecutor) {
+        this.stepExecutor = stepExecutor;
+        for (StepRuntime stepRuntime : stepRuntimes.values()) {
+            stepRuntime.setStepExecutor(stepExecutor);
         }
-
-        /* start up each step runtime */
-        manipulatedFlow.calculateApproximateOrder();        
     }
 
     public AgentProjectVersionFlowDeployment getAgentProjectVersionFlowDeployment() {
@@ -244,6 +280,25 @@ public class FlowRuntime {
         return response;
     }
 
+    /**
+     * Give the components that stream their results the stream to write
+     * them to. Must be called before the flow is started.
+     * 
+     * @return true if a component will stream its results
+     */
+    public boolean setResultsStream(IResultsStream resultsStream) {
+        boolean streaming = false;
+        for (StepRuntime stepRuntime : stepRuntimes.values()) {
+            for (IComponentRuntime runtime : stepRuntime.getComponentRuntimes()) {
+                if (runtime instanceof IStreamsResults && ((IStreamsResults) runtime).isStreamingResults()) {
+                    ((IStreamsResults) runtime).setResultsStream(resultsStream);
+                    streaming = true;
+                }
+            }
+        }
+        return streaming;
+    }
+
     public Results execute() throws Exception {
         try {
             start();
@@ -297,10 +352,17 @@ public class FlowRuntime {
             }
         }
 
-        /* each step is started as a thread */
+        completionLatch = new CountDownLatch(stepRuntimes.size());
+
+        /*
+         * each step is started as a thread unless the steps share a thread
+         * pool, in which case they are scheduled as messages are queued
+         */
         for (StepRuntime stepRuntime : stepRuntimes.values()) {
             stepRuntime.startRunning();
-            threadService.execute(stepRuntime);
+            if (!stepRuntime.isUsingStepExecutor()) {
+                threadService.execute(stepRuntime);
+            }
         }
 
         ControlMessage startMessage = new ControlMessage();
@@ -313,33 +375,6 @@ public class FlowRuntime {
         }
     }
 
-    protected Flow manipulateFlow(Flow flow) {        
-        Flow clone = (Flow)flow.clone();
-        clone.setFlowParameters(new ArrayList<>());
-        clone.getFlowParameters().addAll(flow.getFlowParameters());
-        clone.setFlowSteps(new ArrayList<>());
-        clone.getFlowSteps().addAll(flow.getFlowSteps());
-        clone.setFlowStepLinks(new ArrayList<>());
-        clone.getFlowStepLinks().addAll(flow.getFlowStepLinks());
-
-        for (FlowStep flowStep : new ArrayList<>(clone.getFlowSteps())) {
-            XMLComponentDefinition componentDefintion = definitionFactory.getComponentDefinition(flow.getProjectVersionId(), flowStep.getComponent().getType());
-            if (isNotBlank(componentDefintion.getFlowManipulatorClassName())) {
-                try {
-                    IFlowManipulator flowManipulator = (IFlowManipulator) Class
-                            .forName(componentDefintion.getFlowManipulatorClassName())
-                            .newInstance();
-                    clone = flowManipulator.manipulate(clone, flowStep, configurationService);
-                } catch (RuntimeException e) {
-                    throw e;
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        }
-        return clone;
-    }
-
     public static Map<String, String> getFlowParameters(Agent agent,
             AgentProjectVersionFlowDeployment agentDeployment) {
         Map<String, String> params = new HashMap<String, String>();
@@ -387,8 +422,33 @@ public class FlowRuntime {
      * Waiting until all steps have exited
      */
     public void waitForFlowCompletion() {
+        CountDownLatch latch = completionLatch;
         while (isRunning()) {
-            AppUtils.sleep(5);
+            if (latch != null && latch.getCount() > 0) {
+                try {
+                    latch.await(StepRuntime.POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    log.info("Interrupted while waiting for the flow to complete.  Cancelling the flow");
+                    cancel();
+                    latch = null;
+                }
+            } else {
+                /*
+                 * Every step has counted down but one is still finishing up
+                 * (or the wait was interrupted). Poll so this does not spin.
+                 */
+                AppUtils.sleep(5);
+            }
+        }
+    }
+
+    /*
+     * Called by each step runtime once it has shut down
+     */
+    protected void stepFinished(StepRuntime stepRuntime) {
+        CountDownLatch latch = completionLatch;
+        if (latch != null) {
+            latch.countDown();
         }
     }
 
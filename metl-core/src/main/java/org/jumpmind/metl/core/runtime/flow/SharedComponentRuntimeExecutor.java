@@ -0,0 +1,104 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jumpmind.metl.core.util.ThreadUtils;
+
+/**
+ * Runs the component runtimes of a multi-threaded step on the agent's shared
+ * step thread pool instead of a pool dedicated to the step. Each task borrows
+ * one of the step's thread numbers, so no more than thread.count tasks run at
+ * once and each one uses its own component runtime.
+ */
+class SharedComponentRuntimeExecutor implements Executor {
+
+    final Executor sharedExecutor;
+
+    final int threadCount;
+
+    final BlockingQueue<Integer> availableThreadNumbers;
+
+    SharedComponentRuntimeExecutor(Executor sharedExecutor, int threadCount) {
+        this.sharedExecutor = sharedExecutor;
+        this.threadCount = threadCount;
+        this.availableThreadNumbers = new ArrayBlockingQueue<>(threadCount);
+        for (int threadNumber = 1; threadNumber <= threadCount; threadNumber++) {
+            this.availableThreadNumbers.add(threadNumber);
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Integer[] threadNumber = new Integer[1];
+        try {
+            ThreadUtils.managedBlock(() -> {
+                threadNumber[0] = availableThreadNumbers.poll(StepRuntime.POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return threadNumber[0] != null;
+            });
+        } catch (InterruptedException e) {
+            throw new CancellationException();
+        }
+
+        try {
+            sharedExecutor.execute(() -> {
+                ThreadUtils.setThreadNumber(threadNumber[0]);
+                try {
+                    command.run();
+                } finally {
+                    ThreadUtils.setThreadNumber(null);
+                    release(threadNumber[0]);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(threadNumber[0]);
+            throw e;
+        }
+    }
+
+    protected void release(Integer threadNumber) {
+        synchronized (this) {
+            availableThreadNumbers.add(threadNumber);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until none of the step's thread numbers are in use
+     */
+    protected void awaitIdle() throws InterruptedException {
+        ThreadUtils.managedBlock(() -> {
+            synchronized (this) {
+                if (availableThreadNumbers.size() < threadCount) {
+                    wait(StepRuntime.POLL_TIMEOUT_MS);
+                }
+                return availableThreadNumbers.size() == threadCount;
+            }
+        });
+    }
+
+}
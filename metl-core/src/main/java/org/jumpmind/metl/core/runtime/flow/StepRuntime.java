@@ -35,7 +35,9 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -62,7 +64,6 @@ import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
 import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
 import org.jumpmind.metl.core.util.LogUtils;
 import org.jumpmind.metl.core.util.ThreadUtils;
-import org.jumpmind.util.AppUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,17 +77,40 @@ public class StepRuntime implements Runnable {
 
     public static final String UNIT_OF_WORK_FLOW = "Flow";
 
+    /*
+     * Steps wait on their inbound queue and are signaled when a message is
+     * queued, so messages are handed off as soon as they arrive. The timeout
+     * is only a safety net for noticing a state change that was not signaled.
+     */
+    static final long POLL_TIMEOUT_MS = 500;
+
+    /*
+     * When running on a shared step thread pool, the number of messages a step
+     * processes before giving its thread back to other steps
+     */
+    static final int MAX_MESSAGES_PER_SCHEDULE = 100;
+
     protected BlockingQueue<Message> inQueue;
 
     protected Executor componentRuntimeExecutor;
+
+    /*
+     * The agent's shared step thread pool. When null, the step runs on its own
+     * dedicated thread.
+     */
+    protected Executor stepExecutor;
+
+    AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    SendMessageCallback scheduledCallback;
     
-    boolean running = false;
+    volatile boolean running = false;
     
-    boolean cancelling = false;
+    volatile boolean cancelling = false;
 
-    boolean cancelled = false;
+    volatile boolean cancelled = false;
 
-    boolean finished = false;
+    volatile boolean finished = false;
 
     Throwable error;
 
@@ -123,6 +147,14 @@ public class StepRuntime implements Runnable {
     int threadCount;
 
     public StepRuntime(IComponentRuntimeFactory componentFactory, IDefinitionFactory componentDefinitionFactory, ComponentContext componentContext, FlowRuntime flowRuntime) {
+        this(componentFactory, componentDefinitionFactory,
+                componentDefinitionFactory.getComponentDefinition(componentContext.getFlowStep().getComponent().getProjectVersionId(),
+                        componentContext.getFlowStep().getComponent().getType()),
+                componentContext, flowRuntime);
+    }
+
+    public StepRuntime(IComponentRuntimeFactory componentFactory, IDefinitionFactory componentDefinitionFactory,
+            XMLComponentDefinition componentDefinition, ComponentContext componentContext, FlowRuntime flowRuntime) {
         this.flowRuntime = flowRuntime;
         this.componentContext = componentContext;
         this.queueCapacity = componentContext.getFlowStep().getComponent().getInt(AbstractComponentRuntime.INBOUND_QUEUE_CAPACITY, 1000);
@@ -131,7 +163,7 @@ public class StepRuntime implements Runnable {
         this.targetStepRuntimeUnitOfWorkSent = new HashSet<String>();
         this.componentRuntimeFactory = componentFactory;
         this.componentDefintionFactory = componentDefinitionFactory;
-        this.componentDefintion = componentDefintionFactory.getComponentDefinition(componentContext.getFlowStep().getComponent().getProjectVersionId(), getComponentType());        
+        this.componentDefintion = componentDefinition;
         Component component = componentContext.getFlowStep().getComponent();
         this.threadCount = component.getInt(StepRuntime.THREAD_COUNT, 1);        
         for (int threadNumber = 1; threadNumber <= threadCount; threadNumber++) {
@@ -164,6 +196,10 @@ public class StepRuntime implements Runnable {
         return targetStepRuntimes;
     }
 
+    public boolean isReadOnlyInput() {
+        return componentDefintion != null && componentDefintion.isReadOnlyInput();
+    }
+
     public void setSourceStepRuntimes(List<StepRuntime> sourceStepRuntimes) {
         this.sourceStepRuntimes = sourceStepRuntimes;
         this.liveSourceStepIds = new HashSet<>();
@@ -184,10 +220,39 @@ public class StepRuntime implements Runnable {
                     + " not sufficient to handle inbound messages from other components in addition to inbound messages from itself.");
         }
         if (running) {
-            while (!inQueue.offer(message, 500, TimeUnit.MILLISECONDS)) {
-                if (cancelling) {
+            ThreadUtils.managedBlock(() -> {
+                if (inQueue.offer(message, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                } else if (cancelling) {
                     throw new CancellationException();
+                } else {
+                    return false;
                 }
+            });
+            signal();
+            schedule();
+        }
+    }
+
+    public void setStepExecutor(Executor stepExecutor) {
+        this.stepExecutor = stepExecutor;
+    }
+
+    public boolean isUsingStepExecutor() {
+        return stepExecutor != null;
+    }
+
+    /*
+     * Submit this step to the shared step thread pool if it is not already
+     * scheduled
+     */
+    protected void schedule() {
+        if (stepExecutor != null && running && scheduled.compareAndSet(false, true)) {
+            try {
+                stepExecutor.execute(() -> runScheduled());
+            } catch (RejectedExecutionException ex) {
+                scheduled.set(false);
+                throw ex;
             }
         }
     }
@@ -195,7 +260,9 @@ public class StepRuntime implements Runnable {
     public void start() {
         try {
             componentContext.setComponentStatistics(new ComponentStatistics());    
-            if (threadCount > 1) {
+            if (threadCount > 1 && stepExecutor != null) {
+                this.componentRuntimeExecutor = new SharedComponentRuntimeExecutor(stepExecutor, threadCount);
+            } else if (threadCount > 1) {
                 String prefix = String.format("%s-%s", LogUtils.normalizeName(flowRuntime.getAgent().getName()),
                         LogUtils.normalizeName(componentContext.getFlowStep().getName()));
                 this.componentRuntimeExecutor = ThreadUtils.createFixedThreadPool(prefix, queueCapacity, threadCount);
@@ -225,7 +292,9 @@ public class StepRuntime implements Runnable {
 
     protected void createComponentRuntime(int threadNumber) {
         String type = getComponentType();
-        IComponentRuntime componentRuntime = componentRuntimeFactory.create(componentContext.getFlowStep().getComponent().getProjectVersionId(), type, componentContext, threadNumber);
+        IComponentRuntime componentRuntime = componentDefintion != null
+                ? componentRuntimeFactory.create(componentDefintion, componentContext, threadNumber)
+                : componentRuntimeFactory.create(componentContext.getFlowStep().getComponent().getProjectVersionId(), type, componentContext, threadNumber);
         componentContext.getComponentRuntimeByThread().put(threadNumber, componentRuntime);
     }
 
@@ -268,13 +337,7 @@ public class StepRuntime implements Runnable {
                  * components could be generating messages which could block if
                  * we don't continue to poll
                  */
-                Message inputMessage = null;
-                synchronized (this) {
-                    inputMessage = inQueue.poll();
-                    if (inputMessage != null && !(inputMessage instanceof ShutdownMessage)) {
-                        activeCount++;
-                    }
-                }
+                Message inputMessage = nextMessage(true);
                 if (running && !cancelled) {
                     if (inputMessage != null) {
                         if (inputMessage instanceof ShutdownMessage) {
@@ -282,8 +345,6 @@ public class StepRuntime implements Runnable {
                         } else {
                             process(inputMessage, target);
                         }
-                    } else if (running && !cancelled) {
-                        AppUtils.sleep(50);
                     }
                 }
             }
@@ -291,16 +352,83 @@ public class StepRuntime implements Runnable {
             recordError(1, ex);
         }
     }
+
+    /*
+     * Used instead of run() when the step runs on the shared step thread pool.
+     * Process what has been queued and then give the thread back to the pool.
+     */
+    protected void runScheduled() {
+        try {
+            int count = 0;
+            while (running && !cancelled && count++ < MAX_MESSAGES_PER_SCHEDULE) {
+                Message inputMessage = nextMessage(false);
+                if (inputMessage == null) {
+                    break;
+                } else if (running && !cancelled) {
+                    if (inputMessage instanceof ShutdownMessage) {
+                        process((ShutdownMessage) inputMessage, scheduledCallback);
+                    } else {
+                        process(inputMessage, scheduledCallback);
+                    }
+                }
+            }
+        } catch (Throwable ex) {
+            recordError(1, ex);
+        } finally {
+            scheduled.set(false);
+            if (!inQueue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
     
+    /*
+     * Take the next message off of the inbound queue, optionally waiting to be
+     * signaled if none is available. The message is counted as active while
+     * holding the lock so it is never missing from both the queue and the
+     * active count.
+     */
+    protected synchronized Message nextMessage(boolean wait) throws InterruptedException {
+        Message inputMessage = inQueue.poll();
+        if (inputMessage == null && wait && running && !cancelled) {
+            wait(POLL_TIMEOUT_MS);
+            inputMessage = inQueue.poll();
+        }
+        if (inputMessage != null && !(inputMessage instanceof ShutdownMessage)) {
+            activeCount++;
+        }
+        return inputMessage;
+    }
+
+    protected synchronized void signal() {
+        notifyAll();
+    }
+
     protected synchronized void decrementActiveCount() {
         activeCount--;
+        notifyAll();
+    }
+
+    /*
+     * Block until this message is the only one being worked on. Threads
+     * processing messages notify when they are done.
+     */
+    protected void waitForOtherThreadsToFinish() throws InterruptedException {
+        ThreadUtils.managedBlock(() -> {
+            synchronized (this) {
+                if (activeCount > 1 && !cancelling) {
+                    wait(POLL_TIMEOUT_MS);
+                }
+                return activeCount <= 1 || cancelling;
+            }
+        });
     }
     
     protected synchronized int getActiveCountPlusQueueSize() {
         return activeCount + inQueue.size();
     }
 
-    protected void process(Message inputMessage, SendMessageCallback target) {
+    protected void process(Message inputMessage, SendMessageCallback target) throws InterruptedException {
         boolean unitOfWorkBoundaryReached = calculateUnitOfWorkLastMessage(inputMessage);
         /*
          * If unitOfWorkBoundaryReached, we might want to consider waiting to
@@ -308,8 +436,8 @@ public class StepRuntime implements Runnable {
          * race conditions.
          */
         if (threadCount > 1) {
-            while (unitOfWorkBoundaryReached && activeCount > 1) {
-                AppUtils.sleep(5);
+            if (unitOfWorkBoundaryReached) {
+                waitForOtherThreadsToFinish();
             }
             this.componentRuntimeExecutor.execute(() -> processOnAnotherThread(inputMessage, unitOfWorkBoundaryReached, target));    
         } else {
@@ -498,12 +626,22 @@ public class StepRuntime implements Runnable {
         if (cancelling) {
             cancelled = true;
         }
+        signal();
 
         recordFlowStepFinished();
+        flowRuntime.stepFinished(this);
     }
 
     private void shutdownThreads(boolean waitForShutdown) {
-        if (this.componentRuntimeExecutor instanceof ExecutorService) {
+        if (this.componentRuntimeExecutor instanceof SharedComponentRuntimeExecutor) {
+            try {
+                if (waitForShutdown) {
+                    ((SharedComponentRuntimeExecutor) this.componentRuntimeExecutor).awaitIdle();
+                }
+            } catch (Exception e) {
+                recordError(1, e);
+            }
+        } else if (this.componentRuntimeExecutor instanceof ExecutorService) {
             try {
                 ExecutorService service = (ExecutorService) this.componentRuntimeExecutor;
                 service.shutdown();
@@ -546,6 +684,7 @@ public class StepRuntime implements Runnable {
     }
 
     public void startRunning() {
+        this.scheduledCallback = createSendMessageCallback();
         this.running = true;
     }
 
@@ -685,22 +824,33 @@ public class StepRuntime implements Runnable {
             return newMessage;
         }
 
-        @SuppressWarnings("unchecked")
-        private <T extends Serializable> T copy(T payload) {
-            if (payload instanceof ArrayList) {
-                ArrayList<?> old = (ArrayList<?>) payload;
-                ArrayList<Object> copied = new ArrayList<>(old.size());
-                for (Object object : old) {
-                    if (object instanceof EntityData) {
-                        object = ((EntityData) object).copy();
-                    }
-                    copied.add(object);
+        /*
+         * Every target gets its own copy of the entity data or bytes of a
+         * message unless its component is known not to change its input.
+         * Those targets share the payload that was sent.
+         */
+        private Message copy(Message message) {
+            ContentMessage<?> copied;
+            String originatingStepId = message.getHeader().getOriginatingStepId();
+            if (message instanceof EntityDataMessage) {
+                ArrayList<EntityData> payload = ((EntityDataMessage) message).getPayload();
+                ArrayList<EntityData> copiedPayload = new ArrayList<>(payload.size());
+                for (EntityData data : payload) {
+                    copiedPayload.add(data.copy());
                 }
-                payload = (T) copied;
-            } else if (payload instanceof byte[]) {
-                payload = (T) ArrayUtils.clone((byte[]) payload);
+                copied = new EntityDataMessage(originatingStepId, copiedPayload);
+            } else if (message instanceof BinaryMessage) {
+                copied = new BinaryMessage(originatingStepId, ArrayUtils.clone(((BinaryMessage) message).getPayload()));
+            } else if (message instanceof TextMessage) {
+                copied = new TextMessage(originatingStepId, new ArrayList<>(((TextMessage) message).getPayload()));
+            } else {
+                return message;
             }
-            return payload;
+            MessageHeader header = copied.getHeader();
+            header.putAll(message.getHeader());
+            header.setExecutionId(message.getHeader().getExecutionId());
+            header.setSequenceNumber(message.getHeader().getSequenceNumber());
+            return copied;
         }
 
         private void sendMessage(Message message, String... targetFlowStepIds) {
@@ -738,7 +888,11 @@ public class StepRuntime implements Runnable {
                             log.debug("Sending " + message.getClass().getSimpleName() + " to "
                                     + targetRuntime.getComponentContext().getFlowStep().getName());
                         }
-                        targetRuntime.queue(message);
+                        Message targetMessage = message;
+                        if (message instanceof ContentMessage<?> && !targetRuntime.isReadOnlyInput()) {
+                            targetMessage = copy(message);
+                        }
+                        targetRuntime.queue(targetMessage);
                         if (message instanceof ControlMessage) {
                             targetStepRuntimeUnitOfWorkSent.add(targetRuntime.getComponentContext().getFlowStep().getId());
                         }
@@ -798,7 +952,6 @@ public class StepRuntime implements Runnable {
 
         @Override
         public void sendBinaryMessage(Map<String, Serializable> messageHeaders, byte[] payload, String... targetStepIds) {
-            payload = copy(payload);
             FlowStep flowStep = componentContext.getFlowStep();
             sendMessage(createMessage(new BinaryMessage(flowStep.getId(), payload), messageHeaders), targetStepIds);
             contentMessagesSentCount++;
@@ -807,7 +960,7 @@ public class StepRuntime implements Runnable {
         @Override
         public void sendEntityDataMessage(Map<String, Serializable> messageHeaders, ArrayList<EntityData> payload, String... targetStepIds) {
             validateEntityData(payload);
-            payload = copy(payload);
+            payload = new ArrayList<>(payload);
             FlowStep flowStep = componentContext.getFlowStep();
             sendMessage(createMessage(new EntityDataMessage(flowStep.getId(), payload), messageHeaders), targetStepIds);
             contentMessagesSentCount++;
@@ -822,7 +975,7 @@ public class StepRuntime implements Runnable {
 
         @Override
         public void sendTextMessage(Map<String, Serializable> messageHeaders, ArrayList<String> payload, String... targetStepIds) {
-            payload = copy(payload);
+            payload = new ArrayList<>(payload);
             FlowStep flowStep = componentContext.getFlowStep();
             sendMessage(createMessage(new TextMessage(flowStep.getId(), payload), messageHeaders), targetStepIds);
             contentMessagesSentCount++;
@@ -22,23 +22,21 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
     Map<HttpMethod, Set<HttpRequestMapping>> mappingsByHttpMethod = new HashMap<>();
     
     Map<AgentDeployment, Set<HttpRequestMapping>> mappingsByAgentDeployment = new HashMap<>();
+
+    /*
+     * Rebuilt and replaced as a whole when a mapping is registered or
+     * unregistered, so lookups never see a partial update and do not need to
+     * lock
+     */
+    volatile HttpRequestRouter router = new HttpRequestRouter();
     
     @Override
     public HttpRequestMapping findBestMatch(HttpMethod method, String path) {
-        Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(method);
-        if (mappings != null) {
-            for (HttpRequestMapping httpRequestMapping : mappings) {
-                log.info(String.format("Found available uri: %s",httpRequestMapping.getPath()));
-                if (patternMatcher.match(httpRequestMapping.getPath(), path)) {
-                    return httpRequestMapping;
-                }
-            }
-        }
-        return null;
+        return router.findBestMatch(method, path);
     }
     
     @Override
-    public List<HttpRequestMapping> getHttpRequestMappingsFor(AgentDeployment deployment) {
+    public synchronized List<HttpRequestMapping> getHttpRequestMappingsFor(AgentDeployment deployment) {
         Set<HttpRequestMapping> mappings = mappingsByAgentDeployment.get(deployment);
         if (mappings != null) {
             return new ArrayList<>(mappings);
@@ -48,7 +46,7 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
     }  
     
     @Override
-    public void register(HttpRequestMapping request) {
+    public synchronized void register(HttpRequestMapping request) {
         Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(request.getMethod());
         if (mappings == null) {
             mappings = new TreeSet<>();
@@ -63,12 +61,14 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
         }
                 
         mappings.add(request);
+
+        router = new HttpRequestRouter(patternMatcher, mappingsByHttpMethod);
         
         log.info("Registering REST service: {}", request);
     }
     
     @Override
-    public void unregister(HttpRequestMapping request) {
+    public synchronized void unregister(HttpRequestMapping request) {
         boolean unregistered = false;
         Set<HttpRequestMapping> mappings = mappingsByHttpMethod.get(request.getMethod());
         if (mappings != null) {            
@@ -81,6 +81,7 @@ public class HttpRequestMappingRegistry implements IHttpRequestMappingRegistry {
         }
         
         if (unregistered) {
+            router = new HttpRequestRouter(patternMatcher, mappingsByHttpMethod);
             log.info("Unregistering REST service: {}", request);
         }
     }
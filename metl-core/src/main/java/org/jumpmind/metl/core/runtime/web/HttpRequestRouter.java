@@ -0,0 +1,235 @@
+package org.jumpmind.metl.core.runtime.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StringUtils;
+
+/**
+ * An immutable index of request mappings by path segment. Literal segments
+ * are looked up in a map, so finding a mapping costs about one step per path
+ * segment no matter how many mappings are registered. When more than one
+ * mapping matches, the one with the lowest {@link HttpRequestMapping#getPriority()}
+ * wins, and then the most specific one. A literal segment is preferred
+ * over a segment with a pattern, a pattern with more literal text over one
+ * with less, and a segment pattern over a {@code **} wildcard. Mappings that
+ * are equally specific keep the order they were given in. The path that is
+ * found is always confirmed with {@link AntPathMatcher} so the rules for
+ * matching a path do not change.
+ */
+public class HttpRequestRouter {
+
+    static final String PATH_SEPARATOR = "/";
+
+    static final String MULTI_SEGMENT_WILDCARD = "**";
+
+    static final Comparator<String> SPECIFICITY = (a, b) -> {
+        int compare = Integer.compare(countWildcards(a), countWildcards(b));
+        if (compare == 0) {
+            compare = Integer.compare(countLiteral(b), countLiteral(a));
+        }
+        return compare;
+    };
+
+    final AntPathMatcher patternMatcher;
+
+    /* one root per priority of the method's mappings, lowest priority first */
+    final Map<HttpMethod, List<Node>> roots;
+
+    public HttpRequestRouter() {
+        this(new AntPathMatcher(), Collections.emptyMap());
+    }
+
+    public HttpRequestRouter(AntPathMatcher patternMatcher, Map<HttpMethod, ? extends Collection<HttpRequestMapping>> mappingsByHttpMethod) {
+        this.patternMatcher = patternMatcher;
+        Map<HttpMethod, List<Node>> roots = new HashMap<>();
+        for (Map.Entry<HttpMethod, ? extends Collection<HttpRequestMapping>> entry : mappingsByHttpMethod.entrySet()) {
+            Map<Integer, Node> rootsByPriority = new TreeMap<>();
+            for (HttpRequestMapping mapping : entry.getValue()) {
+                Node root = rootsByPriority.get(mapping.getPriority());
+                if (root == null) {
+                    root = new Node();
+                    rootsByPriority.put(mapping.getPriority(), root);
+                }
+                root.add(tokenize(mapping.getPath()), 0, mapping);
+            }
+            for (Node root : rootsByPriority.values()) {
+                root.compile();
+            }
+            roots.put(entry.getKey(), new ArrayList<>(rootsByPriority.values()));
+        }
+        this.roots = roots;
+    }
+
+    public HttpRequestMapping findBestMatch(HttpMethod method, String path) {
+        List<Node> methodRoots = roots.get(method);
+        if (methodRoots != null && path != null) {
+            String[] segments = tokenize(path);
+            for (Node root : methodRoots) {
+                HttpRequestMapping mapping = root.find(segments, 0, path);
+                if (mapping != null) {
+                    return mapping;
+                }
+            }
+        }
+        return null;
+    }
+
+    protected static String[] tokenize(String path) {
+        return StringUtils.tokenizeToStringArray(path, PATH_SEPARATOR, false, true);
+    }
+
+    protected static boolean isPattern(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0;
+    }
+
+    /*
+     * A segment that matches any value, like {id} or *
+     */
+    protected static boolean isAnySegment(String segment) {
+        return "*".equals(segment)
+                || (segment.startsWith("{") && segment.endsWith("}") && segment.indexOf('{', 1) < 0 && segment.indexOf(':') < 0);
+    }
+
+    protected static int countWildcards(String segment) {
+        int count = 0;
+        boolean inVariable = false;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '{') {
+                inVariable = true;
+                count++;
+            } else if (c == '}') {
+                inVariable = false;
+            } else if (!inVariable && (c == '*' || c == '?')) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    protected static int countLiteral(String segment) {
+        int count = 0;
+        boolean inVariable = false;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == '{') {
+                inVariable = true;
+            } else if (c == '}') {
+                inVariable = false;
+            } else if (!inVariable && c != '*' && c != '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    class Node {
+
+        Map<String, Node> literals = new HashMap<>();
+
+        Map<String, Node> patterns = new LinkedHashMap<>();
+
+        List<PatternChild> orderedPatterns = Collections.emptyList();
+
+        /* mappings whose path continues with ** from this node */
+        List<HttpRequestMapping> multiSegment = new ArrayList<>();
+
+        /* mappings whose path ends at this node */
+        List<HttpRequestMapping> mappings = new ArrayList<>();
+
+        void add(String[] segments, int index, HttpRequestMapping mapping) {
+            if (index == segments.length) {
+                mappings.add(mapping);
+            } else {
+                String segment = segments[index];
+                if (segment.contains(MULTI_SEGMENT_WILDCARD)) {
+                    multiSegment.add(mapping);
+                } else {
+                    Map<String, Node> children = isPattern(segment) ? patterns : literals;
+                    Node child = children.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        children.put(segment, child);
+                    }
+                    child.add(segments, index + 1, mapping);
+                }
+            }
+        }
+
+        void compile() {
+            List<PatternChild> ordered = new ArrayList<>(patterns.size());
+            for (Map.Entry<String, Node> entry : patterns.entrySet()) {
+                ordered.add(new PatternChild(entry.getKey(), entry.getValue()));
+            }
+            ordered.sort((a, b) -> SPECIFICITY.compare(a.segment, b.segment));
+            orderedPatterns = ordered;
+            for (Node child : literals.values()) {
+                child.compile();
+            }
+            for (Node child : patterns.values()) {
+                child.compile();
+            }
+        }
+
+        HttpRequestMapping find(String[] segments, int index, String path) {
+            if (index == segments.length) {
+                HttpRequestMapping mapping = confirm(mappings, path);
+                if (mapping != null) {
+                    return mapping;
+                }
+            } else {
+                String segment = segments[index];
+                Node literal = literals.get(segment);
+                if (literal != null) {
+                    HttpRequestMapping mapping = literal.find(segments, index + 1, path);
+                    if (mapping != null) {
+                        return mapping;
+                    }
+                }
+                for (PatternChild child : orderedPatterns) {
+                    if (child.any || patternMatcher.match(child.segment, segment)) {
+                        HttpRequestMapping mapping = child.node.find(segments, index + 1, path);
+                        if (mapping != null) {
+                            return mapping;
+                        }
+                    }
+                }
+            }
+            return confirm(multiSegment, path);
+        }
+
+        HttpRequestMapping confirm(List<HttpRequestMapping> candidates, String path) {
+            for (HttpRequestMapping mapping : candidates) {
+                if (patternMatcher.match(mapping.getPath(), path)) {
+                    return mapping;
+                }
+            }
+            return null;
+        }
+    }
+
+    static class PatternChild {
+
+        String segment;
+
+        boolean any;
+
+        Node node;
+
+        PatternChild(String segment, Node node) {
+            this.segment = segment;
+            this.any = isAnySegment(segment);
+            this.node = node;
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.lang.SystemUtils;
+
+/**
+ * Decodes a local file straight from a {@link FileChannel} without going
+ * through an intermediate stream. By default the file is memory mapped a
+ * window at a time. On Windows a mapped file can't be moved or deleted until
+ * the mapping is garbage collected, so the file is read into a direct buffer
+ * there instead. Malformed input is replaced the same way
+ * {@link java.io.InputStreamReader} does.
+ */
+public class FileChannelReader extends Reader {
+
+    public static final int DEFAULT_MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    /*
+     * Leaves room for the bytes of a partly decoded character, so every fill
+     * makes new bytes available
+     */
+    static final int MIN_BUFFER_SIZE = 16;
+
+    FileChannel channel;
+
+    CharsetDecoder decoder;
+
+    boolean memoryMapped;
+
+    int bufferSize;
+
+    ByteBuffer buffer;
+
+    long bufferEnd;
+
+    long size;
+
+    boolean endOfInput;
+
+    boolean flushed;
+
+    char[] pair = new char[2];
+
+    int pendingChar = -1;
+
+    public FileChannelReader(File file, Charset charset) throws IOException {
+        this(file, charset, !SystemUtils.IS_OS_WINDOWS);
+    }
+
+    public FileChannelReader(File file, Charset charset, boolean memoryMapped) throws IOException {
+        this(file, charset, memoryMapped, memoryMapped ? DEFAULT_MAPPED_WINDOW_SIZE : DEFAULT_BUFFER_SIZE);
+    }
+
+    public FileChannelReader(File file, Charset charset, boolean memoryMapped, int bufferSize) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.memoryMapped = memoryMapped;
+        this.bufferSize = Math.max(bufferSize, MIN_BUFFER_SIZE);
+        this.size = channel.size();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (channel == null) {
+            throw new IOException("The reader has been closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (pendingChar >= 0) {
+            cbuf[off] = (char) pendingChar;
+            pendingChar = -1;
+            return 1;
+        }
+        if (len == 1) {
+            /*
+             * A character outside the basic plane decodes to two chars, which
+             * the decoder won't split, so the second one is held for the next
+             * read
+             */
+            int count = read(pair, 0, 2);
+            if (count > 0) {
+                cbuf[off] = pair[0];
+                if (count == 2) {
+                    pendingChar = pair[1];
+                }
+                return 1;
+            }
+            return count;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            if (buffer == null) {
+                fill();
+            }
+            CoderResult result = decoder.decode(buffer, out, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (out.position() == off) {
+                if (!endOfInput) {
+                    fill();
+                } else {
+                    if (!flushed) {
+                        decoder.flush(out);
+                        flushed = true;
+                    }
+                    if (out.position() == off) {
+                        return -1;
+                    }
+                }
+            }
+        }
+        return out.position() - off;
+    }
+
+    /**
+     * Make more bytes available in the buffer. Bytes the decoder left behind
+     * because they are the start of a multi-byte character are kept.
+     */
+    protected void fill() throws IOException {
+        if (memoryMapped) {
+            long start = buffer == null ? 0 : bufferEnd - buffer.remaining();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(bufferSize, size - start));
+            bufferEnd = start + buffer.limit();
+            endOfInput = bufferEnd >= size;
+        } else {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(bufferSize);
+                buffer.flip();
+            }
+            buffer.compact();
+            int count = channel.read(buffer);
+            buffer.flip();
+            if (count < 0) {
+                endOfInput = true;
+            } else {
+                bufferEnd += count;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            buffer = null;
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+final public class HashUtils {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private HashUtils() {
+    }
+
+    /**
+     * 128 bit MurmurHash3 (x64 variant) of the first length bytes of data.
+     * 
+     * @return the two 64 bit halves of the hash
+     */
+    public static long[] murmur3Hash128(byte[] data, int length) {
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = length / 16;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int offset = blocks * 16;
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+            case 15:
+                k2 ^= ((long) data[offset + 14] & 0xff) << 48;
+            case 14:
+                k2 ^= ((long) data[offset + 13] & 0xff) << 40;
+            case 13:
+                k2 ^= ((long) data[offset + 12] & 0xff) << 32;
+            case 12:
+                k2 ^= ((long) data[offset + 11] & 0xff) << 24;
+            case 11:
+                k2 ^= ((long) data[offset + 10] & 0xff) << 16;
+            case 10:
+                k2 ^= ((long) data[offset + 9] & 0xff) << 8;
+            case 9:
+                k2 ^= ((long) data[offset + 8] & 0xff);
+                k2 *= C2;
+                k2 = Long.rotateLeft(k2, 33);
+                k2 *= C1;
+                h2 ^= k2;
+            case 8:
+                k1 ^= ((long) data[offset + 7] & 0xff) << 56;
+            case 7:
+                k1 ^= ((long) data[offset + 6] & 0xff) << 48;
+            case 6:
+                k1 ^= ((long) data[offset + 5] & 0xff) << 40;
+            case 5:
+                k1 ^= ((long) data[offset + 4] & 0xff) << 32;
+            case 4:
+                k1 ^= ((long) data[offset + 3] & 0xff) << 24;
+            case 3:
+                k1 ^= ((long) data[offset + 2] & 0xff) << 16;
+            case 2:
+                k1 ^= ((long) data[offset + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= ((long) data[offset] & 0xff);
+                k1 *= C1;
+                k1 = Long.rotateLeft(k1, 31);
+                k1 *= C2;
+                h1 ^= k1;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[] { h1, h2 };
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return ((long) data[offset] & 0xff) | (((long) data[offset + 1] & 0xff) << 8)
+                | (((long) data[offset + 2] & 0xff) << 16) | (((long) data[offset + 3] & 0xff) << 24)
+                | (((long) data[offset + 4] & 0xff) << 32) | (((long) data[offset + 5] & 0xff) << 40)
+                | (((long) data[offset + 6] & 0xff) << 48) | (((long) data[offset + 7] & 0xff) << 56);
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -22,7 +22,11 @@ package org.jumpmind.metl.core.util;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -30,12 +34,29 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 final public class ThreadUtils {
 
+    static final ThreadLocal<Integer> assignedThreadNumber = new ThreadLocal<>();
+
     private ThreadUtils() {
     }
 
+    /**
+     * Assign a thread number to the current thread. Used when a pooled thread
+     * runs work on behalf of one of a step's component runtimes. Pass null to
+     * clear the assignment.
+     */
+    public static void setThreadNumber(Integer threadNumber) {
+        if (threadNumber == null) {
+            assignedThreadNumber.remove();
+        } else {
+            assignedThreadNumber.set(threadNumber);
+        }
+    }
+
     public static int getThreadNumber(int maxThreads) {
         if (maxThreads == 1) {
             return 1;
+        } else if (assignedThreadNumber.get() != null) {
+            return assignedThreadNumber.get();
         } else {
             int threadNumber = 1;
             String name = Thread.currentThread().getName();
@@ -67,6 +88,105 @@ final public class ThreadUtils {
         return Executors.newCachedThreadPool(new CustomThreadFactory(namePrefix));
     }
 
+    public static ExecutorService createSingleThreadPool(String namePrefix) {
+        return Executors.newSingleThreadExecutor(new CustomThreadFactory(namePrefix));
+    }
+
+    /**
+     * Create a work stealing pool whose steps may add up to parallelism
+     * threads of their own while they are blocked
+     */
+    public static ExecutorService createWorkStealingThreadPool(String namePrefix, int parallelism) {
+        return createWorkStealingThreadPool(namePrefix, parallelism, parallelism);
+    }
+
+    public static ExecutorService createWorkStealingThreadPool(String namePrefix, int parallelism,
+            int maxCompensatingThreads) {
+        return new WorkStealingThreadPool(parallelism, maxCompensatingThreads,
+                new CustomForkJoinWorkerThreadFactory(namePrefix));
+    }
+
+    /**
+     * Block the current thread until the blocker reports it is done. When
+     * called from a work stealing pool, the pool is allowed to add a thread
+     * while this one is blocked so other queued work can make progress.
+     * <p>
+     * The number of threads a {@link WorkStealingThreadPool} may be blocked
+     * in this method with a compensating thread at the same time is capped.
+     * Once the cap is reached, further callers block their own thread without
+     * asking the pool for another one. That keeps the pool size at about
+     * parallelism plus the cap. It is a soft limit: the pool retires spare
+     * threads lazily, so the count can briefly read higher while threads
+     * that were released by their blocker are still winding down.
+     */
+    public static void managedBlock(IBlocker blocker) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        Semaphore compensations = null;
+        if (thread instanceof ForkJoinWorkerThread
+                && ((ForkJoinWorkerThread) thread).getPool() instanceof WorkStealingThreadPool) {
+            compensations = ((WorkStealingThreadPool) ((ForkJoinWorkerThread) thread).getPool()).compensations;
+        }
+
+        if (compensations == null) {
+            ForkJoinPool.managedBlock(new Blocker(blocker));
+        } else if (compensations.tryAcquire()) {
+            try {
+                ForkJoinPool.managedBlock(new Blocker(blocker));
+            } finally {
+                compensations.release();
+            }
+        } else {
+            while (!blocker.block()) {
+            }
+        }
+    }
+
+    static class Blocker implements ForkJoinPool.ManagedBlocker {
+
+        final IBlocker blocker;
+
+        boolean released = false;
+
+        Blocker(IBlocker blocker) {
+            this.blocker = blocker;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            released = blocker.block();
+            return released;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return released;
+        }
+    }
+
+    /**
+     * A work stealing pool that limits how many of its threads may be blocked
+     * in {@link ThreadUtils#managedBlock(IBlocker)} with a compensating thread
+     * at the same time
+     */
+    static class WorkStealingThreadPool extends ForkJoinPool {
+
+        final Semaphore compensations;
+
+        WorkStealingThreadPool(int parallelism, int maxCompensatingThreads, ForkJoinWorkerThreadFactory factory) {
+            super(parallelism, factory, null, true);
+            this.compensations = new Semaphore(maxCompensatingThreads);
+        }
+    }
+
+    public interface IBlocker {
+        /**
+         * Wait for a bounded amount of time
+         * 
+         * @return true if no more waiting is needed
+         */
+        boolean block() throws InterruptedException;
+    }
+
     static class CustomThreadFactory implements ThreadFactory {
 
         String namePrefix;
@@ -88,4 +208,20 @@ final public class ThreadUtils {
             return t;
         }
     }
+
+    static class CustomForkJoinWorkerThreadFactory implements ForkJoinWorkerThreadFactory {
+
+        String namePrefix;
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public CustomForkJoinWorkerThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName(namePrefix + "-" + threadNumber.getAndIncrement());
+            return t;
+        }
+    }
 }
@@ -0,0 +1,121 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModelTest {
+
+    Model model;
+
+    ModelEntity person;
+
+    @Before
+    public void setup() {
+        model = new Model("model");
+        person = new ModelEntity("person", "PERSON");
+        person.addModelAttribute(new ModelAttribute("person.id", "person", "ID"));
+        person.addModelAttribute(new ModelAttribute("person.name", "person", "NAME"));
+        model.getModelEntities().add(person);
+    }
+
+    @Test
+    public void testLookups() {
+        assertSame(person, model.getEntityById("person"));
+        assertSame(person, model.getEntityById("PERSON"));
+        assertSame(person, model.getEntityByName("person"));
+        assertEquals("person.name", model.getAttributeById("person.name").getId());
+        assertEquals("person.name", model.getAttributeByName("person", "name").getId());
+        assertEquals(1, model.getAttributesByName("ID").size());
+        assertEquals("person.id", person.getModelAttributeByName("id").getId());
+        assertNull(model.getEntityById("address"));
+    }
+
+    @Test
+    public void testIndexFollowsEntityChanges() {
+        assertNull(model.getEntityById("address"));
+        ModelEntity address = new ModelEntity("address", "ADDRESS");
+        model.getModelEntities().set(0, address);
+        assertSame(address, model.getEntityById("address"));
+        assertNull(model.getEntityById("person"));
+
+        model.getModelEntities().remove(0);
+        assertNull(model.getEntityById("address"));
+
+        model.getModelEntities().add(person);
+        assertSame(person, model.getEntityById("person"));
+    }
+
+    @Test
+    public void testIndexFollowsAttributeChanges() {
+        assertEquals("person.id", model.getAttributeById("person.id").getId());
+        ModelAttribute key = new ModelAttribute("person.key", "person", "KEY");
+        person.getModelAttributes().set(0, key);
+        assertSame(key, model.getAttributeById("person.key"));
+        assertSame(key, person.getModelAttributeByName("key"));
+        assertNull(model.getAttributeById("person.id"));
+
+        Iterator<ModelAttribute> i = person.getModelAttributes().iterator();
+        i.next();
+        i.remove();
+        assertNull(model.getAttributeById("person.key"));
+        assertNull(person.getModelAttributeByName("key"));
+
+        person.removeModelAttribute(model.getAttributeById("person.name"));
+        assertNull(model.getAttributeById("person.name"));
+    }
+
+    @Test
+    public void testRenamedAttributeStillResolves() {
+        assertEquals("person.name", model.getAttributeByName("person", "name").getId());
+        model.getAttributeById("person.name").setName("FULL_NAME");
+        assertEquals("person.name", model.getAttributeByName("person", "full_name").getId());
+        assertNull(model.getAttributeByName("person", "name"));
+    }
+
+    @Test
+    public void testIndexAfterSerialization() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(model);
+        }
+        Model copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Model) in.readObject();
+        }
+        assertEquals("PERSON", copy.getEntityById("person").getName());
+        copy.getEntityById("person").getModelAttributes().clear();
+        assertNull(copy.getAttributeById("person.id"));
+        assertEquals("person.id", model.getAttributeById("person.id").getId());
+    }
+
+}
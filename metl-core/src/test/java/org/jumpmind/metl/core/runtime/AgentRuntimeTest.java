@@ -0,0 +1,157 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+
+import org.jumpmind.metl.core.model.Agent;
+import org.jumpmind.metl.core.model.AgentDeployment;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.DeploymentStatus;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Project;
+import org.jumpmind.metl.core.model.ProjectVersion;
+import org.jumpmind.metl.core.persist.IConfigurationService;
+import org.jumpmind.metl.core.persist.IExecutionService;
+import org.jumpmind.metl.core.persist.IOperationsService;
+import org.jumpmind.metl.core.plugin.IDefinitionFactory;
+import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
+import org.jumpmind.metl.core.runtime.component.ComponentContext;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
+import org.jumpmind.metl.core.runtime.flow.FlowPlan;
+import org.jumpmind.metl.core.runtime.flow.FlowRuntime;
+import org.jumpmind.metl.core.util.ThreadUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AgentRuntimeTest {
+
+    Agent agent;
+
+    AgentDeployment deployment;
+
+    AgentRuntime agentRuntime;
+
+    @Before
+    public void setup() {
+        agent = new Agent("agent");
+        agent.setAutoRefresh(false);
+
+        Flow flow = new Flow();
+        flow.setName("flow");
+        flow.setProjectVersionId("version");
+        Component component = new Component();
+        component.setType("Test");
+        component.setProjectVersionId("version");
+        flow.getFlowSteps().add(new FlowStep(component));
+
+        ProjectVersion projectVersion = new ProjectVersion("version");
+        projectVersion.setVersionLabel("1.0");
+        projectVersion.setProject(new Project());
+
+        deployment = new AgentDeployment();
+        deployment.setName("deployment");
+        deployment.setFlowId(flow.getId());
+        deployment.setStatus(DeploymentStatus.REQUEST_ENABLE.name());
+
+        IConfigurationService configurationService = mock(IConfigurationService.class);
+        when(configurationService.findFlow(flow.getId())).thenReturn(flow);
+        when(configurationService.findProjectVersion("version")).thenReturn(projectVersion);
+        when(configurationService.findResourcesInProject(anyString())).thenReturn(new ArrayList<>());
+        when(configurationService.findProjectDependencies(anyString())).thenReturn(new ArrayList<>());
+
+        IDefinitionFactory definitionFactory = mock(IDefinitionFactory.class);
+        when(definitionFactory.getComponentDefinition(anyString(), anyString())).thenReturn(new XMLComponentDefinition());
+        IComponentRuntimeFactory componentRuntimeFactory = mock(IComponentRuntimeFactory.class);
+        when(componentRuntimeFactory.create(any(XMLComponentDefinition.class), any(ComponentContext.class), anyInt()))
+                .thenReturn(mock(IComponentRuntime.class));
+
+        agentRuntime = new AgentRuntime(agent, mock(IOperationsService.class), configurationService, mock(IExecutionService.class),
+                componentRuntimeFactory, definitionFactory, null, null);
+        agentRuntime.globalSettings = new HashMap<>();
+    }
+
+    @After
+    public void cleanup() {
+        if (agentRuntime.flowRuntimeWarmUpThread != null) {
+            agentRuntime.flowRuntimeWarmUpThread.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPlanIsReusedUntilRedeploy() throws Exception {
+        agentRuntime.deploy(deployment);
+        FlowRuntime first = agentRuntime.createFlowRuntime("user", deployment, null);
+        FlowRuntime second = agentRuntime.createFlowRuntime("user", deployment, null);
+        assertNotSame(first, second);
+        assertNotSame(first.getExecutionId(), second.getExecutionId());
+        assertEquals(1, agentRuntime.flowPlans.size());
+        FlowPlan plan = agentRuntime.flowPlans.values().iterator().next();
+
+        agentRuntime.stop(deployment, DeploymentStatus.REQUEST_ENABLE);
+        assertTrue(agentRuntime.flowPlans.isEmpty());
+
+        agentRuntime.deploy(deployment);
+        assertTrue(agentRuntime.flowPlans.isEmpty());
+        agentRuntime.createFlowRuntime("user", deployment, null);
+        assertEquals(1, agentRuntime.flowPlans.size());
+        assertNotSame(plan, agentRuntime.flowPlans.values().iterator().next());
+    }
+
+    @Test
+    public void testWarmRuntimesAreDiscardedOnRedeploy() throws Exception {
+        agent.setWarmFlowRuntimeCount(2);
+        agentRuntime.flowRuntimeWarmUpThread = ThreadUtils.createSingleThreadPool("test-warm");
+        agentRuntime.deploy(deployment);
+        agentRuntime.createFlowRuntime("user", deployment, null);
+        assertEquals(1, agentRuntime.warmFlowRuntimes.size());
+        BlockingQueue<FlowRuntime> warm = agentRuntime.warmFlowRuntimes.values().iterator().next();
+        long timeout = System.currentTimeMillis() + 10000;
+        while (warm.remainingCapacity() > 0 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, warm.size());
+
+        FlowRuntime ready = warm.peek();
+        assertSame(ready, agentRuntime.createFlowRuntime("user", deployment, null));
+
+        agentRuntime.stop(deployment, DeploymentStatus.REQUEST_ENABLE);
+        agentRuntime.deploy(deployment);
+        assertTrue(agentRuntime.flowPlans.isEmpty());
+        assertTrue(agentRuntime.warmFlowRuntimes.isEmpty());
+    }
+
+}
@@ -0,0 +1,253 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jumpmind.metl.core.runtime.IndexedEntityData.Schema;
+import org.junit.Test;
+
+/**
+ * Runs the same operations against an {@link EntityData} and an
+ * {@link IndexedEntityData} and expects the same results.
+ */
+public class IndexedEntityDataTest {
+
+    static final Schema SCHEMA = new Schema(Arrays.asList("attr1", "attr2", "attr3"));
+
+    @Test
+    public void testCaseInsensitiveKeys() {
+        for (EntityData data : rows()) {
+            data.put("ATTR1", "a");
+            data.put("Extra", "e");
+            assertEquals("a", data.get("attr1"));
+            assertEquals("a", data.get("Attr1"));
+            assertTrue(data.containsKey("aTTr1"));
+            assertEquals("e", data.get("EXTRA"));
+            assertTrue(data.containsKey("extra"));
+
+            data.put("attr1", "b");
+            data.put("EXTRA", "f");
+            assertEquals(2, data.size());
+            assertEquals("b", data.get("ATTR1"));
+            assertEquals("f", data.get("extra"));
+
+            assertEquals("b", data.remove("Attr1"));
+            assertEquals("f", data.remove("eXtRa"));
+            assertNull(data.remove("attr1"));
+            assertFalse(data.containsKey("ATTR1"));
+            assertTrue(data.isEmpty());
+        }
+    }
+
+    @Test
+    public void testNullValues() {
+        List<EntityData> rows = rows();
+        for (EntityData data : rows) {
+            assertNull(data.put("attr1", null));
+            data.put("extra", null);
+            assertTrue(data.containsKey("attr1"));
+            assertTrue(data.containsKey("extra"));
+            assertFalse(data.containsKey("attr2"));
+            assertNull(data.get("attr1"));
+            assertEquals(2, data.size());
+            assertTrue(data.containsValue(null));
+            assertNull(data.getOrDefault("attr1", "default"));
+            assertEquals("default", data.getOrDefault("attr2", "default"));
+
+            assertNull(data.putIfAbsent("attr1", "a"));
+            assertEquals("a", data.get("attr1"));
+            assertNull(data.compute("attr1", (k, v) -> null));
+            assertNull(data.get("attr1"));
+            assertEquals(1, data.size());
+            assertTrue(data.remove("extra", null));
+            assertTrue(data.isEmpty());
+
+            data.put("attr2", null);
+            data.put("attr3", "c");
+        }
+        assertContractEquals(rows.get(0), rows.get(1));
+    }
+
+    @Test
+    public void testRemovalDuringIteration() {
+        List<EntityData> rows = rows();
+        for (EntityData data : rows) {
+            fill(data);
+            Iterator<Map.Entry<String, Object>> entries = data.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Object> entry = entries.next();
+                if (entry.getKey().equals("attr2") || entry.getKey().equals("extra1")) {
+                    entries.remove();
+                } else if (entry.getKey().equals("attr3")) {
+                    entry.setValue("changed");
+                }
+            }
+            Iterator<String> keys = data.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().equals("attr1")) {
+                    keys.remove();
+                }
+            }
+            Iterator<Object> values = data.values().iterator();
+            while (values.hasNext()) {
+                if ("x2".equals(values.next())) {
+                    values.remove();
+                }
+            }
+            assertEquals(1, data.size());
+            assertEquals("changed", data.get("attr3"));
+        }
+        assertContractEquals(rows.get(0), rows.get(1));
+
+        for (EntityData data : rows()) {
+            fill(data);
+            for (String key : data.keySet()) {
+                data.put(key, "updated");
+            }
+            try {
+                for (String key : data.keySet()) {
+                    data.remove(key);
+                }
+                fail("Expected a ConcurrentModificationException from " + data.getClass().getSimpleName());
+            } catch (ConcurrentModificationException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testInsertionOrderIteration() {
+        List<EntityData> rows = rows();
+        for (EntityData row : rows) {
+            row.put("extra2", "y");
+            row.put("attr3", "c");
+            row.put("extra1", "x");
+            row.put("attr1", "a");
+            row.put("attr3", "c2");
+        }
+        EntityData data = rows.get(0);
+        EntityData indexed = rows.get(1);
+        assertEquals(Arrays.asList("extra2", "attr3", "extra1", "attr1"), new ArrayList<>(indexed.keySet()));
+        assertEquals(Arrays.asList("y", "c2", "x", "a"), new ArrayList<>(indexed.values()));
+        assertSameOrder(data, indexed);
+        List<String> forEach = new ArrayList<>();
+        indexed.forEach((key, value) -> forEach.add(key));
+        assertEquals(new ArrayList<>(indexed.keySet()), forEach);
+
+        for (EntityData row : rows) {
+            row.remove("attr3");
+            row.remove("extra2");
+            row.put("extra2", "z");
+            row.put("attr3", "d");
+            row.put("attr2", null);
+        }
+        assertEquals(Arrays.asList("extra1", "attr1", "extra2", "attr3", "attr2"), new ArrayList<>(indexed.keySet()));
+        assertSameOrder(data, indexed);
+
+        for (EntityData row : rows) {
+            Iterator<String> keys = row.keySet().iterator();
+            keys.next();
+            keys.remove();
+            keys.next();
+            keys.next();
+            keys.remove();
+        }
+        assertEquals(Arrays.asList("attr1", "attr3", "attr2"), new ArrayList<>(indexed.keySet()));
+        assertSameOrder(data, indexed);
+        assertContractEquals(data, indexed);
+    }
+
+    @Test
+    public void testCopiesKeepOrder() {
+        IndexedEntityData indexed = new IndexedEntityData(SCHEMA);
+        indexed.put("attr3", "c");
+        indexed.put("extra1", "x");
+        indexed.put("attr1", "a");
+        assertSameOrder(indexed, indexed.copy());
+        IndexedEntityData merged = new IndexedEntityData(SCHEMA);
+        merged.putAll(indexed);
+        assertSameOrder(indexed, merged);
+        EntityData plain = new EntityData();
+        plain.putAll(indexed);
+        assertSameOrder(indexed, plain);
+    }
+
+    @Test
+    public void testCopies() {
+        List<EntityData> rows = rows();
+        for (EntityData data : rows) {
+            fill(data);
+            data.setChangeType(EntityData.ChangeType.DEL);
+        }
+        EntityData copy = rows.get(1).copy();
+        assertTrue(copy instanceof IndexedEntityData);
+        assertEquals(EntityData.ChangeType.DEL, copy.getChangeType());
+        assertContractEquals(rows.get(0), copy);
+        copy.put("attr1", "changed");
+        copy.put("extra1", "changed");
+        assertEquals("a", rows.get(1).get("attr1"));
+        assertEquals("x1", rows.get(1).get("extra1"));
+
+        EntityData merged = new EntityData();
+        merged.putAll(rows.get(1));
+        assertContractEquals(rows.get(0), merged);
+    }
+
+    protected static List<EntityData> rows() {
+        return Arrays.asList(new EntityData(), new IndexedEntityData(SCHEMA));
+    }
+
+    protected static void fill(EntityData data) {
+        data.put("attr1", "a");
+        data.put("extra1", "x1");
+        data.put("attr2", null);
+        data.put("attr3", "c");
+        data.put("extra2", "x2");
+    }
+
+    protected static void assertSameOrder(EntityData expected, EntityData actual) {
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+        assertEquals(new ArrayList<>(expected.values()), new ArrayList<>(actual.values()));
+    }
+
+    protected static void assertContractEquals(EntityData expected, EntityData actual) {
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        assertEquals(expected.size(), actual.size());
+        for (String key : expected.keySet()) {
+            assertTrue(key, actual.containsKey(key));
+            assertEquals(key, expected.get(key), actual.get(key));
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.ComponentAttributeSetting;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.Model;
+import org.jumpmind.metl.core.model.ModelAttribute;
+import org.jumpmind.metl.core.model.ModelEntity;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.utils.TestUtils;
+import org.junit.Test;
+
+public class DeduperTest {
+
+    static final int ROWS = 5000;
+
+    static final int KEYS = 1200;
+
+    @Test
+    public void testInMemoryPreserveFirst() {
+        Deduper deduper = createDeduper(Deduper.PRESERVE_FIRST, 0);
+        List<EntityData> output = dedupe(deduper);
+        assertNull(deduper.partitions);
+        assertOutput(output, false);
+    }
+
+    @Test
+    public void testSpillPreserveFirst() {
+        Deduper deduper = createDeduper(Deduper.PRESERVE_FIRST, 64 * 1024);
+        List<EntityData> output = dedupe(deduper);
+        assertEquals(0, deduper.deepestPartitionLevel);
+        assertOutput(output, false);
+        assertEquals(KEYS, deduper.getComponentStatistics().getNumberEntitiesProcessed(1));
+    }
+
+    @Test
+    public void testSpillPreserveLast() {
+        Deduper deduper = createDeduper(Deduper.PRESERVE_LAST, 64 * 1024);
+        List<EntityData> output = dedupe(deduper);
+        assertOutput(output, true);
+        assertEquals(KEYS, deduper.getComponentStatistics().getNumberEntitiesProcessed(1));
+    }
+
+    @Test
+    public void testSpillAndRepartition() {
+        Deduper deduper = createDeduper(Deduper.PRESERVE_FIRST, 2 * 1024);
+        List<EntityData> output = dedupe(deduper);
+        assertTrue(deduper.deepestPartitionLevel > 0);
+        assertOutput(output, false);
+        assertEquals(KEYS, deduper.getComponentStatistics().getNumberEntitiesProcessed(1));
+        assertNull(deduper.partitions);
+    }
+
+    @Test
+    public void testSpillAndRepartitionPreserveLast() {
+        Deduper deduper = createDeduper(Deduper.PRESERVE_LAST, 2 * 1024);
+        List<EntityData> output = dedupe(deduper);
+        assertTrue(deduper.deepestPartitionLevel > 0);
+        assertOutput(output, true);
+    }
+
+    /**
+     * Sends ROWS records with keys that repeat every KEYS records. The first
+     * KEYS records arrive in reverse key order.
+     */
+    protected List<EntityData> dedupe(Deduper deduper) {
+        SendMessageCallback<ArrayList<EntityData>> callback = new SendMessageCallback<>();
+        for (int batch = 0; batch < ROWS; batch += 500) {
+            ArrayList<EntityData> payload = new ArrayList<>();
+            for (int i = batch; i < batch + 500; i++) {
+                EntityData data = new EntityData();
+                data.put("id", key(i));
+                data.put("seq", i);
+                payload.add(data);
+            }
+            EntityDataMessage message = new EntityDataMessage("");
+            message.setPayload(payload);
+            deduper.handle(message, callback, batch + 500 >= ROWS);
+        }
+
+        List<EntityData> output = new ArrayList<>();
+        for (ArrayList<EntityData> payload : callback.getPayloadList()) {
+            assertTrue(payload.size() <= 100);
+            output.addAll(payload);
+        }
+        return output;
+    }
+
+    protected void assertOutput(List<EntityData> output, boolean preserveLast) {
+        assertEquals(KEYS, output.size());
+        for (int i = 0; i < KEYS; i++) {
+            EntityData data = output.get(i);
+            assertEquals(key(i), data.get("id"));
+            int lastSeq = i + ((ROWS - 1 - i) / KEYS) * KEYS;
+            assertEquals(preserveLast ? lastSeq : i, data.get("seq"));
+        }
+    }
+
+    protected String key(int i) {
+        return "key " + (KEYS - 1 - i % KEYS);
+    }
+
+    protected Deduper createDeduper(String preserveRecord, long memoryBufferSize) {
+        ModelEntity entity = new ModelEntity("entity", "ENTITY");
+        entity.addModelAttribute(new ModelAttribute("id", entity.getId(), "ID"));
+        entity.addModelAttribute(new ModelAttribute("seq", entity.getId(), "SEQ"));
+        Model model = new Model();
+        model.getModelEntities().add(entity);
+
+        List<ComponentAttributeSetting> attributeSettings = new ArrayList<>();
+        attributeSettings.add(new ComponentAttributeSetting("id", Deduper.ATTRIBUTE_DEDUPE_ENABLED, "true"));
+        Component component = TestUtils.createComponent(Deduper.TYPE, false, null, model, null,
+                new ArrayList<>(), attributeSettings,
+                new Setting(Deduper.DEDUPE_TYPE, Deduper.DEDUPE_ATTRIBUTE),
+                new Setting(Deduper.PRESERVE_RECORD, preserveRecord),
+                new Setting(Deduper.ROWS_PER_MESSAGE, "100"));
+
+        Flow flow = TestUtils.createFlow("TestFlow", null);
+        FlowStep step = new FlowStep();
+        step.setComponent(component);
+        flow.getFlowSteps().add(step);
+
+        Deduper deduper = new Deduper();
+        deduper.create(null, new ComponentContext(null, step, flow, new ExecutionTrackerNoOp(), null, null, null), 1);
+        deduper.start();
+        deduper.memoryBufferSize = memoryBufferSize;
+        return deduper;
+    }
+
+}
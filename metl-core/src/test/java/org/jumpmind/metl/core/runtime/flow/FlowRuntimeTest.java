@@ -0,0 +1,229 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jumpmind.metl.core.model.Agent;
+import org.jumpmind.metl.core.model.AgentDeployment;
+import org.jumpmind.metl.core.model.AgentFlowDeploymentParameter;
+import org.jumpmind.metl.core.model.AgentParameter;
+import org.jumpmind.metl.core.model.AgentProjectVersionFlowDeployment;
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.Flow;
+import org.jumpmind.metl.core.model.FlowParameter;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.model.FlowStepLink;
+import org.jumpmind.metl.core.model.ProjectVersion;
+import org.jumpmind.metl.core.model.Setting;
+import org.jumpmind.metl.core.plugin.IDefinitionFactory;
+import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
+import org.jumpmind.metl.core.runtime.component.AbstractComponentRuntime;
+import org.jumpmind.metl.core.runtime.component.ComponentContext;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
+import org.jumpmind.metl.core.runtime.component.IResultsStream;
+import org.jumpmind.metl.core.runtime.component.IStreamsResults;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlowRuntimeTest {
+
+    Agent agent;
+
+    AgentProjectVersionFlowDeployment deployment;
+
+    IDefinitionFactory definitionFactory;
+
+    IComponentRuntimeFactory componentRuntimeFactory;
+
+    Map<String, String> globalSettings;
+
+    @Before
+    public void setup() {
+        agent = new Agent("agent");
+        AgentParameter agentParameter = new AgentParameter();
+        agentParameter.setName("agentParam");
+        agentParameter.setValue("fromAgent");
+        agent.getAgentParameters().add(agentParameter);
+
+        Flow flow = new Flow();
+        flow.setName("flow");
+        flow.setProjectVersionId("version");
+        FlowParameter flowParameter = new FlowParameter();
+        flowParameter.setName("flowParam");
+        flowParameter.setDefaultValue("fromFlow");
+        flow.getFlowParameters().add(flowParameter);
+        FlowStep a = addStep(flow, "a", true);
+        FlowStep b = addStep(flow, "b", true);
+        FlowStep c = addStep(flow, "c", true);
+        FlowStep d = addStep(flow, "d", false);
+        flow.getFlowStepLinks().add(new FlowStepLink(a.getId(), b.getId()));
+        flow.getFlowStepLinks().add(new FlowStepLink(a.getId(), c.getId()));
+        flow.getFlowStepLinks().add(new FlowStepLink(b.getId(), c.getId()));
+        flow.getFlowStepLinks().add(new FlowStepLink(c.getId(), d.getId()));
+
+        AgentDeployment agentDeployment = new AgentDeployment();
+        agentDeployment.setName("deployment");
+        agentDeployment.setFlowId(flow.getId());
+        agentDeployment.getAgentDeploymentParameters()
+                .add(new AgentFlowDeploymentParameter("deploymentParam", "fromDeployment", agentDeployment.getId(), flow.getId()));
+        ProjectVersion projectVersion = new ProjectVersion("version");
+        projectVersion.setVersionLabel("1.0");
+        deployment = new AgentProjectVersionFlowDeployment(agentDeployment, flow, projectVersion);
+
+        definitionFactory = mock(IDefinitionFactory.class);
+        when(definitionFactory.getComponentDefinition(anyString(), anyString())).thenReturn(new XMLComponentDefinition());
+        componentRuntimeFactory = mock(IComponentRuntimeFactory.class);
+        when(componentRuntimeFactory.create(any(XMLComponentDefinition.class), any(ComponentContext.class), anyInt()))
+                .thenReturn(mock(IComponentRuntime.class));
+
+        globalSettings = new HashMap<>();
+        globalSettings.put("global", "setting");
+    }
+
+    @Test
+    public void testBoundRuntimeMatchesRuntimeBuiltForExecution() {
+        Map<String, String> runtimeParameters = new HashMap<>();
+        runtimeParameters.put("runtimeParam", "fromRequest");
+        runtimeParameters.put("flowParam", "overridden");
+
+        FlowRuntime expected = new FlowRuntime("execution", "user", deployment, agent, componentRuntimeFactory, definitionFactory, null, null, null, null,
+                new HashMap<>(), null, globalSettings, runtimeParameters);
+        FlowRuntime actual = new FlowRuntime(new FlowPlan(deployment, definitionFactory, null), agent, componentRuntimeFactory, definitionFactory, null,
+                null, null, new HashMap<>(), null, globalSettings);
+        actual.bind("execution", "user", runtimeParameters);
+
+        assertEquals(expected.getExecutionId(), actual.getExecutionId());
+        assertEquals("overridden", actual.flowParameters.get("flowParam"));
+        assertEquals("fromRequest", actual.flowParameters.get("runtimeParam"));
+        assertEquals("fromAgent", actual.flowParameters.get("agentParam"));
+        assertEquals("fromDeployment", actual.flowParameters.get("deploymentParam"));
+        assertEquals(withoutTime(expected.flowParameters), withoutTime(actual.flowParameters));
+        assertEquals(expected.executionTracker.getClass(), actual.executionTracker.getClass());
+        assertEquals(expected.stepRuntimes.keySet(), actual.stepRuntimes.keySet());
+        assertEquals(3, actual.stepRuntimes.size());
+
+        for (String stepId : expected.stepRuntimes.keySet()) {
+            StepRuntime expectedStep = expected.stepRuntimes.get(stepId);
+            StepRuntime actualStep = actual.stepRuntimes.get(stepId);
+            ComponentContext context = actualStep.getComponentContext();
+            assertSame(actual.executionTracker, context.getExecutionTracker());
+            assertEquals(withoutTime(expectedStep.getComponentContext().getFlowParameters()), withoutTime(context.getFlowParameters()));
+            assertEquals(globalSettings, context.getGlobalSettings());
+            assertEquals(stepIds(expectedStep.getTargetStepRuntimes()), stepIds(actualStep.getTargetStepRuntimes()));
+            assertEquals(stepIds(expectedStep.getSourceStepRuntimes()), stepIds(actualStep.getSourceStepRuntimes()));
+        }
+    }
+
+    @Test
+    public void testRuntimesFromOnePlanDoNotShareState() {
+        FlowPlan plan = new FlowPlan(deployment, definitionFactory, null);
+        FlowRuntime first = new FlowRuntime(plan, agent, componentRuntimeFactory, definitionFactory, null, null, null, new HashMap<>(), null,
+                globalSettings);
+        FlowRuntime second = new FlowRuntime(plan, agent, componentRuntimeFactory, definitionFactory, null, null, null, new HashMap<>(), null,
+                globalSettings);
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("runtimeParam", "first");
+        first.bind("first", "user", parameters);
+        parameters.put("runtimeParam", "second");
+        second.bind("second", "user", parameters);
+
+        assertEquals("first", first.getExecutionId());
+        assertEquals("second", second.getExecutionId());
+        assertNotSame(first.executionTracker, second.executionTracker);
+        for (String stepId : first.stepRuntimes.keySet()) {
+            assertNotSame(first.stepRuntimes.get(stepId), second.stepRuntimes.get(stepId));
+            assertEquals("first", first.stepRuntimes.get(stepId).getComponentContext().getFlowParameters().get("runtimeParam"));
+            assertEquals("second", second.stepRuntimes.get(stepId).getComponentContext().getFlowParameters().get("runtimeParam"));
+        }
+        assertFalse(plan.getEnabledSteps().isEmpty());
+    }
+
+    @Test
+    public void testResultsStreamIsGivenToStreamingComponents() {
+        IComponentRuntime streaming = mock(IComponentRuntime.class, withSettings().extraInterfaces(IStreamsResults.class));
+        when(((IStreamsResults) streaming).isStreamingResults()).thenReturn(true);
+        IComponentRuntime notStreaming = mock(IComponentRuntime.class, withSettings().extraInterfaces(IStreamsResults.class));
+        when(componentRuntimeFactory.create(any(XMLComponentDefinition.class), any(ComponentContext.class), anyInt()))
+                .thenReturn(streaming, notStreaming, mock(IComponentRuntime.class));
+        FlowRuntime runtime = new FlowRuntime(new FlowPlan(deployment, definitionFactory, null), agent, componentRuntimeFactory,
+                definitionFactory, null, null, null, new HashMap<>(), null, globalSettings);
+        IResultsStream resultsStream = mock(IResultsStream.class);
+
+        assertTrue(runtime.setResultsStream(resultsStream));
+        verify((IStreamsResults) streaming).setResultsStream(resultsStream);
+        verify((IStreamsResults) notStreaming, never()).setResultsStream(any(IResultsStream.class));
+
+        when(((IStreamsResults) streaming).isStreamingResults()).thenReturn(false);
+        assertFalse(runtime.setResultsStream(resultsStream));
+    }
+
+    protected FlowStep addStep(Flow flow, String name, boolean enabled) {
+        Component component = new Component();
+        component.setName(name);
+        component.setType("Test");
+        component.setProjectVersionId("version");
+        if (!enabled) {
+            component.getSettings().add(new Setting(AbstractComponentRuntime.ENABLED, "false"));
+        }
+        FlowStep flowStep = new FlowStep(component);
+        flowStep.setName(name);
+        flow.getFlowSteps().add(flowStep);
+        return flowStep;
+    }
+
+    protected static List<String> stepIds(List<StepRuntime> stepRuntimes) {
+        List<String> ids = new ArrayList<>();
+        for (StepRuntime stepRuntime : stepRuntimes) {
+            ids.add(stepRuntime.getComponentContext().getFlowStep().getName());
+        }
+        return ids;
+    }
+
+    protected static Map<String, String> withoutTime(Map<String, String> parameters) {
+        Map<String, String> copy = new TreeMap<>(parameters);
+        copy.remove("_date");
+        copy.remove("_time");
+        copy.remove("_startDate");
+        copy.remove("_startTime");
+        return copy;
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.flow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.jumpmind.metl.core.model.Component;
+import org.jumpmind.metl.core.model.FlowStep;
+import org.jumpmind.metl.core.plugin.IDefinitionFactory;
+import org.jumpmind.metl.core.plugin.XMLComponentDefinition;
+import org.jumpmind.metl.core.runtime.BinaryMessage;
+import org.jumpmind.metl.core.runtime.EntityData;
+import org.jumpmind.metl.core.runtime.EntityData.ChangeType;
+import org.jumpmind.metl.core.runtime.EntityDataMessage;
+import org.jumpmind.metl.core.runtime.ExecutionTrackerNoOp;
+import org.jumpmind.metl.core.runtime.component.ComponentContext;
+import org.jumpmind.metl.core.runtime.component.ComponentStatistics;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntime;
+import org.jumpmind.metl.core.runtime.component.IComponentRuntimeFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StepRuntimeTest {
+
+    IComponentRuntimeFactory componentRuntimeFactory;
+
+    @Before
+    public void setup() {
+        componentRuntimeFactory = mock(IComponentRuntimeFactory.class);
+        when(componentRuntimeFactory.create(any(XMLComponentDefinition.class), any(ComponentContext.class), anyInt()))
+                .thenReturn(mock(IComponentRuntime.class));
+    }
+
+    @Test
+    public void testFanOutCopiesPayloadForTargetThatChangesIt() throws Exception {
+        StepRuntime source = createStepRuntime("source", false);
+        StepRuntime changesInput = createStepRuntime("changes input", false);
+        StepRuntime readsInput = createStepRuntime("reads input", true);
+        source.setTargetStepRuntimes(Arrays.asList(changesInput, readsInput));
+
+        EntityData row = new EntityData();
+        row.put("attr", "original");
+        ArrayList<EntityData> payload = new ArrayList<>();
+        payload.add(row);
+        source.createSendMessageCallback().sendEntityDataMessage(null, payload);
+
+        EntityDataMessage changed = (EntityDataMessage) changesInput.inQueue.poll();
+        EntityDataMessage shared = (EntityDataMessage) readsInput.inQueue.poll();
+        changed.getPayload().get(0).put("attr", "changed");
+        changed.getPayload().get(0).setChangeType(ChangeType.DEL);
+
+        assertSame(row, shared.getPayload().get(0));
+        assertEquals("original", row.get("attr"));
+        assertEquals(ChangeType.ADD, row.getChangeType());
+        assertEquals("changed", changed.getPayload().get(0).get("attr"));
+        assertEquals(source.getComponentContext().getFlowStep().getId(), changed.getHeader().getOriginatingStepId());
+        assertEquals(shared.getHeader().getSequenceNumber(), changed.getHeader().getSequenceNumber());
+    }
+
+    @Test
+    public void testEveryTargetThatMayChangeItsInputGetsItsOwnCopy() throws Exception {
+        StepRuntime source = createStepRuntime("source", false);
+        StepRuntime first = createStepRuntime("first", false);
+        StepRuntime second = createStepRuntime("second", false);
+        source.setTargetStepRuntimes(Arrays.asList(first, second));
+
+        byte[] bytes = new byte[] { 1, 2, 3 };
+        source.createSendMessageCallback().sendBinaryMessage(null, bytes);
+
+        byte[] firstBytes = ((BinaryMessage) first.inQueue.poll()).getPayload();
+        byte[] secondBytes = ((BinaryMessage) second.inQueue.poll()).getPayload();
+        assertNotSame(bytes, firstBytes);
+        assertNotSame(bytes, secondBytes);
+        assertNotSame(firstBytes, secondBytes);
+        firstBytes[0] = 9;
+        assertArrayEquals(new byte[] { 1, 2, 3 }, bytes);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, secondBytes);
+    }
+
+    protected StepRuntime createStepRuntime(String name, boolean readOnlyInput) {
+        Component component = new Component();
+        component.setName(name);
+        component.setType("Test");
+        FlowStep flowStep = new FlowStep(component);
+        flowStep.setName(name);
+        ComponentContext context = new ComponentContext(null, flowStep, null, new ExecutionTrackerNoOp(), null, null, null);
+        context.setComponentStatistics(new ComponentStatistics());
+        XMLComponentDefinition definition = new XMLComponentDefinition();
+        definition.setReadOnlyInput(readOnlyInput);
+        StepRuntime stepRuntime = new StepRuntime(componentRuntimeFactory, mock(IDefinitionFactory.class), definition, context, null);
+        stepRuntime.running = true;
+        return stepRuntime;
+    }
+
+}
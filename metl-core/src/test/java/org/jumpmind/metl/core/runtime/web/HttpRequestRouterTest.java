@@ -0,0 +1,133 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.runtime.web;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.jumpmind.metl.core.model.AgentDeployment;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpRequestRouterTest {
+
+    HttpRequestMappingRegistry registry;
+
+    @Before
+    public void setup() {
+        registry = new HttpRequestMappingRegistry();
+    }
+
+    @Test
+    public void testLiteralWinsOverTemplate() {
+        HttpRequestMapping template = register(HttpMethod.GET, "/orders/{id}", 0);
+        HttpRequestMapping literal = register(HttpMethod.GET, "/orders/latest", 0);
+        assertSame(literal, find(HttpMethod.GET, "/orders/latest"));
+        assertSame(template, find(HttpMethod.GET, "/orders/7"));
+        assertNull(find(HttpMethod.GET, "/orders"));
+        assertNull(find(HttpMethod.GET, "/orders/7/lines"));
+        assertNull(find(HttpMethod.POST, "/orders/7"));
+    }
+
+    @Test
+    public void testMultiSegmentWildcardAtTheEnd() {
+        HttpRequestMapping files = register(HttpMethod.GET, "/files/**", 0);
+        HttpRequestMapping readme = register(HttpMethod.GET, "/files/readme", 0);
+        assertSame(files, find(HttpMethod.GET, "/files/a/b/c"));
+        assertSame(files, find(HttpMethod.GET, "/files/readme/old"));
+        assertSame(readme, find(HttpMethod.GET, "/files/readme"));
+        assertNull(find(HttpMethod.GET, "/other/a"));
+    }
+
+    @Test
+    public void testTrailingMultiSegmentWildcardMatchesBarePrefix() {
+        HttpRequestMapping files = register(HttpMethod.GET, "/files/**", 0);
+        assertSame(files, find(HttpMethod.GET, "/files"));
+        assertSame(files, find(HttpMethod.GET, "/files/"));
+        assertNull(find(HttpMethod.GET, "/filesystem"));
+    }
+
+    @Test
+    public void testMultiSegmentWildcardInTheMiddle() {
+        HttpRequestMapping lines = register(HttpMethod.GET, "/orders/**/lines", 0);
+        HttpRequestMapping order = register(HttpMethod.GET, "/orders/{id}", 0);
+        assertSame(lines, find(HttpMethod.GET, "/orders/7/lines"));
+        assertSame(lines, find(HttpMethod.GET, "/orders/2017/7/lines"));
+        assertSame(order, find(HttpMethod.GET, "/orders/7"));
+        /* a segment pattern is more specific than ** */
+        assertSame(order, find(HttpMethod.GET, "/orders/lines"));
+        registry.unregister(order);
+        assertSame(lines, find(HttpMethod.GET, "/orders/lines"));
+        assertNull(find(HttpMethod.GET, "/orders/7/items"));
+    }
+
+    @Test
+    public void testUnregister() {
+        HttpRequestMapping template = register(HttpMethod.GET, "/orders/{id}", 0);
+        HttpRequestMapping literal = register(HttpMethod.GET, "/orders/latest", 0);
+        assertSame(literal, find(HttpMethod.GET, "/orders/latest"));
+        registry.unregister(literal);
+        assertSame(template, find(HttpMethod.GET, "/orders/latest"));
+        registry.unregister(template);
+        assertNull(find(HttpMethod.GET, "/orders/latest"));
+    }
+
+    @Test
+    public void testPriorityBeforeSpecificity() {
+        HttpRequestMapping literal = register(HttpMethod.GET, "/orders/latest", 1);
+        HttpRequestMapping template = register(HttpMethod.GET, "/orders/{id}", 0);
+        HttpRequestMapping files = register(HttpMethod.GET, "/orders/**", 2);
+        assertSame(template, find(HttpMethod.GET, "/orders/latest"));
+        assertSame(template, find(HttpMethod.GET, "/orders/7"));
+        assertSame(files, find(HttpMethod.GET, "/orders/7/lines"));
+        registry.unregister(template);
+        assertSame(literal, find(HttpMethod.GET, "/orders/latest"));
+        assertSame(files, find(HttpMethod.GET, "/orders/7"));
+    }
+
+    @Test
+    public void testPriorityTies() {
+        HttpRequestMapping second = register(HttpMethod.GET, "/orders/{orderId}", 0);
+        HttpRequestMapping first = register(HttpMethod.GET, "/orders/{id}", 0);
+        HttpRequestMapping partial = register(HttpMethod.GET, "/orders/o-{id}", 0);
+        assertSame(first, find(HttpMethod.GET, "/orders/7"));
+        assertSame(partial, find(HttpMethod.GET, "/orders/o-7"));
+        registry.unregister(first);
+        assertSame(second, find(HttpMethod.GET, "/orders/7"));
+    }
+
+    protected HttpRequestMapping find(HttpMethod method, String path) {
+        return registry.findBestMatch(method, path);
+    }
+
+    protected HttpRequestMapping register(HttpMethod method, String path, int priority) {
+        AgentDeployment deployment = new AgentDeployment();
+        deployment.setName(path);
+        HttpRequestMapping mapping = new HttpRequestMapping();
+        mapping.setMethod(method);
+        mapping.setPath(path);
+        mapping.setPriority(priority);
+        mapping.setDeployment(deployment);
+        registry.register(mapping);
+        return mapping;
+    }
+
+}
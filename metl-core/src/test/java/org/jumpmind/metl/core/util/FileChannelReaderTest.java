@@ -0,0 +1,145 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileChannelReaderTest {
+
+    static final String TEXT = "plain ascii, été, € 10, 😀 smile\r\n";
+
+    File file;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("FileChannelReaderTest", ".txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void testMultiByteCharactersAcrossMappedWindows() throws Exception {
+        String text = repeat(TEXT, 200);
+        write(text, StandardCharsets.UTF_8);
+        for (int windowSize = 16; windowSize < 24; windowSize++) {
+            for (int readSize : new int[] { 1, 2, 7, 8192 }) {
+                assertEquals("window " + windowSize + " read " + readSize, text,
+                        read(new FileChannelReader(file, StandardCharsets.UTF_8, true, windowSize), readSize));
+            }
+        }
+        assertEquals(text, read(new FileChannelReader(file, StandardCharsets.UTF_8, true), 8192));
+    }
+
+    @Test
+    public void testMultiByteCharactersAcrossBuffers() throws Exception {
+        String text = repeat(TEXT, 200);
+        write(text, StandardCharsets.UTF_8);
+        for (int bufferSize = 1; bufferSize < 24; bufferSize++) {
+            for (int readSize : new int[] { 1, 2, 7, 8192 }) {
+                assertEquals("buffer " + bufferSize + " read " + readSize, text,
+                        read(new FileChannelReader(file, StandardCharsets.UTF_8, false, bufferSize), readSize));
+            }
+        }
+        assertEquals(text, read(new FileChannelReader(file, StandardCharsets.UTF_8, false), 8192));
+    }
+
+    @Test
+    public void testOtherCharset() throws Exception {
+        Charset charset = Charset.forName("UTF-16LE");
+        String text = repeat(TEXT, 50);
+        write(text, charset);
+        assertEquals(text, read(new FileChannelReader(file, charset, true, 17), 3));
+        assertEquals(text, read(new FileChannelReader(file, charset, false, 17), 3));
+    }
+
+    @Test
+    public void testMalformedInputReplacedLikeInputStreamReader() throws Exception {
+        byte[] bytes = "abc€".getBytes(StandardCharsets.UTF_8);
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        Files.write(file.toPath(), truncated);
+        String expected = read(new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8), 8192);
+        assertEquals(expected, read(new FileChannelReader(file, StandardCharsets.UTF_8, true, 16), 8192));
+        assertEquals(expected, read(new FileChannelReader(file, StandardCharsets.UTF_8, false, 16), 1));
+    }
+
+    @Test
+    public void testEmptyFile() throws Exception {
+        assertEquals("", read(new FileChannelReader(file, StandardCharsets.UTF_8, true), 10));
+        assertEquals("", read(new FileChannelReader(file, StandardCharsets.UTF_8, false), 10));
+    }
+
+    @Test
+    public void testReadAfterClose() throws Exception {
+        write(TEXT, StandardCharsets.UTF_8);
+        FileChannelReader reader = new FileChannelReader(file, StandardCharsets.UTF_8);
+        reader.close();
+        try {
+            reader.read();
+            fail("Expected an exception reading a closed reader");
+        } catch (IOException e) {
+        }
+    }
+
+    protected String read(Reader reader, int readSize) throws IOException {
+        try {
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[readSize];
+            int count;
+            while ((count = reader.read(buffer, 0, readSize)) >= 0) {
+                text.append(buffer, 0, count);
+            }
+            return text.toString();
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    protected void write(String text, Charset charset) throws IOException {
+        Files.write(file.toPath(), text.getBytes(charset));
+    }
+
+    protected String repeat(String text, int count) {
+        StringBuilder repeated = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+
+}
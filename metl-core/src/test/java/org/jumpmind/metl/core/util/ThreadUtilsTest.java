@@ -0,0 +1,97 @@
+/**
+ * Licensed to JumpMind Inc under one or more contributor
+ * license agreements.  See the NOTICE file distributed
+ * with this work for additional information regarding
+ * copyright ownership.  JumpMind Inc licenses this file
+ * to you under the GNU General Public License, version 3.0 (GPLv3)
+ * (the "License"); you may not use this file except in compliance
+ * with the License.
+ *
+ * You should have received a copy of the GNU General Public License,
+ * version 3.0 (GPLv3) along with this library; if not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jumpmind.metl.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ThreadUtilsTest {
+
+    static final int PARALLELISM = 2;
+
+    static final int TASKS = 40;
+
+    @Test
+    public void testManagedBlockIsCappedInWorkStealingPool() throws Exception {
+        ExecutorService pool = ThreadUtils.createWorkStealingThreadPool("test", PARALLELISM, 2);
+        int maxPoolSize = runBlockingTasks(pool);
+        assertTrue("pool grew to " + maxPoolSize, maxPoolSize <= PARALLELISM + 2);
+    }
+
+    @Test
+    public void testManagedBlockWithoutCompensation() throws Exception {
+        ExecutorService pool = ThreadUtils.createWorkStealingThreadPool("test", PARALLELISM, 0);
+        int maxPoolSize = runBlockingTasks(pool);
+        assertTrue("pool grew to " + maxPoolSize, maxPoolSize <= PARALLELISM);
+    }
+
+    @Test
+    public void testManagedBlockAddsThreadsUpToCap() throws Exception {
+        ExecutorService pool = ThreadUtils.createWorkStealingThreadPool("test", PARALLELISM, 4);
+        int maxPoolSize = runBlockingTasks(pool);
+        assertTrue("pool grew to " + maxPoolSize, maxPoolSize > PARALLELISM);
+        assertTrue("pool grew to " + maxPoolSize, maxPoolSize <= PARALLELISM + 4);
+    }
+
+    @Test
+    public void testManagedBlockOutsideOfPool() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ThreadUtils.managedBlock(() -> calls.incrementAndGet() == 3);
+        assertEquals(3, calls.get());
+    }
+
+    protected int runBlockingTasks(ExecutorService executor) throws Exception {
+        ForkJoinPool pool = (ForkJoinPool) executor;
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger maxPoolSize = new AtomicInteger();
+        try {
+            for (int i = 0; i < TASKS; i++) {
+                pool.execute(() -> {
+                    long until = System.currentTimeMillis() + 20;
+                    try {
+                        ThreadUtils.managedBlock(() -> {
+                            maxPoolSize.accumulateAndGet(pool.getPoolSize(), Math::max);
+                            Thread.sleep(2);
+                            return System.currentTimeMillis() >= until;
+                        });
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    completed.incrementAndGet();
+                });
+            }
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+            assertEquals(TASKS, completed.get());
+            return maxPoolSize.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
@@ -330,7 +330,7 @@ public class ExecutionApi {
         Object resultPayload = null;
         String requestType = request.getMethod();
         String restOfTheUrl = ((String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE)).substring(WS.length());
-        log.info(String.format("Attempting to find a service uri match for %s with request type %s", restOfTheUrl, requestType));
+        log.debug("Attempting to find a service uri match for {} with request type {}", restOfTheUrl, requestType);
         HttpRequestMapping mapping = requestRegistry.findBestMatch(HttpMethod.valueOf(requestType), restOfTheUrl);
         if (mapping != null) {
             Map<String, String> params = toMap(request);
@@ -350,14 +350,17 @@ public class ExecutionApi {
             if (enforceSecurity(security, request, response)) {
                 String executionId = flowRuntime.getExecutionId();
                 response.setHeader(HEADER_EXECUTION_ID, executionId);
+                boolean streaming = flowRuntime.setResultsStream(contentType -> {
+                    setContentType(response, contentType);
+                    response.flushBuffer();
+                    return response.getOutputStream();
+                });
                 Results results = flowRuntime.execute();
-                if (results != null) {
-                    String contentType = results.getContentType();
-                    if (isNotBlank(contentType)) {
-                        response.setContentType(contentType);
-                    } else if (isBlank(response.getContentType())) {
-                        response.setContentType("application/octet-stream;charset=utf-8");
-                    }
+                if (streaming && response.isCommitted()) {
+                    /* the results were already written to the response */
+                    return null;
+                } else if (results != null) {
+                    setContentType(response, results.getContentType());
                     resultPayload = results.getValue();
                 }
             }
@@ -369,6 +372,14 @@ public class ExecutionApi {
         }
     }
 
+    protected void setContentType(HttpServletResponse response, String contentType) {
+        if (isNotBlank(contentType)) {
+            response.setContentType(contentType);
+        } else if (isBlank(response.getContentType())) {
+            response.setContentType("application/octet-stream;charset=utf-8");
+        }
+    }
+
     protected boolean enforceSecurity(IHasSecurity security, HttpServletRequest request, HttpServletResponse response) throws IOException {
         boolean secured = true;
         if (security != null) {
@@ -151,6 +151,46 @@ public class EditAgentPanel extends VerticalLayout implements IUiPanel, IBackgro
         editAgentLayout.addComponent(executionThreadsField);
         editAgentLayout.setComponentAlignment(executionThreadsField, Alignment.BOTTOM_LEFT);
 
+        TextField stepThreadsField = new ImmediateUpdateTextField("Step Threads") {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void save(String text) {
+                try {
+                    int value = Integer.parseInt(text);
+                    agent.setStepThreadCount(value);
+                    context.getOperationsSerivce().save((AbstractObject) agent);
+                    EditAgentPanel.this.context.getAgentManager().refresh(agent);
+                } catch (NumberFormatException ex) {
+                    NotifyDialog.show("Number required", "Please enter a valid number", null, Type.WARNING_MESSAGE);
+                }
+            }
+        };
+        stepThreadsField.setDescription("Number of threads shared by the steps of running flows.  Use 0 to give each step its own thread.");
+        stepThreadsField.setValue(Integer.toString(agent.getStepThreadCount()));
+        editAgentLayout.addComponent(stepThreadsField);
+        editAgentLayout.setComponentAlignment(stepThreadsField, Alignment.BOTTOM_LEFT);
+
+        TextField warmRuntimesField = new ImmediateUpdateTextField("Warm Flow Runtimes") {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void save(String text) {
+                try {
+                    int value = Integer.parseInt(text);
+                    agent.setWarmFlowRuntimeCount(value);
+                    context.getOperationsSerivce().save((AbstractObject) agent);
+                    EditAgentPanel.this.context.getAgentManager().refresh(agent);
+                } catch (NumberFormatException ex) {
+                    NotifyDialog.show("Number required", "Please enter a valid number", null, Type.WARNING_MESSAGE);
+                }
+            }
+        };
+        warmRuntimesField.setDescription("Number of runtimes kept ready for each flow that is run on request, like a web service.  Use 0 to build them when requested.");
+        warmRuntimesField.setValue(Integer.toString(agent.getWarmFlowRuntimeCount()));
+        editAgentLayout.addComponent(warmRuntimesField);
+        editAgentLayout.setComponentAlignment(warmRuntimesField, Alignment.BOTTOM_LEFT);
+
         Button exportButton = new Button(FontAwesome.DOWNLOAD);
         exportButton.addClickListener(event -> exportConfiguration());
         exportButton.setDescription("Export Agent Configuration");
@@ -204,13 +204,16 @@ public class LocalFileDirectory extends AbstractDirectory {
         return list;
     }
 
-    protected File toFile(String relativePath, boolean mustExist) {
-        File file;
+    public File getFile(String relativePath) {
         if (StringUtils.isEmpty(basePath)) {
-            file = new File(relativePath);
+            return new File(relativePath);
         } else {
-            file = new File(basePath, relativePath);
+            return new File(basePath, relativePath);
         }
+    }
+
+    protected File toFile(String relativePath, boolean mustExist) {
+        File file = getFile(relativePath);
         if (!file.exists()) {
             if (!mustExist) {
                 if (file.getParentFile() != null) {